@@ -0,0 +1,106 @@
+package es.um.redes.nanoChat.directory.server;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.um.redes.nanoChat.directory.protocol.DirectoryMessage;
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Procesado de solicitudes del directorio (registro y consulta de servidor) con el socket real. Las respuestas van a un socket local que no las lee y el log se limita a los avisos, así se mide el procesado y el envío sin la terminal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirectoryThreadBenchmark
+{
+	/* Protocolos registrados en el directorio antes de medir. */
+	@Param({"1", "64"})
+	public int protocols;
+
+	private DirectoryThread directory;
+	private DatagramSocket client;
+	private InetSocketAddress clientAddr;
+	private int logLevel;
+	private byte[] registration;
+	private byte[] serverInfo;
+	private byte[] serverInfoNotFound;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		this.logLevel = NCLog.getLevel();
+		NCLog.setLevel(NCLog.LEVEL_WARN);
+		/* Puerto efímero para no chocar con un directorio en marcha. */
+		this.directory = new DirectoryThread("DirectoryBenchmark", 0, 0.0);
+		this.client = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+		this.clientAddr = (InetSocketAddress) this.client.getLocalSocketAddress();
+		for (int i = 0; i < this.protocols; i++) this.directory.processRequestFromClient(registrationRequest(i, 6969), this.clientAddr);
+		this.registration = registrationRequest(0, 6969);
+		this.serverInfo = serverInfoRequest(this.protocols - 1);
+		this.serverInfoNotFound = serverInfoRequest(-1);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this.directory.socket.close();
+		this.client.close();
+		NCLog.setLevel(this.logLevel);
+	}
+
+	@Benchmark
+	public void registration() throws IOException
+	{
+		this.directory.processRequestFromClient(this.registration, this.clientAddr);
+	}
+
+	@Benchmark
+	public void serverInfo() throws IOException
+	{
+		this.directory.processRequestFromClient(this.serverInfo, this.clientAddr);
+	}
+
+	@Benchmark
+	public void serverInfoNotFound() throws IOException
+	{
+		this.directory.processRequestFromClient(this.serverInfoNotFound, this.clientAddr);
+	}
+
+	private static byte[] registrationRequest(int protocol, int port)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(DirectoryMessage.SIZE_TWO_PARAMETER_MSG);
+		buffer.put(DirectoryMessage.OP_REGISTRATION_REQUEST);
+		buffer.putInt(protocol);
+		buffer.putInt(port);
+		return buffer.array();
+	}
+
+	private static byte[] serverInfoRequest(int protocol)
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(DirectoryMessage.SIZE_ONE_PARAMETER_MSG);
+		buffer.put(DirectoryMessage.OP_SERVER_INFO_REQUEST);
+		buffer.putInt(protocol);
+		return buffer.array();
+	}
+}
@@ -0,0 +1,99 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Codificación y decodificación de cada tipo de mensaje en cada códec. Se llama directamente al códec para no pasar por la caché de tramas de NCMessage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NCMessageCodecBenchmark
+{
+	@Param({"room", "control", "user", "info", "multiInfo"})
+	public String messageType;
+
+	@Param({"text", "binary"})
+	public String codecName;
+
+	/* Elementos de las listas de los mensajes Info y MultiInfo. */
+	@Param({"8"})
+	public int listSize;
+
+	private NCCodec codec;
+	private NCMessage message;
+	/* Trama completa (cabecera incluida) ya codificada para decodificarla. */
+	private byte[] frame;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		this.codec = NCCodec.forName(this.codecName);
+		this.message = makeMessage(this.messageType, this.listSize);
+		ByteBuffer buffer = this.codec.encode(this.message).asReadOnlyBuffer();
+		this.frame = new byte[buffer.remaining()];
+		buffer.get(this.frame);
+	}
+
+	@Benchmark
+	public NCFrame encode() throws IOException
+	{
+		return this.codec.encode(this.message);
+	}
+
+	@Benchmark
+	public NCMessage decode() throws IOException
+	{
+		return this.codec.decode(this.frame, 0, this.frame.length);
+	}
+
+	/* Construye un mensaje representativo del tipo dado. */
+	static NCMessage makeMessage(String type, int listSize)
+	{
+		List<String> users = new ArrayList<String>(listSize);
+		for (int i = 0; i < listSize; i++) users.add("user" + i);
+		switch (type)
+		{
+			case "room":
+				return NCMessage.makeRoomMessage(NCMessage.OP_ROOM_ENTER, "RoomA");
+			case "control":
+				return NCMessage.makeControlMessage(NCMessage.OP_ROOM_ENTER_OK);
+			case "user":
+				return NCMessage.makeUserMessage(NCMessage.OP_RECEIVE_TEXT, "alice", "Hola a todos, ¿qué tal va la práctica de redes?");
+			case "info":
+				return NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_OK, "RoomA", System.currentTimeMillis(), users);
+			case "multiInfo":
+				String[] names = new String[listSize];
+				long[] times = new long[listSize];
+				List<List<String>> lists = new ArrayList<List<String>>(listSize);
+				for (int i = 0; i < listSize; i++)
+				{
+					names[i] = "Room" + (char) ('A' + i % 26) + i;
+					times[i] = System.currentTimeMillis() - i * 1000L;
+					lists.add(users);
+				}
+				return NCMessage.makeMultiInfoMessage(NCMessage.OP_ROOM_LIST_OK, names, times, lists);
+			default:
+				throw new IllegalArgumentException("Unknown message type: " + type);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoom;
+
+/**
+ * Retransmisión de un mensaje de texto a N sesiones de una sala. Las sesiones escriben en conexiones en memoria, así que se mide la construcción, la codificación y el reparto de la trama. La sala se usa desde un único hilo, igual que en su shard.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NCBroadcastBenchmark
+{
+	@Param({"1", "10", "100", "1000"})
+	public int sinks;
+
+	/* Códec de los receptores: todos de texto, todos binarios o la mitad de cada uno. */
+	@Param({"text", "binary", "mixed"})
+	public String codecs;
+
+	private NCRoom room;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		this.room = new NCRoom();
+		this.room.setRoomName("RoomA");
+		/* Las sesiones solo envían, no necesitan manager. */
+		for (int i = 0; i < this.sinks; i++)
+		{
+			NCServerSession session = NCSinkConnection.newSession(null, "sink" + i);
+			/* Negociamos el códec igual que un cliente, antes de registrar el nick. */
+			if (this.codecs.equals("binary") || (this.codecs.equals("mixed") && i % 2 == 1))
+			{
+				session.processMessage(NCMessage.makeRoomMessage(NCMessage.OP_SET_CODEC, NCCodec.BINARY.getName()));
+			}
+			this.room.registerUser("user" + i, session);
+		}
+	}
+
+	@Benchmark
+	public void broadcastMessage()
+	{
+		/* El emisor no está en la sala, así que reciben todos los sumideros. */
+		this.room.broadcastMessage("sender", "Hola a todos, ¿qué tal va la práctica de redes?");
+	}
+}
@@ -0,0 +1,169 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoom;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+/**
+ * Consultas de la lista de salas y entradas a salas del manager con varios hilos a la vez: solo lectores, solo entradas y una mezcla de ambos. La respuesta ya codificada a OP_ROOM_LIST, las primeras salas de OP_ROOM_LIST_TOP y la búsqueda de OP_ROOM_SEARCH se miden aparte de la foto de las salas. Cada entrada espera la respuesta de su shard y después sale de la sala.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NCServerManagerBenchmark
+{
+	/* Manager compartido por todos los hilos del benchmark, con sus salas ya pobladas. */
+	@State(Scope.Benchmark)
+	public static class ManagerState
+	{
+		@Param({"16", "256"})
+		public int rooms;
+
+		@Param({"8"})
+		public int usersPerRoom;
+
+		@Param({"4"})
+		public int shards;
+
+		NCServerManager manager;
+		NCRoomManager[] roomManagers;
+
+		@Setup
+		public void setUp()
+		{
+			this.manager = new NCServerManager(this.shards);
+			this.roomManagers = new NCRoomManager[this.rooms];
+			for (int i = 0; i < this.rooms; i++)
+			{
+				NCRoomManager room = new NCRoom();
+				this.manager.registerCheckedRoomManager(room, "Room" + i);
+				this.roomManagers[i] = room;
+				/* Entramos por el shard de la sala, igual que las sesiones reales. */
+				for (int j = 0; j < this.usersPerRoom; j++)
+				{
+					String user = "member" + i + "_" + j;
+					enter(this.manager, user, room, NCSinkConnection.newSession(this.manager, user));
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown()
+		{
+			/* Los shards terminan al interrumpirlos. */
+			for (NCRoomShard shard : this.manager.getShards()) shard.interrupt();
+		}
+	}
+
+	/* Usuario propio de cada hilo que entra y sale de las salas. */
+	@State(Scope.Thread)
+	public static class UserState
+	{
+		private static final AtomicInteger nextUser = new AtomicInteger();
+
+		String user;
+		NCServerSession session;
+
+		@Setup
+		public void setUp(ManagerState state)
+		{
+			this.user = "bench" + nextUser.getAndIncrement();
+			this.session = NCSinkConnection.newSession(state.manager, this.user);
+		}
+	}
+
+	@Benchmark
+	@Threads(4)
+	public List<NCRoomDescription> getRoomList(ManagerState state)
+	{
+		return state.manager.getRoomList();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public NCFrame[] getRoomListResponse(ManagerState state) throws IOException
+	{
+		return state.manager.getRoomListResponse().getFrames(NCCodec.BINARY);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public List<NCRoomDescription> getTopRooms(ManagerState state)
+	{
+		return state.manager.getTopRooms(NCPageMessage.SORT_MEMBERS, 10);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public List<NCRoomDescription> searchRooms(ManagerState state)
+	{
+		return state.manager.searchRooms("om25", "", 0).items;
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean enterRoom(ManagerState state, UserState user)
+	{
+		return enterAndLeave(state, user);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(3)
+	public List<NCRoomDescription> mixedGetRoomList(ManagerState state)
+	{
+		return state.manager.getRoomList();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(1)
+	public boolean mixedEnterRoom(ManagerState state, UserState user)
+	{
+		return enterAndLeave(state, user);
+	}
+
+	/* Entra en una sala al azar, espera la respuesta del shard y sale. */
+	private static boolean enterAndLeave(ManagerState state, UserState user)
+	{
+		NCRoomManager room = state.roomManagers[ThreadLocalRandom.current().nextInt(state.roomManagers.length)];
+		boolean joined = enter(state.manager, user.user, room, user.session);
+		state.manager.leaveRoom(user.user, room);
+		return joined;
+	}
+
+	private static boolean enter(NCServerManager manager, String user, NCRoomManager room, NCServerSession session)
+	{
+		CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		manager.enterRoom(user, room, session, result::complete);
+		return result.join();
+	}
+}
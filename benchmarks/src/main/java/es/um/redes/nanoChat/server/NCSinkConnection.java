@@ -0,0 +1,51 @@
+package es.um.redes.nanoChat.server;
+
+import es.um.redes.nanoChat.messageFV.NCFrame;
+
+/**
+ * Conexión en memoria para los benchmarks: descarta las tramas contando cuántas y cuántos bytes recibe, así se mide el coste del servidor sin sockets de por medio.
+ */
+class NCSinkConnection implements NCServerConnection
+{
+	private final String address;
+	/* Tramas y bytes recibidos. */
+	long frames;
+	long bytes;
+
+	NCSinkConnection(String address)
+	{
+		this.address = address;
+	}
+
+	/* Crea una sesión del servidor que escribe en una conexión en memoria. */
+	static NCServerSession newSession(NCServerManager manager, String address)
+	{
+		return new NCServerSession(manager, new NCSinkConnection(address));
+	}
+
+	@Override
+	public void send(NCFrame frame)
+	{
+		this.frames++;
+		this.bytes += frame.size();
+	}
+
+	@Override
+	public void send(NCFrame[] frames, boolean droppable)
+	{
+		for (NCFrame frame : frames) this.send(frame);
+	}
+
+	/* Las sesiones no usan la cola, solo los transportes reales. */
+	@Override
+	public NCOutboundQueue getOutboundQueue()
+	{
+		return null;
+	}
+
+	@Override
+	public String getClientAddress()
+	{
+		return this.address;
+	}
+}
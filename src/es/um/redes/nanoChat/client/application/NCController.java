@@ -8,6 +8,7 @@ import es.um.redes.nanoChat.client.comm.NCConnector;
 import es.um.redes.nanoChat.client.shell.NCCommands;
 import es.um.redes.nanoChat.client.shell.NCShell;
 import es.um.redes.nanoChat.directory.connector.DirectoryConnector;
+import es.um.redes.nanoChat.messageFV.NCCodec;
 import es.um.redes.nanoChat.messageFV.NCMessage;
 import es.um.redes.nanoChat.messageFV.NCRoomMessage;
 import es.um.redes.nanoChat.messageFV.NCUserMessage;
@@ -42,10 +43,13 @@ public class NCController
 	private InetSocketAddress serverAddress;
 	/* Estado actual del cliente, de acuerdo con el autómata. */
 	private byte clientStatus;
+	/* Códec que se pedirá al servidor al conectar. */
+	private NCCodec codec;
 
 	/* Constructor. */
-	public NCController() 
+	public NCController(NCCodec codec) 
 	{
+		this.codec = codec;
 		this.shell = new NCShell();
 		this.clientStatus = PRE_CONNECTION;
 		this.currentCommand = NCCommands.COM_INVALID;
@@ -160,6 +164,13 @@ public class NCController
 				else
 					System.out.println("* Command not allowed. You need to register to the server first.");
 				break;
+			case NCCommands.COM_STATS:
+				/* Las métricas del servidor se pueden pedir una vez registrados. */
+				if (this.clientStatus == OFF_ROOM)
+					this.getAndShowStats();
+				else
+					System.out.println("* Command not allowed. You need to register to the server first.");
+				break;
 			case NCCommands.COM_QUIT:
 				/* Cuando salimos tenemos que cerrar todas las conexiones y sockets abiertos. El servidor eliminará al usuario de su registro. */
 				this.ncConnector.disconnect();			
@@ -246,6 +257,20 @@ public class NCController
 		}
 	}
 
+	/* Método que solicita al servidor de NanoChat sus métricas y las imprime, una por línea. */
+	private void getAndShowStats()
+	{
+		try 
+		{
+			System.out.println("* Estadísticas del servidor de chat.");
+			for (String entry : this.ncConnector.getServerStats()) System.out.println("\t" + entry);
+		} 
+		catch (IOException e) 
+		{	
+			System.out.println("* There was an error retrieving server stats. Failed to talk to chat server.");
+		}
+	}
+
 	/* Método para tramitar la solicitud de acceso del usuario a una sala concreta. */
 	private void enterChat() 
 	{
@@ -391,51 +416,44 @@ public class NCController
 	/* Método para procesar los mensajes de texto recibidos del servidor mientras que el shell estaba esperando un comando de usuario en una sala. */
 	private void processIncommingMessage() 
 	{		
-		try 
+		/* Tomamos el mensaje que ha recibido el shell y lo tratamos según su contenido. */
+		NCMessage msg = this.shell.getIncomingMessage();
+		
+		/* Si el mensaje recibido es texto de una sala de chat imprimimos el mensaje. */
+		if (msg.getOpcode() == NCMessage.OP_RECEIVE_TEXT)
 		{
-			/* Recibimos el mensaje y lo tratamos según su contenido. */
-			NCMessage msg = this.ncConnector.recieveMessage();
-			
-			/* Si el mensaje recibido es texto de una sala de chat imprimimos el mensaje. */
-			if (msg.getOpcode() == NCMessage.OP_RECEIVE_TEXT)
-			{
-				NCUserMessage uMsg = (NCUserMessage) msg;
-				System.out.println(uMsg.getName() + ": " + uMsg.getText());
-			}
-			/* Si el mensaje es un mensaje de renombrado. */
-			else if (msg.getOpcode() == NCMessage.OP_RENAME_ROOM_OK)
-			{
-				NCRoomMessage renameMsg = (NCRoomMessage) msg;
-				this.chatRoom = renameMsg.getName();
-				System.out.println("The room you are at was renamed to " + this.chatRoom + ".");
-			}
-			/* Si el mensaje es información de entrada de usuario. */
-			else if (msg.getOpcode() == NCMessage.OP_USER_IN)
-			{
-				NCRoomMessage userInMsg = (NCRoomMessage) msg;
-				String user = userInMsg.getName();
-				System.out.println("User " + user + " joined room "+ this.chatRoom + ".");
-			}
-			/* Si el mensaje es información de salida de usuario. */
-			else if (msg.getOpcode() == NCMessage.OP_USER_OUT)
-			{
-				NCRoomMessage userOutMsg = (NCRoomMessage) msg;
-				String user = userOutMsg.getName();
-				System.out.println("User " + user + " left room "+ this.chatRoom + ".");
-			}
-
-		} 
-		catch (IOException e) 
+			NCUserMessage uMsg = (NCUserMessage) msg;
+			System.out.println(uMsg.getName() + ": " + uMsg.getText());
+		}
+		/* Si el mensaje es un mensaje de renombrado. Si el renombrado lo hicimos nosotros ya tenemos el nombre nuevo y no hay que avisar. */
+		else if (msg.getOpcode() == NCMessage.OP_RENAME_ROOM_OK)
+		{
+			NCRoomMessage renameMsg = (NCRoomMessage) msg;
+			if (renameMsg.getName().equals(this.chatRoom)) return;
+			this.chatRoom = renameMsg.getName();
+			System.out.println("The room you are at was renamed to " + this.chatRoom + ".");
+		}
+		/* Si el mensaje es información de entrada de usuario. */
+		else if (msg.getOpcode() == NCMessage.OP_USER_IN)
 		{
-			System.out.println("* There was an error recieving data from chat server.");
+			NCRoomMessage userInMsg = (NCRoomMessage) msg;
+			String user = userInMsg.getName();
+			System.out.println("User " + user + " joined room "+ this.chatRoom + ".");
+		}
+		/* Si el mensaje es información de salida de usuario. */
+		else if (msg.getOpcode() == NCMessage.OP_USER_OUT)
+		{
+			NCRoomMessage userOutMsg = (NCRoomMessage) msg;
+			String user = userOutMsg.getName();
+			System.out.println("User " + user + " left room "+ this.chatRoom + ".");
 		}
 	}
 
 	/* Método para leer un comando de la sala. */
 	public void readRoomCommandFromShell() 
 	{
-		/* Pedimos un nuevo comando de sala al shell (pasando el conector por si nos llega un mensaje entrante). */
-		shell.readChatCommand(this.ncConnector);
+		/* Pedimos un nuevo comando de sala al shell, que también nos avisa si llega un mensaje entrante. */
+		shell.readChatCommand();
 		/* Establecemos el comando tecleado (o el mensaje recibido) como comando actual. */
 		this.setCurrentCommand(shell.getCommand());
 		/* Procesamos los posibles parámetros (si los hubiera). */
@@ -485,6 +503,13 @@ public class NCController
 		{
 			/* Inicializamos el conector para intercambiar mensajes con el servidor de NanoChat (lo hace la clase NCConnector). */
 			this.ncConnector = new NCConnector(this.serverAddress);
+			/* Los mensajes de la sala llegan directamente a la cola de eventos del shell. */
+			this.shell.attach(this.ncConnector);
+			/* Si se quiere un códec distinto del de texto lo negociamos antes de registrar el nick. */
+			if (this.codec != NCCodec.TEXT && !this.ncConnector.negotiateCodec(this.codec))
+			{
+				System.out.println("* The chat server does not support the " + this.codec.getName() + " codec, using text.");
+			}
 		} 
 		catch (IOException e) 
 		{
@@ -1,5 +1,7 @@
 package es.um.redes.nanoChat.client.application;
 
+import es.um.redes.nanoChat.messageFV.NCCodec;
+
 /**
  * Cliente de NanoChat
  */
@@ -7,16 +9,18 @@ public class NanoChat {
 
 	public static void main(String[] args) 
 	{
-		/* Comprobamos que nos pasan el parámetro relativo al directorio al que conectar. */
-		if (args.length != 1) 
+		/* Comprobamos que nos pasan el parámetro relativo al directorio al que conectar y, opcionalmente, el códec. */
+		NCCodec codec = NCCodec.TEXT;
+		if (args.length == 3 && args[1].equals("-codec")) codec = NCCodec.forName(args[2]);
+		if ((args.length != 1 && args.length != 3) || codec == null) 
 		{
-			System.out.println("Usage: java NanoChat <directory_hostname>");
+			System.out.println("Usage: java NanoChat <directory_hostname> [-codec text|binary]");
 			return;
 		}
 
 		/* Creamos el controlador que aceptará y procesará los comandos. */
 		NCController controller;
-		controller = new NCController();
+		controller = new NCController(codec);
 
 		/* Comenzamos la conversación con el servidor de Chats si hemos podido contactar con él. */
 		if (controller.getServerFromDirectory(args[0])) 
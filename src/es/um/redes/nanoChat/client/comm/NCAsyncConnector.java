@@ -0,0 +1,491 @@
+package es.um.redes.nanoChat.client.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCControlMessage;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCMessageAssembler;
+import es.um.redes.nanoChat.messageFV.NCMultiInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.messageFV.NCRoomMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+
+/**
+ * Versión asíncrona de NCConnector sobre un SocketChannel no bloqueante. Cada operación devuelve un CompletableFuture y nunca bloquea a quien la llama; la conexión la atiende un NCClientEventLoop que puede llevar cientos de sesiones con un único hilo.
+ * Las respuestas se emparejan con su petición por el id de petición, así que se pueden tener varias en vuelo. Los mensajes que no son respuesta (textos y avisos de la sala) se entregan al oyente indicado al conectar, desde el hilo del bucle.
+ * Como en NCConnector, el códec se negocia antes de registrar el nick y sin otras peticiones en vuelo, porque el servidor cambia de códec en cuanto responde.
+ */
+public class NCAsyncConnector
+{
+	/* Tamaño inicial del buffer de lectura. Crece hasta el tamaño de la trama más grande recibida. */
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/* Trama pendiente de escribir y el futuro que se completa cuando se ha escrito entera, si alguien lo espera. */
+	private static final class Outgoing
+	{
+		final NCFrame frame;
+		final CompletableFuture<Void> written;
+
+		Outgoing(NCFrame frame, CompletableFuture<Void> written)
+		{
+			this.frame = frame;
+			this.written = written;
+		}
+	}
+
+	/* Bucle que atiende la conexión, el canal y su registro en el selector del bucle. */
+	private final NCClientEventLoop loop;
+	private final SocketChannel channel;
+	private SelectionKey key;
+	/* Futuro que se completa al establecer la conexión y futuro que se completa al cerrarla. */
+	private final CompletableFuture<NCAsyncConnector> connected;
+	private final CompletableFuture<Void> closed;
+	/* Oyente de los mensajes que no son respuesta de ninguna petición. Puede ser null. */
+	private final Consumer<NCMessage> listener;
+	/* Códec de la conexión. Empieza siendo el de texto y cambia al recibir CodecOk. */
+	private volatile NCCodec codec;
+	/* Buffer con los bytes recibidos que aún no forman una trama completa. Solo lo usa el hilo del bucle. */
+	private ByteBuffer inBuffer;
+	/* Une las respuestas que llegan partidas en trozos. Solo lo usa el hilo del bucle. */
+	private final NCMessageAssembler assembler;
+	/* Tramas pendientes de escribir en orden de envío. Se bloquea para encolar desde cualquier hilo. */
+	private final ArrayDeque<Outgoing> outbound;
+	/* Indica si el bucle ya tiene escrituras pedidas para esta conexión. */
+	private boolean writing;
+	/* Trama que se está escribiendo y número de bytes de ella ya escritos en el canal. Solo las usa el hilo del bucle. */
+	private Outgoing current;
+	private int currentOffset;
+	/* Siguiente id de petición y peticiones en vuelo esperando su respuesta. */
+	private final AtomicInteger nextRequestId;
+	private final Map<Integer, CompletableFuture<NCMessage>> pending;
+	/* Error que cerró la conexión, o null mientras sigue abierta. */
+	private volatile IOException failure;
+
+	private NCAsyncConnector(NCClientEventLoop loop, SocketChannel channel, Consumer<NCMessage> listener)
+	{
+		this.loop = loop;
+		this.channel = channel;
+		this.key = null;
+		this.connected = new CompletableFuture<NCAsyncConnector>();
+		this.closed = new CompletableFuture<Void>();
+		this.listener = listener;
+		this.codec = NCCodec.TEXT;
+		this.inBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		this.assembler = new NCMessageAssembler();
+		this.outbound = new ArrayDeque<Outgoing>();
+		this.writing = false;
+		this.current = null;
+		this.currentOffset = 0;
+		this.nextRequestId = new AtomicInteger(0);
+		this.pending = new ConcurrentHashMap<Integer, CompletableFuture<NCMessage>>();
+		this.failure = null;
+	}
+
+	/* Abre una conexión con el servidor atendida por el bucle dado, que debe estar en marcha. El futuro se completa con la conexión ya establecida. Los mensajes de las salas se entregan a listener, que puede ser null si no interesan. */
+	public static CompletableFuture<NCAsyncConnector> connect(NCClientEventLoop loop, InetSocketAddress serverAddress, Consumer<NCMessage> listener)
+	{
+		SocketChannel channel = null;
+		try
+		{
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			NCAsyncConnector connector = new NCAsyncConnector(loop, channel, listener);
+			channel.connect(serverAddress);
+			loop.addConnector(connector);
+			return connector.connected;
+		}
+		catch (IOException | RuntimeException e)
+		{
+			if (channel != null)
+			{
+				try
+				{
+					channel.close();
+				}
+				catch (IOException e1) {}
+			}
+			return CompletableFuture.failedFuture(e instanceof IOException ? e : new IOException(e));
+		}
+	}
+
+	/* Negocia el códec con el servidor. Debe completarse antes de registrar el nick y de hacer cualquier otra petición. Da verdadero si el servidor acepta el códec pedido. */
+	public CompletableFuture<Boolean> negotiateCodec(NCCodec requested)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_SET_CODEC, requested.getName());
+		/* El cambio de códec ya lo ha hecho el bucle al recibir la respuesta. */
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_CODEC_OK);
+			return this.codec == requested;
+		});
+	}
+
+	/* Registra el nick en el servidor. Da verdadero si se aceptó. */
+	public CompletableFuture<Boolean> registerNickname(String nick)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_REGISTER_NICK, nick);
+		return this.submit(message).thenApply(response -> response.getOpcode() == NCMessage.OP_VALID_NICK);
+	}
+
+	/* Pide la lista de salas del servidor. */
+	public CompletableFuture<List<NCRoomDescription>> getRooms()
+	{
+		NCControlMessage message = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST);
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_ROOM_LIST_OK);
+			return NCConnector.toRoomList((NCMultiInfoMessage) response);
+		});
+	}
+
+	/* Se suscribe a los cambios de la lista de salas. Da la lista completa; los cambios llegan después al oyente como RoomListRemove y RoomListUpdate (ver NCRoomListMirror). */
+	public CompletableFuture<List<NCRoomDescription>> subscribeRoomList()
+	{
+		return this.submit(NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST_SUBSCRIBE)).thenApply(response ->
+		{
+			check(response, NCMessage.OP_ROOM_LIST_OK);
+			return NCConnector.toRoomList((NCMultiInfoMessage) response);
+		});
+	}
+
+	/* Cancela la suscripción a la lista de salas. Da verdadero si se canceló; tras la respuesta ya no llegan más cambios. */
+	public CompletableFuture<Boolean> unsubscribeRoomList()
+	{
+		return this.submit(NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST_UNSUBSCRIBE)).thenApply(response -> response.getOpcode() == NCMessage.OP_ROOM_LIST_UNSUBSCRIBE_OK);
+	}
+
+	/* Pide una página de la lista de salas, con los mismos parámetros que NCConnector.getRoomPage. */
+	public CompletableFuture<NCPage<NCRoomDescription>> getRoomPage(String prefix, String sort, String cursor, int limit)
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_LIST_PAGE, "", NCConnector.orEmpty(prefix), NCConnector.orEmpty(sort), NCConnector.orEmpty(cursor), limit);
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_ROOM_LIST_PAGE_OK);
+			NCMultiInfoMessage page = (NCMultiInfoMessage) response;
+			return new NCPage<NCRoomDescription>(NCConnector.toRoomList(page), page.getCursor());
+		});
+	}
+
+	/* Pide las k primeras salas en el orden sort de NCPageMessage. */
+	public CompletableFuture<List<NCRoomDescription>> getTopRooms(String sort, int k)
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_LIST_TOP, "", "", NCConnector.orEmpty(sort), "", k);
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_ROOM_LIST_TOP_OK);
+			return NCConnector.toRoomList((NCMultiInfoMessage) response);
+		});
+	}
+
+	/* Busca las salas cuyo nombre contiene el texto dado, sin distinguir mayúsculas, con los mismos parámetros que NCConnector.searchRooms. */
+	public CompletableFuture<NCPage<NCRoomDescription>> searchRooms(String text, String cursor, int limit)
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_SEARCH, NCConnector.orEmpty(text), "", NCPageMessage.SORT_NAME, NCConnector.orEmpty(cursor), limit);
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_ROOM_SEARCH_OK);
+			NCMultiInfoMessage page = (NCMultiInfoMessage) response;
+			return new NCPage<NCRoomDescription>(NCConnector.toRoomList(page), page.getCursor());
+		});
+	}
+
+	/* Pide una página de los miembros de una sala en orden de nombre. Da null si la sala no existe. */
+	public CompletableFuture<NCPage<String>> getRoomMembersPage(String room, String prefix, String cursor, int limit)
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_INFO_PAGE, room, NCConnector.orEmpty(prefix), NCPageMessage.SORT_NAME, NCConnector.orEmpty(cursor), limit);
+		return this.submit(message).thenApply(NCConnector::toMembersPage);
+	}
+
+	/* Pide el registro de una nueva sala. Da verdadero si se creó. */
+	public CompletableFuture<Boolean> registerRoom(String roomName)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_CREATE_ROOM, roomName);
+		return this.submit(message).thenApply(response -> response.getOpcode() == NCMessage.OP_CREATE_ROOM_OK);
+	}
+
+	/* Pide la entrada en una sala. Da verdadero si se entró. */
+	public CompletableFuture<Boolean> enterRoom(String room)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_ROOM_ENTER, room);
+		return this.submit(message).thenApply(response -> response.getOpcode() == NCMessage.OP_ROOM_ENTER_OK);
+	}
+
+	/* Sale de la sala actual. No tiene respuesta, el futuro se completa cuando se ha escrito la petición. */
+	public CompletableFuture<Void> leaveRoom()
+	{
+		return this.send(NCMessage.makeControlMessage(NCMessage.OP_EXIT_ROOM));
+	}
+
+	/* Envía un texto a la sala actual. No tiene respuesta, el futuro se completa cuando se ha escrito el mensaje. */
+	public CompletableFuture<Void> sendMessage(String text)
+	{
+		return this.send(NCMessage.makeRoomMessage(NCMessage.OP_SEND_TEXT, text));
+	}
+
+	/* Pide la descripción de una sala. Da null si la sala no existe. */
+	public CompletableFuture<NCRoomDescription> getRoomInfo(String room)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_ROOM_INFO, room);
+		return this.submit(message).thenApply(response ->
+		{
+			if (response.getOpcode() != NCMessage.OP_ROOM_INFO_OK) return null;
+			NCInfoMessage info = (NCInfoMessage) response;
+			return new NCRoomDescription(info.getName(), info.getList(), info.getTime());
+		});
+	}
+
+	/* Pide las métricas del servidor. Da sus entradas nombre=valor. */
+	public CompletableFuture<List<String>> getServerStats()
+	{
+		NCControlMessage message = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_STATS);
+		return this.submit(message).thenApply(response ->
+		{
+			check(response, NCMessage.OP_STATS_OK);
+			return ((NCInfoMessage) response).getList();
+		});
+	}
+
+	/* Pide el renombrado de la sala actual. Da verdadero si se renombró. El aviso de la sala llega además al oyente, como a los demás miembros. */
+	public CompletableFuture<Boolean> renameCurrentRoom(String newName)
+	{
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_RENAME_ROOM, newName);
+		return this.submit(message).thenApply(response -> response.getOpcode() == NCMessage.OP_RENAME_ROOM_OK);
+	}
+
+	/* Envía una petición cualquiera con un id nuevo. El futuro se completa con su respuesta o falla si se cierra la conexión antes. */
+	public CompletableFuture<NCMessage> submit(NCMessage request)
+	{
+		CompletableFuture<NCMessage> response = new CompletableFuture<NCMessage>();
+		/* Los ids son positivos y distintos de 0, que indica un mensaje sin petición. */
+		int id;
+		do id = this.nextRequestId.incrementAndGet() & Integer.MAX_VALUE; while (id == 0);
+		request.setRequestId(id);
+		this.pending.put(id, response);
+		try
+		{
+			this.enqueue(request.toFrame(this.codec), null);
+		}
+		catch (IOException e)
+		{
+			this.pending.remove(id);
+			response.completeExceptionally(e);
+		}
+		/* Si la conexión se cerró mientras la registrábamos puede que nadie más la complete. */
+		IOException cause = this.failure;
+		if (cause != null && this.pending.remove(id) != null) response.completeExceptionally(cause);
+		return response;
+	}
+
+	/* Futuro que se completa cuando se cierra la conexión: normalmente si se cerró con disconnect y con el error en otro caso. */
+	public CompletableFuture<Void> onClose()
+	{
+		return this.closed;
+	}
+
+	/* Cierra la conexión. Las peticiones en vuelo fallan. */
+	public void disconnect()
+	{
+		this.close(null);
+	}
+
+	/* Envía un mensaje sin respuesta. */
+	private CompletableFuture<Void> send(NCMessage message)
+	{
+		CompletableFuture<Void> written = new CompletableFuture<Void>();
+		try
+		{
+			this.enqueue(message.toFrame(this.codec), written);
+		}
+		catch (IOException e)
+		{
+			written.completeExceptionally(e);
+		}
+		return written;
+	}
+
+	/* Encola una trama. La escribe el hilo del bucle, así que se puede llamar desde cualquier hilo sin bloquear. */
+	private void enqueue(NCFrame frame, CompletableFuture<Void> written) throws IOException
+	{
+		synchronized (this.outbound)
+		{
+			if (this.failure != null) throw this.failure;
+			this.outbound.add(new Outgoing(frame, written));
+			if (this.writing) return;
+			this.writing = true;
+			/* Hasta que se registra y conecta el canal no se piden avisos de escritura. Lo hará onConnected si hay tramas pendientes. */
+			if (this.key == null || !this.channel.isConnected()) return;
+			this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+		this.loop.wakeup();
+	}
+
+	/* Registra el canal en el selector del bucle. Lo llama el hilo del bucle. */
+	void register(Selector selector) throws IOException
+	{
+		synchronized (this.outbound)
+		{
+			if (this.failure != null) return;
+			this.key = this.channel.register(selector, this.channel.isConnectionPending() ? SelectionKey.OP_CONNECT : 0, this);
+		}
+		if (!this.channel.isConnectionPending()) this.onConnected();
+	}
+
+	/* Termina de establecer la conexión. */
+	void onConnectable() throws IOException
+	{
+		if (this.channel.finishConnect()) this.onConnected();
+	}
+
+	private void onConnected()
+	{
+		synchronized (this.outbound)
+		{
+			this.key.interestOps(this.writing ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+		this.connected.complete(this);
+	}
+
+	/* Lee los datos disponibles en el canal y reparte todos los mensajes completos recibidos. */
+	void onReadable() throws IOException
+	{
+		int read = this.channel.read(this.inBuffer);
+		if (read < 0) throw new EOFException();
+		this.inBuffer.flip();
+		while (true)
+		{
+			NCCodec codec = this.codec;
+			int size = codec.frameSize(this.inBuffer);
+			if (size < 0 || this.inBuffer.remaining() < size) break;
+			int start = this.inBuffer.position();
+			NCMessage message = codec.decode(this.inBuffer.array(), this.inBuffer.arrayOffset() + start, size);
+			this.inBuffer.position(start + size);
+			if (message == null) throw new IOException("Unrecognized message from the server.");
+			this.dispatch(message);
+		}
+		/* Si la trama pendiente no cabe en el buffer lo ampliamos para poder recibirla entera. */
+		int needed = this.codec.frameSize(this.inBuffer);
+		this.inBuffer.compact();
+		if (needed > this.inBuffer.capacity())
+		{
+			ByteBuffer bigger = ByteBuffer.allocate(needed);
+			this.inBuffer.flip();
+			bigger.put(this.inBuffer);
+			this.inBuffer = bigger;
+		}
+	}
+
+	/* Completa la petición de la que el mensaje es respuesta o se lo entrega al oyente. */
+	private void dispatch(NCMessage message) throws IOException
+	{
+		/* La respuesta a SetCodec es la última trama en el códec anterior. */
+		if (message.getOpcode() == NCMessage.OP_CODEC_OK)
+		{
+			NCCodec chosen = NCCodec.forName(((NCRoomMessage) message).getName());
+			if (chosen != null) this.codec = chosen;
+		}
+		/* Los trozos se acumulan hasta tener la respuesta entera. Si la respuesta se pasa de los límites del ensamblador solo falla su petición (un aviso se pierde) y la conexión sigue. */
+		try
+		{
+			message = this.assembler.offer(message);
+		}
+		catch (IOException e)
+		{
+			CompletableFuture<NCMessage> rejected = message.getRequestId() != 0 ? this.pending.remove(message.getRequestId()) : null;
+			if (rejected != null) rejected.completeExceptionally(e);
+			return;
+		}
+		if (message == null) return;
+		CompletableFuture<NCMessage> response = message.getRequestId() != 0 ? this.pending.remove(message.getRequestId()) : null;
+		if (response != null) response.complete(message);
+		else if (this.listener != null) this.listener.accept(message);
+	}
+
+	/* Escribe en el canal las tramas pendientes. Cuando no quedan deja de pedir avisos de escritura. */
+	void onWritable(ByteBuffer writeBuffer) throws IOException
+	{
+		while (true)
+		{
+			if (this.current == null)
+			{
+				synchronized (this.outbound)
+				{
+					this.current = this.outbound.poll();
+					if (this.current == null)
+					{
+						this.writing = false;
+						this.key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+				}
+				this.currentOffset = 0;
+			}
+			writeBuffer.clear();
+			this.current.frame.copyTo(writeBuffer, this.currentOffset);
+			writeBuffer.flip();
+			this.currentOffset += this.channel.write(writeBuffer);
+			/* El buffer del socket está lleno, seguiremos por el mismo punto de la trama cuando vuelva a haber espacio. */
+			if (writeBuffer.hasRemaining()) return;
+			if (this.currentOffset == this.current.frame.size())
+			{
+				if (this.current.written != null) this.current.written.complete(null);
+				this.current = null;
+			}
+		}
+	}
+
+	/* Cierra la conexión por el error dado, o a petición del usuario si es null. Fallan las peticiones en vuelo y los envíos sin escribir. */
+	void close(IOException cause)
+	{
+		IOException e = cause != null ? cause : new ClosedChannelException();
+		Outgoing[] unsent;
+		Outgoing partial;
+		synchronized (this.outbound)
+		{
+			if (this.failure != null) return;
+			this.failure = e;
+			unsent = this.outbound.toArray(new Outgoing[0]);
+			this.outbound.clear();
+			partial = this.current;
+		}
+		if (this.key != null) this.key.cancel();
+		try
+		{
+			this.channel.close();
+		}
+		catch (IOException e1) {}
+		this.connected.completeExceptionally(e);
+		if (partial != null && partial.written != null) partial.written.completeExceptionally(e);
+		for (Outgoing outgoing : unsent) if (outgoing.written != null) outgoing.written.completeExceptionally(e);
+		for (Integer id : this.pending.keySet())
+		{
+			CompletableFuture<NCMessage> response = this.pending.remove(id);
+			if (response != null) response.completeExceptionally(e);
+		}
+		if (cause == null) this.closed.complete(null);
+		else this.closed.completeExceptionally(cause);
+	}
+
+	/* Comprueba el tipo de la respuesta dentro de una etapa del futuro. */
+	private static void check(NCMessage response, byte opcode)
+	{
+		if (response.getOpcode() != opcode) throw new CompletionException(new IOException("Unexpected response " + NCMessage.opcodeToOperation(response.getOpcode()) + "."));
+	}
+}
@@ -0,0 +1,137 @@
+package es.um.redes.nanoChat.client.comm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Bucle de eventos de cliente. Un único hilo con un Selector atiende a todas las conexiones NCAsyncConnector que se abren sobre él, así que un cliente puede llevar cientos de sesiones sin un hilo por sesión.
+ * Las respuestas completan sus futuros y los mensajes de las salas se entregan a sus oyentes desde este hilo, por lo que quien los reciba no debe bloquearse.
+ */
+public class NCClientEventLoop extends Thread
+{
+	/* Tamaño del buffer de escritura compartido por las conexiones del bucle. */
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/* Selector sobre el que se registran los canales de las conexiones. */
+	private Selector selector;
+	/* Conexiones abiertas pendientes de registrar en el selector. */
+	private Queue<NCAsyncConnector> pendingConnectors;
+	/* Buffer directo donde se copian las tramas antes de escribirlas. Solo lo usa el hilo del bucle, una conexión cada vez. */
+	private ByteBuffer writeBuffer;
+	/* Indica si se ha pedido parar el bucle. */
+	private volatile boolean stopped;
+
+	public NCClientEventLoop(String name) throws IOException
+	{
+		super(name);
+		this.setDaemon(true);
+		this.selector = Selector.open();
+		this.pendingConnectors = new ConcurrentLinkedQueue<NCAsyncConnector>();
+		this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+		this.stopped = false;
+	}
+
+	/* Asigna una nueva conexión a este bucle. El registro en el selector lo hace el propio hilo del bucle. */
+	void addConnector(NCAsyncConnector connector)
+	{
+		this.pendingConnectors.add(connector);
+		this.selector.wakeup();
+		/* Si el bucle ya había parado nadie la registrará. */
+		if (this.stopped)
+		{
+			NCAsyncConnector rejected;
+			while ((rejected = this.pendingConnectors.poll()) != null) rejected.close(new ClosedChannelException());
+		}
+	}
+
+	/* Despierta al bucle para que atienda las escrituras pedidas desde otros hilos. */
+	void wakeup()
+	{
+		this.selector.wakeup();
+	}
+
+	/* Para el bucle y cierra todas sus conexiones. */
+	public void shutdown()
+	{
+		this.stopped = true;
+		this.selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		while (!this.stopped)
+		{
+			/* Esperamos a que algún canal esté listo o a que nos despierten. */
+			try
+			{
+				this.selector.select();
+			}
+			catch (IOException e)
+			{
+				break;
+			}
+			this.registerPendingConnectors();
+			/* Atendemos cada canal listo. Cualquier error cierra únicamente esa conexión. */
+			Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+			while (it.hasNext())
+			{
+				SelectionKey key = it.next();
+				it.remove();
+				NCAsyncConnector connector = (NCAsyncConnector) key.attachment();
+				try
+				{
+					if (key.isValid() && key.isConnectable()) connector.onConnectable();
+					if (key.isValid() && key.isReadable()) connector.onReadable();
+					if (key.isValid() && key.isWritable()) connector.onWritable(this.writeBuffer);
+				}
+				catch (IOException e)
+				{
+					connector.close(e);
+				}
+				catch (RuntimeException e)
+				{
+					connector.close(new IOException(e));
+				}
+			}
+		}
+		this.closeAll();
+	}
+
+	/* Registra en el selector las conexiones abiertas desde el último ciclo. */
+	private void registerPendingConnectors()
+	{
+		NCAsyncConnector connector;
+		while ((connector = this.pendingConnectors.poll()) != null)
+		{
+			try
+			{
+				connector.register(this.selector);
+			}
+			catch (IOException e)
+			{
+				connector.close(e);
+			}
+		}
+	}
+
+	/* Al parar el bucle fallan las conexiones que seguían abiertas o sin registrar. */
+	private void closeAll()
+	{
+		IOException e = new ClosedChannelException();
+		NCAsyncConnector connector;
+		while ((connector = this.pendingConnectors.poll()) != null) connector.close(e);
+		for (SelectionKey key : this.selector.keys()) ((NCAsyncConnector) key.attachment()).close(e);
+		try
+		{
+			this.selector.close();
+		}
+		catch (IOException e1) {}
+	}
+}
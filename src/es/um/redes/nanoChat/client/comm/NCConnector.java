@@ -8,58 +8,188 @@ import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import es.um.redes.nanoChat.messageFV.NCCodec;
 import es.um.redes.nanoChat.messageFV.NCControlMessage;
 import es.um.redes.nanoChat.messageFV.NCInfoMessage;
 import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCMessageAssembler;
 import es.um.redes.nanoChat.messageFV.NCMultiInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
 import es.um.redes.nanoChat.messageFV.NCRoomMessage;
 import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
 
 /* Esta clase proporciona la funcionalidad necesaria para intercambiar mensajes entre el cliente y el servidor de NanoChat. */
-public class NCConnector 
+/* Cada petición lleva un id que el servidor copia en su respuesta. Un hilo lector recibe todos los mensajes: las respuestas completan la petición con su id y el resto (textos y avisos de la sala) se entregan al oyente o se encolan para recieveMessage. Así se pueden tener varias peticiones en vuelo en la misma conexión. */
+public class NCConnector
 {
+	/* Mensaje que se encola para avisar a recieveMessage de que se ha cerrado la conexión. */
+	private static final NCMessage CONNECTION_CLOSED = new NCControlMessage(NCMessage.OP_INVALID_CODE);
+	/* Propiedad con el tiempo máximo, en milisegundos, que se espera la respuesta de una petición. */
+	public static final String CALL_TIMEOUT_PROPERTY = "nanochat.client.timeout";
+	public static final long DEFAULT_CALL_TIMEOUT = 30000;
+
 	private Socket socket;
 	protected DataOutputStream dos;
 	protected DataInputStream dis;
-	
-	public NCConnector(InetSocketAddress serverAddress) throws UnknownHostException, IOException 
+	/* Códec con el que se codifican las peticiones. Empieza siendo el de texto hasta que se negocie otro. */
+	private volatile NCCodec codec;
+	/* Códec con el que lee el hilo lector. Cambia en cuanto llega la respuesta CodecOk, antes de leer la siguiente trama. */
+	private NCCodec readCodec;
+	/* Une las respuestas que llegan partidas en trozos. Solo lo usa el hilo lector. */
+	private final NCMessageAssembler assembler;
+	/* Siguiente id de petición y peticiones en vuelo esperando su respuesta. */
+	private final AtomicInteger nextRequestId;
+	private final Map<Integer, CompletableFuture<NCMessage>> pending;
+	/* Mensajes que no son respuesta de ninguna petición, si no hay oyente. */
+	private final BlockingQueue<NCMessage> pushes;
+	private volatile Consumer<NCMessage> pushListener;
+	/* Error que cerró la conexión, o null mientras sigue abierta. */
+	private volatile IOException failure;
+	/* Futuro que se completa al cerrarse la conexión e indicador de que la cerramos nosotros. */
+	private final CompletableFuture<Void> closed;
+	private volatile boolean disconnecting;
+	/* Tiempo máximo de espera de cada respuesta. */
+	private final long callTimeout;
+
+	public NCConnector(InetSocketAddress serverAddress) throws UnknownHostException, IOException
 	{
 		/* Creamos el socket a partir de la dirección. */
 		this.socket = new Socket(serverAddress.getAddress(), serverAddress.getPort());
 		/* Se extraen los streams de entrada y salida. */
 		this.dos = new DataOutputStream(this.socket.getOutputStream());
 		this.dis = new DataInputStream(this.socket.getInputStream());
+		this.codec = NCCodec.TEXT;
+		this.readCodec = NCCodec.TEXT;
+		this.assembler = new NCMessageAssembler();
+		this.nextRequestId = new AtomicInteger(0);
+		this.pending = new ConcurrentHashMap<Integer, CompletableFuture<NCMessage>>();
+		this.pushes = new LinkedBlockingQueue<NCMessage>();
+		this.pushListener = null;
+		this.failure = null;
+		this.closed = new CompletableFuture<Void>();
+		this.disconnecting = false;
+		this.callTimeout = Math.max(1, Long.getLong(CALL_TIMEOUT_PROPERTY, DEFAULT_CALL_TIMEOUT));
+		/* El hilo lector no impide que termine la aplicación. */
+		Thread reader = new Thread(this::readMessages, "NCConnectorReader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/* Método para negociar el códec con el servidor. Debe usarse antes de registrar el nick. Devuelve verdadero si el servidor acepta el códec pedido. */
+	public boolean negotiateCodec(NCCodec requested) throws IOException
+	{
+		/* Creamos y enviamos la petición con el nombre del códec. */
+		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_SET_CODEC, requested.getName());
+		/* La respuesta todavía llega en el códec actual e indica el que se usará a partir de ahora. El hilo lector ya lo habrá cambiado para leer. */
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_CODEC_OK) throw new IOException();
+		NCCodec chosen = NCCodec.forName(((NCRoomMessage) response).getName());
+		if (chosen == null) throw new IOException();
+		this.codec = chosen;
+		return chosen == requested;
 	}
 
 	/* Método para registrar el nick en el servidor. Nos informa sobre si la inscripción se hizo con éxito o no. */
-	public boolean registerNickname(String nick) throws IOException 
+	public boolean registerNickname(String nick) throws IOException
 	{
 		/* Creamos un mensaje de tipo RoomMessage con opcode OP_NICK en el que se inserte el nick. */
 		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_REGISTER_NICK, nick);
-		/* Obtenemos el mensaje de texto listo para enviar. */
-		String encodedMessage = message.toEncodedString();
-		/* Escribimos el mensaje en el flujo de salida, es decir, provocamos que se envíe por la conexión TCP. */
-		this.dos.writeUTF(encodedMessage);
-		/* Obtenemos el mensaje de respuesta. */
-		NCMessage response = NCMessage.readMessageFromSocket(this.dis);
-		/* Si el mnesaje obtenido es nulo devolemos ocurrió un error de comunicación. */
-		if (response == null) throw new IOException();
+		/* Lo enviamos y esperamos su respuesta. */
+		NCMessage response = this.call(message);
 		/* Analizamos el mensaje para saber si está duplicado el nick. */
 		return response.getOpcode() == NCMessage.OP_VALID_NICK;
 	}
-	
+
 	/* Método para obtener la lista de salas del servidor. Si no hay salas se devuelve una lista vacía.*/
-	public List<NCRoomDescription> getRooms() throws IOException 
+	public List<NCRoomDescription> getRooms() throws IOException
 	{
 		/* Creamos, codificamos y enviamos el mensaje. */
 		NCControlMessage message = (NCControlMessage) NCMessage.makeControlMessage(NCControlMessage.OP_ROOM_LIST);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
 		/* Recibimos la respuesta que sólo puede ser RoomListOk. */
-		NCMultiInfoMessage response = (NCMultiInfoMessage) NCMessage.readMessageFromSocket(this.dis);
-		/* Si la respuesta es nula ocurrió un error de comunicación. */
-		if (response == null) throw new IOException();
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_ROOM_LIST_OK) throw new IOException();
+		return toRoomList((NCMultiInfoMessage) response);
+	}
+
+	/* Se suscribe a los cambios de la lista de salas. Devuelve la lista completa; los cambios llegan después con el resto de avisos como RoomListRemove y RoomListUpdate (ver NCRoomListMirror). */
+	public List<NCRoomDescription> subscribeRoomList() throws IOException
+	{
+		NCMessage response = this.call(NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST_SUBSCRIBE));
+		if (response.getOpcode() != NCMessage.OP_ROOM_LIST_OK) throw new IOException();
+		return toRoomList((NCMultiInfoMessage) response);
+	}
+
+	/* Cancela la suscripción a la lista de salas. Tras la respuesta ya no llegan más cambios. */
+	public boolean unsubscribeRoomList() throws IOException
+	{
+		NCMessage response = this.call(NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST_UNSUBSCRIBE));
+		return response.getOpcode() == NCMessage.OP_ROOM_LIST_UNSUBSCRIBE_OK;
+	}
+
+	/* Pide una página de la lista de salas: como mucho limit salas (0 para el tamaño por defecto del servidor) cuyo nombre empieza por prefix, en el orden sort de NCPageMessage y a continuación de cursor (vacío para la primera página). */
+	public NCPage<NCRoomDescription> getRoomPage(String prefix, String sort, String cursor, int limit) throws IOException
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_LIST_PAGE, "", orEmpty(prefix), orEmpty(sort), orEmpty(cursor), limit);
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_ROOM_LIST_PAGE_OK) throw new IOException();
+		NCMultiInfoMessage page = (NCMultiInfoMessage) response;
+		return new NCPage<NCRoomDescription>(toRoomList(page), page.getCursor());
+	}
+
+	/* Pide las k primeras salas en el orden sort de NCPageMessage, por ejemplo las más activas (SORT_ACTIVITY) o las que tienen más miembros (SORT_MEMBERS). */
+	public List<NCRoomDescription> getTopRooms(String sort, int k) throws IOException
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_LIST_TOP, "", "", orEmpty(sort), "", k);
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_ROOM_LIST_TOP_OK) throw new IOException();
+		return toRoomList((NCMultiInfoMessage) response);
+	}
+
+	/* Busca las salas cuyo nombre contiene el texto dado, sin distinguir mayúsculas. Devuelve una página ordenada por nombre, con el mismo cursor y tamaño que getRoomPage. */
+	public NCPage<NCRoomDescription> searchRooms(String text, String cursor, int limit) throws IOException
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_SEARCH, orEmpty(text), "", NCPageMessage.SORT_NAME, orEmpty(cursor), limit);
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_ROOM_SEARCH_OK) throw new IOException();
+		NCMultiInfoMessage page = (NCMultiInfoMessage) response;
+		return new NCPage<NCRoomDescription>(toRoomList(page), page.getCursor());
+	}
+
+	/* Pide una página de los miembros de una sala en orden de nombre, con el mismo prefijo, cursor y tamaño que getRoomPage. Devuelve null si la sala no existe. */
+	public NCPage<String> getRoomMembersPage(String room, String prefix, String cursor, int limit) throws IOException
+	{
+		NCMessage message = NCMessage.makePageMessage(NCMessage.OP_ROOM_INFO_PAGE, room, orEmpty(prefix), NCPageMessage.SORT_NAME, orEmpty(cursor), limit);
+		return toMembersPage(this.call(message));
+	}
+
+	/* Construye la página de miembros de una respuesta RoomInfoPageOk, o null si la respuesta es otra. */
+	static NCPage<String> toMembersPage(NCMessage response)
+	{
+		if (response.getOpcode() != NCMessage.OP_ROOM_INFO_PAGE_OK) return null;
+		NCInfoMessage page = (NCInfoMessage) response;
+		return new NCPage<String>(page.getList(), page.getCursor());
+	}
+
+	/* Los campos vacíos de las peticiones de página se pueden dejar a null. */
+	static String orEmpty(String value)
+	{
+		return value == null ? "" : value;
+	}
+
+	/* Construye la lista de salas de una respuesta RoomListOk o de un aviso RoomListUpdate. */
+	static List<NCRoomDescription> toRoomList(NCMultiInfoMessage response)
+	{
 		/* Creamos la lista de salas. */
 		List<NCRoomDescription> rooms = new LinkedList<NCRoomDescription>();
 		/* Sacamos los campos del mensaje. */
@@ -74,83 +204,95 @@ public class NCConnector
 		}
 		return rooms;
 	}
-	
+
 	/* Método para solicitar el registro de uan nueva sala de chat. Devuelve verdadero si hubo éxito y falso en caso contrario. */
 	public boolean registerRoom(String roomName) throws IOException
 	{
 		/* Creamos, codificamos y enviamos el mensaje. */
 		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_CREATE_ROOM, roomName);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
-		/* Recibimos la respuesta. */
-		NCControlMessage response = (NCControlMessage) NCMessage.readMessageFromSocket(this.dis);
-		/* Si la respuesta es nula hubo un error de comunicación. */
-		if (response == null) throw new IOException();
-		/* Dependiendo del código de operación hubo éxito o no. */
-		if (response.getOpcode() == NCMessage.OP_CREATE_ROOM_OK) return true;
-		return false;
-	}
-	
+		/* Dependiendo del código de operación de la respuesta hubo éxito o no. */
+		return this.call(message).getOpcode() == NCMessage.OP_CREATE_ROOM_OK;
+	}
+
 	/* Método para solicitar la entrada en una sala. */
-	public boolean enterRoom(String room) throws IOException 
+	public boolean enterRoom(String room) throws IOException
 	{
 		/* Creamos, codificamos y enviamos el mensaje. */
 		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_ROOM_ENTER, room);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
-		/* Recibimos la respuesta que será un mensaje de control. */
-		NCControlMessage response = (NCControlMessage) NCMessage.readMessageFromSocket(this.dis);
-		/* Si la respuesta es nula hubo un error de comunicación. */
-		if (response == null) throw new IOException();
 		/* Si hubo exito devolvemos verdadero. */
-		return response.getOpcode() == NCMessage.OP_ROOM_ENTER_OK;		
+		return this.call(message).getOpcode() == NCMessage.OP_ROOM_ENTER_OK;
 	}
-	
+
 	/* Método para salir de la sala actual. Si no se estaba en sala será ignorado por el servidor. */
-	public void leaveRoom() throws IOException 
+	public void leaveRoom() throws IOException
 	{
-		/* Creamos, codificamos y enviamos el mensaje. */
+		/* Creamos, codificamos y enviamos el mensaje. No tiene respuesta. */
 		NCControlMessage message = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_EXIT_ROOM);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
+		this.send(message);
 	}
-	
-	/* Método que utiliza el Shell para ver si hay datos en el flujo de entrada. */
-	public boolean isDataAvailable() throws IOException 
+
+	/* Método que utiliza el Shell para ver si hay mensajes recibidos pendientes de tratar. */
+	public boolean isDataAvailable() throws IOException
 	{
-		return (this.dis.available() != 0);
+		return !this.pushes.isEmpty();
 	}
-	
+
 	/* Método para enviar mensajes de texto al chat cuando nos encontramos en una sala. */
-	public void sendMessage (String message) throws IOException 
+	public void sendMessage (String message) throws IOException
 	{
-		/* Creamos, codificamos y enviamos el mensaje. */
+		/* Creamos, codificamos y enviamos el mensaje. No tiene respuesta. */
 		NCRoomMessage msg = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_SEND_TEXT, message);
-		String encodedMessage = msg.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
-	}
-	
-	/* Devuelve el mensaje recibido que después será necesario tratar según su contenido. Nunca devolera una respuesta nula.*/
-	public NCMessage recieveMessage () throws IOException 
-	{
-		/* Leemos la respuesta. */
-		NCMessage response = NCMessage.readMessageFromSocket(this.dis);
-		/* Si fue nula lanzamos una excepción para indicarlo. */
-		if (response == null) throw new IOException();
-		
-		return response;
+		this.send(msg);
+	}
+
+	/* Devuelve el siguiente mensaje recibido que no es respuesta de una petición (textos y avisos de la sala), esperando si no hay ninguno. Nunca devolera una respuesta nula. */
+	public NCMessage recieveMessage () throws IOException
+	{
+		try
+		{
+			NCMessage message = this.pushes.take();
+			/* Si se cerró la conexión dejamos el aviso para las siguientes llamadas. */
+			if (message == CONNECTION_CLOSED)
+			{
+				this.pushes.offer(CONNECTION_CLOSED);
+				throw this.failure;
+			}
+			return message;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a message.");
+		}
+	}
+
+	/* Entrega los mensajes que no son respuesta de una petición al oyente dado en lugar de encolarlos. Se llama desde el hilo lector, así que no debe bloquearse. */
+	public void setPushListener(Consumer<NCMessage> listener)
+	{
+		this.pushListener = listener;
+		/* Los que ya estaban encolados se entregan primero. */
+		NCMessage queued;
+		while (listener != null && (queued = this.pushes.peek()) != null && queued != CONNECTION_CLOSED)
+		{
+			this.pushes.poll();
+			listener.accept(queued);
+		}
 	}
-	
+
+	/* Futuro que se completa cuando se cierra la conexión: normalmente si se cerró con disconnect y con el error en otro caso. */
+	public CompletableFuture<Void> onClose()
+	{
+		return this.closed;
+	}
+
 	/* Método para pedir la descripción de una sala. Si la sala dada de parámetro no es válida se devuelve null. */
-	public NCRoomDescription getRoomInfo(String room) throws IOException 
+	public NCRoomDescription getRoomInfo(String room) throws IOException
 	{
 		/* Creamos, codificamos y enviamos el mensaje. */
 		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_ROOM_INFO, room);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
 		/* Recibimos la respuesta. */
-		NCMessage response = NCMessage.readMessageFromSocket(this.dis);
-		
+		NCMessage response = this.call(message);
+
 		NCRoomDescription roomDesc = null;
 		/* Según el contenido de la respuesta actuamos en consecuencia. */
 		if (response.getOpcode() == NCMessage.OP_ROOM_INFO_OK)
@@ -161,29 +303,159 @@ public class NCConnector
 		/* Devolvemos la descrición. */
 		return roomDesc;
 	}
-	
+
+	/* Método para pedir las métricas del servidor. Devuelve sus entradas nombre=valor. */
+	public List<String> getServerStats() throws IOException
+	{
+		/* Creamos, codificamos y enviamos la solicitud. */
+		NCControlMessage message = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_STATS);
+		/* Recibimos la respuesta, que sólo puede ser StatsOk. */
+		NCMessage response = this.call(message);
+		if (response.getOpcode() != NCMessage.OP_STATS_OK) throw new IOException();
+		return ((NCInfoMessage) response).getList();
+	}
+
 	/* Método para solicitar el renombrado de la sala actual del usuario. Devuelve verdadero si fue válido o falso si no se pudo renombrar*/
 	public boolean renameCurrentRoom(String newName) throws IOException
 	{
 		/* Creamos, codificamos y enviamos la solicitud. */
 		NCRoomMessage message = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_RENAME_ROOM, newName);
-		String encodedMessage = message.toEncodedString();
-		this.dos.writeUTF(encodedMessage);
-		/* Recibimos la respuesta. */
-		NCMessage response = NCMessage.readMessageFromSocket(this.dis);
-		/* Si el código es válido entonces devolvemos verdadero. */
-		return response.getOpcode() == NCMessage.OP_RENAME_ROOM_OK;
+		/* Si el código de la respuesta es válido entonces devolvemos verdadero. El aviso de renombrado que manda la sala a todos sus usuarios llega aparte, sin id. */
+		return this.call(message).getOpcode() == NCMessage.OP_RENAME_ROOM_OK;
+	}
+
+	/* Envía una petición sin esperar a su respuesta. La respuesta completa el futuro devuelto, que falla si se cierra la conexión antes. Permite tener muchas peticiones en vuelo en la misma conexión. */
+	public CompletableFuture<NCMessage> submit(NCMessage request)
+	{
+		CompletableFuture<NCMessage> response = new CompletableFuture<NCMessage>();
+		/* Los ids son positivos y distintos de 0, que indica un mensaje sin petición. */
+		int id;
+		do id = this.nextRequestId.incrementAndGet() & Integer.MAX_VALUE; while (id == 0);
+		request.setRequestId(id);
+		this.pending.put(id, response);
+		try
+		{
+			this.send(request);
+		}
+		catch (IOException e)
+		{
+			this.pending.remove(id);
+			response.completeExceptionally(e);
+		}
+		/* Si la conexión se cerró mientras la registrábamos puede que nadie más la complete. */
+		if (this.failure != null && this.pending.remove(id) != null) response.completeExceptionally(this.failure);
+		return response;
+	}
+
+	/* Envía la petición y espera su respuesta, como mucho el tiempo de CALL_TIMEOUT_PROPERTY. */
+	private NCMessage call(NCMessage request) throws IOException
+	{
+		CompletableFuture<NCMessage> response = this.submit(request);
+		try
+		{
+			return response.get(this.callTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e)
+		{
+			/* Si la respuesta llega después ya no la espera nadie. */
+			this.pending.values().remove(response);
+			throw new IOException("Timed out waiting for a response.");
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a response.");
+		}
+	}
+
+	/* Codifica el mensaje con el códec actual y lo envía. Las tramas de distintos hilos no se pueden mezclar en el stream. */
+	private void send(NCMessage message) throws IOException
+	{
+		if (this.failure != null) throw this.failure;
+		synchronized (this.dos)
+		{
+			message.toFrame(this.codec).writeTo(this.dos);
+		}
 	}
-	
+
+	/* Hilo lector: reparte cada mensaje recibido entre las peticiones en vuelo y los avisos hasta que se cierra la conexión. */
+	private void readMessages()
+	{
+		try
+		{
+			while (true)
+			{
+				NCMessage message = this.readCodec.read(this.dis);
+				if (message == null) throw new IOException("Unrecognized message from the server.");
+				/* La respuesta a SetCodec es la última trama en el códec anterior. */
+				if (message.getOpcode() == NCMessage.OP_CODEC_OK)
+				{
+					NCCodec chosen = NCCodec.forName(((NCRoomMessage) message).getName());
+					if (chosen != null) this.readCodec = chosen;
+				}
+				/* Los trozos se acumulan hasta tener la respuesta entera. Si la respuesta se pasa de los límites del ensamblador solo falla su petición (un aviso se pierde) y la conexión sigue. */
+				try
+				{
+					message = this.assembler.offer(message);
+				}
+				catch (IOException e)
+				{
+					CompletableFuture<NCMessage> rejected = message.getRequestId() != 0 ? this.pending.remove(message.getRequestId()) : null;
+					if (rejected != null) rejected.completeExceptionally(e);
+					continue;
+				}
+				if (message == null) continue;
+				CompletableFuture<NCMessage> response = message.getRequestId() != 0 ? this.pending.remove(message.getRequestId()) : null;
+				if (response != null) response.complete(message);
+				else this.push(message);
+			}
+		}
+		catch (IOException e)
+		{
+			this.fail(e);
+		}
+		catch (RuntimeException e)
+		{
+			this.fail(new IOException(e));
+		}
+	}
+
+	private void push(NCMessage message)
+	{
+		Consumer<NCMessage> listener = this.pushListener;
+		if (listener != null) listener.accept(message);
+		else this.pushes.offer(message);
+	}
+
+	/* Marca la conexión como cerrada: fallan las peticiones en vuelo y se avisa a quien espere mensajes. */
+	private void fail(IOException e)
+	{
+		this.failure = e;
+		for (Integer id : this.pending.keySet())
+		{
+			CompletableFuture<NCMessage> response = this.pending.remove(id);
+			if (response != null) response.completeExceptionally(e);
+		}
+		this.pushes.offer(CONNECTION_CLOSED);
+		if (this.disconnecting) this.closed.complete(null);
+		else this.closed.completeExceptionally(e);
+	}
+
 	/* Método para cerrar la comunicación con la sala. */
-	public void disconnect() 
+	public void disconnect()
 	{
-		try 
+		this.disconnecting = true;
+		try
 		{
 			if (this.socket != null) this.socket.close();
-		} 
-		catch (IOException e) {} 
-		finally 
+		}
+		catch (IOException e) {}
+		finally
 		{
 			this.socket = null;
 		}
@@ -0,0 +1,36 @@
+package es.um.redes.nanoChat.client.comm;
+
+import java.util.List;
+
+/**
+ * Página de una lista del servidor (salas o miembros de una sala) junto con el cursor para pedir la siguiente.
+ */
+public class NCPage<T>
+{
+	/* Elementos de la página, en el orden pedido. */
+	private final List<T> items;
+	/* Cursor de la página siguiente, vacío si esta es la última. */
+	private final String cursor;
+
+	public NCPage(List<T> items, String cursor)
+	{
+		this.items = items;
+		this.cursor = cursor;
+	}
+
+	public List<T> getItems()
+	{
+		return this.items;
+	}
+
+	public String getCursor()
+	{
+		return this.cursor;
+	}
+
+	/* Indica si quedan más elementos detrás de esta página. */
+	public boolean hasNext()
+	{
+		return !this.cursor.isEmpty();
+	}
+}
@@ -0,0 +1,51 @@
+package es.um.redes.nanoChat.client.comm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCMultiInfoMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+
+/**
+ * Copia local de la lista de salas para los clientes suscritos con subscribeRoomList. Empieza con la lista completa de la suscripción y se mantiene al día con los avisos RoomListRemove y RoomListUpdate, sin volver a pedir la lista.
+ * No es segura entre hilos, la debe usar el hilo que recibe los avisos.
+ */
+public class NCRoomListMirror
+{
+	/* Salas conocidas por nombre, en el mismo orden que las lista el servidor. */
+	private final Map<String,NCRoomDescription> rooms;
+
+	public NCRoomListMirror(List<NCRoomDescription> snapshot)
+	{
+		this.rooms = new TreeMap<String,NCRoomDescription>();
+		for (NCRoomDescription room : snapshot) this.rooms.put(room.roomName, room);
+	}
+
+	/* Aplica un aviso de cambios de la lista. Devuelve false si el mensaje no es uno de ellos, para que quien lo llame lo trate como cualquier otro aviso. */
+	public boolean apply(NCMessage message)
+	{
+		switch (message.getOpcode())
+		{
+			/* Nombres que han dejado de usarse. Siempre llegan antes que el estado nuevo de las salas, así un nombre que pasa a otra sala no se pierde. */
+			case NCMessage.OP_ROOM_LIST_REMOVE:
+				for (String name : ((NCInfoMessage) message).getList()) this.rooms.remove(name);
+				return true;
+			/* Estado actual de las salas creadas o cambiadas. */
+			case NCMessage.OP_ROOM_LIST_UPDATE:
+				for (NCRoomDescription room : NCConnector.toRoomList((NCMultiInfoMessage) message)) this.rooms.put(room.roomName, room);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/* Salas conocidas en este momento. */
+	public List<NCRoomDescription> getRooms()
+	{
+		return new ArrayList<NCRoomDescription>(this.rooms.values());
+	}
+}
@@ -0,0 +1,86 @@
+package es.um.redes.nanoChat.client.comm.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.client.comm.NCConnector;
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCRoomMessage;
+
+class NCConnectorTests {
+
+	@Test
+	void testNegotiateBinaryCodec() throws Exception
+	{
+		// El servidor acepta el binario: la respuesta llega aún en texto y lo siguiente ya va en binario en los dos sentidos
+		assertTrue(negotiate("binary", NCCodec.BINARY));
+	}
+
+	@Test
+	void testNegotiationRefused() throws Exception
+	{
+		// Un servidor que solo habla texto contesta con el texto y el cliente sigue en texto
+		assertFalse(negotiate("text", NCCodec.TEXT));
+	}
+
+	// Negocia el binario con un servidor de prueba que contesta chosen y comprueba que el registro posterior viaja en el códec elegido
+	private static boolean negotiate(String chosen, NCCodec expected) throws Exception
+	{
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress()))
+		{
+			CompletableFuture<String> peer = CompletableFuture.supplyAsync(() -> serve(server, chosen, expected));
+			NCConnector connector = new NCConnector(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+			try
+			{
+				boolean accepted = connector.negotiateCodec(NCCodec.BINARY);
+				assertTrue(connector.registerNickname("ana"));
+				assertEquals("ana", peer.get(10, TimeUnit.SECONDS));
+				return accepted;
+			}
+			finally
+			{
+				connector.disconnect();
+			}
+		}
+	}
+
+	// Lado del servidor: lee SetCodec en texto, contesta CodecOk en texto y atiende el registro en el códec elegido
+	private static String serve(ServerSocket server, String chosen, NCCodec expected)
+	{
+		try (Socket socket = server.accept())
+		{
+			DataInputStream dis = new DataInputStream(socket.getInputStream());
+			DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
+			NCMessage request = NCCodec.TEXT.read(dis);
+			assertEquals(NCMessage.OP_SET_CODEC, request.getOpcode());
+			assertEquals(NCCodec.BINARY.getName(), ((NCRoomMessage) request).getName());
+			NCMessage reply = NCMessage.makeRoomMessage(NCMessage.OP_CODEC_OK, chosen);
+			reply.setRequestId(request.getRequestId());
+			NCCodec.TEXT.encode(reply).writeTo(dos);
+			dos.flush();
+			NCMessage registration = expected.read(dis);
+			assertEquals(NCMessage.OP_REGISTER_NICK, registration.getOpcode());
+			NCMessage valid = NCMessage.makeControlMessage(NCMessage.OP_VALID_NICK);
+			valid.setRequestId(registration.getRequestId());
+			expected.encode(valid).writeTo(dos);
+			dos.flush();
+			return ((NCRoomMessage) registration).getName();
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
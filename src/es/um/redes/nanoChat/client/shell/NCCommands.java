@@ -17,6 +17,7 @@ public class NCCommands
 	public static final byte COM_HELP = 9;
 	public static final byte COM_CREATE_ROOM = 10;
 	public static final byte COM_RENAME_ROOM = 11;
+	public static final byte COM_STATS = 12;
 	public static final byte COM_SOCKET_IN = 101;
 	
 	/* Códigos de los comandos válidos que puede introducir el usuario del shell. El orden es importante para relacionarlos con la cadena que debe introducir el usuario y con la ayuda. */
@@ -31,7 +32,8 @@ public class NCCommands
 		COM_QUIT,
 		COM_HELP,
 		COM_CREATE_ROOM,
-		COM_RENAME_ROOM
+		COM_RENAME_ROOM,
+		COM_STATS
 	};
 
 	/* Cadena exacta de cada orden posible. */
@@ -46,7 +48,8 @@ public class NCCommands
 		"quit",
 		"help",
 		"create",
-		"rename"
+		"rename",
+		"stats"
 	};
 
 	/* Mensaje de ayuda para cada orden. */
@@ -61,7 +64,8 @@ public class NCCommands
 		"to quit the application",
 		"shows this information",
 		"create a new room with the <name> specified",
-		"changes the current room name with the a new <name>"
+		"changes the current room name with the a new <name>",
+		"shows the live statistics of the chat server"
 	};
 
 	private static Map<String, Byte> _commands_map;
@@ -3,17 +3,36 @@ package es.um.redes.nanoChat.client.shell;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Scanner;
 import java.util.StringTokenizer;
 import java.util.Vector;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import es.um.redes.nanoChat.client.comm.NCConnector;
+import es.um.redes.nanoChat.messageFV.NCMessage;
 
+/* El shell espera en una única cola de eventos a la que llegan las líneas que lee de la entrada estándar un hilo propio y los mensajes que recibe el hilo lector del conector. Así un mensaje se muestra en cuanto llega y un cliente sin actividad no gasta CPU. */
 public class NCShell 
 {
-	/* Scanner para leer comandos de usuario de la entrada estándar. */
-	private Scanner reader;
+	/* Evento de la cola: una línea tecleada o un mensaje recibido. Sin ninguno de los dos indica que se acabó la entrada estándar o se perdió la conexión. */
+	private static final class Event
+	{
+		final String line;
+		final NCMessage message;
+
+		Event(String line, NCMessage message)
+		{
+			this.line = line;
+			this.message = message;
+		}
+	}
+
+	private static final Event END = new Event(null, null);
+
+	/* Cola de eventos pendientes de tratar. */
+	private BlockingQueue<Event> events;
+	/* Último mensaje recibido, cuando el comando es COM_SOCKET_IN. */
+	private NCMessage incomingMessage;
 
 	/* Variables que almacenan comando y argumentos. */
 	byte command = NCCommands.COM_INVALID;
@@ -22,7 +41,12 @@ public class NCShell
 	/* Constructor. */
 	public NCShell() 
 	{
-		this.reader = new Scanner(System.in);
+		this.events = new LinkedBlockingQueue<Event>();
+		this.incomingMessage = null;
+		/* Hilo que lee la entrada estándar bloqueándose y deja cada línea en la cola. */
+		Thread input = new Thread(this::readStandardInput, "NCShellInput");
+		input.setDaemon(true);
+		input.start();
 
 		System.out.println("NanoChat shell");
 		System.out.println("For help, type 'help'");
@@ -40,6 +64,52 @@ public class NCShell
 		return this.commandArgs;
 	}
 
+	/* Devuelve el mensaje recibido cuando el comando es COM_SOCKET_IN. */
+	public NCMessage getIncomingMessage()
+	{
+		return this.incomingMessage;
+	}
+
+	/* Hace que los mensajes recibidos por el conector que no son respuesta de una petición lleguen a la cola del shell. */
+	public void attach(NCConnector connector)
+	{
+		connector.setPushListener(message -> this.events.add(new Event(null, message)));
+		connector.onClose().whenComplete((ignored, e) ->
+		{
+			if (e == null) return;
+			System.out.println();
+			System.out.println("* Connection with the chat server lost.");
+			this.events.add(END);
+		});
+	}
+
+	/* Lee la entrada estándar línea a línea hasta que se acaba. */
+	private void readStandardInput()
+	{
+		BufferedReader standardInput = new BufferedReader(new InputStreamReader(System.in));
+		try
+		{
+			String line;
+			while ((line = standardInput.readLine()) != null) this.events.add(new Event(line, null));
+		}
+		catch (IOException e) {}
+		this.events.add(END);
+	}
+
+	/* Espera al siguiente evento. Si se interrumpe la espera se trata como el final de la entrada. */
+	private Event nextEvent()
+	{
+		try
+		{
+			return this.events.take();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return END;
+		}
+	}
+
 	/* Espera hasta obtener un comando válido entre los comandos existentes. */
 	public void readGeneralCommand() 
 	{
@@ -61,8 +131,16 @@ public class NCShell
 		while (true) 
 		{
 			System.out.print("(nanoChat) ");
-			/* Obtenemos la línea tecleada por el usuario. */
-			String input = reader.nextLine();
+			/* Obtenemos la línea tecleada por el usuario. Fuera de una sala solo pueden llegar avisos atrasados de la sala que acabamos de dejar y se descartan. */
+			Event event = this.nextEvent();
+			while (event.message != null) event = this.nextEvent();
+			/* Sin más entrada o sin conexión solo queda salir. */
+			if (event.line == null)
+			{
+				this.command = NCCommands.COM_QUIT;
+				break;
+			}
+			String input = event.line;
 			StringTokenizer st = new StringTokenizer(input);
 			/* Si no hay ni comando entonces volvemos a empezar. */
 			if (!st.hasMoreTokens()) 
@@ -86,6 +164,8 @@ public class NCShell
 					break;
 				case NCCommands.COM_ROOM_LIST:
 					break;
+				case NCCommands.COM_STATS:
+					break;
 				case NCCommands.COM_ROOM_ENTER:
 					/* Requiere un parámetro. */
 					while (st.hasMoreTokens()) 
@@ -126,56 +206,41 @@ public class NCShell
 	}
 
 	/* Espera a que haya un comando válido de sala o llegue un mensaje entrante. */
-	public void readChatCommand(NCConnector ngclient) 
+	public void readChatCommand() 
 	{
 		boolean validArgs;
 		do 
 		{
-			this.commandArgs = readChatCommandFromStdIn(ngclient);
+			this.commandArgs = readChatCommandFromStdIn();
 			/* Si hay parámetros se validan. */
 			validArgs = validateCommandArguments(this.commandArgs);
 		}
 		while(!validArgs);
 	}
 
-	/* Utiliza la entrada estándar para leer comandos y comprueba si hay datos en el flujo de entrada del conector. */
-	private String[] readChatCommandFromStdIn(NCConnector ncclient) 
+	/* Espera a que el usuario teclee un comando o llegue un mensaje de la sala, lo que ocurra antes. */
+	private String[] readChatCommandFromStdIn() 
 	{
 		String[] args = new String[0];
 		Vector<String> vargs = new Vector<String>();
 		while (true) 
 		{
 			System.out.print("(nanoChat-room) ");
-			/* Utilizamos un BufferedReader en lugar de un Scanner porque no podemos bloquear la entrada. */
-			BufferedReader standardInput = new BufferedReader(new InputStreamReader(System.in));
-			boolean blocked = true;
-			String input ="";
-			/* Estamos esperando comando o mensaje entrante. */
-			while (blocked) 
+			Event event = this.nextEvent();
+			/* Si ha llegado un mensaje el comando actual es SOCKET_IN. */
+			if (event.message != null)
 			{
-				try 
-				{
-					if (ncclient.isDataAvailable()) 
-					{
-						/* Si el flujo de entrada tiene datos entonces el comando actual es SOCKET_IN y debemos salir. */
-						this.command = NCCommands.COM_SOCKET_IN;
-						return null;
-					}
-					/* Analizamos si hay datos en la entrada estándar. (el usuario tecleó INTRO) */
-					else if (standardInput.ready()) 
-					{
-						input = standardInput.readLine();
-						blocked = false;
-					}
-					/* Puesto que estamos sondeando las dos entradas de forma continua, esperamos para evitar un consumo alto de CPU. */
-					TimeUnit.MILLISECONDS.sleep(50);
-				} 
-				catch (IOException | InterruptedException e) 
-				{
-					this.command = NCCommands.COM_INVALID;
-					return null;
-				}
+				this.incomingMessage = event.message;
+				this.command = NCCommands.COM_SOCKET_IN;
+				return args;
+			}
+			/* Sin más entrada o sin conexión solo queda salir. */
+			if (event.line == null)
+			{
+				this.command = NCCommands.COM_QUIT;
+				return args;
 			}
+			String input = event.line;
 			/* Si el usuario tecleó un comando entonces procedemos de igual forma que hicimos antes para los comandos generales. */
 			StringTokenizer st = new StringTokenizer(input);
 			if (!st.hasMoreTokens()) continue;
@@ -3,6 +3,9 @@ package es.um.redes.nanoChat.directory.server;
 import java.net.SocketException;
 
 import es.um.redes.nanoChat.directory.protocol.DirectoryMessage;
+import es.um.redes.nanoChat.metrics.NCAdminServer;
+import es.um.redes.nanoChat.metrics.NCFlightRecorder;
+import es.um.redes.nanoChat.metrics.NCManagement;
 
 public class Directory 
 {
@@ -44,6 +47,8 @@ public class Directory
 		}
 		
 		System.out.println("Probability of corruption for received datagrams: " + datagramCorruptionProbability);
+		/* Grabación continua de JFR si se ha pedido con -Dnanochat.jfr.file. */
+		NCFlightRecorder.startFromProperties();
 		
 		/* Declaramos un hilo de directorio. */
 		DirectoryThread dt;
@@ -52,6 +57,10 @@ public class Directory
 		{
 			/* Creamos el hilo de directorio y lo ejecutamos en el puerto por defecto */
 			dt = new DirectoryThread("Directory", DirectoryMessage.DEFAULT_PORT, datagramCorruptionProbability);
+			/* Publicamos el directorio por JMX para poder consultarlo en vivo. */
+			NCManagement.register(dt, NCManagement.name("Directory", null, null));
+			/* Puerto de administración con las métricas en formato Prometheus si se ha pedido con -Dnanochat.admin.port. */
+			NCAdminServer.startFromProperties(dt);
 			dt.start();
 		} 
 		catch (SocketException e) 
@@ -6,22 +6,44 @@ import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import es.um.redes.nanoChat.directory.protocol.DirectoryMessage;
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.metrics.NCDirectoryRequestEvent;
+import es.um.redes.nanoChat.metrics.NCLatencyHistogram;
+import es.um.redes.nanoChat.metrics.NCMetricsSource;
+import es.um.redes.nanoChat.metrics.NCPrometheusWriter;
+import es.um.redes.nanoChat.metrics.NCRateMeter;
 
 /**
  * Clase que representa un hilo de ejecución del directorio en el servidor.
  */
-public class DirectoryThread extends Thread 
+public class DirectoryThread extends Thread implements DirectoryThreadMXBean, NCMetricsSource
 {
-	/* Estructura para guardar las asociaciones ID_PROTOCOLO -> Dirección del servidor. */
+	/* Mayor tiempo de proceso que distingue el histograma, en microsegundos. */
+	private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.SECONDS.toMicros(10);
+
+	/* Estructura para guardar las asociaciones ID_PROTOCOLO -> Dirección del servidor. Solo la modifica el hilo del directorio, es concurrente para poder consultarla por JMX. */
 	protected Map<Integer,InetSocketAddress> servers;
 	/* Socket de comunicación UDP. */
 	protected DatagramSocket socket = null;
 	/* Probabilidad de descarte del mensaje. */
 	protected double messageDiscardProbability;
+	/* Métricas del directorio. Las escribe su hilo y se leen por JMX. */
+	private final LongAdder datagramsReceived;
+	private final LongAdder datagramsDiscarded;
+	private final LongAdder requestsFailed;
+	private final LongAdder registrations;
+	private final LongAdder lookups;
+	private final LongAdder lookupsNotFound;
+	private final NCRateMeter requests;
+	private final NCLatencyHistogram processingTime;
 
 	/* Constructor del hilo del servidor. */
 	public DirectoryThread(String name, int directoryPort, double corruptionProbability) throws SocketException 
@@ -36,7 +58,16 @@ public class DirectoryThread extends Thread
 		this.messageDiscardProbability = corruptionProbability;
 		
 		/* Inicialización del mapa.*/
-		servers = new HashMap<Integer,InetSocketAddress>();
+		servers = new ConcurrentHashMap<Integer,InetSocketAddress>();
+		
+		this.datagramsReceived = new LongAdder();
+		this.datagramsDiscarded = new LongAdder();
+		this.requestsFailed = new LongAdder();
+		this.registrations = new LongAdder();
+		this.lookups = new LongAdder();
+		this.lookupsNotFound = new LongAdder();
+		this.requests = new NCRateMeter();
+		this.processingTime = new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
 	}
 
 	@Override
@@ -45,7 +76,7 @@ public class DirectoryThread extends Thread
 		/* Buffer donde almacenaremos los datos de las solicitudes entrantes. */
 		byte[] buf = new byte[DirectoryMessage.PACKET_MAX_SIZE];
 
-		System.out.println("Directory starting...");
+		NCLog.info("Directory starting...");
 		
 		boolean running = true;
 		while (running) 
@@ -58,35 +89,58 @@ public class DirectoryThread extends Thread
 			} 
 			catch (IOException e) 
 			{
-				System.err.println("Error receiving a package. Ignoring...\n");
+				NCLog.warn("Error receiving a package. Ignoring...", e);
 				continue;
 			}
 						
 			/* 2) Extraemos la dirección del cliente que realiza la solicitud. */ 
 			InetSocketAddress clientAddr = (InetSocketAddress) pckt.getSocketAddress();
+			this.datagramsReceived.increment();
 			
 			/* Mensaje informativo. */
-			System.out.println("Packet recieved from client " + clientAddr.toString() + ".");
+			NCLog.debug("Packet recieved from client {}.", clientAddr);
 						
 		
 			/* 3) Vemos si el mensaje debe ser descartado por la probabilidad de descarte. */
 			double rand = Math.random();
 			if (rand < messageDiscardProbability) 
 			{
-				System.err.println("Directory DISCARDED corrupt request from: " + clientAddr.toString() + "\n");
+				NCLog.warn("Directory DISCARDED corrupt request from: {}", clientAddr);
+				this.datagramsDiscarded.increment();
 				continue;
 			}
 
 			/* 4) Analizar y procesar la solicitud (llamada a processRequestFromCLient). Si algo sale mal se pondrá por consola. */
+			NCDirectoryRequestEvent event = new NCDirectoryRequestEvent();
+			event.begin();
+			long start = System.nanoTime();
+			boolean succeeded = false;
 			try 
 			{
 				this.processRequestFromClient(pckt.getData(), clientAddr);
+				succeeded = true;
 			} 
 			catch (IOException e) 
 			{
-				System.err.println("Can't process the message. " + e.getMessage() + " Ignoring...\n");
+				NCLog.warn("Can't process the message from {}. {} Ignoring...", clientAddr, e.getMessage());
+				this.requestsFailed.increment();
 				continue;
 			}
+			finally
+			{
+				this.requests.mark();
+				this.processingTime.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+				/* Evento de JFR de la solicitud. Los campos solo se rellenan si supera su umbral. */
+				event.end();
+				if (event.shouldCommit())
+				{
+					event.opcode = pckt.getData()[pckt.getOffset()];
+					event.client = clientAddr.toString();
+					event.size = pckt.getLength();
+					event.succeeded = succeeded;
+					event.commit();
+				}
+			}
 		}
 		/* Cerramos el socket abierto cuando creamos el hilo. */
 		this.socket.close();
@@ -114,15 +168,13 @@ public class DirectoryThread extends Thread
 			
 			/* Asociamos la direccion del servidor al protocolo dado. Puede sustituir el anterior servidor asociado si el protocolo ya estaba en uso. */
 			this.servers.put(protocol, serverAddr);
+			this.registrations.increment();
 							
 			/* Mensaje informativo. */
-			System.out.println("\tClient  " + clientAddr.toString() + " registered itself as chat server with port " + port + " on chat protocol " + protocol + ".");
+			NCLog.info("\tClient {} registered itself as chat server with port {} on chat protocol {}.", clientAddr, port, protocol);
 			
 			/* Mandamos la confirmación al cliente. */
 			this.sendRegistrationOK(clientAddr);
-			
-			/* Salto de linea para mejor formateo. */
-			System.out.println();	
 		}
 		else if	(operationCode == DirectoryMessage.OP_SERVER_INFO_REQUEST)
 		{
@@ -131,24 +183,121 @@ public class DirectoryThread extends Thread
 			
 			/* Recuperamos la dirección del servidor para ese protocolo. */
 			InetSocketAddress chatServerAddr = this.servers.get(protocol);				
+			this.lookups.increment();
 			
 			/* Mensaje informativo. */
-			System.out.println("\tClient " + clientAddr.toString() + " requested chat server address for protocol " + protocol + ".");
+			NCLog.debug("\tClient {} requested chat server address for protocol {}.", clientAddr, protocol);
 			
 			/* Devolvemos un mensaje de que no hay servidor si no lo encontramos en el mapa. */
 			if (chatServerAddr == null) 
 			{
-				System.out.println("\tNo server found for that protocol.");
+				NCLog.debug("\tNo server found for that protocol.");
+				this.lookupsNotFound.increment();
 				this.sendServerInfoNotFound(clientAddr);
 			}
 			/* En otro caso mandamos la información del servidor. */
 			else this.sendServerInfoOk(chatServerAddr, clientAddr);
-			
-			/* Salto de linea para mejor formato. */
-			System.out.println();
 		}
 	}
 
+	/* Métricas para el puerto de administración, leídas de los mismos contadores que se publican por JMX. */
+	@Override
+	public void writeMetrics(NCPrometheusWriter writer)
+	{
+		writer.counter("nanochat_directory_datagrams_received_total", "Datagrams received by the directory.", this.datagramsReceived.sum());
+		writer.counter("nanochat_directory_datagrams_discarded_total", "Datagrams discarded by the corruption probability.", this.datagramsDiscarded.sum());
+		writer.counter("nanochat_directory_requests_failed_total", "Requests that could not be processed.", this.requestsFailed.sum());
+		writer.counter("nanochat_directory_registrations_total", "Chat server registrations.", this.registrations.sum());
+		writer.counter("nanochat_directory_lookups_total", "Chat server lookups.", this.lookups.sum());
+		writer.counter("nanochat_directory_lookups_not_found_total", "Lookups for a protocol without a registered server.", this.lookupsNotFound.sum());
+		writer.gauge("nanochat_directory_requests_per_second", "One minute moving average of requests per second.", this.requests.getOneMinuteRate());
+		writer.family("nanochat_directory_request_duration_seconds", NCPrometheusWriter.TYPE_SUMMARY, "Time to process a request, reply included.");
+		writer.summary("nanochat_directory_request_duration_seconds", null, null, this.processingTime);
+		writer.gauge("nanochat_directory_registered_servers", "Chat servers currently registered.", this.servers.size());
+	}
+
+	@Override
+	public long getDatagramsReceived()
+	{
+		return this.datagramsReceived.sum();
+	}
+
+	@Override
+	public long getDatagramsDiscarded()
+	{
+		return this.datagramsDiscarded.sum();
+	}
+
+	@Override
+	public long getRequestsFailed()
+	{
+		return this.requestsFailed.sum();
+	}
+
+	@Override
+	public long getRegistrations()
+	{
+		return this.registrations.sum();
+	}
+
+	@Override
+	public long getLookups()
+	{
+		return this.lookups.sum();
+	}
+
+	@Override
+	public long getLookupsNotFound()
+	{
+		return this.lookupsNotFound.sum();
+	}
+
+	@Override
+	public double getRequestsPerSecond()
+	{
+		return this.requests.getOneMinuteRate();
+	}
+
+	@Override
+	public double getProcessingLatencyMean()
+	{
+		return this.processingTime.getMean();
+	}
+
+	@Override
+	public long getProcessingLatencyP99()
+	{
+		return this.processingTime.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getProcessingLatencyMax()
+	{
+		return this.processingTime.getMaxValue();
+	}
+
+	@Override
+	public String[] getRegisteredServers()
+	{
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<Integer,InetSocketAddress> entry : this.servers.entrySet()) lines.add(entry.getKey() + " " + entry.getValue());
+		return lines.toArray(new String[0]);
+	}
+
+	@Override
+	public void resetCounters()
+	{
+		this.datagramsReceived.reset();
+		this.datagramsDiscarded.reset();
+		this.requestsFailed.reset();
+		this.registrations.reset();
+		this.lookups.reset();
+		this.lookupsNotFound.reset();
+		this.requests.reset();
+		this.processingTime.reset();
+		NCLog.info("Directory counters reset through JMX.");
+	}
+
 	/* Método para enviar el mensaje que indica que no se ha encontrado servidor para el protocolo pedido. */
 	private void sendServerInfoNotFound(InetSocketAddress clientAddr) throws IOException 
 	{
@@ -164,7 +313,7 @@ public class DirectoryThread extends Thread
 		this.socket.send(resPckt);
 		
 		/* Mensaje informativo. */
-		System.out.println("\tSending \"ServerInfoNotFound\" to client " + clientAddr.toString() + ".");
+		NCLog.debug("\tSending \"ServerInfoNotFound\" to client {}.", clientAddr);
 	}
 
 	/* Método para enviar el mensaje con la infomación del servidor pedido. */
@@ -191,7 +340,7 @@ public class DirectoryThread extends Thread
 		this.socket.send(resPckt);
 		
 		/* Mensaje informativo. */
-		System.out.println("\tSending \"ServerInfoOk\" with address " + serverAddr.toString() + " to client " + clientAddr.toString() + ".");
+		NCLog.debug("\tSending \"ServerInfoOk\" with address {} to client {}.", serverAddr, clientAddr);
 	
 	}
 
@@ -210,6 +359,6 @@ public class DirectoryThread extends Thread
 		this.socket.send(resPckt);
 		
 		/* Mensaje informativo. */
-		System.out.println("\tSending \"RegistrationOk\" to client " + clientAddr.toString() + ".");
+		NCLog.debug("\tSending \"RegistrationOk\" to client {}.", clientAddr);
 	}
 }
@@ -0,0 +1,27 @@
+package es.um.redes.nanoChat.directory.server;
+
+/**
+ * Atributos y operaciones del directorio que se publican por JMX (es.um.redes.nanoChat:type=Directory). Las latencias van en microsegundos.
+ */
+public interface DirectoryThreadMXBean
+{
+	/* Datagramas recibidos y descartados por la probabilidad de corrupción. */
+	public long getDatagramsReceived();
+	public long getDatagramsDiscarded();
+	/* Solicitudes que no se pudieron procesar (opcode no válido o error al contestar). */
+	public long getRequestsFailed();
+	/* Registros de servidores de chat y consultas de clientes, con las que no encontraron servidor. */
+	public long getRegistrations();
+	public long getLookups();
+	public long getLookupsNotFound();
+	/* Solicitudes por segundo del último minuto. */
+	public double getRequestsPerSecond();
+	/* Tiempo de proceso de cada solicitud, respuesta incluida. */
+	public double getProcessingLatencyMean();
+	public long getProcessingLatencyP99();
+	public long getProcessingLatencyMax();
+	/* Servidores registrados, uno por línea con su protocolo y su dirección. */
+	public String[] getRegisteredServers();
+	/* Pone a cero los contadores y el histograma. Los servidores registrados no cambian. */
+	public void resetCounters();
+}
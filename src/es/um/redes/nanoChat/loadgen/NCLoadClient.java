@@ -0,0 +1,127 @@
+package es.um.redes.nanoChat.loadgen;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import es.um.redes.nanoChat.client.comm.NCAsyncConnector;
+import es.um.redes.nanoChat.client.comm.NCClientEventLoop;
+import es.um.redes.nanoChat.client.comm.NCConnector;
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCUserMessage;
+
+/**
+ * Sesión sintética del generador de carga: un NCConnector con su nick y su sala. Su hilo lector recibe los mensajes de la sala y mide la latencia de cada OP_RECEIVE_TEXT generado por el propio generador.
+ * En el modo asíncrono la sesión es un NCAsyncConnector y los mensajes los recibe el bucle de eventos compartido por todas las sesiones, sin hilo lector.
+ */
+class NCLoadClient implements Runnable
+{
+	/* Prefijo de los textos del generador. Detrás van el instante previsto y el instante real de envío (System.nanoTime). */
+	static final String TEXT_PREFIX = "lg ";
+
+	private final NCLoadGenerator generator;
+	private final String nick;
+	private final String room;
+	private NCConnector connector;
+	private NCAsyncConnector asyncConnector;
+
+	NCLoadClient(NCLoadGenerator generator, String nick, String room)
+	{
+		this.generator = generator;
+		this.nick = nick;
+		this.room = room;
+	}
+
+	/* Conecta, negocia el códec, registra el nick y entra en su sala. */
+	void connect(InetSocketAddress serverAddress, NCCodec codec) throws IOException
+	{
+		this.connector = new NCConnector(serverAddress);
+		if (codec != NCCodec.TEXT) this.connector.negotiateCodec(codec);
+		if (!this.connector.registerNickname(this.nick)) throw new IOException("Nick " + this.nick + " already in use.");
+		if (!this.connector.enterRoom(this.room)) throw new IOException("Can't enter room " + this.room + ".");
+	}
+
+	/* Conecta la sesión sobre el bucle de eventos dado. El futuro se completa cuando ya está en su sala. */
+	CompletableFuture<Void> connectAsync(NCClientEventLoop loop, InetSocketAddress serverAddress, NCCodec codec)
+	{
+		return NCAsyncConnector.connect(loop, serverAddress, this::receive).thenCompose(connector ->
+		{
+			this.asyncConnector = connector;
+			connector.onClose().whenComplete((ignored, e) -> { if (e != null) this.generator.connectionLost(this, e instanceof Exception ? (Exception) e : new IOException(e)); });
+			CompletableFuture<Boolean> negotiated = codec != NCCodec.TEXT ? connector.negotiateCodec(codec) : CompletableFuture.completedFuture(true);
+			return negotiated.thenCompose(ok -> connector.registerNickname(this.nick));
+		}).thenCompose(registered ->
+		{
+			if (!registered) throw new CompletionException(new IOException("Nick " + this.nick + " already in use."));
+			return this.asyncConnector.enterRoom(this.room);
+		}).thenAccept(entered ->
+		{
+			if (!entered) throw new CompletionException(new IOException("Can't enter room " + this.room + "."));
+		});
+	}
+
+	/* Crea las salas en el servidor con una conexión propia. Si alguna ya existía (de una ejecución anterior) no es un error. */
+	static void createRooms(InetSocketAddress serverAddress, String nick, String[] rooms) throws IOException
+	{
+		NCConnector connector = new NCConnector(serverAddress);
+		try
+		{
+			if (!connector.registerNickname(nick)) throw new IOException("Nick " + nick + " already in use.");
+			for (String room : rooms) connector.registerRoom(room);
+		}
+		finally
+		{
+			connector.disconnect();
+		}
+	}
+
+	/* Envía un texto con el instante en el que tocaba enviarlo según la tasa fijada y el instante real. */
+	void send(long intendedTime, String padding) throws IOException
+	{
+		long actualTime = System.nanoTime();
+		String text = TEXT_PREFIX + intendedTime + " " + actualTime + padding;
+		if (this.asyncConnector != null) this.asyncConnector.sendMessage(text);
+		else this.connector.sendMessage(text);
+	}
+
+	/* Hilo lector: registra la latencia de cada texto del generador hasta que se cierra la conexión. */
+	@Override
+	public void run()
+	{
+		try
+		{
+			while (true) this.receive(this.connector.recieveMessage());
+		}
+		catch (IOException | RuntimeException e)
+		{
+			this.generator.connectionLost(this, e);
+		}
+	}
+
+	/* Registra la latencia del mensaje si es un texto del generador. */
+	private void receive(NCMessage message)
+	{
+		if (message.getOpcode() != NCMessage.OP_RECEIVE_TEXT) return;
+		long now = System.nanoTime();
+		String text = ((NCUserMessage) message).getText();
+		if (!text.startsWith(TEXT_PREFIX)) return;
+		int firstSpace = text.indexOf(' ', TEXT_PREFIX.length());
+		int secondSpace = text.indexOf(' ', firstSpace + 1);
+		long intendedTime = Long.parseLong(text.substring(TEXT_PREFIX.length(), firstSpace));
+		long actualTime = Long.parseLong(text.substring(firstSpace + 1, secondSpace < 0 ? text.length() : secondSpace));
+		this.generator.recordReceive(intendedTime, actualTime, now);
+	}
+
+	void disconnect()
+	{
+		if (this.asyncConnector != null) this.asyncConnector.disconnect();
+		else if (this.connector != null) this.connector.disconnect();
+	}
+
+	String getNick()
+	{
+		return this.nick;
+	}
+}
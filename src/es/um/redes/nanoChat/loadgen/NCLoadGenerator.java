@@ -0,0 +1,422 @@
+package es.um.redes.nanoChat.loadgen;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import es.um.redes.nanoChat.client.comm.NCClientEventLoop;
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.metrics.NCLatencyHistogram;
+import es.um.redes.nanoChat.server.NanoChatServer;
+
+/**
+ * Generador de carga para NanoChatServer. Abre muchas sesiones sintéticas (NCConnector), registra sus nicks, las reparte entre salas y envía textos a una tasa fija. Cada receptor mide la latencia entre el envío y la recepción de OP_RECEIVE_TEXT.
+ * La latencia corregida se mide desde el instante en el que tocaba enviar según la tasa fijada, así que si el servidor frena a los emisores los retrasos cuentan igualmente (corrección de la omisión coordinada). La no corregida se mide desde el envío real.
+ */
+public class NCLoadGenerator
+{
+	/* Repartos de las sesiones entre las salas. */
+	public static final String DISTRIBUTION_UNIFORM = "uniform";
+	public static final String DISTRIBUTION_ZIPF = "zipf";
+	/* Hilos lectores de las sesiones. Con async no hay hilos lectores: todas las sesiones las atiende un único bucle de eventos. */
+	public static final String THREADS_PLATFORM = "platform";
+	public static final String THREADS_VIRTUAL = "virtual";
+	public static final String THREADS_ASYNC = "async";
+
+	/* Mayor latencia que distingue el histograma: una hora en microsegundos. */
+	private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.HOURS.toMicros(1);
+	/* Conexiones que se abren a la vez al preparar la prueba, para no desbordar la cola de aceptación del servidor. */
+	private static final int CONNECT_PARALLELISM = 32;
+	/* Tiempo que se espera a que lleguen los últimos mensajes al terminar. */
+	private static final long DRAIN_MILLIS = 2000;
+
+	/* Parámetros de la prueba. */
+	private String host = "localhost";
+	private int port = NanoChatServer.PORT;
+	private int clientCount = 100;
+	private int roomCount = 10;
+	private String distribution = DISTRIBUTION_UNIFORM;
+	private double rate = 1.0;
+	private int durationSeconds = 30;
+	private int warmupSeconds = 5;
+	private NCCodec codec = NCCodec.TEXT;
+	private int textSize = 0;
+	private int senderCount = Runtime.getRuntime().availableProcessors();
+	private String threads = THREADS_PLATFORM;
+	private String nickPrefix = "lg";
+	private String hgrmPrefix = null;
+
+	/* Resultados. Solo se registran las latencias de los mensajes previstos a partir del final del calentamiento. */
+	private final NCLatencyHistogram corrected = new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
+	private final NCLatencyHistogram uncorrected = new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder received = new LongAdder();
+	private final AtomicInteger lostConnections = new AtomicInteger();
+	private volatile long measureStart = Long.MAX_VALUE;
+	private volatile boolean stopping = false;
+
+	private List<NCLoadClient> clients;
+
+	public static void main(String[] args)
+	{
+		NCLoadGenerator generator = new NCLoadGenerator();
+		if (!generator.parseArguments(args))
+		{
+			printUsage();
+			return;
+		}
+		try
+		{
+			generator.run();
+		}
+		catch (IOException | InterruptedException e)
+		{
+			System.err.println("Load test failed: " + e.getMessage());
+		}
+		/* Los hilos lectores pueden seguir bloqueados en sockets que ya no importan. */
+		System.exit(0);
+	}
+
+	/* Recoge la latencia de un texto recibido. Lo llaman los hilos lectores de las sesiones. */
+	void recordReceive(long intendedTime, long actualTime, long receiveTime)
+	{
+		this.received.increment();
+		if (intendedTime < this.measureStart) return;
+		this.corrected.recordValue(TimeUnit.NANOSECONDS.toMicros(receiveTime - intendedTime));
+		this.uncorrected.recordValue(TimeUnit.NANOSECONDS.toMicros(receiveTime - actualTime));
+	}
+
+	/* Aviso de un hilo lector cuya conexión se ha cerrado. */
+	void connectionLost(NCLoadClient client, Exception e)
+	{
+		if (this.stopping) return;
+		this.lostConnections.incrementAndGet();
+		System.err.println("* Connection of " + client.getNick() + " lost: " + e);
+	}
+
+	private void run() throws IOException, InterruptedException
+	{
+		InetSocketAddress serverAddress = new InetSocketAddress(this.host, this.port);
+		String[] rooms = new String[this.roomCount];
+		for (int i = 0; i < this.roomCount; i++) rooms[i] = "Load" + i;
+		int[] assignment = this.assignRooms();
+
+		System.out.println("* Creating " + this.roomCount + " rooms on " + serverAddress + ".");
+		NCLoadClient.createRooms(serverAddress, this.nickPrefix + "admin", rooms);
+
+		System.out.println("* Connecting " + this.clientCount + " clients (" + this.codec.getName() + " codec, " + this.distribution + " room distribution).");
+		NCClientEventLoop loop = null;
+		ExecutorService readers = null;
+		if (this.threads.equals(THREADS_ASYNC))
+		{
+			loop = new NCClientEventLoop("NCLoadEventLoop");
+			loop.start();
+			this.clients = this.connectClientsAsync(loop, serverAddress, rooms, assignment);
+		}
+		else
+		{
+			this.clients = this.connectClients(serverAddress, rooms, assignment);
+			readers = this.createReaderExecutor();
+			for (NCLoadClient client : this.clients) readers.execute(client);
+		}
+
+		/* Todos los emisores comparten el mismo origen de tiempos. */
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long end = start + TimeUnit.SECONDS.toNanos(this.warmupSeconds + this.durationSeconds);
+		this.measureStart = start + TimeUnit.SECONDS.toNanos(this.warmupSeconds);
+		System.out.println("* Sending " + this.rate + " msg/s per client for " + this.warmupSeconds + "s warmup + " + this.durationSeconds + "s measurement.");
+		Thread[] senders = this.startSenders(start, end);
+		this.reportProgress(start, end);
+		for (Thread sender : senders) sender.join();
+
+		/* Esperamos a los últimos mensajes antes de cerrar. */
+		Thread.sleep(DRAIN_MILLIS);
+		this.stopping = true;
+		for (NCLoadClient client : this.clients) client.disconnect();
+		if (readers != null) readers.shutdownNow();
+		if (loop != null) loop.shutdown();
+		this.printReport();
+	}
+
+	/* Sala de cada sesión. Con zipf la sala k recibe una parte de las sesiones proporcional a 1/(k+1), repartidas de forma determinista. */
+	private int[] assignRooms()
+	{
+		int[] assignment = new int[this.clientCount];
+		if (this.distribution.equals(DISTRIBUTION_UNIFORM))
+		{
+			for (int i = 0; i < this.clientCount; i++) assignment[i] = i % this.roomCount;
+			return assignment;
+		}
+		double[] cumulative = new double[this.roomCount];
+		double total = 0;
+		for (int k = 0; k < this.roomCount; k++)
+		{
+			total += 1.0 / (k + 1);
+			cumulative[k] = total;
+		}
+		for (int i = 0; i < this.clientCount; i++)
+		{
+			double target = (i + 0.5) / this.clientCount * total;
+			int k = Arrays.binarySearch(cumulative, target);
+			assignment[i] = Math.min(k < 0 ? -k - 1 : k, this.roomCount - 1);
+		}
+		return assignment;
+	}
+
+	/* Conecta las sesiones en paralelo, unas pocas a la vez. */
+	private List<NCLoadClient> connectClients(InetSocketAddress serverAddress, String[] rooms, int[] assignment) throws IOException, InterruptedException
+	{
+		ExecutorService pool = Executors.newFixedThreadPool(CONNECT_PARALLELISM);
+		List<NCLoadClient> connected = new ArrayList<NCLoadClient>(this.clientCount);
+		List<Future<?>> pending = new ArrayList<Future<?>>(this.clientCount);
+		for (int i = 0; i < this.clientCount; i++)
+		{
+			NCLoadClient client = new NCLoadClient(this, this.nickPrefix + i, rooms[assignment[i]]);
+			connected.add(client);
+			pending.add(pool.submit(() -> { client.connect(serverAddress, this.codec); return null; }));
+		}
+		pool.shutdown();
+		try
+		{
+			for (Future<?> f : pending) f.get();
+		}
+		catch (ExecutionException e)
+		{
+			pool.shutdownNow();
+			throw new IOException("Can't connect client: " + e.getCause().getMessage(), e.getCause());
+		}
+		return connected;
+	}
+
+	/* Conecta las sesiones sobre el bucle de eventos, con unas pocas conexiones a medio establecer a la vez. */
+	private List<NCLoadClient> connectClientsAsync(NCClientEventLoop loop, InetSocketAddress serverAddress, String[] rooms, int[] assignment) throws IOException, InterruptedException
+	{
+		Semaphore inFlight = new Semaphore(CONNECT_PARALLELISM);
+		List<NCLoadClient> connected = new ArrayList<NCLoadClient>(this.clientCount);
+		List<CompletableFuture<Void>> pending = new ArrayList<CompletableFuture<Void>>(this.clientCount);
+		for (int i = 0; i < this.clientCount; i++)
+		{
+			NCLoadClient client = new NCLoadClient(this, this.nickPrefix + i, rooms[assignment[i]]);
+			connected.add(client);
+			inFlight.acquire();
+			pending.add(client.connectAsync(loop, serverAddress, this.codec).whenComplete((ignored, e) -> inFlight.release()));
+		}
+		try
+		{
+			CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+		}
+		catch (CompletionException e)
+		{
+			throw new IOException("Can't connect client: " + e.getCause().getMessage(), e.getCause());
+		}
+		return connected;
+	}
+
+	/* Lanza los emisores. Cada uno se encarga de una parte de las sesiones y las recorre por turnos a intervalos fijos, desfasadas para repartir los envíos en el tiempo. */
+	private Thread[] startSenders(long start, long end)
+	{
+		int count = Math.min(this.senderCount, this.clientCount);
+		Thread[] senders = new Thread[count];
+		String padding = this.textSize > 0 ? " " + "x".repeat(this.textSize) : "";
+		for (int s = 0; s < count; s++)
+		{
+			List<NCLoadClient> own = new ArrayList<NCLoadClient>();
+			for (int i = s; i < this.clientCount; i += count) own.add(this.clients.get(i));
+			/* Intervalo entre dos envíos consecutivos del emisor y desfase de cada emisor respecto a los demás. */
+			long interval = (long) (1e9 / (this.rate * own.size()));
+			long offset = interval * s / count;
+			senders[s] = new Thread(() -> this.sendLoop(own, start + offset, interval, end, padding), "NCLoadSender-" + s);
+			senders[s].start();
+		}
+		return senders;
+	}
+
+	/* Envía por turnos a su instante previsto. Si el emisor se retrasa no se salta envíos ni mueve los instantes previstos, así el retraso se ve en la latencia corregida. */
+	private void sendLoop(List<NCLoadClient> own, long first, long interval, long end, String padding)
+	{
+		long intended = first;
+		int next = 0;
+		while (intended < end)
+		{
+			long wait = intended - System.nanoTime();
+			if (wait > 0) LockSupport.parkNanos(wait);
+			else
+			{
+				NCLoadClient client = own.get(next);
+				try
+				{
+					client.send(intended, padding);
+					this.sent.increment();
+				}
+				catch (IOException e)
+				{
+					/* La conexión perdida ya la anota su hilo lector. */
+				}
+				next = (next + 1) % own.size();
+				intended += interval;
+			}
+		}
+	}
+
+	/* Muestra cada segundo los mensajes enviados y recibidos en ese segundo. */
+	private void reportProgress(long start, long end) throws InterruptedException
+	{
+		long lastSent = 0;
+		long lastReceived = 0;
+		for (long tick = start + TimeUnit.SECONDS.toNanos(1); tick <= end; tick += TimeUnit.SECONDS.toNanos(1))
+		{
+			long wait = tick - System.nanoTime();
+			if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+			long sentNow = this.sent.sum();
+			long receivedNow = this.received.sum();
+			long second = TimeUnit.NANOSECONDS.toSeconds(tick - start);
+			System.out.println(String.format("[%4ds]%s sent %8d msg/s, received %9d msg/s", second, second <= this.warmupSeconds ? " (warmup)" : "", sentNow - lastSent, receivedNow - lastReceived));
+			lastSent = sentNow;
+			lastReceived = receivedNow;
+		}
+	}
+
+	private void printReport()
+	{
+		System.out.println();
+		System.out.println("* Total sent " + this.sent.sum() + " messages, received " + this.received.sum() + " messages, lost " + this.lostConnections.get() + " connections.");
+		System.out.println(String.format("* Measured %d deliveries in %ds: %.1f deliveries/s.", this.corrected.getTotalCount(), this.durationSeconds, (double) this.corrected.getTotalCount() / this.durationSeconds));
+		this.printSummary("Latency corrected for coordinated omission (ms)", this.corrected);
+		this.printSummary("Latency from actual send time (ms)", this.uncorrected);
+		if (this.hgrmPrefix != null)
+		{
+			this.writeDistribution(this.hgrmPrefix + "-corrected.hgrm", this.corrected);
+			this.writeDistribution(this.hgrmPrefix + "-uncorrected.hgrm", this.uncorrected);
+		}
+		else
+		{
+			System.out.println();
+			System.out.println("* Percentile distribution corrected for coordinated omission (ms):");
+			this.corrected.outputPercentileDistribution(System.out, 1000.0);
+		}
+	}
+
+	private void printSummary(String title, NCLatencyHistogram histogram)
+	{
+		System.out.println(String.format("* %s: min %.3f, p50 %.3f, p90 %.3f, p99 %.3f, p99.9 %.3f, p99.99 %.3f, max %.3f, mean %.3f", title,
+				histogram.getMinValue() / 1000.0,
+				histogram.getValueAtPercentile(50) / 1000.0,
+				histogram.getValueAtPercentile(90) / 1000.0,
+				histogram.getValueAtPercentile(99) / 1000.0,
+				histogram.getValueAtPercentile(99.9) / 1000.0,
+				histogram.getValueAtPercentile(99.99) / 1000.0,
+				histogram.getMaxValue() / 1000.0,
+				histogram.getMean() / 1000.0));
+	}
+
+	private void writeDistribution(String file, NCLatencyHistogram histogram)
+	{
+		try (PrintStream out = new PrintStream(file))
+		{
+			histogram.outputPercentileDistribution(out, 1000.0);
+			System.out.println("* Percentile distribution written to " + file + ".");
+		}
+		catch (FileNotFoundException e)
+		{
+			System.err.println("Can't write " + file + ": " + e.getMessage());
+		}
+	}
+
+	/* Un hilo lector por sesión: de plataforma o virtual (Java 21), igual que los modos del servidor. */
+	private ExecutorService createReaderExecutor()
+	{
+		if (this.threads.equals(THREADS_VIRTUAL))
+		{
+			/* Los hilos virtuales solo existen a partir de Java 21, así que buscamos el método por reflexión para poder seguir compilando con versiones anteriores. */
+			try
+			{
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (ReflectiveOperationException e)
+			{
+				System.err.println("Virtual threads are not available in this Java runtime (Java 21 or newer is required). Using platform threads.");
+			}
+		}
+		return Executors.newCachedThreadPool(r ->
+		{
+			Thread t = new Thread(r, "NCLoadReader");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private boolean parseArguments(String[] args)
+	{
+		if (args.length % 2 != 0) return false;
+		for (int i = 0; i < args.length; i += 2)
+		{
+			String arg = args[i];
+			String value = args[i + 1];
+			try
+			{
+				switch (arg)
+				{
+					case "-host": this.host = value; break;
+					case "-port": this.port = Integer.parseInt(value); break;
+					case "-clients": this.clientCount = positive(value); break;
+					case "-rooms": this.roomCount = positive(value); break;
+					case "-rate": this.rate = Double.parseDouble(value); if (this.rate <= 0) return false; break;
+					case "-duration": this.durationSeconds = positive(value); break;
+					case "-warmup": this.warmupSeconds = Integer.parseInt(value); if (this.warmupSeconds < 0) return false; break;
+					case "-size": this.textSize = Integer.parseInt(value); if (this.textSize < 0) return false; break;
+					case "-senders": this.senderCount = positive(value); break;
+					case "-prefix": this.nickPrefix = value; break;
+					case "-hgrm": this.hgrmPrefix = value; break;
+					case "-codec":
+						this.codec = NCCodec.forName(value);
+						if (this.codec == null) return false;
+						break;
+					case "-distribution":
+						if (!value.equals(DISTRIBUTION_UNIFORM) && !value.equals(DISTRIBUTION_ZIPF)) return false;
+						this.distribution = value;
+						break;
+					case "-threads":
+						if (!value.equals(THREADS_PLATFORM) && !value.equals(THREADS_VIRTUAL) && !value.equals(THREADS_ASYNC)) return false;
+						this.threads = value;
+						break;
+					default:
+						System.err.println("Illegal option " + arg);
+						return false;
+				}
+			}
+			catch (NumberFormatException e)
+			{
+				System.err.println("Wrong value passed to option " + arg);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int positive(String value)
+	{
+		int n = Integer.parseInt(value);
+		if (n < 1) throw new NumberFormatException();
+		return n;
+	}
+
+	private static void printUsage()
+	{
+		System.out.println("* Correct use: java NCLoadGenerator [-host <host>] [-port <port>] [-clients <n>] [-rooms <n>] [-distribution " + DISTRIBUTION_UNIFORM + "|" + DISTRIBUTION_ZIPF + "] [-rate <msg/s per client>] [-duration <s>] [-warmup <s>] [-codec text|binary] [-size <text bytes>] [-senders <n>] [-threads " + THREADS_PLATFORM + "|" + THREADS_VIRTUAL + "|" + THREADS_ASYNC + "] [-prefix <nick prefix>] [-hgrm <file prefix>]");
+	}
+}
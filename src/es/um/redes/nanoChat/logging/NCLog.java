@@ -0,0 +1,222 @@
+package es.um.redes.nanoChat.logging;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log asíncrono por niveles del servidor y del directorio. Quien registra un evento solo guarda el formato y sus argumentos en un buffer circular sin cerrojos (NCLogBuffer); un único hilo appender construye las líneas y las escribe, así que los hilos que atienden a los clientes nunca esperan al lock de System.out.
+ * El formato usa {} para cada argumento y se resuelve en el appender, de forma que un evento de un nivel desactivado no cuesta nada más que la comprobación del nivel. Los argumentos deben ser inmutables (cadenas, números) porque se leen más tarde en otro hilo. Si el último argumento es una excepción se escribe su traza.
+ * Si el buffer está lleno el evento se descarta en lugar de bloquear, y el appender avisa de cuántos se han perdido.
+ */
+public final class NCLog
+{
+	/* Niveles de log, de más a menos importante. */
+	public static final int LEVEL_ERROR = 0;
+	public static final int LEVEL_WARN = 1;
+	public static final int LEVEL_INFO = 2;
+	public static final int LEVEL_DEBUG = 3;
+	private static final String[] LEVEL_NAMES = {"error", "warn", "info", "debug"};
+	private static final String[] LEVEL_LABELS = {"ERROR", "WARN ", "INFO ", "DEBUG"};
+
+	/* Propiedad del sistema con el nivel inicial. Por defecto info: los eventos de cada mensaje (debug) no se escriben. */
+	public static final String LEVEL_PROPERTY = "nanochat.log.level";
+	public static final int DEFAULT_LEVEL = LEVEL_INFO;
+	/* Eventos que caben en el buffer sin que el appender los haya escrito. */
+	private static final int BUFFER_CAPACITY = 16 * 1024;
+	/* Espera del appender cuando no hay eventos. */
+	private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+	private static volatile int level = parseLevelProperty();
+	private static final NCLogBuffer buffer = new NCLogBuffer(BUFFER_CAPACITY);
+	/* Eventos descartados desde el arranque. El appender solo avisa de los que no ha contado aún, sin poner el total a cero. */
+	private static final LongAdder dropped = new LongAdder();
+	private static long droppedReported = 0;
+
+	static
+	{
+		startAppender();
+	}
+
+	private NCLog()
+	{
+	}
+
+	/* Cambia el nivel de log. */
+	public static void setLevel(int newLevel)
+	{
+		level = newLevel;
+	}
+
+	public static int getLevel()
+	{
+		return level;
+	}
+
+	/* Nivel con el nombre dado (error, warn, info o debug, sin distinguir mayúsculas) o -1 si no existe. */
+	public static int levelForName(String name)
+	{
+		for (int i = 0; i < LEVEL_NAMES.length; i++)
+		{
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) return i;
+		}
+		return -1;
+	}
+
+	/* Indica si se escriben los eventos del nivel dado. Sirve para evitar calcular argumentos costosos. */
+	public static boolean isEnabled(int eventLevel)
+	{
+		return eventLevel <= level;
+	}
+
+	/* Eventos descartados desde el arranque porque el buffer estaba lleno. */
+	public static long getDropped()
+	{
+		return dropped.sum();
+	}
+
+	public static void error(String format) { log(LEVEL_ERROR, format, null, null, null, null, 0); }
+	public static void error(String format, Object a) { log(LEVEL_ERROR, format, a, null, null, null, 1); }
+	public static void error(String format, Object a, Object b) { log(LEVEL_ERROR, format, a, b, null, null, 2); }
+	public static void error(String format, Object a, Object b, Object c) { log(LEVEL_ERROR, format, a, b, c, null, 3); }
+	public static void error(String format, Object... args) { log(LEVEL_ERROR, format, null, null, null, args, args.length); }
+
+	public static void warn(String format) { log(LEVEL_WARN, format, null, null, null, null, 0); }
+	public static void warn(String format, Object a) { log(LEVEL_WARN, format, a, null, null, null, 1); }
+	public static void warn(String format, Object a, Object b) { log(LEVEL_WARN, format, a, b, null, null, 2); }
+	public static void warn(String format, Object a, Object b, Object c) { log(LEVEL_WARN, format, a, b, c, null, 3); }
+	public static void warn(String format, Object... args) { log(LEVEL_WARN, format, null, null, null, args, args.length); }
+
+	public static void info(String format) { log(LEVEL_INFO, format, null, null, null, null, 0); }
+	public static void info(String format, Object a) { log(LEVEL_INFO, format, a, null, null, null, 1); }
+	public static void info(String format, Object a, Object b) { log(LEVEL_INFO, format, a, b, null, null, 2); }
+	public static void info(String format, Object a, Object b, Object c) { log(LEVEL_INFO, format, a, b, c, null, 3); }
+	public static void info(String format, Object... args) { log(LEVEL_INFO, format, null, null, null, args, args.length); }
+
+	public static void debug(String format) { log(LEVEL_DEBUG, format, null, null, null, null, 0); }
+	public static void debug(String format, Object a) { log(LEVEL_DEBUG, format, a, null, null, null, 1); }
+	public static void debug(String format, Object a, Object b) { log(LEVEL_DEBUG, format, a, b, null, null, 2); }
+	public static void debug(String format, Object a, Object b, Object c) { log(LEVEL_DEBUG, format, a, b, c, null, 3); }
+	public static void debug(String format, Object... args) { log(LEVEL_DEBUG, format, null, null, null, args, args.length); }
+
+	/* Guarda el evento en el buffer sin formatearlo. Si el último argumento es una excepción se separa para escribir su traza. */
+	private static void log(int eventLevel, String format, Object a, Object b, Object c, Object[] args, int count)
+	{
+		if (eventLevel > level) return;
+		NCLogBuffer.Slot slot = buffer.claim();
+		if (slot == null)
+		{
+			dropped.increment();
+			return;
+		}
+		slot.level = eventLevel;
+		slot.timeMillis = System.currentTimeMillis();
+		slot.thread = Thread.currentThread().getName();
+		slot.format = format;
+		Object last = count == 0 ? null : (args != null ? args[count - 1] : (count == 1 ? a : (count == 2 ? b : c)));
+		if (last instanceof Throwable)
+		{
+			slot.thrown = (Throwable) last;
+			count--;
+			if (args == null)
+			{
+				if (count == 0) a = null;
+				else if (count == 1) b = null;
+				else c = null;
+			}
+		}
+		slot.arg0 = a;
+		slot.arg1 = b;
+		slot.arg2 = c;
+		slot.args = args;
+		slot.argCount = count;
+		buffer.publish(slot);
+	}
+
+	private static void startAppender()
+	{
+		Thread thread = new Thread(NCLog::appendLoop, "NCLogAppender");
+		thread.setDaemon(true);
+		thread.start();
+		/* Al terminar el proceso escribimos lo que quede en el buffer. */
+		Runtime.getRuntime().addShutdownHook(new Thread(NCLog::drain, "NCLogShutdown"));
+	}
+
+	/* Bucle del appender: escribe los eventos según llegan y espera un poco cuando no hay ninguno. */
+	private static void appendLoop()
+	{
+		while (true)
+		{
+			if (drain() == 0) LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+	}
+
+	/* Escribe todos los eventos publicados y avisa de los descartados. Devuelve cuántos ha escrito. Solo lo ejecuta un hilo a la vez: el appender o, al terminar, el hook de cierre. */
+	private static synchronized int drain()
+	{
+		int written = 0;
+		StringBuilder line = new StringBuilder(128);
+		NCLogBuffer.Slot slot;
+		while ((slot = buffer.peek()) != null)
+		{
+			line.setLength(0);
+			format(slot, line);
+			PrintStream out = slot.level <= LEVEL_WARN ? System.err : System.out;
+			out.println(line);
+			if (slot.thrown != null) slot.thrown.printStackTrace(out);
+			buffer.release(slot);
+			written++;
+		}
+		long total = dropped.sum();
+		long lost = total - droppedReported;
+		droppedReported = total;
+		if (lost > 0) System.err.println(TIME_FORMAT.format(Instant.now()) + " " + LEVEL_LABELS[LEVEL_WARN] + " [" + Thread.currentThread().getName() + "] * " + lost + " log events dropped, the log buffer was full.");
+		return written;
+	}
+
+	/* Línea del evento: fecha, nivel, hilo y mensaje con los {} sustituidos por los argumentos. */
+	private static void format(NCLogBuffer.Slot slot, StringBuilder line)
+	{
+		TIME_FORMAT.formatTo(Instant.ofEpochMilli(slot.timeMillis), line);
+		line.append(' ').append(LEVEL_LABELS[slot.level]).append(" [").append(slot.thread).append("] ");
+		String format = slot.format;
+		int argIndex = 0;
+		int start = 0;
+		int brace;
+		while ((brace = format.indexOf("{}", start)) >= 0)
+		{
+			line.append(format, start, brace);
+			line.append(argument(slot, argIndex++));
+			start = brace + 2;
+		}
+		line.append(format, start, format.length());
+	}
+
+	/* Argumento de la posición dada. Los {} que sobran se dejan tal cual. */
+	private static Object argument(NCLogBuffer.Slot slot, int index)
+	{
+		if (index >= slot.argCount) return "{}";
+		if (slot.args != null) return slot.args[index];
+		switch (index)
+		{
+			case 0: return slot.arg0;
+			case 1: return slot.arg1;
+			default: return slot.arg2;
+		}
+	}
+
+	/* Nivel inicial de la propiedad del sistema, o el de por defecto si no está o no es válido. */
+	private static int parseLevelProperty()
+	{
+		String name = System.getProperty(LEVEL_PROPERTY);
+		if (name == null) return DEFAULT_LEVEL;
+		int parsed = levelForName(name);
+		return parsed < 0 ? DEFAULT_LEVEL : parsed;
+	}
+}
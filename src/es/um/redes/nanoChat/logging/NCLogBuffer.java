@@ -0,0 +1,101 @@
+package es.um.redes.nanoChat.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffer circular acotado y sin cerrojos de eventos de log: muchos hilos escriben y un único hilo (el appender) lee.
+ * Cada posición lleva un número de secuencia que indica si está libre para la vuelta actual o ya tiene un evento publicado, así que los productores solo compiten en un compareAndSet y nunca esperan: si el buffer está lleno el evento se descarta.
+ * Las posiciones se reservan al crear el buffer y se reutilizan, por lo que publicar un evento no reserva memoria.
+ */
+final class NCLogBuffer
+{
+	/* Posición del buffer. Los campos del evento se escriben antes de publicar la secuencia y se leen después de verla, así que la secuencia volátil los hace visibles. */
+	static final class Slot
+	{
+		volatile long sequence;
+		int level;
+		long timeMillis;
+		String thread;
+		String format;
+		Object arg0;
+		Object arg1;
+		Object arg2;
+		Object[] args;
+		int argCount;
+		Throwable thrown;
+
+		private void clear()
+		{
+			this.thread = null;
+			this.format = null;
+			this.arg0 = null;
+			this.arg1 = null;
+			this.arg2 = null;
+			this.args = null;
+			this.thrown = null;
+		}
+	}
+
+	private final Slot[] slots;
+	private final int mask;
+	/* Siguiente posición que reservará un productor. */
+	private final AtomicLong tail;
+	/* Siguiente posición que leerá el appender. Solo la toca su hilo. */
+	private long head;
+
+	/* La capacidad se redondea a la siguiente potencia de dos. */
+	NCLogBuffer(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++)
+		{
+			this.slots[i] = new Slot();
+			this.slots[i].sequence = i;
+		}
+		this.mask = size - 1;
+		this.tail = new AtomicLong(0);
+		this.head = 0;
+	}
+
+	/* Reserva una posición para escribir un evento. Devuelve null si el buffer está lleno. La posición se publica con publish una vez rellena. */
+	Slot claim()
+	{
+		long pos = this.tail.get();
+		while (true)
+		{
+			Slot slot = this.slots[(int) pos & this.mask];
+			long diff = slot.sequence - pos;
+			if (diff == 0)
+			{
+				if (this.tail.compareAndSet(pos, pos + 1)) return slot;
+				pos = this.tail.get();
+			}
+			/* La posición todavía tiene el evento de la vuelta anterior: el buffer está lleno. */
+			else if (diff < 0) return null;
+			/* Otro productor ya la reservó, probamos con la siguiente. */
+			else pos = this.tail.get();
+		}
+	}
+
+	/* Publica el evento de una posición reservada para que lo vea el appender. */
+	void publish(Slot slot)
+	{
+		slot.sequence = slot.sequence + 1;
+	}
+
+	/* Siguiente evento publicado o null si no hay ninguno. Solo lo llama el appender, que debe pasar el evento a release al terminar con él. */
+	Slot peek()
+	{
+		Slot slot = this.slots[(int) this.head & this.mask];
+		return slot.sequence == this.head + 1 ? slot : null;
+	}
+
+	/* Libera la posición leída para la siguiente vuelta del buffer. */
+	void release(Slot slot)
+	{
+		slot.clear();
+		slot.sequence = this.head + this.slots.length;
+		this.head++;
+	}
+}
@@ -0,0 +1,128 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import es.um.redes.nanoChat.metrics.NCMessageDecodedEvent;
+
+/**
+	BinaryCodec
+	----
+
+	<length><opcode><fields>[<id>[<more>]]
+
+	La longitud del cuerpo va como varint de hasta 32 bits, el opcode en un byte y los campos de cada tipo de mensaje en el orden de su formato field:value (ver NCBinaryWriter).
+	Si el mensaje pertenece a una petición, el id de la petición va al final como varint. Si es un trozo al que siguen más, detrás va un varint 1 (y el id aunque sea 0).
+	No tiene el límite de 64 KB del formato de texto, solo el tamaño máximo de trama configurado (NCCodec.MAX_FRAME_SIZE_PROPERTY) para no aceptar tramas arbitrariamente grandes.
+*/
+
+public class NCBinaryCodec extends NCCodec
+{
+	@Override
+	public int getId()
+	{
+		return CODEC_BINARY;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "binary";
+	}
+
+	@Override
+	public int getMaxBodySize()
+	{
+		return getMaxFrameSize() - NCBinaryWriter.MAX_HEADER_SIZE;
+	}
+
+	@Override
+	public NCFrame encode(NCMessage message) throws IOException
+	{
+		/* Escribimos en el buffer del hilo y copiamos una sola vez a la trama. */
+		NCBinaryWriter writer = NCBinaryWriter.acquire();
+		writer.writeByte(message.getOpcode());
+		message.writeBinary(writer);
+		return this.finish(writer, message.getRequestId(), message.hasMore());
+	}
+
+	@Override
+	public NCFrame withTrailer(NCFrame frame, int requestId, boolean more) throws IOException
+	{
+		if (requestId == 0 && !more) return frame;
+		/* Copiamos el cuerpo sin su cabecera, la longitud cambia al añadir el id. */
+		int header = 1;
+		while ((frame.get(header - 1) & 0x80) != 0) header++;
+		NCBinaryWriter writer = NCBinaryWriter.acquire();
+		writer.write(frame, header, frame.size() - header);
+		return this.finish(writer, requestId, more);
+	}
+
+	/* Escribe detrás de los campos el id de la petición, solo si lo tiene, y la marca more, y construye la trama. */
+	private NCFrame finish(NCBinaryWriter writer, int requestId, boolean more) throws IOException
+	{
+		if (requestId != 0 || more) writer.writeVarInt(requestId);
+		if (more) writer.writeVarInt(1);
+		if (writer.size() > this.getMaxBodySize()) throw new IOException("Encoded message too long: " + writer.size() + " bytes.");
+		return writer.toFrame();
+	}
+
+	@Override
+	public NCMessage read(DataInputStream dis) throws IOException
+	{
+		/* Leemos la cabecera byte a byte hasta el final del varint. */
+		int size = 0;
+		int header = 0;
+		for (int shift = 0; ; shift += 7)
+		{
+			if (shift >= 35) throw new IOException("Malformed binary frame.");
+			int b = dis.readUnsignedByte();
+			header++;
+			size |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) break;
+		}
+		this.checkBodySize(size);
+		byte[] body = scratchBuffer(size);
+		dis.readFully(body, 0, size);
+		/* El evento de JFR empieza cuando ya está la trama entera para no medir la espera del cliente. */
+		NCMessageDecodedEvent event = new NCMessageDecodedEvent();
+		event.begin();
+		return this.decoded(event, NCMessage.readBinary(new NCBinaryReader(body, 0, size)), header + size);
+	}
+
+	@Override
+	public int frameSize(ByteBuffer buffer) throws IOException
+	{
+		int pos = buffer.position();
+		int size = 0;
+		for (int i = 0; i < NCBinaryWriter.MAX_HEADER_SIZE; i++)
+		{
+			if (pos + i >= buffer.limit()) return -1;
+			int b = buffer.get(pos + i) & 0xFF;
+			size |= (b & 0x7F) << (7 * i);
+			if ((b & 0x80) == 0)
+			{
+				this.checkBodySize(size);
+				return i + 1 + size;
+			}
+		}
+		throw new IOException("Malformed binary frame.");
+	}
+
+	@Override
+	public NCMessage decode(byte[] array, int offset, int size) throws IOException
+	{
+		/* Saltamos la cabecera, el tamaño ya lo conocemos. */
+		int header = 1;
+		while ((array[offset + header - 1] & 0x80) != 0) header++;
+		NCMessageDecodedEvent event = new NCMessageDecodedEvent();
+		event.begin();
+		return this.decoded(event, NCMessage.readBinary(new NCBinaryReader(array, offset + header, size - header)), size);
+	}
+
+	private void checkBodySize(int size) throws IOException
+	{
+		if (size < 1 || size > this.getMaxBodySize()) throw new IOException("Invalid binary frame size: " + size + ".");
+	}
+}
@@ -0,0 +1,81 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+	BinaryReader
+	----
+
+	Lee los campos de un cuerpo de mensaje en formato binario (ver NCBinaryWriter). Cualquier campo que se salga del cuerpo o un varint demasiado largo se considera un mensaje mal formado.
+*/
+
+public final class NCBinaryReader
+{
+	private final byte[] buffer;
+	private int position;
+	private final int limit;
+
+	public NCBinaryReader(byte[] buffer, int offset, int length)
+	{
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	public int readByte() throws IOException
+	{
+		if (this.position >= this.limit) throw new IOException("Malformed binary message.");
+		return this.buffer[this.position++] & 0xFF;
+	}
+
+	/* Lee un entero sin signo en formato varint. */
+	public int readVarInt() throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7)
+		{
+			int b = this.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed binary message.");
+	}
+
+	/* Lee un long sin signo en formato varint. */
+	public long readVarLong() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 70; shift += 7)
+		{
+			int b = this.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed binary message.");
+	}
+
+	/* Lee una cadena: longitud en bytes y texto en UTF-8. */
+	public String readString() throws IOException
+	{
+		int length = this.readVarInt();
+		if (length < 0 || length > this.limit - this.position) throw new IOException("Malformed binary message.");
+		String s = new String(this.buffer, this.position, length, StandardCharsets.UTF_8);
+		this.position += length;
+		return s;
+	}
+
+	/* Indica si quedan bytes del cuerpo por leer. */
+	public boolean hasRemaining()
+	{
+		return this.position < this.limit;
+	}
+
+	/* Lee un número de elementos, comprobando que no pueda superar lo que queda de cuerpo (cada elemento ocupa al menos un byte). */
+	public int readCount() throws IOException
+	{
+		int count = this.readVarInt();
+		if (count < 0 || count > this.limit - this.position) throw new IOException("Malformed binary message.");
+		return count;
+	}
+}
@@ -0,0 +1,169 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.util.Arrays;
+
+/**
+	BinaryWriter
+	----
+
+	Buffer creciente en el que los mensajes escriben sus campos con el formato binario: enteros como varint (7 bits por byte, el bit alto indica que siguen más bytes) y cadenas como varint con la longitud en bytes seguido del texto en UTF-8.
+	Deja sitio al principio para la longitud de la trama, así la trama final se obtiene con una única copia.
+*/
+
+public final class NCBinaryWriter
+{
+	/* Espacio reservado para la cabecera: un varint de 32 bits ocupa como mucho 5 bytes. */
+	static final int MAX_HEADER_SIZE = 5;
+	/* Tamaño a partir del cual no se conserva el buffer de un hilo entre codificaciones. */
+	private static final int MAX_CACHED_SIZE = 16 * 1024;
+	/* Un buffer reutilizable por hilo para codificar las tramas. */
+	private static final ThreadLocal<NCBinaryWriter> cached = ThreadLocal.withInitial(() -> new NCBinaryWriter(128));
+
+	private byte[] buffer;
+	/* Posición donde se escribirá el siguiente byte. */
+	private int position;
+
+	public NCBinaryWriter(int initialCapacity)
+	{
+		this.buffer = new byte[MAX_HEADER_SIZE + initialCapacity];
+		this.position = MAX_HEADER_SIZE;
+	}
+
+	/* Devuelve el buffer del hilo actual vacío y listo para escribir. */
+	static NCBinaryWriter acquire()
+	{
+		NCBinaryWriter writer = cached.get();
+		if (writer.buffer.length > MAX_CACHED_SIZE)
+		{
+			writer = new NCBinaryWriter(128);
+			cached.set(writer);
+		}
+		writer.position = MAX_HEADER_SIZE;
+		return writer;
+	}
+
+	public void writeByte(int b)
+	{
+		this.ensureCapacity(1);
+		this.buffer[this.position++] = (byte) b;
+	}
+
+	/* Escribe un entero sin signo en formato varint. */
+	public void writeVarInt(int value)
+	{
+		this.ensureCapacity(MAX_HEADER_SIZE);
+		while ((value & ~0x7F) != 0)
+		{
+			this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.position++] = (byte) value;
+	}
+
+	/* Escribe un long sin signo en formato varint. */
+	public void writeVarLong(long value)
+	{
+		this.ensureCapacity(10);
+		while ((value & ~0x7FL) != 0)
+		{
+			this.buffer[this.position++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[this.position++] = (byte) value;
+	}
+
+	/* Escribe una cadena: longitud en bytes y texto en UTF-8, codificado directamente en el buffer. Los sustitutos sueltos se escriben como '?', igual que String.getBytes. */
+	public void writeString(String s)
+	{
+		int length = s.length();
+		int encoded = 0;
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80) encoded++;
+			else if (c < 0x800) encoded += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				encoded += 4;
+				i++;
+			}
+			else if (Character.isSurrogate(c)) encoded++;
+			else encoded += 3;
+		}
+		this.writeVarInt(encoded);
+		this.ensureCapacity(encoded);
+		byte[] b = this.buffer;
+		int pos = this.position;
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt(i);
+			if (c < 0x80)
+			{
+				b[pos++] = (byte) c;
+			}
+			else if (c < 0x800)
+			{
+				b[pos++] = (byte) (0xC0 | (c >> 6));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[pos++] = (byte) (0xF0 | (cp >> 18));
+				b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate(c))
+			{
+				b[pos++] = '?';
+			}
+			else
+			{
+				b[pos++] = (byte) (0xE0 | (c >> 12));
+				b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		this.position = pos;
+	}
+
+	/* Añade length bytes de la trama desde la posición offset, ya codificados. */
+	void write(NCFrame frame, int offset, int length)
+	{
+		this.ensureCapacity(length);
+		frame.copyTo(offset, this.buffer, this.position, length);
+		this.position += length;
+	}
+
+	/* Número de bytes del cuerpo escritos hasta ahora. */
+	public int size()
+	{
+		return this.position - MAX_HEADER_SIZE;
+	}
+
+	/* Construye la trama: varint con la longitud del cuerpo seguido del cuerpo. */
+	NCFrame toFrame()
+	{
+		int bodySize = this.size();
+		/* Calculamos cuántos bytes ocupa la cabecera y la escribimos justo antes del cuerpo. */
+		int headerSize = 1;
+		for (int v = bodySize >>> 7; v != 0; v >>>= 7) headerSize++;
+		int start = MAX_HEADER_SIZE - headerSize;
+		int pos = start;
+		int value = bodySize;
+		while ((value & ~0x7F) != 0)
+		{
+			this.buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		this.buffer[pos] = (byte) value;
+		return new NCFrame(Arrays.copyOfRange(this.buffer, start, this.position));
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (this.position + extra <= this.buffer.length) return;
+		this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + extra));
+	}
+}
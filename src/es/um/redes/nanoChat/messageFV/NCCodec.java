@@ -0,0 +1,106 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import es.um.redes.nanoChat.metrics.NCMessageDecodedEvent;
+
+/**
+	Codec
+	----
+
+	Formato con el que se codifican los mensajes en el socket. Toda conexión empieza con el formato de texto field:value; el cliente puede pedir otro con SetCodec antes de registrar su nick y, tras la respuesta CodecOk, ambos extremos pasan a usar el códec que indica el servidor.
+
+	Defined codecs:
+	- text
+	- binary
+*/
+
+public abstract class NCCodec
+{
+	/* Identificadores de los códecs. Se usan como índice de la caché de tramas de cada mensaje. */
+	public static final int CODEC_TEXT = 0;
+	public static final int CODEC_BINARY = 1;
+	public static final int CODEC_COUNT = 2;
+
+	/* Propiedad con el tamaño máximo de trama, en bytes, que se envía y se acepta. Protege de tramas arbitrariamente grandes. */
+	public static final String MAX_FRAME_SIZE_PROPERTY = "nanochat.frame.maxSize";
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	/* Menor tamaño máximo de trama que se admite en la propiedad. */
+	private static final int MIN_FRAME_SIZE = 4 * 1024;
+	private static final int maxFrameSize = Math.max(MIN_FRAME_SIZE, Integer.getInteger(MAX_FRAME_SIZE_PROPERTY, DEFAULT_MAX_FRAME_SIZE));
+
+	public static final NCCodec TEXT = new NCTextCodec();
+	public static final NCCodec BINARY = new NCBinaryCodec();
+
+	/* Tamaño a partir del cual no se conserva el buffer de lectura de un hilo. */
+	private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+	/* Buffer de lectura por hilo para los cuerpos de trama que se leen del stream. Los mensajes decodificados copian sus campos, así que se puede reutilizar en cuanto se decodifica la trama. */
+	private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[1024]);
+
+	/* Devuelve el códec con el nombre dado (sin distinguir mayúsculas) o null si no existe. */
+	public static NCCodec forName(String name)
+	{
+		if (name == null) return null;
+		if (name.equalsIgnoreCase(TEXT.getName())) return TEXT;
+		if (name.equalsIgnoreCase(BINARY.getName())) return BINARY;
+		return null;
+	}
+
+	/* Tamaño máximo de trama configurado. */
+	public static int getMaxFrameSize()
+	{
+		return maxFrameSize;
+	}
+
+	/* Devuelve un buffer del hilo actual de al menos size bytes. */
+	protected static byte[] scratchBuffer(int size)
+	{
+		byte[] buffer = scratch.get();
+		if (buffer.length >= size) return buffer;
+		buffer = new byte[size];
+		if (size <= MAX_SCRATCH_SIZE) scratch.set(buffer);
+		return buffer;
+	}
+
+	/* Cierra el evento de JFR de una trama decodificada, anota en el mensaje el tamaño de la trama y lo devuelve. Los campos del evento solo se rellenan si el evento supera su umbral y se va a grabar, así que sin grabación no cuesta nada. */
+	protected NCMessage decoded(NCMessageDecodedEvent event, NCMessage message, int frameSize)
+	{
+		event.end();
+		if (message != null) message.wireSize = frameSize;
+		if (event.shouldCommit())
+		{
+			event.opcode = message == null ? NCMessage.OP_INVALID_CODE : message.getOpcode();
+			event.operation = NCMessage.opcodeToOperation(event.opcode);
+			event.codec = this.getName();
+			event.size = frameSize;
+			event.commit();
+		}
+		return message;
+	}
+
+	/* Identificador del códec. */
+	public abstract int getId();
+
+	/* Nombre del códec en la negociación. */
+	public abstract String getName();
+
+	/* Tamaño máximo del cuerpo de una trama de este códec. */
+	public abstract int getMaxBodySize();
+
+	/* Codifica el mensaje en una trama de este formato. */
+	public abstract NCFrame encode(NCMessage message) throws IOException;
+
+	/* Añade el id de la petición y la marca more a la trama de un mensaje que no los lleva, copiando sus campos ya codificados. Así una trama guardada sirve de respuesta a cualquier petición sin volver a codificarla. */
+	public abstract NCFrame withTrailer(NCFrame frame, int requestId, boolean more) throws IOException;
+
+	/* Lee del stream la siguiente trama y la decodifica. Devuelve null si el mensaje no es identificable. */
+	public abstract NCMessage read(DataInputStream dis) throws IOException;
+
+	/* Tamaño total (cabecera incluida) de la trama que empieza en la posición actual del buffer, o -1 si todavía no ha llegado la cabecera entera. No mueve la posición del buffer. */
+	public abstract int frameSize(ByteBuffer buffer) throws IOException;
+
+	/* Decodifica la trama completa de size bytes que empieza en array[offset]. Devuelve null si el mensaje no es identificable. */
+	public abstract NCMessage decode(byte[] array, int offset, int size) throws IOException;
+}
@@ -16,6 +16,10 @@ import java.util.Set;
 	- RoomEnterOk
 	- ExitRoom
 	- CreateRoomOk
+	- Stats
+	- RoomListSubscribe
+	- RoomListUnsubscribe
+	- RoomListUnsubscribeOk
 */
 
 public class NCControlMessage extends NCMessage
@@ -29,7 +33,11 @@ public class NCControlMessage extends NCMessage
 		OP_INVALID_ROOM,
 		OP_ROOM_ENTER_OK,
 		OP_EXIT_ROOM,
-		OP_CREATE_ROOM_OK
+		OP_CREATE_ROOM_OK,
+		OP_STATS,
+		OP_ROOM_LIST_SUBSCRIBE,
+		OP_ROOM_LIST_UNSUBSCRIBE,
+		OP_ROOM_LIST_UNSUBSCRIBE_OK
 	);
 	
 	/* Creamos un mensaje de tipo ControlMessage a partir del código de operación. */
@@ -38,14 +46,16 @@ public class NCControlMessage extends NCMessage
 		this.opcode = operation;
 	}
 
-	/* Pasamos el campo opcode del mensaje a la codificación correcta en field:value. */
+	/* No hay más campos que el opcode, que ya escribe NCMessage. */
 	@Override
-	public String toEncodedString() 
+	protected void writeText(NCTextWriter writer) 
+	{
+	}
+	
+	/* No hay más campos que el opcode, que ya escribe el códec. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
 	{
-		StringBuffer sb = new StringBuffer();			
-		sb.append(OPCODE_FIELD+DELIMITER+opcodeToOperation(this.opcode)+END_LINE);
-		sb.append(END_LINE);
-		return sb.toString();
 	}
 	
 	/* NOTA. Como no hay mas campos no se hace necesario parsear el mensaje con readFromStrin. Como la superclase ya identifica el código puede crear directamente el objeto mensaje llamando al constructor desde la superclase. */
@@ -0,0 +1,66 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+	Frame
+	----
+
+	Mensaje ya codificado y listo para enviar por el socket en el formato de un códec. En el de texto son 2 bytes con la longitud seguidos del texto field:value en UTF-8 modificado, igual que lo escribe writeUTF.
+	Es inmutable, así que en las retransmisiones se codifica una única vez y se escriben los mismos bytes a todos los destinatarios.
+*/
+
+public final class NCFrame
+{
+	/* Tamaño de la cabecera de longitud y tamaño máximo del texto que admite el formato de texto (writeUTF). */
+	public static final int HEADER_SIZE = 2;
+	public static final int MAX_BODY_SIZE = 65535;
+
+	/* Bytes de la trama completa (cabecera incluida). Nunca se modifican ni salen de esta clase. */
+	private final byte[] bytes;
+
+	NCFrame(byte[] bytes)
+	{
+		this.bytes = bytes;
+	}
+
+	/* Tamaño total de la trama en bytes. */
+	public int size()
+	{
+		return this.bytes.length;
+	}
+
+	/* Escribe la trama completa en el stream. */
+	public void writeTo(OutputStream out) throws IOException
+	{
+		out.write(this.bytes);
+	}
+
+	/* Copia en el buffer todos los bytes que quepan a partir de la posición offset de la trama. Devuelve el número de bytes copiados. */
+	public int copyTo(ByteBuffer dst, int offset)
+	{
+		int count = Math.min(dst.remaining(), this.bytes.length - offset);
+		dst.put(this.bytes, offset, count);
+		return count;
+	}
+
+	/* Byte de la trama en la posición dada. */
+	byte get(int index)
+	{
+		return this.bytes[index];
+	}
+
+	/* Copia length bytes de la trama, desde la posición offset, en el array dado. */
+	void copyTo(int offset, byte[] dst, int dstOffset, int length)
+	{
+		System.arraycopy(this.bytes, offset, dst, dstOffset, length);
+	}
+
+	/* Vista de solo lectura de la trama. */
+	public ByteBuffer asReadOnlyBuffer()
+	{
+		return ByteBuffer.wrap(this.bytes).asReadOnlyBuffer();
+	}
+}
@@ -1,6 +1,7 @@
 package es.um.redes.nanoChat.messageFV;
 
-import java.util.LinkedList;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -15,6 +16,11 @@ import java.util.Set;
 	
 	Defined operations:
 	- RoomInfoOk
+	- StatsOk (name:server, time:<snapshot time>, list:<metric>=<value>,...)
+	- RoomListRemove (name:rooms, time:<update time>, list:<old room name>,...)
+	- RoomInfoPageOk (list: una página de los miembros, seguida de cursor:<next cursor>)
+
+	Si la lista no cabe en una trama se manda en varios trozos con el mismo nombre y tiempo, cada uno con una parte de la lista.
 */
 
 public class NCInfoMessage extends NCMessage
@@ -23,91 +29,147 @@ public class NCInfoMessage extends NCMessage
 	private String name;
 	private long time;
 	private List<String> list;
+	/* Cursor de la página siguiente en las respuestas paginadas, vacío en la última. En el resto de mensajes es null y no se codifica. */
+	private String cursor;
 	static protected final String NAME_FIELD = "name";
 	static protected final String TIME_FIELD = "time";
 	static protected final String LIST_FIELD = "list";
+	static protected final String CURSOR_FIELD = "cursor";
+	/* Bytes que se cuentan por elemento además de su texto: separador en texto, longitud en binario. */
+	private static final int ITEM_OVERHEAD = 3;
 
 	/* Almacenamos los códigos de todos los mensajes que usan este formato. */
 	public static final Set<Byte> _op_info_messages = Set.of
 	(
-		OP_ROOM_INFO_OK
+		OP_ROOM_INFO_OK,
+		OP_STATS_OK,
+		OP_ROOM_LIST_REMOVE,
+		OP_ROOM_INFO_PAGE_OK
 	);
 	
 	/* Creamos un mensaje de tipo InfoMessage a partir del código de operación, un tiempo dado y de una lista de cadenas de texto. */
 	public NCInfoMessage(byte operation, String name, long time, List<String> list) 
+	{
+		this(operation, name, time, list, "");
+	}
+
+	/* Lo mismo con el cursor de la página siguiente, que solo se guarda en las respuestas paginadas. */
+	public NCInfoMessage(byte operation, String name, long time, List<String> list, String cursor) 
 	{
 		this.opcode = operation;
 		this.name = name;
 		this.time = time;
 		/* Hago copia para evitar posibles errores de modificación de los datos de forma imprevista. */
-		this.list = new LinkedList<String>(list);
+		this.list = new ArrayList<String>(list);
+		this.cursor = isPageResponse(operation) ? cursor : null;
+	}
+
+	/* Constructor para los mensajes decodificados: la lista es nueva y nadie más la referencia, así que se adopta sin copiarla. */
+	private NCInfoMessage(byte operation, String name, long time, ArrayList<String> list, String cursor)
+	{
+		this.opcode = operation;
+		this.name = name;
+		this.time = time;
+		this.list = list;
+		this.cursor = cursor;
 	}
 
 	/* Pasamos los campos del mensaje a la codificación correcta en field:value. */
 	@Override
-	public String toEncodedString() 
+	protected void writeText(NCTextWriter writer) 
 	{
-		StringBuffer sb = new StringBuffer();			
-		sb.append(OPCODE_FIELD+DELIMITER+opcodeToOperation(this.opcode)+END_LINE);
-		sb.append(NAME_FIELD + DELIMITER + this.name + END_LINE);
-		sb.append(TIME_FIELD + DELIMITER + this.time + END_LINE);
-		sb.append(LIST_FIELD+DELIMITER);
-		/* Para cada elemento de la lista lo ponemos en ella con su separador excepto el último que no lleva separador. */
-		for (int i = 0; i < this.list.size() - 1; i++)
+		writer.field(NAME_FIELD, this.name);
+		writer.field(TIME_FIELD, this.time);
+		writer.fieldStart(LIST_FIELD);
+		/* Ponemos cada elemento de la lista precedido de su separador excepto el primero. */
+		boolean first = true;
+		for (String item : this.list)
 		{
-			sb.append(this.list.get(i) + LIST_SEPARATOR);
+			if (!first) writer.append(LIST_SEPARATOR);
+			writer.append(item);
+			first = false;
 		}
-		/* Tratar el caso de que sea una lista vaccía. */
-		if (!this.list.isEmpty()) sb.append(this.list.get(this.list.size() - 1) + END_LINE);
-		else sb.append(END_LINE);
-		sb.append(END_LINE);
-		return sb.toString();
+		writer.endLine();
+		if (this.cursor != null) writer.field(CURSOR_FIELD, this.cursor);
 	}
 
-	/* Parseamos el mensaje contenido en message con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
-	public static NCInfoMessage readFromString(byte code, String message) 
+	/* Parseamos el resto del mensaje con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
+	public static NCInfoMessage readFromText(byte code, NCTextReader reader) throws IOException 
 	{
-		String[] lines = message.split(String.valueOf(END_LINE));
-		/* Para cada línea sacamos el índice y las dividimos por campo y valor. */
-		int idxName = lines[1].indexOf(DELIMITER);
-		int idxTime = lines[2].indexOf(DELIMITER);
-		int idxList = lines[3].indexOf(DELIMITER);
-		
-		String fieldName = lines[1].substring(0, idxName).toLowerCase();                                                                                                                                                // minúsculas
-		String valueName = lines[1].substring(idxName + 1).trim();
-		
-		String fieldTime = lines[2].substring(0, idxTime).toLowerCase();                                                                                                                                                // minúsculas
-		String valueTime = lines[2].substring(idxTime + 1).trim();
-		
-		String fieldList = lines[3].substring(0, idxList).toLowerCase();
-		String valueList = lines[3].substring(idxList + 1).trim();
-		
-		String name = null;
 		/* Sacamos el valor del nombre. */
-		if (fieldName.equalsIgnoreCase(NAME_FIELD)) name = valueName;
-		else return null;
-		
-		long time = 0;
+		if (!reader.nextField(NAME_FIELD)) return null;
+		String name = reader.value();
 		/* Sacamos el tiempo del mensaje. */
-		if (fieldTime.equalsIgnoreCase(TIME_FIELD)) time = Long.parseLong(valueTime);
-		else return null;
-		
-		/* Sacamos los datos de la lista. */
-		List<String> list = new LinkedList<String>();
-		/* Aqui parseamos el restante del campo list para crear el array de cadenas. */
-		if (fieldList.equalsIgnoreCase(LIST_FIELD)) 
+		if (!reader.nextField(TIME_FIELD)) return null;
+		long time = reader.longValue();
+		/* Sacamos los datos de la lista, sin añadir nombres vacíos. */
+		if (!reader.nextField(LIST_FIELD)) return null;
+		ArrayList<String> list = new ArrayList<String>(reader.countItems(LIST_SEPARATOR));
+		reader.readItems(LIST_SEPARATOR, list);
+		/* Las respuestas paginadas llevan además el cursor. */
+		String cursor = null;
+		if (isPageResponse(code))
+		{
+			if (!reader.nextField(CURSOR_FIELD)) return null;
+			cursor = reader.value();
+		}
+		/* Devolvemos el nuevo objeto InfoMessage. */
+		return new NCInfoMessage(code, name, time, list, cursor);
+	}
+
+	/* Pasamos los campos del mensaje al formato binario: nombre, tiempo y número de elementos seguido de cada elemento. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
+	{
+		writer.writeString(this.name);
+		writer.writeVarLong(this.time);
+		writer.writeVarInt(this.list.size());
+		for (String item : this.list) writer.writeString(item);
+		if (this.cursor != null) writer.writeString(this.cursor);
+	}
+
+	/* Leemos los campos del mensaje en formato binario. */
+	public static NCInfoMessage readBinary(byte code, NCBinaryReader reader) throws IOException
+	{
+		String name = reader.readString();
+		long time = reader.readVarLong();
+		int count = reader.readCount();
+		ArrayList<String> list = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) list.add(reader.readString());
+		String cursor = isPageResponse(code) ? reader.readString() : null;
+		return new NCInfoMessage(code, name, time, list, cursor);
+	}
+
+	/* Partimos la lista en trozos con el mismo nombre y tiempo. */
+	@Override
+	protected List<NCMessage> split(int budget)
+	{
+		List<NCMessage> chunks = new ArrayList<NCMessage>();
+		int available = budget - encodedLength(this.name);
+		int start = 0;
+		int size = 0;
+		for (int i = 0; i < this.list.size(); i++)
 		{
-			String[] items = valueList.strip().split(LIST_SEPARATOR);
-			for (String item : items)
+			int item = encodedLength(this.list.get(i)) + ITEM_OVERHEAD;
+			if (size + item > available && i > start)
 			{
-				/* No añadimos nombres vacíos. */
-				if (item != "") list.add(item);
+				chunks.add(new NCInfoMessage(this.opcode, this.name, this.time, new ArrayList<String>(this.list.subList(start, i)), this.cursor));
+				start = i;
+				size = 0;
 			}
+			size += item;
 		}
-		else return null;
-		
-		/* Devolvemos el nuevo objeto InfoMessage. */
-		return new NCInfoMessage(code, name, time, list);
+		if (chunks.isEmpty()) return super.split(budget);
+		chunks.add(new NCInfoMessage(this.opcode, this.name, this.time, new ArrayList<String>(this.list.subList(start, this.list.size())), this.cursor));
+		return chunks;
+	}
+
+	/* El siguiente trozo añade su parte de la lista. Solo se une a mensajes recién decodificados, así que la lista se amplía sin copiarla. */
+	@Override
+	protected NCMessage append(NCMessage next)
+	{
+		this.list.addAll(((NCInfoMessage) next).list);
+		return this;
 	}
 
 	public String getName ()
@@ -123,6 +185,12 @@ public class NCInfoMessage extends NCMessage
 	public List<String> getList() 
 	{
 		/* Protección de modificación. */
-		return new LinkedList<String>(this.list);
+		return new ArrayList<String>(this.list);
+	}
+
+	/* Cursor de la página siguiente (vacío en la última) o null si el mensaje no es una respuesta paginada. */
+	public String getCursor()
+	{
+		return this.cursor;
 	}
 }
@@ -2,13 +2,20 @@ package es.um.redes.nanoChat.messageFV;
 
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 public abstract class NCMessage 
 {
 	protected byte opcode;
+	/* Id de la petición a la que pertenece el mensaje, 0 si no tiene. El cliente numera sus peticiones y el servidor copia el id en la respuesta, así las respuestas se distinguen de los avisos de la sala aunque haya varias peticiones en vuelo. */
+	private int requestId;
+	/* Indica que detrás de este mensaje van más trozos de la misma respuesta. Las respuestas que no caben en una trama se parten en trozos del mismo opcode y quien las recibe los une. */
+	private boolean more;
+	/* Tramas ya codificadas de este mensaje, una por códec. Los mensajes no cambian una vez construidos, así que al retransmitirlo se codifica una sola vez por códec. */
+	private volatile NCFrame[] frames;
+	/* Bytes de las tramas de las que se ha decodificado el mensaje (la suma de sus trozos si se ha unido), 0 si no viene de la red. */
+	int wireSize;
 
 	public static final byte OP_INVALID_CODE = 0;
 	public static final byte OP_REGISTER_NICK = 1;
@@ -30,14 +37,47 @@ public abstract class NCMessage
 	public static final byte OP_RENAME_ROOM_OK = 17;
 	public static final byte OP_USER_IN = 18;
 	public static final byte OP_USER_OUT = 19;
+	public static final byte OP_SET_CODEC = 20;
+	public static final byte OP_CODEC_OK = 21;
+	public static final byte OP_STATS = 22;
+	public static final byte OP_STATS_OK = 23;
+	public static final byte OP_ROOM_LIST_SUBSCRIBE = 24;
+	public static final byte OP_ROOM_LIST_UNSUBSCRIBE = 25;
+	public static final byte OP_ROOM_LIST_UNSUBSCRIBE_OK = 26;
+	public static final byte OP_ROOM_LIST_UPDATE = 27;
+	public static final byte OP_ROOM_LIST_REMOVE = 28;
+	public static final byte OP_ROOM_LIST_PAGE = 29;
+	public static final byte OP_ROOM_LIST_PAGE_OK = 30;
+	public static final byte OP_ROOM_INFO_PAGE = 31;
+	public static final byte OP_ROOM_INFO_PAGE_OK = 32;
+	public static final byte OP_ROOM_LIST_TOP = 33;
+	public static final byte OP_ROOM_LIST_TOP_OK = 34;
+	public static final byte OP_ROOM_SEARCH = 35;
+	public static final byte OP_ROOM_SEARCH_OK = 36;
 
 	/* Constantes con los delimitadores de los mensajes de field:value. */
 	public static final char DELIMITER = ':';    
 	public static final char END_LINE = '\n';
-	public static final String LIST_SEPARATOR = ",";
-	public static final String MULTI_LIST_SEPARATOR = ";";
+	public static final char LIST_SEPARATOR = ',';
+	public static final char MULTI_LIST_SEPARATOR = ';';
 	
 	public static final String OPCODE_FIELD = "operation";
+	/* Campo opcional con el id de la petición. Va al final del mensaje, así quien no lo conoce lo ignora. */
+	public static final String REQUEST_ID_FIELD = "id";
+	/* Campo opcional que marca un trozo al que siguen más. Va detrás del id, que entonces se escribe aunque sea 0. */
+	public static final String MORE_FIELD = "more";
+	/* Bytes que se reservan en cada trozo para el opcode y los campos fijos, que no se parten. */
+	private static final int CHUNK_OVERHEAD = 512;
+	/* Bytes que se reservan para el id de petición y la marca more que se añaden después de codificar. */
+	private static final int TRAILER_RESERVE = 32;
+
+	/* Formato de mensaje que usa cada opcode, para despachar la decodificación con un acceso a la tabla (0 para los opcodes no definidos). */
+	private static final byte KIND_ROOM = 1;
+	private static final byte KIND_CONTROL = 2;
+	private static final byte KIND_INFO = 3;
+	private static final byte KIND_MULTI_INFO = 4;
+	private static final byte KIND_USER = 5;
+	private static final byte KIND_PAGE = 6;
 
 	/* Códigos de los opcodes válidos  El orden es importante para relacionarlos con la cadena que aparece en los mensajes. */
 	private static final Byte[] _valid_opcodes = 
@@ -60,7 +100,24 @@ public abstract class NCMessage
 		OP_RENAME_ROOM,
 		OP_RENAME_ROOM_OK,
 		OP_USER_IN,
-		OP_USER_OUT
+		OP_USER_OUT,
+		OP_SET_CODEC,
+		OP_CODEC_OK,
+		OP_STATS,
+		OP_STATS_OK,
+		OP_ROOM_LIST_SUBSCRIBE,
+		OP_ROOM_LIST_UNSUBSCRIBE,
+		OP_ROOM_LIST_UNSUBSCRIBE_OK,
+		OP_ROOM_LIST_UPDATE,
+		OP_ROOM_LIST_REMOVE,
+		OP_ROOM_LIST_PAGE,
+		OP_ROOM_LIST_PAGE_OK,
+		OP_ROOM_INFO_PAGE,
+		OP_ROOM_INFO_PAGE_OK,
+		OP_ROOM_LIST_TOP,
+		OP_ROOM_LIST_TOP_OK,
+		OP_ROOM_SEARCH,
+		OP_ROOM_SEARCH_OK
 	};
 
 	/* Cadena exacta de cada orden. */
@@ -84,33 +141,141 @@ public abstract class NCMessage
 		"RenameRoom",
 		"RenameRoomOk",
 		"UserIn",
-		"UserOut"
+		"UserOut",
+		"SetCodec",
+		"CodecOk",
+		"Stats",
+		"StatsOk",
+		"RoomListSubscribe",
+		"RoomListUnsubscribe",
+		"RoomListUnsubscribeOk",
+		"RoomListUpdate",
+		"RoomListRemove",
+		"RoomListPage",
+		"RoomListPageOk",
+		"RoomInfoPage",
+		"RoomInfoPageOk",
+		"RoomListTop",
+		"RoomListTopOk",
+		"RoomSearch",
+		"RoomSearchOk"
 	};
 
-	private static Map<String, Byte> _operation_to_opcode;
-	private static Map<Byte, String> _opcode_to_operation;
-	
+	/* Formato de cada orden, en el mismo orden que _valid_opcodes. */
+	private static final byte[] _valid_kinds = 
+	{
+		KIND_ROOM,
+		KIND_CONTROL,
+		KIND_CONTROL,
+		KIND_CONTROL,
+		KIND_MULTI_INFO,
+		KIND_ROOM,
+		KIND_CONTROL,
+		KIND_CONTROL,
+		KIND_ROOM,
+		KIND_INFO,
+		KIND_ROOM,
+		KIND_USER,
+		KIND_CONTROL,
+		KIND_ROOM,
+		KIND_CONTROL,
+		KIND_ROOM,
+		KIND_ROOM,
+		KIND_ROOM,
+		KIND_ROOM,
+		KIND_ROOM,
+		KIND_ROOM,
+		KIND_CONTROL,
+		KIND_INFO,
+		KIND_CONTROL,
+		KIND_CONTROL,
+		KIND_CONTROL,
+		KIND_MULTI_INFO,
+		KIND_INFO,
+		KIND_PAGE,
+		KIND_MULTI_INFO,
+		KIND_PAGE,
+		KIND_INFO,
+		KIND_PAGE,
+		KIND_MULTI_INFO,
+		KIND_PAGE,
+		KIND_MULTI_INFO
+	};
+
+	/* Tablas densas indexadas por opcode: cadena de la orden y formato del mensaje. Los opcodes van de 0 a 127. */
+	private static final int OPCODE_TABLE_SIZE = 128;
+	private static final String[] _opcode_to_operation = new String[OPCODE_TABLE_SIZE];
+	private static final byte[] _opcode_to_kind = new byte[OPCODE_TABLE_SIZE];
+	/* Tabla hash de direccionamiento abierto de cadena de orden a opcode (0 es hueco libre). Se consulta directamente sobre los bytes recibidos, sin pasar a minúsculas. */
+	private static final int OPERATION_TABLE_SIZE = 64;
+	private static final byte[] _operation_to_opcode = new byte[OPERATION_TABLE_SIZE];
+
 	static 
 	{
-		_operation_to_opcode = new TreeMap<>();
-		_opcode_to_operation = new TreeMap<>();
 		for (int i = 0 ; i < _valid_operations_str.length; ++i)
 		{
-			_operation_to_opcode.put(_valid_operations_str[i].toLowerCase(), _valid_opcodes[i]);
-			_opcode_to_operation.put(_valid_opcodes[i], _valid_operations_str[i]);
+			byte code = _valid_opcodes[i];
+			_opcode_to_operation[code] = _valid_operations_str[i];
+			_opcode_to_kind[code] = _valid_kinds[i];
+			int slot = operationHash(_valid_operations_str[i]) & (OPERATION_TABLE_SIZE - 1);
+			while (_operation_to_opcode[slot] != OP_INVALID_CODE) slot = (slot + 1) & (OPERATION_TABLE_SIZE - 1);
+			_operation_to_opcode[slot] = code;
 		}
 	}
+
+	/* Hash de una orden sin distinguir mayúsculas: con | 0x20 las letras ASCII mayúsculas y minúsculas dan el mismo valor. */
+	private static int operationHash(String opStr)
+	{
+		int h = 0;
+		for (int i = 0; i < opStr.length(); i++) h = 31 * h + (opStr.charAt(i) | 0x20);
+		return h ^ (h >>> 16);
+	}
+
+	private static int operationHash(byte[] bytes, int start, int end)
+	{
+		int h = 0;
+		for (int i = start; i < end; i++) h = 31 * h + ((bytes[i] & 0xFF) | 0x20);
+		return h ^ (h >>> 16);
+	}
 	
 	/* Transforma una cadena en el opcode correspondiente. */
 	protected static byte operationToOpcode(String opStr) 
 	{
-		return _operation_to_opcode.getOrDefault(opStr.toLowerCase(), OP_INVALID_CODE);
+		int slot = operationHash(opStr) & (OPERATION_TABLE_SIZE - 1);
+		for (byte code; (code = _operation_to_opcode[slot]) != OP_INVALID_CODE; slot = (slot + 1) & (OPERATION_TABLE_SIZE - 1))
+		{
+			if (_opcode_to_operation[code].equalsIgnoreCase(opStr)) return code;
+		}
+		return OP_INVALID_CODE;
+	}
+
+	/* Transforma la orden contenida en bytes[start, end) en el opcode correspondiente. */
+	static byte operationToOpcode(byte[] bytes, int start, int end)
+	{
+		int slot = operationHash(bytes, start, end) & (OPERATION_TABLE_SIZE - 1);
+		for (byte code; (code = _operation_to_opcode[slot]) != OP_INVALID_CODE; slot = (slot + 1) & (OPERATION_TABLE_SIZE - 1))
+		{
+			if (matchesIgnoreCase(_opcode_to_operation[code], bytes, start, end)) return code;
+		}
+		return OP_INVALID_CODE;
+	}
+
+	private static boolean matchesIgnoreCase(String opStr, byte[] bytes, int start, int end)
+	{
+		if (end - start != opStr.length()) return false;
+		for (int i = 0; i < opStr.length(); i++)
+		{
+			char c = opStr.charAt(i);
+			int b = bytes[start + i];
+			if (b != c && Character.toLowerCase(b) != Character.toLowerCase(c)) return false;
+		}
+		return true;
 	}
 
 	/* Transforma un opcode en la cadena correspondiente. */
-	protected static String opcodeToOperation(byte opcode) 
+	public static String opcodeToOperation(byte opcode) 
 	{
-		return _opcode_to_operation.getOrDefault(opcode, null);
+		return opcode >= 0 ? _opcode_to_operation[opcode] : null;
 	}
 
 	/* Devuelve el opcode del mensaje. */
@@ -119,50 +284,250 @@ public abstract class NCMessage
 		return this.opcode;
 	}
 
-	/* Método que debe ser implementado específicamente por cada subclase de NCMessage. */
-	protected abstract String toEncodedString();
+	/* Devuelve el id de la petición del mensaje o 0 si no tiene. */
+	public int getRequestId()
+	{
+		return this.requestId;
+	}
+
+	/* Asigna el id de la petición. Se descartan las tramas ya codificadas, así que solo debe hacerse antes de enviarlo. */
+	public void setRequestId(int requestId)
+	{
+		this.requestId = requestId;
+		this.frames = null;
+	}
+
+	/* Indica si detrás de este mensaje van más trozos de la misma respuesta. */
+	public boolean hasMore()
+	{
+		return this.more;
+	}
+
+	/* Parte el mensaje en trozos que caben cada uno en una trama del códec dado. Todos salvo el último se marcan con more. Si ya cabe se devuelve solo el propio mensaje, así los clientes de texto antiguos siguen leyendo en una sola trama todo lo que cabía en ella. Los trozos se sacan del mensaje ya completo: partirlo quita el límite de tamaño de la trama, no el de construir la respuesta entera. */
+	public List<NCMessage> toChunks(NCCodec codec)
+	{
+		List<NCMessage> chunks = this.splitFor(codec);
+		for (int i = 0; i < chunks.size() - 1; i++)
+		{
+			NCMessage chunk = chunks.get(i);
+			chunk.more = true;
+			chunk.frames = null;
+		}
+		return chunks;
+	}
+
+	/* Parte el mensaje en los mismos trozos que toChunks pero sin marcarlos, para guardar sus tramas y mandarlas después con NCCodec.withTrailer. */
+	public List<NCMessage> splitFor(NCCodec codec)
+	{
+		List<NCMessage> chunks = this.split(codec.getMaxBodySize() - CHUNK_OVERHEAD);
+		/* El margen de los campos fijos es una estimación. Si al final el mensaje entero cabe en una trama no se parte. */
+		if (chunks.size() > 1 && this.fitsInFrame(codec)) return new ArrayList<NCMessage>(List.of(this));
+		return chunks;
+	}
+
+	/* Indica si el mensaje entero, con su id de petición y la marca more, cabe en una trama del códec. */
+	private boolean fitsInFrame(NCCodec codec)
+	{
+		try
+		{
+			return codec.encode(this).size() + TRAILER_RESERVE <= codec.getMaxBodySize();
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	/* Parte los campos de tamaño variable del mensaje en trozos de como mucho budget bytes codificados. Por defecto el mensaje no se parte. */
+	protected List<NCMessage> split(int budget)
+	{
+		List<NCMessage> chunks = new ArrayList<NCMessage>(1);
+		chunks.add(this);
+		return chunks;
+	}
+
+	/* Devuelve el mensaje que resulta de unir a este el siguiente trozo de la misma respuesta. Por defecto los mensajes no se parten. */
+	protected NCMessage append(NCMessage next) throws IOException
+	{
+		throw new IOException("Unexpected continuation of " + opcodeToOperation(this.opcode) + ".");
+	}
+
+	/* Une a este trozo el siguiente de la misma respuesta. El resultado lleva la marca more del último trozo unido. */
+	NCMessage join(NCMessage next) throws IOException
+	{
+		if (next.opcode != this.opcode) throw new IOException("Continuation of " + opcodeToOperation(this.opcode) + " expected, got " + opcodeToOperation(next.opcode) + ".");
+		NCMessage joined = this.append(next);
+		joined.more = next.more;
+		joined.frames = null;
+		joined.wireSize = this.wireSize + next.wireSize;
+		return joined;
+	}
+
+	/* Bytes que ocupa la cadena en UTF-8 (modificado en el formato de texto), como mucho 3 por carácter. Es lo que cuenta cada elemento al partir un mensaje. */
+	protected static int encodedLength(String s)
+	{
+		int length = s.length();
+		int encoded = length;
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt(i);
+			if (c >= 0x80 || c == 0) encoded += c < 0x800 ? 1 : 2;
+		}
+		return encoded;
+	}
+
+	/* Escribe los campos del mensaje (sin la línea del opcode ni la línea vacía final) en formato field:value. Debe ser implementado específicamente por cada subclase de NCMessage. */
+	protected abstract void writeText(NCTextWriter writer);
 
-	/* Extrae la operación del mensaje entrante y usa la subclase para parsear el resto del mensaje. Se devuelve null en caso de que el mensaje recibido sea no sea identificable o tenga mal alguno de sus campos.  */
+	/* Escribe el mensaje completo en formato field:value. */
+	void encodeText(NCTextWriter writer)
+	{
+		writer.operation(this.opcode);
+		this.writeText(writer);
+		writeTextTrailer(writer, this.requestId, this.more);
+	}
+
+	/* Escribe el id de la petición y la marca more, si hacen falta, y la línea vacía final. */
+	static void writeTextTrailer(NCTextWriter writer, int requestId, boolean more)
+	{
+		if (requestId != 0 || more) writer.field(REQUEST_ID_FIELD, requestId);
+		if (more) writer.field(MORE_FIELD, 1);
+		writer.endLine();
+	}
+
+	/* Devuelve el mensaje codificado en formato field:value. */
+	public String toEncodedString()
+	{
+		NCTextWriter writer = new NCTextWriter(64);
+		this.encodeText(writer);
+		return writer.toString();
+	}
+
+	/* Escribe los campos del mensaje (sin el opcode) en formato binario. Debe ser implementado específicamente por cada subclase de NCMessage. */
+	protected abstract void writeBinary(NCBinaryWriter writer);
+
+	/* Devuelve la trama del mensaje en el códec dado, codificándola solo la primera vez. */
+	public NCFrame toFrame(NCCodec codec) throws IOException
+	{
+		NCFrame[] cache = this.frames;
+		if (cache == null)
+		{
+			cache = new NCFrame[NCCodec.CODEC_COUNT];
+			this.frames = cache;
+		}
+		NCFrame frame = cache[codec.getId()];
+		/* Si dos hilos codifican a la vez ambos obtienen tramas idénticas, da igual cuál quede guardada. */
+		if (frame == null)
+		{
+			frame = codec.encode(this);
+			cache[codec.getId()] = frame;
+		}
+		return frame;
+	}
+
+	/* Lee el siguiente mensaje del stream y lo decodifica. Se devuelve null en caso de que el mensaje recibido sea no sea identificable o tenga mal alguno de sus campos.  */
 	public static NCMessage readMessageFromSocket(DataInputStream dis) throws IOException 
 	{
-		String message = dis.readUTF();
-		String[] lines = message.split(String.valueOf(END_LINE));
-		if (!lines[0].isEmpty()) 
-		{ 
-			/* Si la línea no está vacía. */
-			int idx = lines[0].indexOf(DELIMITER);
-			String field = lines[0].substring(0, idx).toLowerCase();
-			String value = lines[0].substring(idx + 1).trim();
-			if (!field.equalsIgnoreCase(OPCODE_FIELD)) return null;
-			byte code = operationToOpcode(value);
-			if (code == OP_INVALID_CODE) return null;
-			/* Para cada tipo de mensaje tratamos el resto del mensaje. */
-			if (NCRoomMessage._op_room_messages.contains(code))
-			{
-				return NCRoomMessage.readFromString(code, message);
-			}
-			else if (NCControlMessage._op_control_messages.contains(code))
-			{
-				return new NCControlMessage(code);
-			}
-			else if (NCMultiInfoMessage._op_list_messages.contains(code))
-			{
-				return NCMultiInfoMessage.readFromString(code, message);
-			}
-			else if (NCInfoMessage._op_info_messages.contains(code))
-			{
-				return NCInfoMessage.readFromString(code, message);
-			}
-			else if (NCUserMessage._op_user_messages.contains(code))
-			{
-				return NCUserMessage.readFromString(code, message);
-			}
-			else
-			{
-				System.err.println("Unknown message type received:" + code);
+		return NCCodec.TEXT.read(dis);
+	}
+
+	/* Extrae la operación del mensaje ya recibido y usa la subclase para parsear el resto del mensaje. Se devuelve null en caso de que el mensaje no sea identificable o tenga mal alguno de sus campos. */
+	public static NCMessage readMessageFromString(String message) 
+	{
+		NCTextWriter writer = new NCTextWriter(message.length());
+		writer.append(message);
+		try
+		{
+			return readText(writer.toReader());
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+	/* Lee la operación con un único recorrido de los bytes del mensaje y despacha con la tabla de formatos a la subclase que parsea el resto. Se devuelve null en caso de que el mensaje no sea identificable o le falte alguno de sus campos. */
+	static NCMessage readText(NCTextReader reader) throws IOException
+	{
+		if (!reader.nextField(OPCODE_FIELD)) return null;
+		byte code = reader.operationValue();
+		NCMessage message;
+		/* Para cada tipo de mensaje tratamos el resto del mensaje. */
+		switch (_opcode_to_kind[code])
+		{
+			case KIND_ROOM:
+				message = NCRoomMessage.readFromText(code, reader);
+				break;
+			case KIND_CONTROL:
+				message = new NCControlMessage(code);
+				break;
+			case KIND_MULTI_INFO:
+				message = NCMultiInfoMessage.readFromText(code, reader);
+				break;
+			case KIND_INFO:
+				message = NCInfoMessage.readFromText(code, reader);
+				break;
+			case KIND_USER:
+				message = NCUserMessage.readFromText(code, reader);
+				break;
+			case KIND_PAGE:
+				message = NCPageMessage.readFromText(code, reader);
+				break;
+			default:
 				return null;
-			}
-		} else return null;
+		}
+		/* Detrás de los campos del mensaje puede ir el id de la petición y, tras él, la marca de que siguen más trozos. */
+		if (message != null && reader.nextField(REQUEST_ID_FIELD))
+		{
+			message.requestId = checkRequestId(reader.longValue());
+			if (reader.nextField(MORE_FIELD)) message.more = reader.longValue() != 0;
+		}
+		return message;
+	}
+
+	private static int checkRequestId(long id) throws IOException
+	{
+		if (id < 0 || id > Integer.MAX_VALUE) throw new IOException("Invalid request id: " + id + ".");
+		return (int) id;
+	}
+
+	/* Decodifica el cuerpo de un mensaje en formato binario usando la subclase que corresponde al opcode. Se devuelve null en caso de que el opcode no sea identificable. */
+	public static NCMessage readBinary(NCBinaryReader reader) throws IOException
+	{
+		int code = reader.readByte();
+		if (code >= OPCODE_TABLE_SIZE) return null;
+		NCMessage message;
+		/* Para cada tipo de mensaje tratamos el resto del mensaje. */
+		switch (_opcode_to_kind[code])
+		{
+			case KIND_ROOM:
+				message = NCRoomMessage.readBinary((byte) code, reader);
+				break;
+			case KIND_CONTROL:
+				message = new NCControlMessage((byte) code);
+				break;
+			case KIND_MULTI_INFO:
+				message = NCMultiInfoMessage.readBinary((byte) code, reader);
+				break;
+			case KIND_INFO:
+				message = NCInfoMessage.readBinary((byte) code, reader);
+				break;
+			case KIND_USER:
+				message = NCUserMessage.readBinary((byte) code, reader);
+				break;
+			case KIND_PAGE:
+				message = NCPageMessage.readBinary((byte) code, reader);
+				break;
+			default:
+				return null;
+		}
+		/* Si queda cuerpo detrás de los campos es el id de la petición y, tras él, la marca de que siguen más trozos. */
+		if (message != null && reader.hasRemaining())
+		{
+			message.requestId = checkRequestId(reader.readVarInt() & 0xFFFFFFFFL);
+			if (reader.hasRemaining()) message.more = reader.readVarInt() != 0;
+		}
+		return message;
 	}
 
 	/* Método para construir un mensaje de tipo RoomMessage a partir del opcode y del nombre. */
@@ -182,12 +547,36 @@ public abstract class NCMessage
 	{
 		return new NCMultiInfoMessage(opCode, multiName, multiTime, multiList);
 	}
+
+	/* Lo mismo para las respuestas paginadas, con el cursor de la página siguiente. */
+	public static NCMessage makeMultiInfoMessage (byte opCode, String[] multiName, long[] multiTime, List<List<String>> multiList, String cursor)
+	{
+		return new NCMultiInfoMessage(opCode, multiName, multiTime, multiList, cursor);
+	}
 	
 	/* Método para construir un mensaje de tipo InfoMessage a partir del opCode, nombre, tiempo y lista de cadenas de texto. */
 	public static NCMessage makeInfoMessage (byte opCode, String name, long time, List<String> list)
 	{
 		return new NCInfoMessage(opCode, name, time, list);
 	}
+
+	/* Lo mismo para las respuestas paginadas, con el cursor de la página siguiente. */
+	public static NCMessage makeInfoMessage (byte opCode, String name, long time, List<String> list, String cursor)
+	{
+		return new NCInfoMessage(opCode, name, time, list, cursor);
+	}
+
+	/* Método para construir un mensaje de tipo PageMessage a partir del opcode y de los parámetros de la página. */
+	public static NCMessage makePageMessage (byte opCode, String name, String prefix, String sort, String cursor, int limit)
+	{
+		return new NCPageMessage(opCode, name, prefix, sort, cursor, limit);
+	}
+
+	/* Indica si el opcode es de una respuesta paginada, que lleva detrás de sus campos el cursor de la página siguiente. */
+	protected static boolean isPageResponse(byte opcode)
+	{
+		return opcode == OP_ROOM_LIST_PAGE_OK || opcode == OP_ROOM_INFO_PAGE_OK || opcode == OP_ROOM_SEARCH_OK;
+	}
 	
 	/* Método para constuir un mensaje de tipo UserMessage a partir del opCode, nombre y una cadena de texto. */
 	public static NCMessage makeUserMessage (byte opCode, String name, String text)
@@ -0,0 +1,74 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+	MessageAssembler
+	----
+
+	Une los trozos de las respuestas que se mandan partidas (ver NCMessage.toChunks). La respuesta se entrega entera, así que hasta el último trozo se guardan todos los anteriores. Los trozos de una respuesta llegan seguidos y en orden, pero entre ellos pueden llegar otros mensajes, así que cada respuesta a medias se guarda por id de petición y opcode.
+	Para que un servidor no le haga guardar trozos sin fin, los bytes de todas las respuestas a medias y el número de ellas están acotados. La respuesta que se pasa de un límite se rechaza: offer lanza una excepción con ese trozo y el resto de sus trozos se descartan sin guardarlos.
+	Cada conexión usa el suyo desde su hilo lector, no es seguro usarlo desde varios hilos.
+*/
+
+public final class NCMessageAssembler
+{
+	/* Límites por defecto: bytes de las tramas de todas las respuestas a medias y número de respuestas a medias a la vez. Los bytes se cambian con la propiedad nanochat.client.maxPartialBytes. */
+	public static final String MAX_BYTES_PROPERTY = "nanochat.client.maxPartialBytes";
+	public static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+	public static final int DEFAULT_MAX_PARTIAL = 64;
+
+	/* Respuestas a las que aún les faltan trozos. */
+	private final Map<Long, NCMessage> partial;
+	/* Respuestas rechazadas de las que todavía llegan trozos. */
+	private final Set<Long> discarding;
+	private final int maxBytes;
+	private final int maxPartial;
+	/* Bytes de las respuestas a medias. */
+	private long bytes;
+
+	public NCMessageAssembler()
+	{
+		this(Math.max(1, Integer.getInteger(MAX_BYTES_PROPERTY, DEFAULT_MAX_BYTES)), DEFAULT_MAX_PARTIAL);
+	}
+
+	public NCMessageAssembler(int maxBytes, int maxPartial)
+	{
+		this.partial = new HashMap<Long, NCMessage>();
+		this.discarding = new HashSet<Long>();
+		this.maxBytes = maxBytes;
+		this.maxPartial = maxPartial;
+		this.bytes = 0;
+	}
+
+	/* Añade un mensaje recién decodificado. Devuelve el mensaje completo o null si todavía faltan trozos o es de una respuesta rechazada. Lanza una excepción si la respuesta del mensaje se pasa de los límites; quien espera esa respuesta debe darla por fallida. */
+	public NCMessage offer(NCMessage message) throws IOException
+	{
+		if (!message.hasMore() && this.partial.isEmpty() && this.discarding.isEmpty()) return message;
+		Long key = ((long) message.getRequestId() << 8) | (message.getOpcode() & 0xFF);
+		if (this.discarding.contains(key))
+		{
+			if (!message.hasMore()) this.discarding.remove(key);
+			return null;
+		}
+		NCMessage previous = this.partial.remove(key);
+		if (previous != null)
+		{
+			this.bytes -= previous.wireSize;
+			message = previous.join(message);
+		}
+		if (!message.hasMore()) return message;
+		if (this.bytes + message.wireSize > this.maxBytes || this.partial.size() >= this.maxPartial)
+		{
+			this.discarding.add(key);
+			throw new IOException("Response to request " + message.getRequestId() + " exceeds the limits for partial responses.");
+		}
+		this.bytes += message.wireSize;
+		this.partial.put(key, message);
+		return null;
+	}
+}
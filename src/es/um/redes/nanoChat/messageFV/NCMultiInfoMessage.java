@@ -1,7 +1,8 @@
 package es.um.redes.nanoChat.messageFV;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -17,6 +18,12 @@ import java.util.Set;
 	
 	Defined operations:
 	- RoomListOk
+	- RoomListUpdate (solo las salas que han cambiado, con su estado actual)
+	- RoomListPageOk (una página de las salas, seguida de cursor:<next cursor>)
+	- RoomListTopOk (las primeras salas en el orden pedido)
+	- RoomSearchOk (una página de las salas cuyo nombre contiene el texto buscado, seguida de cursor:<next cursor>)
+
+	Si las entradas no caben en una trama se mandan en varios trozos, cada uno con una parte de las entradas. Una entrada cuya lista no cabe en un trozo sigue en el siguiente con el mismo nombre, y al unir los trozos se juntan sus listas.
 */
 
 public class NCMultiInfoMessage extends NCMessage
@@ -25,18 +32,34 @@ public class NCMultiInfoMessage extends NCMessage
 	private String[] multiName;
 	private long[] multiTime;
 	private List<List<String>> multiList;
+	/* Cursor de la página siguiente en las respuestas paginadas, vacío en la última. En el resto de mensajes es null y no se codifica. */
+	private String cursor;
 	static protected final String MULTI_NAME_FIELD = "multiName";
 	static protected final String MULTI_TIME_FIELD = "multiTime";
 	static protected final String MULTI_LIST_FIELD = "multiList";
+	static protected final String CURSOR_FIELD = "cursor";
+	/* Bytes que se cuentan por entrada además de su nombre (tiempo y separadores) y por elemento además de su texto. */
+	private static final int ENTRY_OVERHEAD = 24;
+	private static final int ITEM_OVERHEAD = 3;
 
 	/* Almacenamos los códigos de todos los mensajes que usan este formato. */
 	public static final Set<Byte> _op_list_messages = Set.of
 	(
-		OP_ROOM_LIST_OK
+		OP_ROOM_LIST_OK,
+		OP_ROOM_LIST_UPDATE,
+		OP_ROOM_LIST_PAGE_OK,
+		OP_ROOM_LIST_TOP_OK,
+		OP_ROOM_SEARCH_OK
 	);
 	
 	/* Creamos un mensaje de tipo ListMessage a partir del código de operación y de una lista de cadenas de texto. */
 	public NCMultiInfoMessage(byte operation, String[] multiName, long[] multiTime, List<List<String>> multiList) throws IllegalArgumentException 
+	{
+		this(operation, multiName, multiTime, multiList, "");
+	}
+
+	/* Lo mismo con el cursor de la página siguiente, que solo se guarda en las respuestas paginadas. */
+	public NCMultiInfoMessage(byte operation, String[] multiName, long[] multiTime, List<List<String>> multiList, String cursor) throws IllegalArgumentException 
 	{
 		/* Tal y como se dice en nuestro protocolo, los tamaños de las listas deben ser iguales, si no es así no se puede codificar este mensaje. */
 		if (multiName.length != multiTime.length || multiName.length != multiList.size()) throw new IllegalArgumentException("List sizes must be the same to make this message.");
@@ -45,119 +68,204 @@ public class NCMultiInfoMessage extends NCMessage
 		/* Utilizo copias para evitar que se modificasen los datos desde el exterior. */
 		this.multiName = Arrays.copyOf(multiName, multiName.length);
 		this.multiTime = Arrays.copyOf(multiTime, multiTime.length);
-		this.multiList = new LinkedList<List<String>>();
-		for (List<String> list : multiList) this.multiList.add(new LinkedList<String>(list));
+		this.multiList = new ArrayList<List<String>>(multiList.size());
+		for (List<String> list : multiList) this.multiList.add(new ArrayList<String>(list));
+		this.cursor = isPageResponse(operation) ? cursor : null;
+	}
+
+	/* Constructor para los mensajes decodificados: los arrays y listas son nuevos y nadie más los referencia, así que se adoptan sin copiarlos. Los tamaños ya los garantiza quien decodifica. */
+	private NCMultiInfoMessage(byte operation, String[] multiName, long[] multiTime, ArrayList<List<String>> multiList, String cursor)
+	{
+		this.opcode = operation;
+		this.multiName = multiName;
+		this.multiTime = multiTime;
+		this.multiList = multiList;
+		this.cursor = cursor;
 	}
 
 	/* Pasamos los campos del mensaje a la codificación correcta en field:value. */
 	@Override
-	public String toEncodedString() 
+	protected void writeText(NCTextWriter writer) 
 	{
-		StringBuffer sb = new StringBuffer();			
-		sb.append(OPCODE_FIELD+DELIMITER+opcodeToOperation(this.opcode)+END_LINE);
-		
-		sb.append(MULTI_NAME_FIELD + DELIMITER);
+		writer.fieldStart(MULTI_NAME_FIELD);
 		/* Ponemos todos los elementos de la lista con su separador. */
-		for (int i = 0; i < this.multiName.length - 1; i++)
+		for (int i = 0; i < this.multiName.length; i++)
 		{
-			sb.append(this.multiName[i] + LIST_SEPARATOR);
+			if (i > 0) writer.append(LIST_SEPARATOR);
+			writer.append(this.multiName[i]);
 		}
-		sb.append(this.multiName[this.multiName.length - 1] + END_LINE);
+		writer.endLine();
 		
-		sb.append(MULTI_TIME_FIELD + DELIMITER);
+		writer.fieldStart(MULTI_TIME_FIELD);
 		/* Ponemos todos los elementos de la lista con su separador. */
-		for (int i = 0; i < this.multiTime.length - 1; i++)
+		for (int i = 0; i < this.multiTime.length; i++)
 		{
-			sb.append(String.valueOf(this.multiTime[i]) + LIST_SEPARATOR);
+			if (i > 0) writer.append(LIST_SEPARATOR);
+			writer.append(this.multiTime[i]);
 		}
-		sb.append(String.valueOf(this.multiTime[this.multiTime.length - 1] )+ END_LINE);
+		writer.endLine();
 		
-		sb.append(MULTI_LIST_FIELD+DELIMITER);
-		/* Recorremos la lista y sublistas poniendo respectivos separadores. */
-		for (int i = 0; i < this.multiList.size() - 1; i++)
+		writer.fieldStart(MULTI_LIST_FIELD);
+		/* Recorremos la lista y sublistas con iteradores poniendo respectivos separadores, una sublista vacía queda como dos separadores seguidos. */
+		boolean firstList = true;
+		for (List<String> subList : this.multiList)
 		{
-			List<String> currentSubList = this.multiList.get(i);
-			for (int j = 0; j < currentSubList.size() - 1; j++)
+			if (!firstList) writer.append(MULTI_LIST_SEPARATOR);
+			boolean firstItem = true;
+			for (String item : subList)
 			{
-				sb.append(currentSubList.get(j) + LIST_SEPARATOR);
+				if (!firstItem) writer.append(LIST_SEPARATOR);
+				writer.append(item);
+				firstItem = false;
 			}
-			/* Tratamos que la lista pueda estar o no vacía. */
-			if (!currentSubList.isEmpty()) sb.append(currentSubList.get(currentSubList.size() - 1) + MULTI_LIST_SEPARATOR);
-			else sb.append(MULTI_LIST_SEPARATOR);
-		}
-		List<String> lastSubList = this.multiList.get(this.multiList.size() - 1);
-		for (int j = 0; j < lastSubList.size() - 1; j++)
-		{
-			sb.append(lastSubList.get(j) + LIST_SEPARATOR);
+			firstList = false;
 		}
-		/* Tratamos que la lista pueda estar o no vacía. */
-		if (!lastSubList.isEmpty()) sb.append(lastSubList.get(lastSubList.size() - 1) + END_LINE);
-		else sb.append(END_LINE);
-		sb.append(END_LINE);
-		/* Devolvemos la cadena codificada. */
-		return sb.toString();
+		writer.endLine();
+		if (this.cursor != null) writer.field(CURSOR_FIELD, this.cursor);
 	}
 
-	/* Parseamos el mensaje contenido en message con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
-	public static NCMultiInfoMessage readFromString(byte code, String message) 
+	/* Parseamos el resto del mensaje con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
+	public static NCMultiInfoMessage readFromText(byte code, NCTextReader reader) throws IOException 
 	{
-		String[] lines = message.split(String.valueOf(END_LINE));
+		/* Aqui parseamos el campo multiName para crear el array de cadenas. */
+		if (!reader.nextField(MULTI_NAME_FIELD)) return null;
+		String[] multiName = reader.readItems(LIST_SEPARATOR);
 		
-		int idxMultiName = lines[1].indexOf(DELIMITER);
-		int idxMultiTime = lines[2].indexOf(DELIMITER);
-		int idxMultiList = lines[3].indexOf(DELIMITER);
+		/* Parseamos el campo multiTime para crear el array de tiempos. */
+		if (!reader.nextField(MULTI_TIME_FIELD)) return null;
+		long[] multiTime = reader.readLongs(LIST_SEPARATOR);
 		
-		String fieldMultiName = lines[1].substring(0, idxMultiName).toLowerCase();                                                                                                                                                // minúsculas
-		String valueMultiName = lines[1].substring(idxMultiName + 1).trim();
+		/* Parseamos el campo multiList para crear la lista de listas. Las sublistas vacías sí cuentan, pero sin nombres no hay ninguna. */
+		if (!reader.nextField(MULTI_LIST_FIELD)) return null;
+		ArrayList<List<String>> multiList = new ArrayList<List<String>>(multiName.length);
+		if (multiName.length > 0) reader.readGroups(MULTI_LIST_SEPARATOR, LIST_SEPARATOR, multiList, ArrayList::new);
 		
-		String fieldMultiTime = lines[2].substring(0, idxMultiTime).toLowerCase();
-		String valueMultiTime = lines[2].substring(idxMultiTime + 1).trim();
-		
-		String fieldMultiList = lines[3].substring(0, idxMultiList).toLowerCase();
-		String valueMultiList = lines[3].substring(idxMultiList + 1).trim();
-		
-		String[] multiName= null;
-		/* Aqui parseamos el restante del campo multiName para crear el array de cadenas. */
-		if (fieldMultiName.equalsIgnoreCase(MULTI_NAME_FIELD)) multiName = valueMultiName.split(LIST_SEPARATOR);
-		else return null;
-		
-		long[] multiTime = null;
-		/* Parseamos el resto del campo multiTime para crear el array de tiempos. */
-		if (fieldMultiTime.equalsIgnoreCase(MULTI_TIME_FIELD))
+		/* Devolvemos el nuevo objeto ListMessage si los valores dados para construcción tienen los tamaños válidos. */
+		if (multiName.length != multiTime.length || multiName.length != multiList.size()) return null;
+		/* Las respuestas paginadas llevan además el cursor. */
+		String cursor = null;
+		if (isPageResponse(code))
 		{
-			multiTime = Arrays.stream(valueMultiTime.split(LIST_SEPARATOR)).map(String::trim).mapToLong(s -> Long.valueOf(s)).toArray();
+			if (!reader.nextField(CURSOR_FIELD)) return null;
+			cursor = reader.value();
 		}
-		else return null;
-		
-		List<List<String>> multiList = new LinkedList<List<String>>();
-		/* Parseamos el resto del campo multiList para crear la lista de listas. */
-		if (fieldMultiList.equalsIgnoreCase(MULTI_LIST_FIELD))
+		return new NCMultiInfoMessage(code, multiName, multiTime, multiList, cursor);
+	}
+
+	/* Pasamos los campos del mensaje al formato binario: número de entradas y, para cada una, su nombre, su tiempo y su lista. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
+	{
+		writer.writeVarInt(this.multiName.length);
+		int i = 0;
+		for (List<String> subList : this.multiList)
+		{
+			writer.writeString(this.multiName[i]);
+			writer.writeVarLong(this.multiTime[i]);
+			writer.writeVarInt(subList.size());
+			for (String item : subList) writer.writeString(item);
+			i++;
+		}
+		if (this.cursor != null) writer.writeString(this.cursor);
+	}
+
+	/* Leemos los campos del mensaje en formato binario. */
+	public static NCMultiInfoMessage readBinary(byte code, NCBinaryReader reader) throws IOException
+	{
+		int count = reader.readCount();
+		String[] multiName = new String[count];
+		long[] multiTime = new long[count];
+		ArrayList<List<String>> multiList = new ArrayList<List<String>>(count);
+		for (int i = 0; i < count; i++)
 		{
-			/* Uso la versión de split de dos parámetros ya que la de 1 parámetro elimina las cadenas vacías al final si las hubiese y en nuestro mensaje esto si es posible e indica que la lista es vacía. */
-			String[] subLists= valueMultiList.split(MULTI_LIST_SEPARATOR, -1);
-			for (String subList : subLists)
+			multiName[i] = reader.readString();
+			multiTime[i] = reader.readVarLong();
+			int items = reader.readCount();
+			List<String> sl = new ArrayList<String>(items);
+			for (int j = 0; j < items; j++) sl.add(reader.readString());
+			multiList.add(sl);
+		}
+		String cursor = isPageResponse(code) ? reader.readString() : null;
+		return new NCMultiInfoMessage(code, multiName, multiTime, multiList, cursor);
+	}
+
+	/* Partimos las entradas en trozos. Si la lista de una entrada no cabe, la entrada sigue en el trozo siguiente. */
+	@Override
+	protected List<NCMessage> split(int budget)
+	{
+		List<NCMessage> chunks = new ArrayList<NCMessage>();
+		List<String> names = new ArrayList<String>();
+		List<Long> times = new ArrayList<Long>();
+		ArrayList<List<String>> lists = new ArrayList<List<String>>();
+		int size = 0;
+		for (int i = 0; i < this.multiName.length; i++)
+		{
+			int entry = encodedLength(this.multiName[i]) + ENTRY_OVERHEAD;
+			if (size + entry > budget && !names.isEmpty())
 			{
-				List<String> sl = new LinkedList<String>();
-				String[] items = subList.split(LIST_SEPARATOR);
-				for (String item : items) 
+				chunks.add(this.chunk(names, times, lists));
+				size = 0;
+			}
+			List<String> part = new ArrayList<String>();
+			names.add(this.multiName[i]);
+			times.add(this.multiTime[i]);
+			lists.add(part);
+			size += entry;
+			for (String item : this.multiList.get(i))
+			{
+				int itemSize = encodedLength(item) + ITEM_OVERHEAD;
+				/* La entrada continúa en el siguiente trozo con el resto de su lista. */
+				if (size + itemSize > budget && !part.isEmpty())
 				{
-					/* Si no es un campo vacío lo añado. */
-					if (item != "") sl.add(item);
+					chunks.add(this.chunk(names, times, lists));
+					part = new ArrayList<String>();
+					names.add(this.multiName[i]);
+					times.add(this.multiTime[i]);
+					lists.add(part);
+					size = entry;
 				}
-				multiList.add(sl);
+				part.add(item);
+				size += itemSize;
 			}
 		}
-		else return null;
-		
-		/* Devolvemos el nuevo objeto ListMessage si los valores dados para construciión tienen los tamaños válidos. */
-		try 
-		{
-			return new NCMultiInfoMessage(code, multiName, multiTime, multiList);
-		} 
-		catch (IllegalArgumentException e) 
+		if (chunks.isEmpty()) return super.split(budget);
+		chunks.add(this.chunk(names, times, lists));
+		return chunks;
+	}
+
+	/* Construye un trozo con las entradas acumuladas y vacía las listas para el siguiente. */
+	private NCMultiInfoMessage chunk(List<String> names, List<Long> times, ArrayList<List<String>> lists)
+	{
+		NCMultiInfoMessage chunk = new NCMultiInfoMessage(this.opcode, names.toArray(new String[0]), times.stream().mapToLong(t -> t).toArray(), new ArrayList<List<String>>(lists), this.cursor);
+		names.clear();
+		times.clear();
+		lists.clear();
+		return chunk;
+	}
+
+	/* El siguiente trozo añade sus entradas. Si empieza por la misma sala en la que acaba este, es la continuación de su lista. Solo se une a mensajes recién decodificados, así que las listas se amplían sin copiarlas. */
+	@Override
+	protected NCMessage append(NCMessage next)
+	{
+		NCMultiInfoMessage other = (NCMultiInfoMessage) next;
+		int skip = 0;
+		int last = this.multiName.length - 1;
+		if (last >= 0 && other.multiName.length > 0 && this.multiName[last].equals(other.multiName[0]))
 		{
-			return null;
+			List<String> joined = new ArrayList<String>(this.multiList.get(last));
+			joined.addAll(other.multiList.get(0));
+			this.multiList.set(last, joined);
+			skip = 1;
 		}
+		int count = this.multiName.length + other.multiName.length - skip;
+		String[] names = Arrays.copyOf(this.multiName, count);
+		long[] times = Arrays.copyOf(this.multiTime, count);
+		System.arraycopy(other.multiName, skip, names, this.multiName.length, other.multiName.length - skip);
+		System.arraycopy(other.multiTime, skip, times, this.multiTime.length, other.multiTime.length - skip);
+		this.multiName = names;
+		this.multiTime = times;
+		this.multiList.addAll(other.multiList.subList(skip, other.multiList.size()));
+		return this;
 	}
 
 	public String[] getMultiName() 
@@ -172,11 +280,17 @@ public class NCMultiInfoMessage extends NCMessage
 		return Arrays.copyOf(this.multiTime, this.multiTime.length);
 	}
 	
+	/* Cursor de la página siguiente (vacío en la última) o null si el mensaje no es una respuesta paginada. */
+	public String getCursor()
+	{
+		return this.cursor;
+	}
+
 	public List<List<String>> getMultiList()
 	{
 		/* Devuelve una copia para salvaguardar la integridad de los datos originales. */
-		List<List<String>> l= new LinkedList<List<String>>();
-		for (List<String> list : this.multiList) l.add(new LinkedList<String>(list));
+		List<List<String>> l= new ArrayList<List<String>>(this.multiList.size());
+		for (List<String> list : this.multiList) l.add(new ArrayList<String>(list));
 		return l;
 	}
 }
@@ -0,0 +1,142 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+	PageMessage
+	----
+
+	operation:<operation>
+	name:<name>
+	prefix:<prefix>
+	sort:<sort key>
+	cursor:<cursor>
+	limit:<page size>
+
+	Defined operations:
+	- RoomListPage (name vacío; sort: name, members o activity)
+	- RoomInfoPage (name: sala cuyos miembros se listan; sort: name)
+	- RoomListTop (solo sort y limit: las limit primeras salas en el orden sort, sin cursor)
+	- RoomSearch (name: texto que debe aparecer en el nombre de las salas, sin distinguir mayúsculas; sort: name)
+
+	Pide una página de una lista: como mucho limit elementos que empiecen por prefix (vacío para todos), en el orden de sort y a continuación de cursor (vacío para empezar por el principio).
+	La respuesta (RoomListPageOk, RoomInfoPageOk o RoomSearchOk) lleva el cursor de la página siguiente, vacío si ya no hay más.
+	En los órdenes members y activity con prefijo el servidor recorre un número limitado de salas por página, así que una página puede traer menos de limit elementos, o ninguno, y aun así un cursor para seguir.
+*/
+
+public class NCPageMessage extends NCMessage
+{
+	/* Campos específicos de este tipo de mensaje. */
+	private String name;
+	private String prefix;
+	private String sort;
+	private String cursor;
+	private int limit;
+	static protected final String NAME_FIELD = "name";
+	static protected final String PREFIX_FIELD = "prefix";
+	static protected final String SORT_FIELD = "sort";
+	static protected final String CURSOR_FIELD = "cursor";
+	static protected final String LIMIT_FIELD = "limit";
+
+	/* Órdenes de las páginas: por nombre, por número de miembros (de más a menos) y por hora del último mensaje (de más a menos reciente). */
+	public static final String SORT_NAME = "name";
+	public static final String SORT_MEMBERS = "members";
+	public static final String SORT_ACTIVITY = "activity";
+
+	/* Almacenamos los códigos de todos los mensajes que usan este formato. */
+	public static final Set<Byte> _op_page_messages = Set.of
+	(
+		OP_ROOM_LIST_PAGE,
+		OP_ROOM_INFO_PAGE,
+		OP_ROOM_LIST_TOP,
+		OP_ROOM_SEARCH
+	);
+
+	/* Creamos un mensaje de tipo PageMessage a partir del código de operación y de los parámetros de la página. */
+	public NCPageMessage(byte operation, String name, String prefix, String sort, String cursor, int limit)
+	{
+		this.opcode = operation;
+		this.name = name;
+		this.prefix = prefix;
+		this.sort = sort;
+		this.cursor = cursor;
+		this.limit = limit;
+	}
+
+	/* Pasamos los campos del mensaje a la codificación correcta en field:value. */
+	@Override
+	protected void writeText(NCTextWriter writer)
+	{
+		writer.field(NAME_FIELD, this.name);
+		writer.field(PREFIX_FIELD, this.prefix);
+		writer.field(SORT_FIELD, this.sort);
+		writer.field(CURSOR_FIELD, this.cursor);
+		writer.field(LIMIT_FIELD, this.limit);
+	}
+
+	/* Parseamos el resto del mensaje con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
+	public static NCPageMessage readFromText(byte code, NCTextReader reader) throws IOException
+	{
+		if (!reader.nextField(NAME_FIELD)) return null;
+		String name = reader.value();
+		if (!reader.nextField(PREFIX_FIELD)) return null;
+		String prefix = reader.value();
+		if (!reader.nextField(SORT_FIELD)) return null;
+		String sort = reader.value();
+		if (!reader.nextField(CURSOR_FIELD)) return null;
+		String cursor = reader.value();
+		if (!reader.nextField(LIMIT_FIELD)) return null;
+		long limit = reader.longValue();
+		if (limit < 0 || limit > Integer.MAX_VALUE) return null;
+		return new NCPageMessage(code, name, prefix, sort, cursor, (int) limit);
+	}
+
+	/* Pasamos los campos del mensaje al formato binario, en el mismo orden. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
+	{
+		writer.writeString(this.name);
+		writer.writeString(this.prefix);
+		writer.writeString(this.sort);
+		writer.writeString(this.cursor);
+		writer.writeVarInt(this.limit);
+	}
+
+	/* Leemos los campos del mensaje en formato binario. */
+	public static NCPageMessage readBinary(byte code, NCBinaryReader reader) throws IOException
+	{
+		String name = reader.readString();
+		String prefix = reader.readString();
+		String sort = reader.readString();
+		String cursor = reader.readString();
+		int limit = reader.readVarInt();
+		if (limit < 0) throw new IOException("Invalid page size: " + limit + ".");
+		return new NCPageMessage(code, name, prefix, sort, cursor, limit);
+	}
+
+	public String getName()
+	{
+		return this.name;
+	}
+
+	public String getPrefix()
+	{
+		return this.prefix;
+	}
+
+	public String getSort()
+	{
+		return this.sort;
+	}
+
+	public String getCursor()
+	{
+		return this.cursor;
+	}
+
+	public int getLimit()
+	{
+		return this.limit;
+	}
+}
@@ -1,5 +1,6 @@
 package es.um.redes.nanoChat.messageFV;
 
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -19,6 +20,8 @@ import java.util.Set;
 	- RenameRoomOk
 	- UserIn
 	- UserOut
+	- SetCodec
+	- CodecOk
 */
 
 public class NCRoomMessage extends NCMessage 
@@ -38,7 +41,9 @@ public class NCRoomMessage extends NCMessage
 		OP_RENAME_ROOM,
 		OP_RENAME_ROOM_OK,
 		OP_USER_IN,
-		OP_USER_OUT
+		OP_USER_OUT,
+		OP_SET_CODEC,
+		OP_CODEC_OK
 	);
 	
 	/* Creamos un mensaje de tipo RoomMessage a partir del código de operación y del nombre. */
@@ -50,29 +55,30 @@ public class NCRoomMessage extends NCMessage
 
 	/* Pasamos los campos del mensaje a la codificación correcta en field:value. */
 	@Override
-	public String toEncodedString() 
+	protected void writeText(NCTextWriter writer) 
 	{
-		StringBuffer sb = new StringBuffer();			
-		sb.append(OPCODE_FIELD+DELIMITER+opcodeToOperation(this.opcode)+END_LINE);
-		sb.append(NAME_FIELD+DELIMITER+this.name+END_LINE);
-		sb.append(END_LINE);
-		return sb.toString();
+		writer.field(NAME_FIELD, this.name);
 	}
 
-	/* Parseamos el mensaje contenido en message con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
-	public static NCRoomMessage readFromString(byte code, String message) 
+	/* Parseamos el resto del mensaje con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
+	public static NCRoomMessage readFromText(byte code, NCTextReader reader) 
 	{
-		String[] lines = message.split(String.valueOf(END_LINE));
-		String name = null;
-		
-		int idx = lines[1].indexOf(DELIMITER); 
-		
-		String field = lines[1].substring(0, idx).toLowerCase();                                                                                                                                                // minúsculas
-		String value = lines[1].substring(idx + 1).trim();
-		if (field.equalsIgnoreCase(NAME_FIELD)) name = value;
-		else return null;
+		if (!reader.nextField(NAME_FIELD)) return null;
 		/* Devolvemos el nuevo objeto RoomMessage. */
-		return new NCRoomMessage(code, name);
+		return new NCRoomMessage(code, reader.value());
+	}
+
+	/* Pasamos el campo nombre al formato binario. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
+	{
+		writer.writeString(this.name);
+	}
+
+	/* Leemos los campos del mensaje en formato binario. */
+	public static NCRoomMessage readBinary(byte code, NCBinaryReader reader) throws IOException
+	{
+		return new NCRoomMessage(code, reader.readString());
 	}
 
 	public String getName() 
@@ -0,0 +1,101 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import es.um.redes.nanoChat.metrics.NCMessageDecodedEvent;
+
+/**
+	TextCodec
+	----
+
+	Formato original: texto field:value dentro de una trama de writeUTF (2 bytes de longitud seguidos del texto en UTF-8 modificado).
+	Si el mensaje pertenece a una petición, detrás de sus campos va la línea id:<n> con el id de la petición. Si es un trozo al que siguen más, detrás va la línea more:1 (y la del id aunque sea 0).
+	La cabecera de 2 bytes limita el cuerpo a 64 KB (o al tamaño máximo de trama configurado si es menor), así que las respuestas más grandes siempre viajan en trozos.
+*/
+
+public class NCTextCodec extends NCCodec
+{
+	@Override
+	public int getId()
+	{
+		return CODEC_TEXT;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "text";
+	}
+
+	@Override
+	public int getMaxBodySize()
+	{
+		return Math.min(NCFrame.MAX_BODY_SIZE, getMaxFrameSize() - NCFrame.HEADER_SIZE);
+	}
+
+	@Override
+	public NCFrame encode(NCMessage message) throws IOException
+	{
+		/* Escribimos el texto directamente en el buffer del hilo y copiamos una sola vez a la trama. */
+		NCTextWriter writer = NCTextWriter.acquire();
+		message.encodeText(writer);
+		return this.toFrame(writer);
+	}
+
+	@Override
+	public NCFrame withTrailer(NCFrame frame, int requestId, boolean more) throws IOException
+	{
+		if (requestId == 0 && !more) return frame;
+		/* Copiamos el texto sin la línea vacía final, que va detrás del id. */
+		NCTextWriter writer = NCTextWriter.acquire();
+		writer.append(frame, NCFrame.HEADER_SIZE, frame.size() - NCFrame.HEADER_SIZE - 1);
+		NCMessage.writeTextTrailer(writer, requestId, more);
+		return this.toFrame(writer);
+	}
+
+	private NCFrame toFrame(NCTextWriter writer) throws IOException
+	{
+		NCFrame frame = writer.toFrame();
+		if (frame.size() - NCFrame.HEADER_SIZE > this.getMaxBodySize()) throw new IOException("Encoded message too long: " + (frame.size() - NCFrame.HEADER_SIZE) + " bytes.");
+		return frame;
+	}
+
+	@Override
+	public NCMessage read(DataInputStream dis) throws IOException
+	{
+		/* Leemos la trama de writeUTF sin pasar por String y recorremos sus bytes una sola vez. */
+		int size = dis.readUnsignedShort();
+		this.checkBodySize(size);
+		byte[] body = scratchBuffer(size);
+		dis.readFully(body, 0, size);
+		/* El evento de JFR empieza cuando ya está la trama entera para no medir la espera del cliente. */
+		NCMessageDecodedEvent event = new NCMessageDecodedEvent();
+		event.begin();
+		return this.decoded(event, NCMessage.readText(new NCTextReader(body, 0, size)), NCFrame.HEADER_SIZE + size);
+	}
+
+	@Override
+	public int frameSize(ByteBuffer buffer) throws IOException
+	{
+		if (buffer.remaining() < NCFrame.HEADER_SIZE) return -1;
+		int size = buffer.getShort(buffer.position()) & 0xFFFF;
+		this.checkBodySize(size);
+		return NCFrame.HEADER_SIZE + size;
+	}
+
+	@Override
+	public NCMessage decode(byte[] array, int offset, int size) throws IOException
+	{
+		/* El texto se recorre directamente en el array, a continuación de los 2 bytes de longitud. */
+		NCMessageDecodedEvent event = new NCMessageDecodedEvent();
+		event.begin();
+		return this.decoded(event, NCMessage.readText(new NCTextReader(array, offset + NCFrame.HEADER_SIZE, size - NCFrame.HEADER_SIZE)), size);
+	}
+
+	private void checkBodySize(int size) throws IOException
+	{
+		if (size > this.getMaxBodySize()) throw new IOException("Invalid text frame size: " + size + ".");
+	}
+}
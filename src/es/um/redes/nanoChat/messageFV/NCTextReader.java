@@ -0,0 +1,236 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+	TextReader
+	----
+
+	Recorre una sola vez los bytes de un mensaje field:value (UTF-8 modificado, tal como llega en la trama de writeUTF) sin partirlo en líneas ni cadenas intermedias.
+	Los delimitadores son ASCII y en UTF-8 modificado nunca aparecen dentro de un carácter multibyte, así que se pueden buscar directamente en los bytes.
+	Solo se construyen las cadenas de los valores que necesita el mensaje.
+*/
+
+public final class NCTextReader
+{
+	private final byte[] buffer;
+	/* Inicio de la siguiente línea por leer y final del mensaje. */
+	private int position;
+	private final int limit;
+	/* Límites del valor del último campo leído, ya sin espacios a los lados. */
+	private int valueStart;
+	private int valueEnd;
+
+	public NCTextReader(byte[] buffer, int offset, int length)
+	{
+		this.buffer = buffer;
+		this.position = offset;
+		this.limit = offset + length;
+	}
+
+	/* Lee la siguiente línea field:value. Devuelve false si no quedan líneas, si la línea no tiene delimitador o si el campo no es el esperado (sin distinguir mayúsculas). */
+	public boolean nextField(String field)
+	{
+		if (this.position >= this.limit) return false;
+		int lineEnd = this.indexOf(NCMessage.END_LINE, this.position, this.limit);
+		int delimiter = this.indexOf(NCMessage.DELIMITER, this.position, lineEnd);
+		if (delimiter == lineEnd) return false;
+		boolean matches = this.equalsIgnoreCase(this.position, delimiter, field);
+		/* Quitamos los espacios del valor igual que String.trim. */
+		int start = delimiter + 1;
+		int end = lineEnd;
+		while (start < end && (this.buffer[start] & 0xFF) <= ' ') start++;
+		while (end > start && (this.buffer[end - 1] & 0xFF) <= ' ') end--;
+		this.valueStart = start;
+		this.valueEnd = end;
+		this.position = lineEnd + 1;
+		return matches;
+	}
+
+	/* Valor del último campo leído. */
+	public String value()
+	{
+		return decode(this.buffer, this.valueStart, this.valueEnd);
+	}
+
+	/* Valor numérico del último campo leído. */
+	public long longValue() throws IOException
+	{
+		return parseLong(this.valueStart, this.valueEnd);
+	}
+
+	/* Código de operación del último campo leído o OP_INVALID_CODE si no es una operación conocida. */
+	public byte operationValue()
+	{
+		return NCMessage.operationToOpcode(this.buffer, this.valueStart, this.valueEnd);
+	}
+
+	/* Número de elementos no vacíos del último valor separados por separator. */
+	public int countItems(char separator)
+	{
+		return this.countItems(this.valueStart, this.valueEnd, separator);
+	}
+
+	/* Añade a la lista los elementos no vacíos del último valor separados por separator. */
+	public void readItems(char separator, List<String> out)
+	{
+		this.readItems(this.valueStart, this.valueEnd, separator, out);
+	}
+
+	/* Devuelve los elementos no vacíos del último valor separados por separator. */
+	public String[] readItems(char separator)
+	{
+		String[] items = new String[this.countItems(separator)];
+		int n = 0;
+		int start = this.valueStart;
+		while (start <= this.valueEnd)
+		{
+			int end = this.indexOf(separator, start, this.valueEnd);
+			if (end > start) items[n++] = decode(this.buffer, start, end);
+			start = end + 1;
+		}
+		return items;
+	}
+
+	/* Devuelve los números del último valor separados por separator (cada uno sin espacios a los lados). */
+	public long[] readLongs(char separator) throws IOException
+	{
+		long[] values = new long[this.countItems(separator)];
+		int n = 0;
+		int start = this.valueStart;
+		while (start <= this.valueEnd)
+		{
+			int end = this.indexOf(separator, start, this.valueEnd);
+			if (end > start) values[n++] = this.parseLong(start, end);
+			start = end + 1;
+		}
+		return values;
+	}
+
+	/* Parte el último valor en grupos separados por groupSeparator (incluidos los vacíos) y cada grupo en elementos no vacíos separados por separator. */
+	public void readGroups(char groupSeparator, char separator, List<List<String>> out, ListFactory factory)
+	{
+		int start = this.valueStart;
+		while (start <= this.valueEnd)
+		{
+			int end = this.indexOf(groupSeparator, start, this.valueEnd);
+			List<String> group = factory.create(this.countItems(start, end, separator));
+			this.readItems(start, end, separator, group);
+			out.add(group);
+			start = end + 1;
+		}
+	}
+
+	/* Crea las listas de los grupos con la capacidad justa. */
+	public interface ListFactory
+	{
+		List<String> create(int capacity);
+	}
+
+	/* Decodifica UTF-8 modificado. El caso habitual (solo ASCII) se resuelve sin buffer intermedio. */
+	static String decode(byte[] b, int start, int end)
+	{
+		int i = start;
+		while (i < end && b[i] >= 0) i++;
+		if (i == end) return new String(b, start, end - start, StandardCharsets.ISO_8859_1);
+		char[] chars = new char[end - start];
+		int n = 0;
+		for (int j = start; j < i; j++) chars[n++] = (char) b[j];
+		while (i < end)
+		{
+			int c = b[i] & 0xFF;
+			if (c < 0x80)
+			{
+				chars[n++] = (char) c;
+				i++;
+			}
+			else if ((c & 0xE0) == 0xC0 && i + 1 < end)
+			{
+				chars[n++] = (char) (((c & 0x1F) << 6) | (b[i + 1] & 0x3F));
+				i += 2;
+			}
+			else if ((c & 0xF0) == 0xE0 && i + 2 < end)
+			{
+				chars[n++] = (char) (((c & 0x0F) << 12) | ((b[i + 1] & 0x3F) << 6) | (b[i + 2] & 0x3F));
+				i += 3;
+			}
+			else
+			{
+				/* Byte no válido, lo sustituimos como hace el decodificador estándar. */
+				chars[n++] = '�';
+				i++;
+			}
+		}
+		return new String(chars, 0, n);
+	}
+
+	private int countItems(int start, int end, char separator)
+	{
+		int count = 0;
+		int itemStart = start;
+		for (int i = start; i <= end; i++)
+		{
+			if (i == end || this.buffer[i] == separator)
+			{
+				if (i > itemStart) count++;
+				itemStart = i + 1;
+			}
+		}
+		return count;
+	}
+
+	private void readItems(int start, int end, char separator, List<String> out)
+	{
+		while (start <= end)
+		{
+			int itemEnd = this.indexOf(separator, start, end);
+			if (itemEnd > start) out.add(decode(this.buffer, start, itemEnd));
+			start = itemEnd + 1;
+		}
+	}
+
+	/* Posición del primer byte igual a c entre start y end, o end si no aparece. */
+	private int indexOf(char c, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+		{
+			if (this.buffer[i] == c) return i;
+		}
+		return end;
+	}
+
+	private boolean equalsIgnoreCase(int start, int end, String s)
+	{
+		if (end - start != s.length()) return false;
+		for (int i = 0; i < s.length(); i++)
+		{
+			int a = this.buffer[start + i];
+			int b = s.charAt(i);
+			if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b)) return false;
+		}
+		return true;
+	}
+
+	/* Número decimal entre start y end, sin espacios a los lados. */
+	private long parseLong(int start, int end) throws IOException
+	{
+		while (start < end && (this.buffer[start] & 0xFF) <= ' ') start++;
+		while (end > start && (this.buffer[end - 1] & 0xFF) <= ' ') end--;
+		if (start == end) throw new IOException("Malformed number in text message.");
+		boolean negative = this.buffer[start] == '-';
+		if (negative || this.buffer[start] == '+') start++;
+		if (start == end) throw new IOException("Malformed number in text message.");
+		long value = 0;
+		for (int i = start; i < end; i++)
+		{
+			int digit = this.buffer[i] - '0';
+			if (digit < 0 || digit > 9) throw new IOException("Malformed number in text message.");
+			/* Acumulamos en negativo para poder representar Long.MIN_VALUE. */
+			if (value < (Long.MIN_VALUE + digit) / 10) throw new IOException("Number out of range in text message.");
+			value = value * 10 - digit;
+		}
+		return negative ? value : -value;
+	}
+}
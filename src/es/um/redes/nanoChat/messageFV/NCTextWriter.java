@@ -0,0 +1,169 @@
+package es.um.redes.nanoChat.messageFV;
+
+import java.io.UTFDataFormatException;
+import java.util.Arrays;
+
+/**
+	TextWriter
+	----
+
+	Buffer en el que los mensajes escriben sus líneas field:value directamente en UTF-8 modificado, sin construir cadenas intermedias.
+	Deja sitio al principio para los 2 bytes de longitud, así la trama de writeUTF se obtiene con una única copia.
+*/
+
+public final class NCTextWriter
+{
+	/* Tamaño a partir del cual no se conserva el buffer de un hilo entre codificaciones. */
+	private static final int MAX_CACHED_SIZE = 16 * 1024;
+	/* Un buffer reutilizable por hilo para codificar las tramas. */
+	private static final ThreadLocal<NCTextWriter> cached = ThreadLocal.withInitial(() -> new NCTextWriter(256));
+
+	private byte[] buffer;
+	/* Posición donde se escribirá el siguiente byte. */
+	private int position;
+
+	public NCTextWriter(int initialCapacity)
+	{
+		this.buffer = new byte[NCFrame.HEADER_SIZE + initialCapacity];
+		this.position = NCFrame.HEADER_SIZE;
+	}
+
+	/* Devuelve el buffer del hilo actual vacío y listo para escribir. */
+	static NCTextWriter acquire()
+	{
+		NCTextWriter writer = cached.get();
+		if (writer.buffer.length > MAX_CACHED_SIZE)
+		{
+			writer = new NCTextWriter(256);
+			cached.set(writer);
+		}
+		writer.position = NCFrame.HEADER_SIZE;
+		return writer;
+	}
+
+	/* Escribe la línea del código de operación. */
+	public NCTextWriter operation(byte opcode)
+	{
+		return this.field(NCMessage.OPCODE_FIELD, NCMessage.opcodeToOperation(opcode));
+	}
+
+	/* Escribe una línea field:value completa. */
+	public NCTextWriter field(String name, String value)
+	{
+		return this.fieldStart(name).append(value).endLine();
+	}
+
+	public NCTextWriter field(String name, long value)
+	{
+		return this.fieldStart(name).append(value).endLine();
+	}
+
+	/* Escribe el nombre del campo y el delimitador. El valor se añade a continuación con append. */
+	public NCTextWriter fieldStart(String name)
+	{
+		return this.append(name).append(NCMessage.DELIMITER);
+	}
+
+	public NCTextWriter endLine()
+	{
+		return this.append(NCMessage.END_LINE);
+	}
+
+	/* Añade el texto codificado en UTF-8 modificado, igual que writeUTF. */
+	public NCTextWriter append(String s)
+	{
+		int length = s.length();
+		this.ensureCapacity(length * 3);
+		byte[] b = this.buffer;
+		int pos = this.position;
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007F)
+			{
+				b[pos++] = (byte) c;
+			}
+			else if (c > 0x07FF)
+			{
+				b[pos++] = (byte) (0xE0 | ((c >> 12) & 0x0F));
+				b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else
+			{
+				b[pos++] = (byte) (0xC0 | ((c >> 6) & 0x1F));
+				b[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		this.position = pos;
+		return this;
+	}
+
+	/* Añade un carácter ASCII. */
+	public NCTextWriter append(char c)
+	{
+		this.ensureCapacity(1);
+		this.buffer[this.position++] = (byte) c;
+		return this;
+	}
+
+	/* Añade length bytes de la trama desde la posición offset, ya codificados. */
+	void append(NCFrame frame, int offset, int length)
+	{
+		this.ensureCapacity(length);
+		frame.copyTo(offset, this.buffer, this.position, length);
+		this.position += length;
+	}
+
+	/* Añade un número en decimal sin pasar por String. */
+	public NCTextWriter append(long value)
+	{
+		this.ensureCapacity(20);
+		if (value == Long.MIN_VALUE) return this.append(Long.toString(value));
+		if (value < 0)
+		{
+			this.buffer[this.position++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value / 10; v != 0; v /= 10) digits++;
+		int pos = this.position + digits;
+		this.position = pos;
+		do
+		{
+			this.buffer[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		}
+		while (value != 0);
+		return this;
+	}
+
+	/* Construye la trama de writeUTF: 2 bytes con la longitud seguidos del texto. Falla si el texto no cabe en ese formato. */
+	NCFrame toFrame() throws UTFDataFormatException
+	{
+		int bodySize = this.position - NCFrame.HEADER_SIZE;
+		if (bodySize > NCFrame.MAX_BODY_SIZE) throw new UTFDataFormatException("Encoded message too long: " + bodySize + " bytes.");
+		this.buffer[0] = (byte) (bodySize >>> 8);
+		this.buffer[1] = (byte) bodySize;
+		return new NCFrame(Arrays.copyOf(this.buffer, this.position));
+	}
+
+	/* Devuelve un lector sobre el texto escrito, sin copiarlo. */
+	NCTextReader toReader()
+	{
+		return new NCTextReader(this.buffer, NCFrame.HEADER_SIZE, this.position - NCFrame.HEADER_SIZE);
+	}
+
+	/* Devuelve el texto escrito como cadena. */
+	@Override
+	public String toString()
+	{
+		return NCTextReader.decode(this.buffer, NCFrame.HEADER_SIZE, this.position);
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (this.position + extra <= this.buffer.length) return;
+		this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.position + extra));
+	}
+}
@@ -1,5 +1,6 @@
 package es.um.redes.nanoChat.messageFV;
 
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -38,40 +39,39 @@ public class NCUserMessage extends NCMessage
 
 	/* Pasamos los campos del mensaje a la codificación correcta en field:value. */
 	@Override
-	public String toEncodedString() 
+	protected void writeText(NCTextWriter writer) 
 	{
-		StringBuffer sb = new StringBuffer();			
-		sb.append(OPCODE_FIELD+DELIMITER+opcodeToOperation(this.opcode)+END_LINE);
-		sb.append(NAME_FIELD+DELIMITER+this.name+END_LINE);
-		sb.append(TEXT_FIELD + DELIMITER + this.text+END_LINE);
-		sb.append(END_LINE);
-		return sb.toString();
+		writer.field(NAME_FIELD, this.name);
+		writer.field(TEXT_FIELD, this.text);
 	}
 
-	/* Parseamos el mensaje contenido en message con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
-	public static NCUserMessage readFromString(byte code, String message) 
+	/* Parseamos el resto del mensaje con el fin de obtener los distintos campos y así poder construir el objeto mensaje. */
+	public static NCUserMessage readFromText(byte code, NCTextReader reader) 
 	{
-		String[] lines = message.split(String.valueOf(END_LINE));
-		String name = null;
-		String text = null;
-		
-		int idxName = lines[1].indexOf(DELIMITER); 
-		int idxText = lines[2].indexOf(DELIMITER);
-		
-		String fieldName = lines[1].substring(0, idxName).toLowerCase();                                                                                                                                                // minúsculas
-		String valueName = lines[1].substring(idxName + 1).trim();
-		
-		String fieldText = lines[2].substring(0, idxText).toLowerCase();
-		String valueText = lines[2].substring(idxText + 1).trim();
-		
-		if (fieldName.equalsIgnoreCase(NAME_FIELD)) name = valueName;
-		else return null;
-		if (fieldText.equalsIgnoreCase(TEXT_FIELD)) text = valueText;
-		else return null;
+		if (!reader.nextField(NAME_FIELD)) return null;
+		String name = reader.value();
+		if (!reader.nextField(TEXT_FIELD)) return null;
+		String text = reader.value();
 		/* Devolvemos el nuevo objeto UserMessage. */
 		return new NCUserMessage(code, name, text);
 	}
 
+	/* Pasamos los campos del mensaje al formato binario. */
+	@Override
+	protected void writeBinary(NCBinaryWriter writer)
+	{
+		writer.writeString(this.name);
+		writer.writeString(this.text);
+	}
+
+	/* Leemos los campos del mensaje en formato binario. */
+	public static NCUserMessage readBinary(byte code, NCBinaryReader reader) throws IOException
+	{
+		String name = reader.readString();
+		String text = reader.readString();
+		return new NCUserMessage(code, name, text);
+	}
+
 	public String getName() 
 	{
 		return this.name;
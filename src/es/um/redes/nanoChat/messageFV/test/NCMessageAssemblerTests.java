@@ -0,0 +1,154 @@
+package es.um.redes.nanoChat.messageFV.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCMessageAssembler;
+import es.um.redes.nanoChat.messageFV.NCMultiInfoMessage;
+
+class NCMessageAssemblerTests {
+
+	@Test
+	void testResponseThatFitsIsNotSplit()
+	{
+		NCMessage message = roomList(100, 3, 0);
+		for (NCCodec codec : new NCCodec[] { NCCodec.TEXT, NCCodec.BINARY }) assertEquals(1, message.splitFor(codec).size());
+		// Binario admite tramas mucho mayores que writeUTF
+		assertEquals(1, roomList(3000, 5, 0).splitFor(NCCodec.BINARY).size());
+	}
+
+	@Test
+	void testRoomListIsReassembled() throws IOException
+	{
+		// La última sala tiene tantos miembros que su lista ocupa varios trozos
+		NCMultiInfoMessage original = roomList(3000, 5, 20000);
+		List<NCMessage> chunks = frames(original, 3);
+		assertTrue(chunks.size() > 3);
+		NCMessageAssembler assembler = new NCMessageAssembler();
+		NCMultiInfoMessage joined = null;
+		for (int i = 0; i < chunks.size(); i++)
+		{
+			// Entre los trozos pueden llegar avisos, que pasan sin esperar
+			NCMessage push = decode(NCMessage.makeRoomMessage(NCMessage.OP_USER_IN, "bob"));
+			assertSame(push, assembler.offer(push));
+			NCMessage result = assembler.offer(chunks.get(i));
+			if (i < chunks.size() - 1) assertNull(result);
+			else joined = (NCMultiInfoMessage) result;
+		}
+		assertEquals(3, joined.getRequestId());
+		assertFalse(joined.hasMore());
+		assertArrayEquals(original.getMultiName(), joined.getMultiName());
+		assertArrayEquals(original.getMultiTime(), joined.getMultiTime());
+		assertEquals(original.getMultiList(), joined.getMultiList());
+	}
+
+	@Test
+	void testMemberListIsReassembled() throws IOException
+	{
+		List<String> members = users(20000);
+		NCMessage original = NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_OK, "Sala", 9, members);
+		List<NCMessage> chunks = frames(original, 4);
+		assertTrue(chunks.size() > 1);
+		NCMessageAssembler assembler = new NCMessageAssembler();
+		NCMessage joined = null;
+		for (NCMessage chunk : chunks) joined = assembler.offer(chunk);
+		assertEquals("Sala", ((NCInfoMessage) joined).getName());
+		assertEquals(members, ((NCInfoMessage) joined).getList());
+	}
+
+	@Test
+	void testResponseOverTheByteLimitIsRejected() throws IOException
+	{
+		List<NCMessage> chunks = frames(roomList(3000, 5, 0), 5);
+		NCMessageAssembler assembler = new NCMessageAssembler(10000, 64);
+		// El primer trozo ya pasa del límite: falla y el resto se descarta sin guardarlo
+		assertThrows(IOException.class, () -> assembler.offer(chunks.get(0)));
+		for (int i = 1; i < chunks.size(); i++) assertNull(assembler.offer(chunks.get(i)));
+		// La conexión sigue: la respuesta siguiente llega entera
+		NCMessage next = decode(NCMessage.makeControlMessage(NCMessage.OP_VALID_NICK));
+		assertSame(next, assembler.offer(next));
+	}
+
+	@Test
+	void testTooManyOpenResponsesAreRejected() throws IOException
+	{
+		List<NCMessage> first = frames(roomList(3000, 5, 0), 1);
+		List<NCMessage> second = frames(roomList(3000, 5, 0), 2);
+		NCMessageAssembler assembler = new NCMessageAssembler(NCMessageAssembler.DEFAULT_MAX_BYTES, 1);
+		assertNull(assembler.offer(first.get(0)));
+		assertThrows(IOException.class, () -> assembler.offer(second.get(0)));
+		NCMessage joined = null;
+		for (int i = 1; i < first.size(); i++)
+		{
+			joined = assembler.offer(first.get(i));
+			if (i < second.size()) assertNull(assembler.offer(second.get(i)));
+		}
+		assertEquals(1, joined.getRequestId());
+		assertEquals(3000, ((NCMultiInfoMessage) joined).getMultiName().length);
+	}
+
+	// Lista de salas con members miembros por sala y, si big > 0, una última sala con big miembros
+	private static NCMultiInfoMessage roomList(int rooms, int members, int big)
+	{
+		int count = big > 0 ? rooms + 1 : rooms;
+		String[] names = new String[count];
+		long[] times = new long[count];
+		List<List<String>> lists = new ArrayList<List<String>>();
+		for (int i = 0; i < rooms; i++)
+		{
+			names[i] = "Room" + i;
+			times[i] = 1000L + i;
+			lists.add(users(members));
+		}
+		if (big > 0)
+		{
+			names[rooms] = "Big";
+			lists.add(users(big));
+		}
+		return (NCMultiInfoMessage) NCMessage.makeMultiInfoMessage(NCMessage.OP_ROOM_LIST_OK, names, times, lists);
+	}
+
+	private static List<String> users(int count)
+	{
+		List<String> users = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) users.add("user" + i);
+		return users;
+	}
+
+	// Parte la respuesta como el servidor (tramas de cada trozo con el id y la marca more) y decodifica las tramas como el cliente
+	private static List<NCMessage> frames(NCMessage response, int requestId) throws IOException
+	{
+		List<NCMessage> chunks = response.splitFor(NCCodec.TEXT);
+		List<NCMessage> decoded = new ArrayList<NCMessage>();
+		for (int i = 0; i < chunks.size(); i++)
+		{
+			byte[] bytes = bytesOf(NCCodec.TEXT.withTrailer(NCCodec.TEXT.encode(chunks.get(i)), requestId, i < chunks.size() - 1));
+			assertTrue(bytes.length <= NCFrame.HEADER_SIZE + NCCodec.TEXT.getMaxBodySize());
+			decoded.add(NCCodec.TEXT.decode(bytes, 0, bytes.length));
+		}
+		return decoded;
+	}
+
+	private static NCMessage decode(NCMessage message) throws IOException
+	{
+		byte[] bytes = bytesOf(NCCodec.TEXT.encode(message));
+		return NCCodec.TEXT.decode(bytes, 0, bytes.length);
+	}
+
+	private static byte[] bytesOf(NCFrame frame) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		frame.writeTo(out);
+		return out.toByteArray();
+	}
+}
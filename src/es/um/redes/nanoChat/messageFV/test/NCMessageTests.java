@@ -0,0 +1,192 @@
+package es.um.redes.nanoChat.messageFV.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCControlMessage;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCMultiInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.messageFV.NCRoomMessage;
+import es.um.redes.nanoChat.messageFV.NCUserMessage;
+
+class NCMessageTests {
+
+	private static final NCCodec[] CODECS = { NCCodec.TEXT, NCCodec.BINARY };
+
+	@Test
+	void testRoomMessagesRoundTrip() throws IOException
+	{
+		for (byte op : NCRoomMessage._op_room_messages)
+		{
+			for (NCCodec codec : CODECS)
+			{
+				NCRoomMessage decoded = (NCRoomMessage) roundTrip(codec, NCMessage.makeRoomMessage(op, "Sala ñandú 1"));
+				assertEquals(op, decoded.getOpcode());
+				assertEquals("Sala ñandú 1", decoded.getName());
+			}
+		}
+	}
+
+	@Test
+	void testControlMessagesRoundTrip() throws IOException
+	{
+		for (byte op : NCControlMessage._op_control_messages)
+		{
+			for (NCCodec codec : CODECS) assertEquals(op, roundTrip(codec, NCMessage.makeControlMessage(op)).getOpcode());
+		}
+	}
+
+	@Test
+	void testMultiInfoMessagesRoundTrip() throws IOException
+	{
+		List<List<String>> members = new ArrayList<List<String>>();
+		members.add(List.of("ana", "bob"));
+		members.add(List.of("carla"));
+		for (byte op : NCMultiInfoMessage._op_list_messages)
+		{
+			for (NCCodec codec : CODECS)
+			{
+				NCMessage message = NCMessage.makeMultiInfoMessage(op, new String[] { "Música", "Java" }, new long[] { 1234567890123L, 0 }, members, "Java");
+				NCMultiInfoMessage decoded = (NCMultiInfoMessage) roundTrip(codec, message);
+				assertEquals(op, decoded.getOpcode());
+				assertArrayEquals(new String[] { "Música", "Java" }, decoded.getMultiName());
+				assertArrayEquals(new long[] { 1234567890123L, 0 }, decoded.getMultiTime());
+				assertEquals(members, decoded.getMultiList());
+				// Solo las respuestas paginadas llevan cursor
+				if (op == NCMessage.OP_ROOM_LIST_PAGE_OK || op == NCMessage.OP_ROOM_SEARCH_OK) assertEquals("Java", decoded.getCursor());
+				else assertNull(decoded.getCursor());
+			}
+		}
+	}
+
+	@Test
+	void testInfoMessagesRoundTrip() throws IOException
+	{
+		for (byte op : NCInfoMessage._op_info_messages)
+		{
+			for (NCCodec codec : CODECS)
+			{
+				NCInfoMessage decoded = (NCInfoMessage) roundTrip(codec, NCMessage.makeInfoMessage(op, "Sala", 42L, List.of("ana", "bob", "carla"), "bob"));
+				assertEquals(op, decoded.getOpcode());
+				assertEquals("Sala", decoded.getName());
+				assertEquals(42L, decoded.getTime());
+				assertEquals(List.of("ana", "bob", "carla"), decoded.getList());
+				if (op == NCMessage.OP_ROOM_INFO_PAGE_OK) assertEquals("bob", decoded.getCursor());
+				else assertNull(decoded.getCursor());
+			}
+		}
+	}
+
+	@Test
+	void testPageMessagesRoundTrip() throws IOException
+	{
+		for (byte op : NCPageMessage._op_page_messages)
+		{
+			for (NCCodec codec : CODECS)
+			{
+				NCPageMessage decoded = (NCPageMessage) roundTrip(codec, NCMessage.makePageMessage(op, "Sala", "be", NCPageMessage.SORT_MEMBERS, "3/beta", 25));
+				assertEquals(op, decoded.getOpcode());
+				assertEquals("Sala", decoded.getName());
+				assertEquals("be", decoded.getPrefix());
+				assertEquals(NCPageMessage.SORT_MEMBERS, decoded.getSort());
+				assertEquals("3/beta", decoded.getCursor());
+				assertEquals(25, decoded.getLimit());
+			}
+		}
+	}
+
+	@Test
+	void testUserMessagesRoundTrip() throws IOException
+	{
+		for (byte op : NCUserMessage._op_user_messages)
+		{
+			for (NCCodec codec : CODECS)
+			{
+				NCUserMessage decoded = (NCUserMessage) roundTrip(codec, NCMessage.makeUserMessage(op, "ana", "hola: ¿qué tal?"));
+				assertEquals(op, decoded.getOpcode());
+				assertEquals("ana", decoded.getName());
+				assertEquals("hola: ¿qué tal?", decoded.getText());
+			}
+		}
+	}
+
+	@Test
+	void testEveryOpcodeHasAKind()
+	{
+		// Todos los opcodes del protocolo salen en exactamente uno de los formatos
+		List<Set<Byte>> kinds = List.of(NCRoomMessage._op_room_messages, NCControlMessage._op_control_messages, NCMultiInfoMessage._op_list_messages, NCInfoMessage._op_info_messages, NCPageMessage._op_page_messages, NCUserMessage._op_user_messages);
+		for (byte op = 1; op <= NCMessage.OP_ROOM_SEARCH_OK; op++)
+		{
+			final byte code = op;
+			assertEquals(1, kinds.stream().filter(kind -> kind.contains(code)).count(), NCMessage.opcodeToOperation(op));
+		}
+	}
+
+	@Test
+	void testRequestIdAndMoreRoundTrip() throws IOException
+	{
+		for (NCCodec codec : CODECS)
+		{
+			// El id viaja con el mensaje
+			NCMessage request = NCMessage.makeRoomMessage(NCMessage.OP_ROOM_ENTER, "Sala");
+			request.setRequestId(Integer.MAX_VALUE);
+			NCMessage decoded = roundTrip(codec, request);
+			assertEquals(Integer.MAX_VALUE, decoded.getRequestId());
+			assertFalse(decoded.hasMore());
+
+			// Sin id el mensaje es un aviso
+			assertEquals(0, roundTrip(codec, NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST)).getRequestId());
+
+			// La marca more se añade a una trama ya codificada
+			NCFrame frame = codec.withTrailer(codec.encode(NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_OK, "Sala", 1, List.of("ana"))), 7, true);
+			decoded = read(codec, frame);
+			assertEquals(7, decoded.getRequestId());
+			assertTrue(decoded.hasMore());
+			assertEquals(List.of("ana"), ((NCInfoMessage) decoded).getList());
+		}
+	}
+
+	@Test
+	void testUnknownMessagesAreNull()
+	{
+		assertNull(NCMessage.readMessageFromString("operation:Unknown"));
+		assertNull(NCMessage.readMessageFromString("name:Sala"));
+	}
+
+	// Codifica el mensaje, lo decodifica por las dos vías del códec (stream y array) y comprueba que vuelve a dar los mismos bytes
+	private static NCMessage roundTrip(NCCodec codec, NCMessage message) throws IOException
+	{
+		NCFrame frame = codec.encode(message);
+		byte[] bytes = bytesOf(frame);
+		NCMessage decoded = read(codec, frame);
+		assertNotNull(decoded, codec.getName() + " " + NCMessage.opcodeToOperation(message.getOpcode()));
+		assertArrayEquals(bytes, bytesOf(codec.encode(decoded)));
+		assertArrayEquals(bytes, bytesOf(codec.encode(codec.decode(bytes, 0, bytes.length))));
+		return decoded;
+	}
+
+	private static NCMessage read(NCCodec codec, NCFrame frame) throws IOException
+	{
+		return codec.read(new DataInputStream(new ByteArrayInputStream(bytesOf(frame))));
+	}
+
+	private static byte[] bytesOf(NCFrame frame) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		frame.writeTo(out);
+		return out.toByteArray();
+	}
+}
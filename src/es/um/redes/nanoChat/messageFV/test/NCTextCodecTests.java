@@ -0,0 +1,83 @@
+package es.um.redes.nanoChat.messageFV.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCRoomMessage;
+
+class NCTextCodecTests {
+
+	@Test
+	void testFieldsAreScannedLikeTheOldParser()
+	{
+		// Nombres de campo y de operación sin distinguir mayúsculas y valores sin espacios alrededor
+		NCRoomMessage message = (NCRoomMessage) NCMessage.readMessageFromString("OPERATION:roomenter\nName:   Sala ñ  \n");
+		assertNotNull(message);
+		assertEquals(NCMessage.OP_ROOM_ENTER, message.getOpcode());
+		assertEquals("Sala ñ", message.getName());
+	}
+
+	@Test
+	void testMissingOrMisplacedFieldsFail()
+	{
+		assertNull(NCMessage.readMessageFromString("operation:RoomEnter\n"));
+		assertNull(NCMessage.readMessageFromString("operation:RoomInfoOk\ntime:1\nname:Sala\nlist:ana\n"));
+		assertNull(NCMessage.readMessageFromString("operation:RoomInfoOk\nname:Sala\ntime:uno\nlist:ana\n"));
+	}
+
+	@Test
+	void testEncodedStringMatchesTheFrame() throws IOException
+	{
+		NCMessage message = NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_OK, "Sala", 5, List.of("ana", "bob"));
+		NCInfoMessage decoded = (NCInfoMessage) NCMessage.readMessageFromString(message.toEncodedString());
+		assertEquals(List.of("ana", "bob"), decoded.getList());
+		assertArrayEquals(bytesOf(NCCodec.TEXT.encode(message)), bytesOf(NCCodec.TEXT.encode(decoded)));
+	}
+
+	@Test
+	void testFramesDoNotShareTheReusedBuffers() throws IOException
+	{
+		// Los codificadores escriben en un buffer del hilo: cada trama tiene que quedarse con su propia copia
+		for (NCCodec codec : new NCCodec[] { NCCodec.TEXT, NCCodec.BINARY })
+		{
+			NCFrame big = codec.encode(NCMessage.makeUserMessage(NCMessage.OP_RECEIVE_TEXT, "ana", "x".repeat(5000)));
+			byte[] before = bytesOf(big);
+			codec.encode(NCMessage.makeUserMessage(NCMessage.OP_RECEIVE_TEXT, "bob", "y".repeat(100)));
+			assertArrayEquals(before, bytesOf(big));
+		}
+	}
+
+	@Test
+	void testConsecutiveReadsReuseTheScratchBuffer() throws IOException
+	{
+		// Una trama grande seguida de una pequeña en el mismo stream no deja restos de la primera
+		for (NCCodec codec : new NCCodec[] { NCCodec.TEXT, NCCodec.BINARY })
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			codec.encode(NCMessage.makeUserMessage(NCMessage.OP_RECEIVE_TEXT, "ana", "x".repeat(5000))).writeTo(out);
+			codec.encode(NCMessage.makeRoomMessage(NCMessage.OP_ROOM_ENTER, "Sala")).writeTo(out);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(NCMessage.OP_RECEIVE_TEXT, codec.read(in).getOpcode());
+			NCRoomMessage second = (NCRoomMessage) codec.read(in);
+			assertEquals("Sala", second.getName());
+		}
+	}
+
+	private static byte[] bytesOf(NCFrame frame) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		frame.writeTo(out);
+		return out.toByteArray();
+	}
+}
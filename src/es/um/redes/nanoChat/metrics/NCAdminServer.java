@@ -0,0 +1,149 @@
+package es.um.redes.nanoChat.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Puerto de administración HTTP, montado sobre el servidor HTTP del JDK. En METRICS_PATH sirve las métricas del componente y de la JVM en el formato de texto de Prometheus.
+ * Solo escucha en la interfaz local. Cada consulta se atiende en el hilo del servidor HTTP y se construye a partir de contadores ya agregados, así que no frena al servidor de chat ni al directorio.
+ */
+public class NCAdminServer
+{
+	/* Propiedad con el puerto de administración. Si no está puesta no se abre el puerto. */
+	public static final String PORT_PROPERTY = "nanochat.admin.port";
+	public static final String METRICS_PATH = "/metrics";
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_NOT_FOUND = 404;
+	private static final int HTTP_BAD_METHOD = 405;
+
+	private final HttpServer server;
+	private final NCMetricsSource source;
+
+	private NCAdminServer(HttpServer server, NCMetricsSource source)
+	{
+		this.server = server;
+		this.source = source;
+	}
+
+	/* Abre el puerto de administración si se ha indicado con la propiedad PORT_PROPERTY. Devuelve null si no se ha indicado o no se pudo abrir. */
+	public static NCAdminServer startFromProperties(NCMetricsSource source)
+	{
+		String port = System.getProperty(PORT_PROPERTY);
+		if (port == null || port.isEmpty()) return null;
+		try
+		{
+			return start(Integer.parseInt(port), source);
+		}
+		catch (NumberFormatException e)
+		{
+			NCLog.warn("* Invalid admin port {}.", port);
+			return null;
+		}
+	}
+
+	/* Abre el puerto de administración en la interfaz local. Un fallo solo se avisa en el log, el puerto es opcional. */
+	public static NCAdminServer start(int port, NCMetricsSource source)
+	{
+		try
+		{
+			HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+			NCAdminServer admin = new NCAdminServer(server, source);
+			server.createContext("/", admin::handle);
+			server.start();
+			NCLog.info("* Admin metrics available at http://{}:{}{}", server.getAddress().getHostString(), server.getAddress().getPort(), METRICS_PATH);
+			return admin;
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			NCLog.warn("* Unable to open the admin port {}.", port, e);
+			return null;
+		}
+	}
+
+	/* Puerto en el que escucha, útil si se abrió en el puerto 0. */
+	public int getPort()
+	{
+		return this.server.getAddress().getPort();
+	}
+
+	public void stop()
+	{
+		this.server.stop(0);
+	}
+
+	/* Atiende una petición HTTP. Solo se sirve GET (y HEAD) de METRICS_PATH. */
+	private void handle(HttpExchange exchange) throws IOException
+	{
+		try
+		{
+			String method = exchange.getRequestMethod();
+			if (!exchange.getRequestURI().getPath().equals(METRICS_PATH))
+			{
+				exchange.sendResponseHeaders(HTTP_NOT_FOUND, -1);
+				return;
+			}
+			if (!method.equals("GET") && !method.equals("HEAD"))
+			{
+				exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+				exchange.sendResponseHeaders(HTTP_BAD_METHOD, -1);
+				return;
+			}
+			NCPrometheusWriter writer = new NCPrometheusWriter();
+			this.source.writeMetrics(writer);
+			writeProcessMetrics(writer);
+			byte[] body = writer.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if (method.equals("HEAD"))
+			{
+				exchange.sendResponseHeaders(HTTP_OK, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(HTTP_OK, body.length);
+			try (OutputStream os = exchange.getResponseBody())
+			{
+				os.write(body);
+			}
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	/* Métricas comunes a todos los procesos: memoria, hilos, recolector de basura y eventos de log descartados. */
+	private static void writeProcessMetrics(NCPrometheusWriter writer)
+	{
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+		writer.family("jvm_memory_used_bytes", NCPrometheusWriter.TYPE_GAUGE, "Used memory by area.");
+		writer.sample("jvm_memory_used_bytes", "area", "heap", heap.getUsed());
+		writer.sample("jvm_memory_used_bytes", "area", "nonheap", nonHeap.getUsed());
+		writer.family("jvm_memory_committed_bytes", NCPrometheusWriter.TYPE_GAUGE, "Committed memory by area.");
+		writer.sample("jvm_memory_committed_bytes", "area", "heap", heap.getCommitted());
+		writer.sample("jvm_memory_committed_bytes", "area", "nonheap", nonHeap.getCommitted());
+		writer.gauge("jvm_memory_heap_max_bytes", "Maximum heap size, -1 if undefined.", heap.getMax());
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		writer.gauge("jvm_threads_live", "Live threads.", threads.getThreadCount());
+		writer.gauge("jvm_threads_daemon", "Live daemon threads.", threads.getDaemonThreadCount());
+		writer.gauge("jvm_threads_peak", "Peak live threads since start.", threads.getPeakThreadCount());
+		writer.family("jvm_gc_collections_total", NCPrometheusWriter.TYPE_COUNTER, "Garbage collections by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) writer.sample("jvm_gc_collections_total", "gc", gc.getName(), Math.max(0, gc.getCollectionCount()));
+		writer.family("jvm_gc_collection_seconds_total", NCPrometheusWriter.TYPE_COUNTER, "Time spent in garbage collection by collector.");
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) writer.sample("jvm_gc_collection_seconds_total", "gc", gc.getName(), Math.max(0, gc.getCollectionTime()) / 1000.0);
+		writer.gauge("process_uptime_seconds", "Time since the JVM started.", ManagementFactory.getRuntimeMXBean().getUptime() / 1000.0);
+		writer.counter("nanochat_log_events_dropped_total", "Log events dropped because the log buffer was full.", NCLog.getDropped());
+	}
+}
@@ -0,0 +1,34 @@
+package es.um.redes.nanoChat.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Evento de JFR de cada solicitud que procesa el directorio, respuesta incluida. Las descartadas por la probabilidad de corrupción no llegan a procesarse.
+ */
+@Name(NCDirectoryRequestEvent.NAME)
+@Label("Directory Request")
+@Category({ "NanoChat", "Directory" })
+@Description("A request handled by the directory.")
+@StackTrace(false)
+@Threshold("5 ms")
+public class NCDirectoryRequestEvent extends Event
+{
+	public static final String NAME = NCManagement.DOMAIN + ".DirectoryRequest";
+
+	@Label("Opcode")
+	public byte opcode;
+	@Label("Client")
+	public String client;
+	@Label("Datagram Size")
+	@DataAmount
+	public int size;
+	@Label("Succeeded")
+	public boolean succeeded;
+}
@@ -0,0 +1,68 @@
+package es.um.redes.nanoChat.metrics;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.EventSettings;
+import jdk.jfr.Recording;
+
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Grabación continua de JFR con la configuración por defecto de la JVM y los eventos de NanoChat, pensada para dejarla siempre activa en producción y explicar a posteriori los picos de latencia.
+ * Los eventos de NanoChat no guardan la pila y solo se graban si duran más que su umbral. El umbral de cada uno se cambia con -Dnanochat.jfr.threshold.<evento>=<duración>, por ejemplo -Dnanochat.jfr.threshold.RoomBroadcast="0 ms" para grabar todas las retransmisiones.
+ * Con -XX:StartFlightRecording los eventos también se graban, con los umbrales de sus anotaciones o los del fichero .jfc que se indique.
+ */
+public final class NCFlightRecorder
+{
+	/* Propiedad con el fichero donde se vuelca la grabación al terminar. Si está puesta, el servidor y el directorio graban desde que arrancan. */
+	public static final String FILE_PROPERTY = "nanochat.jfr.file";
+	/* Prefijo de las propiedades con el umbral de cada evento, seguido del nombre del evento sin el dominio. */
+	public static final String THRESHOLD_PROPERTY_PREFIX = "nanochat.jfr.threshold.";
+	/* Datos más antiguos que descarta la grabación continua. */
+	private static final Duration MAX_AGE = Duration.ofMinutes(30);
+	/* Eventos de NanoChat que se configuran en la grabación. */
+	private static final String[] EVENTS = { NCMessageDecodedEvent.NAME, NCRoomBroadcastEvent.NAME, NCRoomJoinEvent.NAME, NCRoomLeaveEvent.NAME, NCDirectoryRequestEvent.NAME };
+
+	private NCFlightRecorder()
+	{
+	}
+
+	/* Arranca la grabación si se ha indicado un fichero con la propiedad FILE_PROPERTY. */
+	public static void startFromProperties()
+	{
+		String file = System.getProperty(FILE_PROPERTY);
+		if (file != null && !file.isEmpty()) start(file);
+	}
+
+	/* Arranca una grabación continua que se vuelca en el fichero dado al terminar el proceso. Devuelve null si JFR no está disponible, lo que solo se avisa en el log. */
+	public static Recording start(String file)
+	{
+		try
+		{
+			Recording recording = new Recording(Configuration.getConfiguration("default"));
+			recording.setName("NanoChat");
+			recording.setToDisk(true);
+			recording.setMaxAge(MAX_AGE);
+			recording.setDestination(Paths.get(file));
+			recording.setDumpOnExit(true);
+			for (String event : EVENTS)
+			{
+				EventSettings settings = recording.enable(event).withoutStackTrace();
+				String threshold = System.getProperty(THRESHOLD_PROPERTY_PREFIX + event.substring(NCManagement.DOMAIN.length() + 1));
+				if (threshold != null) settings.with("threshold", threshold);
+			}
+			recording.start();
+			NCLog.info("* Flight recording started, it will be dumped to {} on exit.", file);
+			return recording;
+		}
+		catch (IOException | ParseException | IllegalStateException | SecurityException e)
+		{
+			NCLog.warn("* Unable to start the flight recording.", e);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package es.um.redes.nanoChat.metrics;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latencias con la misma estructura que HdrHistogram: cubos logarítmicos divididos en subcubos lineales, así que el error relativo de cada valor está acotado (1/2^(SUB_BUCKET_BITS-1), menos del 1%) en todo el rango.
+ * Se puede registrar desde muchos hilos a la vez sin cerrojos. Los valores van en microsegundos.
+ */
+public class NCLatencyHistogram
+{
+	/* Los valores por debajo de 2^SUB_BUCKET_BITS se guardan exactos, por encima cada potencia de dos se divide en 2^(SUB_BUCKET_BITS-1) subcubos. */
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+	/* Líneas de la distribución de percentiles por cada mitad de la distancia que queda hasta el 100%, igual que outputPercentileDistribution de HdrHistogram. */
+	private static final int PERCENTILE_TICKS_PER_HALF_DISTANCE = 5;
+
+	/* Mayor valor que se distingue. Los mayores se cuentan en el último cubo. */
+	private final long highestTrackableValue;
+	private final AtomicLongArray counts;
+	private final LongAdder totalCount;
+	private final LongAdder totalSum;
+	private final DoubleAdder totalSquares;
+	private final AtomicLong maxValue;
+	private final AtomicLong minValue;
+
+	public NCLatencyHistogram(long highestTrackableValue)
+	{
+		this.highestTrackableValue = highestTrackableValue;
+		this.counts = new AtomicLongArray(countsIndex(highestTrackableValue) + 1);
+		this.totalCount = new LongAdder();
+		this.totalSum = new LongAdder();
+		this.totalSquares = new DoubleAdder();
+		this.maxValue = new AtomicLong(0);
+		this.minValue = new AtomicLong(Long.MAX_VALUE);
+	}
+
+	/* Registra un valor. Los negativos cuentan como 0. */
+	public void recordValue(long value)
+	{
+		if (value < 0) value = 0;
+		long clamped = Math.min(value, this.highestTrackableValue);
+		this.counts.incrementAndGet(countsIndex(clamped));
+		this.totalCount.increment();
+		this.totalSum.add(value);
+		this.totalSquares.add((double) value * value);
+		/* Solo tocamos los extremos cuando cambian, que es lo poco habitual. */
+		if (value > this.maxValue.get()) this.maxValue.accumulateAndGet(value, Math::max);
+		if (value < this.minValue.get()) this.minValue.accumulateAndGet(value, Math::min);
+	}
+
+	/* Suma al histograma los valores de otro con el mismo rango. Sirve para agregar histogramas al consultarlos sin tener que registrar cada valor dos veces. */
+	public void add(NCLatencyHistogram other)
+	{
+		if (other.counts.length() != this.counts.length()) throw new IllegalArgumentException("Histograms with different ranges.");
+		for (int i = 0; i < this.counts.length(); i++)
+		{
+			long count = other.counts.get(i);
+			if (count != 0) this.counts.addAndGet(i, count);
+		}
+		this.totalCount.add(other.totalCount.sum());
+		this.totalSum.add(other.totalSum.sum());
+		this.totalSquares.add(other.totalSquares.sum());
+		if (other.getTotalCount() > 0)
+		{
+			this.maxValue.accumulateAndGet(other.maxValue.get(), Math::max);
+			this.minValue.accumulateAndGet(other.minValue.get(), Math::min);
+		}
+	}
+
+	/* Vacía el histograma. Los valores que se registren a la vez pueden quedar a medias entre el contenido anterior y el nuevo. */
+	public void reset()
+	{
+		for (int i = 0; i < this.counts.length(); i++) this.counts.set(i, 0);
+		this.totalCount.reset();
+		this.totalSum.reset();
+		this.totalSquares.reset();
+		this.maxValue.set(0);
+		this.minValue.set(Long.MAX_VALUE);
+	}
+
+	public long getTotalCount()
+	{
+		return this.totalCount.sum();
+	}
+
+	public long getMaxValue()
+	{
+		return this.getTotalCount() == 0 ? 0 : this.maxValue.get();
+	}
+
+	public long getMinValue()
+	{
+		return this.getTotalCount() == 0 ? 0 : this.minValue.get();
+	}
+
+	public double getMean()
+	{
+		long count = this.getTotalCount();
+		return count == 0 ? 0 : (double) this.totalSum.sum() / count;
+	}
+
+	public double getStdDeviation()
+	{
+		long count = this.getTotalCount();
+		if (count == 0) return 0;
+		double mean = this.getMean();
+		return Math.sqrt(Math.max(0, this.totalSquares.sum() / count - mean * mean));
+	}
+
+	/* Valor por debajo del cual (o igual) queda el percentil dado de los valores registrados. */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = this.getTotalCount();
+		if (total == 0) return 0;
+		long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long cumulative = 0;
+		for (int i = 0; i < this.counts.length(); i++)
+		{
+			cumulative += this.counts.get(i);
+			if (cumulative >= countAtPercentile) return Math.min(highestEquivalentValue(i), this.getMaxValue());
+		}
+		return this.getMaxValue();
+	}
+
+	/* Escribe la distribución de percentiles en el formato .hgrm de HdrHistogram (se puede dibujar con su plotter). Los valores se dividen entre unitScale, por ejemplo 1000 para pasar de microsegundos a milisegundos. */
+	public void outputPercentileDistribution(PrintStream out, double unitScale)
+	{
+		out.println(String.format("%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+		out.println();
+		long total = this.getTotalCount();
+		if (total > 0)
+		{
+			double percentileTo = 0.0;
+			long cumulative = 0;
+			boolean done = false;
+			for (int i = 0; i < this.counts.length() && !done; i++)
+			{
+				long count = this.counts.get(i);
+				if (count == 0) continue;
+				cumulative += count;
+				double percentileReached = 100.0 * cumulative / total;
+				long value = Math.min(highestEquivalentValue(i), this.getMaxValue());
+				/* Una línea por cada percentil objetivo alcanzado. Los objetivos se acercan al 100% reduciendo el paso a la mitad en cada mitad de distancia. */
+				while (percentileTo <= percentileReached)
+				{
+					if (cumulative == total)
+					{
+						out.println(String.format("%12.3f %1.12f %10d", value / unitScale, 1.0, cumulative));
+						done = true;
+						break;
+					}
+					out.println(String.format("%12.3f %1.12f %10d %14.2f", value / unitScale, percentileTo / 100.0, cumulative, 1.0 / (1.0 - percentileTo / 100.0)));
+					long ticks = PERCENTILE_TICKS_PER_HALF_DISTANCE * (1L << ((long) (Math.log(100.0 / (100.0 - percentileTo)) / Math.log(2)) + 1));
+					percentileTo += 100.0 / ticks;
+				}
+			}
+		}
+		out.println(String.format("#[Mean    = %12.3f, StdDeviation   = %12.3f]", this.getMean() / unitScale, this.getStdDeviation() / unitScale));
+		out.println(String.format("#[Max     = %12.3f, Total count    = %12d]", this.getMaxValue() / unitScale, total));
+		out.println(String.format("#[Buckets = %12d, SubBuckets     = %12d]", (this.counts.length() - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1, SUB_BUCKET_COUNT));
+	}
+
+	/* Posición del contador del valor dado. */
+	private static int countsIndex(long value)
+	{
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+		/* Cuántas posiciones hay que desplazar el valor para que quede en [SUB_BUCKET_HALF_COUNT, SUB_BUCKET_COUNT). */
+		int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+		int subBucket = (int) (value >>> shift);
+		return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+	}
+
+	/* Mayor valor que cae en la misma posición que la dada. */
+	private static long highestEquivalentValue(int index)
+	{
+		if (index < SUB_BUCKET_COUNT) return index;
+		int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF_COUNT + 1;
+		long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,67 @@
+package es.um.redes.nanoChat.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Registro de los MBeans de NanoChat en el servidor de MBeans de la plataforma, para consultarlos con JConsole o con cualquier agente JMX local.
+ * Un fallo al registrar solo se avisa en el log: la gestión es opcional y no debe impedir que arranque el servidor.
+ */
+public final class NCManagement
+{
+	/* Dominio de los nombres de todos los MBeans de NanoChat. */
+	public static final String DOMAIN = "es.um.redes.nanoChat";
+
+	private NCManagement()
+	{
+	}
+
+	/* Nombre del MBean del tipo dado con una propiedad adicional (por ejemplo id=3). Con key null solo lleva el tipo. */
+	public static ObjectName name(String type, String key, String value)
+	{
+		try
+		{
+			String name = DOMAIN + ":type=" + type;
+			/* Los valores con caracteres especiales de los nombres JMX van entre comillas. */
+			if (key != null) name += "," + key + "=" + (value.matches("[\\w.-]*") ? value : ObjectName.quote(value));
+			return new ObjectName(name);
+		}
+		catch (JMException e)
+		{
+			throw new IllegalArgumentException("Invalid MBean name for " + type + ".", e);
+		}
+	}
+
+	/* Registra el objeto con el nombre dado. Si ya había uno con ese nombre lo sustituye. */
+	public static void register(Object bean, ObjectName name)
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try
+		{
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(bean, name);
+		}
+		catch (JMException e)
+		{
+			NCLog.warn("* Unable to register MBean {}.", name, e);
+		}
+	}
+
+	public static void unregister(ObjectName name)
+	{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try
+		{
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+		}
+		catch (JMException e)
+		{
+			NCLog.warn("* Unable to unregister MBean {}.", name, e);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package es.um.redes.nanoChat.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Evento de JFR de cada trama decodificada. La duración es solo la del decodificado, sin la espera hasta que llegan los bytes.
+ */
+@Name(NCMessageDecodedEvent.NAME)
+@Label("Message Decoded")
+@Category({ "NanoChat", "Protocol" })
+@Description("A NanoChat frame decoded into a message.")
+@StackTrace(false)
+@Threshold("1 ms")
+public class NCMessageDecodedEvent extends Event
+{
+	public static final String NAME = NCManagement.DOMAIN + ".MessageDecoded";
+
+	@Label("Opcode")
+	public byte opcode;
+	@Label("Operation")
+	public String operation;
+	@Label("Codec")
+	public String codec;
+	@Label("Frame Size")
+	@DataAmount
+	public int size;
+}
@@ -0,0 +1,10 @@
+package es.um.redes.nanoChat.metrics;
+
+/**
+ * Componente cuyas métricas se sirven en el puerto de administración. Se escriben a partir de los contadores que ya mantiene, sin esperar a ningún otro hilo.
+ */
+public interface NCMetricsSource
+{
+	/* Escribe las métricas del componente en el formato de Prometheus. */
+	public void writeMetrics(NCPrometheusWriter writer);
+}
@@ -0,0 +1,104 @@
+package es.um.redes.nanoChat.metrics;
+
+/**
+ * Construye una respuesta en el formato de texto de Prometheus (versión 0.0.4). Cada familia de métricas lleva su cabecera HELP y TYPE seguida de todas sus muestras.
+ * Las latencias de los histogramas van en microsegundos y se escriben en segundos, como pide la convención de Prometheus.
+ */
+public class NCPrometheusWriter
+{
+	public static final String TYPE_COUNTER = "counter";
+	public static final String TYPE_GAUGE = "gauge";
+	public static final String TYPE_SUMMARY = "summary";
+	/* Cuantiles que se escriben de cada histograma. */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final double MICROS_PER_SECOND = 1_000_000.0;
+
+	private final StringBuilder out;
+
+	public NCPrometheusWriter()
+	{
+		this.out = new StringBuilder(4096);
+	}
+
+	/* Cabecera de una familia de métricas. Las muestras de la familia se escriben a continuación. */
+	public NCPrometheusWriter family(String name, String type, String help)
+	{
+		this.out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		this.out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+		return this;
+	}
+
+	/* Muestra sin etiquetas. */
+	public NCPrometheusWriter sample(String name, double value)
+	{
+		this.out.append(name).append(' ');
+		this.appendValue(value).append('\n');
+		return this;
+	}
+
+	/* Muestra con una etiqueta. */
+	public NCPrometheusWriter sample(String name, String label, String labelValue, double value)
+	{
+		this.out.append(name).append('{');
+		this.appendLabel(label, labelValue).append("} ");
+		this.appendValue(value).append('\n');
+		return this;
+	}
+
+	/* Familia con una única muestra sin etiquetas. */
+	public NCPrometheusWriter counter(String name, String help, double value)
+	{
+		return this.family(name, TYPE_COUNTER, help).sample(name, value);
+	}
+
+	public NCPrometheusWriter gauge(String name, String help, double value)
+	{
+		return this.family(name, TYPE_GAUGE, help).sample(name, value);
+	}
+
+	/* Muestras de un resumen a partir de un histograma: sus cuantiles, la suma y el número de valores. Con label null no lleva más etiqueta que la del cuantil. La cabecera de la familia se escribe aparte. */
+	public NCPrometheusWriter summary(String name, String label, String labelValue, NCLatencyHistogram histogram)
+	{
+		long count = histogram.getTotalCount();
+		for (double quantile : QUANTILES)
+		{
+			this.out.append(name).append('{');
+			if (label != null) this.appendLabel(label, labelValue).append(',');
+			this.out.append("quantile=\"").append(quantile).append("\"} ");
+			/* Sin valores los cuantiles no están definidos. */
+			this.appendValue(count == 0 ? Double.NaN : histogram.getValueAtPercentile(quantile * 100) / MICROS_PER_SECOND).append('\n');
+		}
+		String suffix = label == null ? " " : "{" + label + "=\"" + escape(labelValue) + "\"} ";
+		this.out.append(name).append("_sum").append(suffix);
+		this.appendValue(histogram.getMean() * count / MICROS_PER_SECOND).append('\n');
+		this.out.append(name).append("_count").append(suffix).append(count).append('\n');
+		return this;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.out.toString();
+	}
+
+	private StringBuilder appendLabel(String label, String value)
+	{
+		return this.out.append(label).append("=\"").append(escape(value)).append('"');
+	}
+
+	/* Los enteros se escriben sin decimales para que los contadores grandes no pierdan precisión al leerlos. */
+	private StringBuilder appendValue(double value)
+	{
+		if (Double.isNaN(value)) return this.out.append("NaN");
+		if (Double.isInfinite(value)) return this.out.append(value > 0 ? "+Inf" : "-Inf");
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) return this.out.append((long) value);
+		return this.out.append(value);
+	}
+
+	/* Escapa los caracteres que el formato no admite dentro del valor de una etiqueta. */
+	private static String escape(String value)
+	{
+		if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+}
@@ -0,0 +1,96 @@
+package es.um.redes.nanoChat.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Medidor de eventos por segundo. Además del total lleva una media móvil exponencial de un minuto, como la carga media de Unix: cada TICK_INTERVAL se mezclan los eventos del intervalo con la media anterior.
+ * Anotar un evento solo suma en un LongAdder. El avance de los intervalos lo hace quien anota o quien consulta cuando toca, sin hilos aparte ni cerrojos.
+ */
+public class NCRateMeter
+{
+	private static final long TICK_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+	/* Peso de cada intervalo de 5 segundos en una media de un minuto. */
+	private static final double ONE_MINUTE_ALPHA = 1 - Math.exp(-5.0 / 60.0);
+
+	/* Eventos desde el arranque (o el último reset) y eventos del intervalo en curso. */
+	private final LongAdder count;
+	private final LongAdder uncounted;
+	private final AtomicLong lastTick;
+	private volatile long startTime;
+	/* Media de eventos por nanosegundo. Es negativa hasta el primer intervalo completo. */
+	private volatile double rate;
+
+	public NCRateMeter()
+	{
+		this.count = new LongAdder();
+		this.uncounted = new LongAdder();
+		this.startTime = System.nanoTime();
+		this.lastTick = new AtomicLong(this.startTime);
+		this.rate = -1;
+	}
+
+	public void mark()
+	{
+		this.mark(1);
+	}
+
+	public void mark(long events)
+	{
+		this.tickIfNecessary();
+		this.count.add(events);
+		this.uncounted.add(events);
+	}
+
+	public long getCount()
+	{
+		return this.count.sum();
+	}
+
+	/* Eventos por segundo en el último minuto, con más peso para los más recientes. */
+	public double getOneMinuteRate()
+	{
+		this.tickIfNecessary();
+		double current = this.rate;
+		return current < 0 ? 0 : current * TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/* Eventos por segundo desde el arranque (o el último reset). */
+	public double getMeanRate()
+	{
+		long elapsed = System.nanoTime() - this.startTime;
+		return elapsed <= 0 ? 0 : (double) this.getCount() * TimeUnit.SECONDS.toNanos(1) / elapsed;
+	}
+
+	/* Vuelve a empezar a contar. Los eventos que se anoten a la vez pueden quedar en la cuenta anterior o en la nueva. */
+	public void reset()
+	{
+		this.count.reset();
+		this.uncounted.reset();
+		this.startTime = System.nanoTime();
+		this.lastTick.set(this.startTime);
+		this.rate = -1;
+	}
+
+	/* Cierra los intervalos que hayan terminado. Solo el hilo que gana el compareAndSet del intervalo actualiza la media. */
+	private void tickIfNecessary()
+	{
+		long oldTick = this.lastTick.get();
+		long now = System.nanoTime();
+		long age = now - oldTick;
+		if (age < TICK_INTERVAL) return;
+		long newTick = now - age % TICK_INTERVAL;
+		if (!this.lastTick.compareAndSet(oldTick, newTick)) return;
+		long ticks = age / TICK_INTERVAL;
+		/* El primer intervalo lleva los eventos acumulados, los siguientes (si nadie anotó ni consultó en un tiempo) ninguno. */
+		double instant = (double) this.uncounted.sumThenReset() / TICK_INTERVAL;
+		double current = this.rate;
+		for (long i = 0; i < ticks; i++)
+		{
+			current = current < 0 ? instant : current + ONE_MINUTE_ALPHA * (instant - current);
+			instant = 0;
+		}
+		this.rate = current;
+	}
+}
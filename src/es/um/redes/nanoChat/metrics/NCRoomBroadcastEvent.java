@@ -0,0 +1,37 @@
+package es.um.redes.nanoChat.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JFR de cada retransmisión de un mensaje en una sala. La duración es la del reparto en el hilo del shard y aparte se anota lo que el comando esperó en su buzón.
+ */
+@Name(NCRoomBroadcastEvent.NAME)
+@Label("Room Broadcast")
+@Category({ "NanoChat", "Rooms" })
+@Description("A message fanned out to the members of a room.")
+@StackTrace(false)
+@Threshold("5 ms")
+public class NCRoomBroadcastEvent extends Event
+{
+	public static final String NAME = NCManagement.DOMAIN + ".RoomBroadcast";
+
+	@Label("Room")
+	public String room;
+	@Label("Recipients")
+	public int recipients;
+	@Label("Bytes Queued")
+	@DataAmount
+	public long bytes;
+	@Label("Shard Wait")
+	@Description("Time the command waited in the mailbox of the room shard.")
+	@Timespan
+	public long shardWait;
+}
@@ -0,0 +1,35 @@
+package es.um.redes.nanoChat.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JFR de cada entrada de un usuario en una sala, se acepte o no. Las salas no usan cerrojos, la espera equivalente es la del comando en el buzón del shard.
+ */
+@Name(NCRoomJoinEvent.NAME)
+@Label("Room Join")
+@Category({ "NanoChat", "Rooms" })
+@Description("A user entering a room.")
+@StackTrace(false)
+@Threshold("5 ms")
+public class NCRoomJoinEvent extends Event
+{
+	public static final String NAME = NCManagement.DOMAIN + ".RoomJoin";
+
+	@Label("Room")
+	public String room;
+	@Label("User")
+	public String user;
+	@Label("Accepted")
+	public boolean accepted;
+	@Label("Shard Wait")
+	@Description("Time the command waited in the mailbox of the room shard.")
+	@Timespan
+	public long shardWait;
+}
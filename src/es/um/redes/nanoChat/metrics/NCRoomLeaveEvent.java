@@ -0,0 +1,33 @@
+package es.um.redes.nanoChat.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Evento de JFR de cada salida de un usuario de una sala, por petición suya o porque se cerró su conexión.
+ */
+@Name(NCRoomLeaveEvent.NAME)
+@Label("Room Leave")
+@Category({ "NanoChat", "Rooms" })
+@Description("A user leaving a room.")
+@StackTrace(false)
+@Threshold("5 ms")
+public class NCRoomLeaveEvent extends Event
+{
+	public static final String NAME = NCManagement.DOMAIN + ".RoomLeave";
+
+	@Label("Room")
+	public String room;
+	@Label("User")
+	public String user;
+	@Label("Shard Wait")
+	@Description("Time the command waited in the mailbox of the room shard.")
+	@Timespan
+	public long shardWait;
+}
@@ -0,0 +1,43 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+
+/**
+ * Respuesta ya construida para una versión del estado del servidor (la lista de salas o la información de una sala). Mientras la versión no cambie se reutiliza para todas las peticiones.
+ * Se codifica como mucho una vez por códec, en trozos sin id, y a cada envío solo se le añade el id de la petición.
+ */
+final class NCCachedResponse
+{
+	/* Versión del estado para la que se construyó la respuesta. */
+	final long version;
+	/* Mensaje de la respuesta, sin id de petición. */
+	private final NCMessage message;
+	/* Tramas de los trozos de la respuesta en cada códec, según se van pidiendo. */
+	private final NCFrame[][] frames;
+
+	NCCachedResponse(long version, NCMessage message)
+	{
+		this.version = version;
+		this.message = message;
+		this.frames = new NCFrame[NCCodec.CODEC_COUNT][];
+	}
+
+	/* Tramas de los trozos de la respuesta en el códec dado. La primera sesión que las pide las codifica y el resto espera y las reutiliza. */
+	synchronized NCFrame[] getFrames(NCCodec codec) throws IOException
+	{
+		NCFrame[] encoded = this.frames[codec.getId()];
+		if (encoded == null)
+		{
+			List<NCMessage> chunks = this.message.splitFor(codec);
+			encoded = new NCFrame[chunks.size()];
+			for (int i = 0; i < encoded.length; i++) encoded[i] = chunks.get(i).toFrame(codec);
+			this.frames[codec.getId()] = encoded;
+		}
+		return encoded;
+	}
+}
@@ -0,0 +1,199 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+
+/**
+ * Conexión de un cliente atendida por un bucle de eventos NIO. Lee y escribe sin bloquear las mismas tramas que el modo hilo por conexión, en el códec negociado con el cliente.
+ */
+class NCChannelConnection implements NCServerConnection
+{
+	/* Tamaño inicial del buffer de lectura. Crece hasta el tamaño de la trama más grande recibida. */
+	private static final int INITIAL_BUFFER_SIZE = 1024;
+
+	/* Canal del cliente y su registro en el selector del bucle de eventos. */
+	private SocketChannel channel;
+	private SelectionKey key;
+	/* Sesión con el estado del protocolo del cliente atendido. */
+	private NCServerSession session;
+	/* Buffer con los bytes recibidos que aún no forman una trama completa. */
+	private ByteBuffer inBuffer;
+	/* Mensajes pendientes de escribir en el canal, en orden de envío. Solo los escribe el hilo del bucle de eventos. */
+	private NCOutboundQueue outbound;
+	/* Trama que se está escribiendo y número de bytes de ella ya escritos en el canal. */
+	private NCFrame currentFrame;
+	private int currentOffset;
+	/* Indica si se ha pedido desconectar al cliente por ser demasiado lento. */
+	private volatile boolean disconnectRequested;
+	/* Indica si la conexión ya se ha cerrado. */
+	private boolean closed;
+	/* Dirección del cliente en formato imprimible. */
+	private String clientAddress;
+
+	NCChannelConnection(NCServerManager manager, SocketChannel channel, NCOutboundQueue outbound)
+	{
+		this.channel = channel;
+		this.key = null;
+		this.inBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		this.outbound = outbound;
+		this.currentFrame = null;
+		this.currentOffset = 0;
+		this.disconnectRequested = false;
+		this.closed = false;
+		Socket s = channel.socket();
+		this.clientAddress = s.getInetAddress() + "/" + s.getPort();
+		this.session = new NCServerSession(manager, this);
+	}
+
+	/* Asocia la conexión con su registro en el selector. */
+	void attach(SelectionKey key)
+	{
+		this.key = key;
+	}
+
+	/* Lee los datos disponibles en el canal y procesa todas las tramas completas recibidas. */
+	void onReadable() throws IOException
+	{
+		int read = this.channel.read(this.inBuffer);
+		if (read < 0) throw new EOFException();
+		this.session.getMetrics().addBytesIn(read);
+		this.inBuffer.flip();
+		while (true)
+		{
+			/* Cada trama se decodifica con el códec negociado hasta el momento, que puede cambiar tras procesar la anterior. */
+			NCCodec codec = this.session.getCodec();
+			int size = codec.frameSize(this.inBuffer);
+			/* Si la trama no ha llegado completa esperamos a la siguiente lectura. */
+			if (size < 0 || this.inBuffer.remaining() < size) break;
+			int start = this.inBuffer.position();
+			NCMessage message = codec.decode(this.inBuffer.array(), this.inBuffer.arrayOffset() + start, size);
+			this.inBuffer.position(start + size);
+			this.session.processMessage(message);
+		}
+		/* Si la trama pendiente no cabe en el buffer lo ampliamos para poder recibirla entera. */
+		int needed = this.session.getCodec().frameSize(this.inBuffer);
+		this.inBuffer.compact();
+		if (needed > this.inBuffer.capacity())
+		{
+			ByteBuffer bigger = ByteBuffer.allocate(needed);
+			this.inBuffer.flip();
+			bigger.put(this.inBuffer);
+			this.inBuffer = bigger;
+		}
+	}
+
+	/* Escribe en el canal los mensajes pendientes. Cuando no quedan deja de pedir avisos de escritura. Las tramas se copian al buffer de escritura del bucle de eventos, que se reutiliza para todas sus conexiones. */
+	void onWritable(ByteBuffer writeBuffer) throws IOException
+	{
+		if (this.disconnectRequested) throw new IOException("Slow consumer.");
+		while (true)
+		{
+			if (this.currentFrame == null)
+			{
+				NCFrame next;
+				/* El cambio de interés se hace con la cola bloqueada para no perder el aviso de un envío concurrente. */
+				synchronized (this.outbound)
+				{
+					next = this.outbound.poll();
+					if (next == null)
+					{
+						this.key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+				}
+				this.currentFrame = next;
+				this.currentOffset = 0;
+			}
+			writeBuffer.clear();
+			this.currentFrame.copyTo(writeBuffer, this.currentOffset);
+			writeBuffer.flip();
+			int written = this.channel.write(writeBuffer);
+			this.currentOffset += written;
+			this.session.getMetrics().addBytesOut(written);
+			/* El buffer del socket está lleno, seguiremos por el mismo punto de la trama cuando vuelva a haber espacio. */
+			if (writeBuffer.hasRemaining()) return;
+			if (this.currentOffset == this.currentFrame.size()) this.currentFrame = null;
+		}
+	}
+
+	/* Encola una trama para el cliente. La escribe el hilo del bucle de eventos, así que se puede llamar desde cualquier hilo sin bloquear. */
+	@Override
+	public void send(NCFrame frame) throws IOException
+	{
+		this.enqueue(frame, null, true);
+	}
+
+	/* Lo mismo con todas las tramas de un envío a la vez. */
+	@Override
+	public void send(NCFrame[] frames, boolean droppable) throws IOException
+	{
+		this.enqueue(null, frames, droppable);
+	}
+
+	/* Encola una trama suelta o, si frames no es null, las tramas de un envío. */
+	private void enqueue(NCFrame frame, NCFrame[] frames, boolean droppable) throws IOException
+	{
+		boolean wakeup;
+		synchronized (this.outbound)
+		{
+			if (this.closed || this.disconnectRequested) throw new IOException("Connection closed.");
+			try
+			{
+				wakeup = frames == null ? this.outbound.offer(frame) : this.outbound.offer(frames, droppable);
+			}
+			catch (IOException e)
+			{
+				/* Cliente demasiado lento. El cierre lo hace el bucle de eventos en su siguiente ciclo. */
+				NCLog.info("* Client {} is too slow. Closing connection.", this.clientAddress);
+				this.disconnectRequested = true;
+				wakeup = true;
+			}
+			if (wakeup) this.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+		if (wakeup) this.key.selector().wakeup();
+		if (this.disconnectRequested) throw new IOException("Slow consumer.");
+	}
+
+	@Override
+	public NCOutboundQueue getOutboundQueue()
+	{
+		return this.outbound;
+	}
+
+	@Override
+	public String getClientAddress()
+	{
+		return this.clientAddress;
+	}
+
+	/* Cierra la conexión y elimina al usuario de todos los managers. */
+	void close()
+	{
+		synchronized (this.outbound)
+		{
+			if (this.closed) return;
+			this.closed = true;
+			this.outbound.clear();
+		}
+		this.session.close();
+		NCLog.info("* Closing connection with client {}.", this.clientAddress);
+		if (this.key != null) this.key.cancel();
+		try
+		{
+			this.channel.close();
+		}
+		catch (IOException e)
+		{
+			NCLog.error("* Unable to close connection with client {}.", this.clientAddress, e);
+		}
+	}
+}
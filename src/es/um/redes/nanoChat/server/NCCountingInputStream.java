@@ -0,0 +1,43 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stream de entrada que anota en las métricas del servidor los bytes leídos del cliente.
+ */
+class NCCountingInputStream extends FilterInputStream
+{
+	private final NCServerMetrics metrics;
+
+	NCCountingInputStream(InputStream in, NCServerMetrics metrics)
+	{
+		super(in);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = super.read();
+		if (b >= 0) this.metrics.addBytesIn(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		int n = super.read(b, off, len);
+		if (n > 0) this.metrics.addBytesIn(n);
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = super.skip(n);
+		if (skipped > 0) this.metrics.addBytesIn(skipped);
+		return skipped;
+	}
+}
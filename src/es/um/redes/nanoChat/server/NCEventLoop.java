@@ -0,0 +1,122 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Bucle de eventos del modo NIO. Cada bucle atiende con un único hilo y un Selector a todas las conexiones que se le asignan.
+ */
+class NCEventLoop extends Thread
+{
+	/* Tamaño del buffer de escritura compartido por las conexiones del bucle. */
+	private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	/* Selector sobre el que se registran los canales de los clientes. */
+	private Selector selector;
+	/* Manager global compartido entre todas las conexiones. */
+	private NCServerManager serverManager;
+	/* Conexiones aceptadas pendientes de registrar en el selector. */
+	private Queue<SocketChannel> pendingChannels;
+	/* Capacidad y política de las colas de salida de las conexiones. */
+	private int queueCapacity;
+	private String overflowPolicy;
+	/* Buffer directo donde se copian las tramas antes de escribirlas. Solo lo usa el hilo del bucle, una conexión cada vez. */
+	private ByteBuffer writeBuffer;
+
+	NCEventLoop(String name, NCServerManager manager, int queueCapacity, String overflowPolicy) throws IOException
+	{
+		super(name);
+		this.selector = Selector.open();
+		this.serverManager = manager;
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.pendingChannels = new ConcurrentLinkedQueue<SocketChannel>();
+		this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+	}
+
+	/* Asigna una nueva conexión a este bucle. El registro en el selector lo hace el propio hilo del bucle. */
+	void addConnection(SocketChannel channel)
+	{
+		this.pendingChannels.add(channel);
+		this.selector.wakeup();
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			/* Esperamos a que algún canal esté listo o a que nos despierten. */
+			try
+			{
+				this.selector.select();
+			}
+			catch (IOException e)
+			{
+				NCLog.error("* Selector of {} failed.", this.getName(), e);
+				return;
+			}
+			this.registerPendingConnections();
+			/* Atendemos cada canal listo. Cualquier error cierra únicamente esa conexión. */
+			Iterator<SelectionKey> it = this.selector.selectedKeys().iterator();
+			while (it.hasNext())
+			{
+				SelectionKey key = it.next();
+				it.remove();
+				NCChannelConnection connection = (NCChannelConnection) key.attachment();
+				try
+				{
+					if (key.isValid() && key.isReadable()) connection.onReadable();
+					if (key.isValid() && key.isWritable()) connection.onWritable(this.writeBuffer);
+				}
+				catch (Exception e)
+				{
+					connection.close();
+				}
+			}
+		}
+	}
+
+	/* Registra en el selector las conexiones asignadas desde el último ciclo. */
+	private void registerPendingConnections()
+	{
+		SocketChannel channel;
+		while ((channel = this.pendingChannels.poll()) != null)
+		{
+			NCChannelConnection connection = null;
+			try
+			{
+				channel.configureBlocking(false);
+				connection = new NCChannelConnection(this.serverManager, channel, new NCOutboundQueue(this.queueCapacity, this.overflowPolicy));
+				SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+				connection.attach(key);
+			}
+			catch (IOException e)
+			{
+				NCLog.warn("* Unable to register new connection on {}.", this.getName(), e);
+				/* Si la conexión llegó a crearse la cerramos entera para que su sesión deje de contar como activa. */
+				if (connection != null)
+				{
+					connection.close();
+					continue;
+				}
+				try
+				{
+					channel.close();
+				}
+				catch (IOException e1)
+				{
+					NCLog.error("* Unable to close rejected connection on {}.", this.getName(), e1);
+				}
+			}
+		}
+	}
+}
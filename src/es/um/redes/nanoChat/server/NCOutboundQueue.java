@@ -0,0 +1,225 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import es.um.redes.nanoChat.messageFV.NCFrame;
+
+/**
+ * Cola acotada de mensajes pendientes de enviar a un cliente. Quien envía solo encola y un único escritor la vacía, de forma que un cliente lento no frena a los demás ni se mezclan tramas de distintos hilos.
+ * La política de desbordamiento solo descarta avisos que el cliente no ha pedido (textos de la sala, entradas y salidas). Una respuesta, con todos sus trozos, o un cambio de la lista de salas a la que está suscrito se entrega siempre o se desconecta al cliente, porque quien la espera se quedaría bloqueado.
+ */
+public class NCOutboundQueue
+{
+	/* Políticas cuando la cola está llena: descartar el mensaje más antiguo, descartar el nuevo o desconectar al cliente lento. */
+	public static final String POLICY_DROP_OLDEST = "drop-oldest";
+	public static final String POLICY_DROP_NEW = "drop-new";
+	public static final String POLICY_DISCONNECT = "disconnect";
+
+	/* Valores por defecto. */
+	public static final int DEFAULT_CAPACITY = 1024;
+	public static final String DEFAULT_POLICY = POLICY_DISCONNECT;
+
+	/* Contadores globales de todas las colas del servidor. */
+	private static final LongAdder totalDropped = new LongAdder();
+	private static final LongAdder totalDisconnected = new LongAdder();
+	/* Tramas pendientes sumando todas las colas abiertas y mayor profundidad vista en una sola cola. */
+	private static final LongAdder totalQueued = new LongAdder();
+	private static final AtomicInteger maxDepth = new AtomicInteger(0);
+
+	/* Trama encolada. Las tramas de un mismo envío (los trozos de una respuesta o de un aviso) quedan seguidas en la cola y cada una indica si la siguiente es del mismo envío. */
+	private static final class Entry
+	{
+		final NCFrame frame;
+		final boolean continued;
+		/* Solo se pueden descartar los avisos que no ha pedido el cliente y de los que todavía no se ha escrito ninguna trama. */
+		boolean droppable;
+
+		Entry(NCFrame frame, boolean continued, boolean droppable)
+		{
+			this.frame = frame;
+			this.continued = continued;
+			this.droppable = droppable;
+		}
+	}
+
+	/* Tramas pendientes (sin empezar a escribir) en orden de envío. Pueden estar compartidas con las colas de otros clientes. */
+	private final ArrayDeque<Entry> messages;
+	private final int capacity;
+	private final String policy;
+	/* Indica si el escritor ya tiene trabajo programado. */
+	private boolean scheduled;
+
+	public NCOutboundQueue(int capacity, String policy)
+	{
+		this.messages = new ArrayDeque<Entry>();
+		this.capacity = capacity;
+		this.policy = policy;
+		this.scheduled = false;
+	}
+
+	/* Comprueba si el nombre de la política es válido. */
+	public static boolean isValidPolicy(String policy)
+	{
+		return policy.equals(POLICY_DROP_OLDEST) || policy.equals(POLICY_DROP_NEW) || policy.equals(POLICY_DISCONNECT);
+	}
+
+	/* Encola un aviso de una sola trama (un texto de la sala, una entrada o salida). Devuelve true si el escritor estaba parado y hay que ponerlo en marcha. */
+	public synchronized boolean offer(NCFrame message) throws IOException
+	{
+		if (!this.makeRoom(1, true)) return false;
+		this.messages.add(new Entry(message, false, true));
+		this.added(1);
+		return this.schedule();
+	}
+
+	/* Encola juntas todas las tramas de un envío: una respuesta o, si droppable, un aviso de varios trozos que se descarta entero. Devuelve lo mismo que offer. */
+	public synchronized boolean offer(NCFrame[] frames, boolean droppable) throws IOException
+	{
+		if (!this.makeRoom(frames.length, droppable)) return false;
+		for (int i = 0; i < frames.length; i++) this.messages.add(new Entry(frames[i], i < frames.length - 1, droppable));
+		this.added(frames.length);
+		return this.schedule();
+	}
+
+	/* Aplica la política si no caben count tramas más. Devuelve false si el envío se descarta y lanza una excepción si hay que desconectar al cliente.
+	   Los avisos siguen la política. Las respuestas nunca se descartan: con drop-oldest hacen sitio quitando avisos y, si aun así no caben, se encolan pasando de la capacidad siempre que la cola no estuviese ya llena. */
+	private boolean makeRoom(int count, boolean droppable) throws IOException
+	{
+		if (this.messages.size() + count <= this.capacity) return true;
+		if (this.policy.equals(POLICY_DROP_OLDEST))
+		{
+			while (this.messages.size() + count > this.capacity)
+			{
+				if (!this.dropOldest()) break;
+			}
+			if (this.messages.size() + count <= this.capacity) return true;
+		}
+		if (droppable && !this.policy.equals(POLICY_DISCONNECT))
+		{
+			totalDropped.add(count);
+			return false;
+		}
+		/* Una respuesta cuando la cola ya estaba llena, o un aviso con la política de desconectar: el cliente no lee y no podemos guardarle más. */
+		if (droppable || this.messages.size() >= this.capacity)
+		{
+			totalDisconnected.increment();
+			throw new IOException("Outbound queue full.");
+		}
+		return true;
+	}
+
+	/* Suma las tramas encoladas al total del servidor y actualiza la mayor profundidad vista. */
+	private void added(int count)
+	{
+		totalQueued.add(count);
+		int depth = this.messages.size();
+		if (depth > maxDepth.get()) maxDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	/* Marca el escritor como programado. Devuelve true si estaba parado. */
+	private boolean schedule()
+	{
+		if (this.scheduled) return false;
+		this.scheduled = true;
+		return true;
+	}
+
+	/* Descarta el aviso más antiguo que aún se puede descartar, con todas sus tramas. Devuelve false si no hay ninguno. */
+	private boolean dropOldest()
+	{
+		Iterator<Entry> it = this.messages.iterator();
+		while (it.hasNext())
+		{
+			Entry entry = it.next();
+			if (!entry.droppable) continue;
+			int count = 1;
+			it.remove();
+			while (entry.continued)
+			{
+				entry = it.next();
+				it.remove();
+				count++;
+			}
+			this.countDrop(count);
+			return true;
+		}
+		return false;
+	}
+
+	/* Saca el siguiente mensaje a escribir. Si no quedan devuelve null y el escritor se da por parado. */
+	public synchronized NCFrame poll()
+	{
+		Entry next = this.messages.poll();
+		if (next == null)
+		{
+			this.scheduled = false;
+			return null;
+		}
+		totalQueued.decrement();
+		/* Empezado un envío, ninguna de sus tramas restantes se puede descartar: quitar una del medio dejaría al cliente esperando el final de la respuesta. */
+		if (next.droppable && next.continued)
+		{
+			Iterator<Entry> it = this.messages.iterator();
+			Entry rest;
+			do
+			{
+				rest = it.next();
+				rest.droppable = false;
+			}
+			while (rest.continued);
+		}
+		return next.frame;
+	}
+
+	/* Descarta los mensajes pendientes cuando se cierra la conexión. */
+	public synchronized void clear()
+	{
+		totalQueued.add(-this.messages.size());
+		this.messages.clear();
+	}
+
+	public int getCapacity()
+	{
+		return this.capacity;
+	}
+
+	public String getPolicy()
+	{
+		return this.policy;
+	}
+
+	/* Total de mensajes descartados en todas las colas. */
+	public static long getTotalDropped()
+	{
+		return totalDropped.sum();
+	}
+
+	/* Total de clientes desconectados por lentos. */
+	public static long getTotalDisconnected()
+	{
+		return totalDisconnected.sum();
+	}
+
+	/* Tramas pendientes ahora en todas las colas abiertas. */
+	public static long getTotalQueued()
+	{
+		return totalQueued.sum();
+	}
+
+	/* Mayor número de tramas pendientes que ha llegado a tener una cola. */
+	public static int getMaxDepth()
+	{
+		return maxDepth.get();
+	}
+
+	/* Las tramas descartadas de la cola dejan de estar pendientes y cuentan en el total del servidor. */
+	private void countDrop(int frames)
+	{
+		totalQueued.add(-frames);
+		totalDropped.add(frames);
+	}
+}
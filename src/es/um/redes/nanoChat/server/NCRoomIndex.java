@@ -0,0 +1,274 @@
+package es.um.redes.nanoChat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+/**
+ * Índices ordenados de las salas para contestar a las páginas de RoomListPage y a las salas más activas o con más miembros de RoomListTop sin recorrer ni ordenar la lista completa.
+ * El orden por nombre es el propio mapa de salas del servidor. Los órdenes por número de miembros y por actividad son conjuntos ordenados que se actualizan con cada cambio de una sala, así una página cuesta lo que sus elementos más el salto hasta el cursor.
+ */
+public class NCRoomIndex
+{
+	/* Tamaño de página cuando el cliente no lo indica y máximo que se atiende en una sola página. */
+	public static final int DEFAULT_PAGE_SIZE = 100;
+	public static final int MAX_PAGE_SIZE = 1000;
+	/* Entradas que como mucho se recorren en una página de los órdenes por miembros o actividad con prefijo, donde las salas del prefijo no están juntas. */
+	public static final int MAX_SCAN = 10 * MAX_PAGE_SIZE;
+	/* Separador entre el valor y el nombre en los cursores de los órdenes por miembros y por actividad. */
+	private static final char CURSOR_SEPARATOR = '/';
+
+	/* Orden de los índices: de mayor a menor valor, después por nombre y, solo si dos salas coinciden en todo durante un renombrado, por su id. */
+	private static final Comparator<Key> KEY_ORDER = Comparator.comparingLong((Key k) -> -k.value).thenComparing((Key k) -> k.name).thenComparingLong((Key k) -> k.id);
+
+	/* Entrada de una sala en un índice con los valores que tenía al indexarla. Es inmutable: cada cambio la reemplaza por otra. */
+	static final class Key
+	{
+		final long value;
+		final String name;
+		final long id;
+		final NCRoomManager room;
+
+		Key(long value, String name, long id, NCRoomManager room)
+		{
+			this.value = value;
+			this.name = name;
+			this.id = id;
+			this.room = room;
+		}
+	}
+
+	/* Entradas actuales de una sala en los dos índices. */
+	private static final class Entries
+	{
+		final Key members;
+		final Key activity;
+
+		Entries(Key members, Key activity)
+		{
+			this.members = members;
+			this.activity = activity;
+		}
+	}
+
+	/* Miembros de una sala ordenados por nombre para una versión de la sala. */
+	private static final class SortedMembers
+	{
+		final long version;
+		final String[] names;
+
+		SortedMembers(long version, String[] names)
+		{
+			this.version = version;
+			this.names = names;
+		}
+	}
+
+	/* Página de resultados con el cursor de la siguiente, vacío si ya no hay más. */
+	public static final class Page<T>
+	{
+		public final List<T> items;
+		public final String cursor;
+
+		public Page(List<T> items, String cursor)
+		{
+			this.items = items;
+			this.cursor = cursor;
+		}
+	}
+
+	/* Salas del servidor por nombre. */
+	private final ConcurrentNavigableMap<String,NCRoomManager> rooms;
+	/* Salas por número de miembros y por hora del último mensaje. */
+	private final NavigableSet<Key> byMembers;
+	private final NavigableSet<Key> byActivity;
+	/* Entradas actuales de cada sala, para sacarlas de los índices cuando cambia. */
+	private final ConcurrentMap<NCRoomManager,Entries> current;
+	/* Id de cada sala indexada. */
+	private final AtomicLong nextId;
+	/* Miembros ordenados de cada sala. Solo los construye y los reemplaza el shard de la sala. */
+	private final ConcurrentMap<NCRoomManager,SortedMembers> sortedMembers;
+
+	public NCRoomIndex(ConcurrentNavigableMap<String,NCRoomManager> rooms)
+	{
+		this.rooms = rooms;
+		this.byMembers = new ConcurrentSkipListSet<Key>(KEY_ORDER);
+		this.byActivity = new ConcurrentSkipListSet<Key>(KEY_ORDER);
+		this.current = new ConcurrentHashMap<NCRoomManager,Entries>();
+		this.nextId = new AtomicLong(0);
+		this.sortedMembers = new ConcurrentHashMap<NCRoomManager,SortedMembers>();
+	}
+
+	/* Vuelve a indexar la sala con su descripción actual. Los cambios de una misma sala se aplican de uno en uno, así nunca queda con dos entradas en un índice. */
+	public void update(NCRoomManager room)
+	{
+		this.current.compute(room, (r, old) ->
+		{
+			NCRoomDescription desc = r.getDescription();
+			long id = old == null ? this.nextId.getAndIncrement() : old.members.id;
+			Entries entries = new Entries(new Key(desc.members.size(), desc.roomName, id, r), new Key(desc.timeLastMessage, desc.roomName, id, r));
+			if (old != null)
+			{
+				this.byMembers.remove(old.members);
+				this.byActivity.remove(old.activity);
+			}
+			this.byMembers.add(entries.members);
+			this.byActivity.add(entries.activity);
+			return entries;
+		});
+	}
+
+	/* Limita el tamaño de página pedido: 0 es el tamaño por defecto y nunca se pasa del máximo. */
+	public static int pageSize(int limit)
+	{
+		if (limit <= 0) return DEFAULT_PAGE_SIZE;
+		return Math.min(limit, MAX_PAGE_SIZE);
+	}
+
+	/* Página de salas cuyo nombre empieza por prefix en el orden sort (cualquier orden desconocido es por nombre), a continuación de cursor. */
+	public Page<NCRoomDescription> pageRooms(String prefix, String sort, String cursor, int limit)
+	{
+		int size = pageSize(limit);
+		if (NCPageMessage.SORT_MEMBERS.equals(sort)) return this.pageIndex(this.byMembers, prefix, cursor, size);
+		if (NCPageMessage.SORT_ACTIVITY.equals(sort)) return this.pageIndex(this.byActivity, prefix, cursor, size);
+		return this.pageByName(prefix, cursor, size);
+	}
+
+	/* Las k primeras salas en el orden sort para contestar a OP_ROOM_LIST_TOP. Es la primera página sin prefijo, así que solo se recorren las k cabezas del índice. */
+	public List<NCRoomDescription> topRooms(String sort, int k)
+	{
+		return this.pageRooms("", sort, "", k).items;
+	}
+
+	/* Página en orden de nombre sobre el rango del prefijo en el mapa de salas. El cursor es el nombre de la última sala de la página anterior. */
+	private Page<NCRoomDescription> pageByName(String prefix, String cursor, int size)
+	{
+		ConcurrentNavigableMap<String,NCRoomManager> range = cursor.isEmpty() || cursor.compareTo(prefix) < 0 ? this.rooms.tailMap(prefix, true) : this.rooms.tailMap(cursor, false);
+		List<NCRoomDescription> items = new ArrayList<NCRoomDescription>(Math.min(size, 64));
+		/* Durante un renombrado la sala puede aparecer un instante con los dos nombres, así que solo la describimos una vez. */
+		Set<NCRoomManager> seen = Collections.newSetFromMap(new IdentityHashMap<NCRoomManager,Boolean>());
+		String last = null;
+		for (Map.Entry<String,NCRoomManager> entry : range.entrySet())
+		{
+			/* Las claves están ordenadas, así que la primera que no empieza por el prefijo cierra el rango. */
+			if (!entry.getKey().startsWith(prefix)) return new Page<NCRoomDescription>(items, "");
+			if (items.size() == size) return new Page<NCRoomDescription>(items, last);
+			if (!seen.add(entry.getValue())) continue;
+			NCRoomDescription desc = entry.getValue().getDescription();
+			/* La descripción lleva el nombre actual, pero el cursor sigue a la clave para no saltarse ni repetir salas. */
+			items.add(desc);
+			last = entry.getKey();
+		}
+		return new Page<NCRoomDescription>(items, "");
+	}
+
+	/* Página de uno de los índices por valor. El cursor es el valor y el nombre de la última sala de la página anterior; si no se entiende la página sale vacía y sin cursor, para que el cliente no vuelva a empezar sin fin.
+	   Con prefijo se recorren como mucho MAX_SCAN entradas: si se llega al límite la página sale con las salas encontradas, quizá ninguna, y con el cursor de la última entrada recorrida para seguir desde ahí. */
+	private Page<NCRoomDescription> pageIndex(NavigableSet<Key> index, String prefix, String cursor, int size)
+	{
+		NavigableSet<Key> range = index;
+		if (!cursor.isEmpty())
+		{
+			Key after = parseCursor(cursor);
+			if (after == null) return new Page<NCRoomDescription>(new ArrayList<NCRoomDescription>(), "");
+			range = index.tailSet(after, false);
+		}
+		List<NCRoomDescription> items = new ArrayList<NCRoomDescription>(Math.min(size, 64));
+		Key last = null;
+		int scanned = 0;
+		/* El índice no está ordenado por nombre, así que el prefijo se comprueba en cada entrada. */
+		for (Key key : range)
+		{
+			if (scanned == MAX_SCAN) return new Page<NCRoomDescription>(items, makeCursor(last));
+			scanned++;
+			if (!key.name.startsWith(prefix))
+			{
+				/* Las entradas saltadas también avanzan el cursor por si se corta aquí el recorrido. */
+				last = key;
+				continue;
+			}
+			if (items.size() == size) return new Page<NCRoomDescription>(items, makeCursor(last));
+			items.add(key.room.getDescription());
+			last = key;
+		}
+		return new Page<NCRoomDescription>(items, "");
+	}
+
+	/* Cursor que sigue a la entrada dada. */
+	private static String makeCursor(Key key)
+	{
+		return key.value + String.valueOf(CURSOR_SEPARATOR) + key.name;
+	}
+
+	/* Posición de un cursor de índice, detrás de todas las entradas con su mismo valor y nombre. */
+	private static Key parseCursor(String cursor)
+	{
+		int separator = cursor.indexOf(CURSOR_SEPARATOR);
+		if (separator <= 0) return null;
+		try
+		{
+			return new Key(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1), Long.MAX_VALUE, null);
+		}
+		catch (NumberFormatException e)
+		{
+			return null;
+		}
+	}
+
+	/* Página de los miembros de la sala que empiezan por prefix, en orden de nombre y a continuación de cursor (el último nombre de la página anterior). Se llama en el shard de la sala, que es quien ordena sus miembros una vez por versión. */
+	public Page<String> pageMembers(NCRoomManager room, String prefix, String cursor, int limit)
+	{
+		int size = pageSize(limit);
+		long version = room.getVersion();
+		SortedMembers sorted = this.sortedMembers.get(room);
+		if (sorted == null || sorted.version != version)
+		{
+			String[] names = room.getDescription().members.toArray(new String[0]);
+			Arrays.sort(names);
+			sorted = new SortedMembers(version, names);
+			this.sortedMembers.put(room, sorted);
+		}
+		String[] names = sorted.names;
+		/* Primera posición tras el cursor y dentro del prefijo. */
+		int from;
+		if (cursor.isEmpty() || cursor.compareTo(prefix) < 0) from = lowerBound(names, prefix, true);
+		else from = lowerBound(names, cursor, false);
+		List<String> items = new ArrayList<String>(Math.min(size, 64));
+		for (int i = from; i < names.length && names[i].startsWith(prefix); i++)
+		{
+			if (items.size() == size) return new Page<String>(items, items.get(size - 1));
+			items.add(names[i]);
+		}
+		return new Page<String>(items, "");
+	}
+
+	/* Primera posición del array ordenado con un nombre mayor (o igual, si inclusive) que el dado. */
+	private static int lowerBound(String[] names, String name, boolean inclusive)
+	{
+		int low = 0;
+		int high = names.length;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = names[mid].compareTo(name);
+			if (cmp < 0 || (cmp == 0 && !inclusive)) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+}
@@ -0,0 +1,138 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+/**
+ * Suscripciones a la lista de salas. Quien se suscribe recibe la lista completa y después solo los cambios: en cada intervalo se juntan las salas que han cambiado y se manda a todos los suscriptores un RoomListRemove con los nombres que han dejado de usarse y un RoomListUpdate con el estado actual de cada sala cambiada.
+ * Así los clientes que esperan fuera de las salas no vuelven a descargar miles de salas, y el trabajo del servidor depende de los cambios y no de las consultas.
+ */
+class NCRoomListFeed extends Thread
+{
+	/* Propiedad con el intervalo, en milisegundos, en el que se juntan los cambios antes de mandarlos. */
+	static final String INTERVAL_PROPERTY = "nanochat.roomlist.interval";
+	static final long DEFAULT_INTERVAL = 250;
+	/* Nombre que llevan los mensajes RoomListRemove. */
+	private static final String REMOVE_NAME = "rooms";
+
+	/* Intervalo entre envíos. */
+	private final long interval;
+	/* Salas que han cambiado desde el último envío con los nombres que han tenido mientras tanto. Lo llenan los shards y las sesiones sin esperar al envío. */
+	private final ConcurrentMap<NCRoomManager,Set<String>> changed;
+	/* Sesiones suscritas. Solo se usan con el cerrojo del feed, que también se mantiene durante cada envío, así una suscripción nueva nunca recibe cambios antes que su lista completa. */
+	private final Set<NCServerSession> subscribers;
+	/* Nombre de cada sala en el último envío. Solo se usa con el cerrojo. */
+	private final Map<NCRoomManager,String> sentNames;
+	/* Número de envíos hechos, que sirve de versión a sus respuestas. */
+	private long updates;
+
+	NCRoomListFeed(String name)
+	{
+		super(name);
+		this.setDaemon(true);
+		this.interval = Math.max(1, Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL));
+		this.changed = new ConcurrentHashMap<NCRoomManager,Set<String>>();
+		this.subscribers = new HashSet<NCServerSession>();
+		this.sentNames = new HashMap<NCRoomManager,String>();
+		this.updates = 0;
+	}
+
+	/* Anota que la sala ha cambiado, junto con su nombre actual. Un suscriptor puede haber visto cualquiera de los nombres anotados, así que todos los que no sean el último se mandan como eliminados. */
+	void roomChanged(NCRoomManager room)
+	{
+		String name = room.getRoomName();
+		this.changed.compute(room, (r, names) ->
+		{
+			if (names == null) names = new HashSet<String>(2);
+			names.add(name);
+			return names;
+		});
+	}
+
+	/* Suscribe la sesión. La lista completa la manda sendSnapshot antes de que pueda llegarle ningún cambio. */
+	synchronized void subscribe(NCServerSession session, Runnable sendSnapshot)
+	{
+		this.subscribers.add(session);
+		sendSnapshot.run();
+	}
+
+	/* Cancela la suscripción de la sesión. Al volver ya no se le manda ningún cambio más. */
+	synchronized void unsubscribe(NCServerSession session)
+	{
+		this.subscribers.remove(session);
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			try
+			{
+				Thread.sleep(this.interval);
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			if (this.changed.isEmpty()) continue;
+			/* Un envío que falla no debe parar las suscripciones. */
+			try
+			{
+				this.flush();
+			}
+			catch (RuntimeException e)
+			{
+				NCLog.error("* Room list update failed.", e);
+			}
+		}
+	}
+
+	/* Junta los cambios del intervalo y los manda a los suscriptores. */
+	private synchronized void flush()
+	{
+		List<String> removed = new ArrayList<String>();
+		List<NCRoomDescription> rooms = new ArrayList<NCRoomDescription>();
+		for (NCRoomManager room : this.changed.keySet())
+		{
+			/* Sacamos la sala antes de describirla, así un cambio posterior la vuelve a anotar para el siguiente envío. */
+			Set<String> names = this.changed.remove(room);
+			NCRoomDescription desc = room.getDescription();
+			String previous = this.sentNames.put(room, desc.roomName);
+			if (previous != null) names.add(previous);
+			names.remove(desc.roomName);
+			removed.addAll(names);
+			rooms.add(desc);
+		}
+		if (this.subscribers.isEmpty()) return;
+		long time = System.currentTimeMillis();
+		NCCachedResponse removal = removed.isEmpty() ? null : new NCCachedResponse(this.updates, NCMessage.makeInfoMessage(NCMessage.OP_ROOM_LIST_REMOVE, REMOVE_NAME, time, removed));
+		NCCachedResponse update = new NCCachedResponse(this.updates++, NCServerManager.makeRoomListMessage(NCMessage.OP_ROOM_LIST_UPDATE, rooms));
+		/* Los cambios son avisos sin id, igual que los de las salas. */
+		for (NCServerSession session : this.subscribers)
+		{
+			try
+			{
+				/* La eliminación y el estado nuevo van juntos y nunca se descartan. */
+				if (removal != null) session.sendUpdate(removal, update);
+				else session.sendUpdate(update);
+			}
+			catch (IOException e)
+			{
+				NCLog.warn("* Unable to send room list update to client {}.", session.describeClient());
+			}
+		}
+	}
+}
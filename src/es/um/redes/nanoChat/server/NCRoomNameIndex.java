@@ -0,0 +1,144 @@
+package es.um.redes.nanoChat.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+/**
+ * Índice de n-gramas de los nombres de las salas para contestar a RoomSearch sin recorrer todas las salas. Cada nombre se indexa, sin distinguir mayúsculas, por todos sus trozos de hasta GRAM_SIZE caracteres.
+ * Las salas de cada trozo están ordenadas por nombre, así una página empieza justo detrás del cursor en el conjunto más pequeño de los trozos del texto, comprueba cada sala en los demás y termina en cuanto tiene limit salas. Como la lista de salas, el resultado se sirve por páginas en orden de nombre.
+ */
+public class NCRoomNameIndex
+{
+	/* Longitud máxima de los trozos indexados. */
+	static final int GRAM_SIZE = 3;
+
+	/* Salas que contienen un trozo, por nombre, con su número aparte porque contar las de un ConcurrentSkipListMap es recorrerlas. */
+	private static final class Postings
+	{
+		final ConcurrentSkipListMap<String,NCRoomManager> rooms = new ConcurrentSkipListMap<String,NCRoomManager>();
+		final AtomicInteger count = new AtomicInteger(0);
+	}
+
+	/* Salas que contienen cada trozo. Un conjunto se elimina al quedarse vacío. */
+	private final ConcurrentMap<String,Postings> grams;
+	/* Nombre con el que está indexada cada sala. */
+	private final ConcurrentMap<NCRoomManager,String> names;
+
+	public NCRoomNameIndex()
+	{
+		this.grams = new ConcurrentHashMap<String,Postings>();
+		this.names = new ConcurrentHashMap<NCRoomManager,String>();
+	}
+
+	/* Indexa la sala con su nombre actual, quitando los trozos del nombre anterior. Los cambios de una misma sala se aplican de uno en uno y siempre con el nombre que tiene en ese momento, así da igual en qué orden lleguen el registro y un renombrado. */
+	public void update(NCRoomManager room)
+	{
+		this.names.compute(room, (r, old) ->
+		{
+			String name = r.getRoomName() == null ? "" : r.getRoomName();
+			if (name.equals(old)) return old;
+			if (old != null)
+			{
+				for (String gram : gramsOf(normalize(old)))
+				{
+					this.grams.computeIfPresent(gram, (g, postings) ->
+					{
+						if (postings.rooms.remove(old, r)) postings.count.decrementAndGet();
+						return postings.count.get() == 0 ? null : postings;
+					});
+				}
+			}
+			for (String gram : gramsOf(normalize(name)))
+			{
+				this.grams.compute(gram, (g, postings) ->
+				{
+					if (postings == null) postings = new Postings();
+					if (postings.rooms.put(name, r) == null) postings.count.incrementAndGet();
+					return postings;
+				});
+			}
+			return name;
+		});
+	}
+
+	/* Página de las salas cuyo nombre contiene el texto dado, sin distinguir mayúsculas, en orden de nombre y a continuación de cursor (el nombre de la última sala de la página anterior). Un texto vacío no encuentra ninguna. */
+	public NCRoomIndex.Page<NCRoomDescription> search(String text, String cursor, int limit)
+	{
+		int size = NCRoomIndex.pageSize(limit);
+		String query = normalize(text);
+		List<NCRoomDescription> items = new ArrayList<NCRoomDescription>();
+		if (query.isEmpty()) return new NCRoomIndex.Page<NCRoomDescription>(items, "");
+		/* Conjuntos de todos los trozos del texto, del más pequeño al más grande. Si alguno no está indexado no hay ninguna sala. */
+		List<Postings> postings = new ArrayList<Postings>();
+		for (String gram : query.length() <= GRAM_SIZE ? List.of(query) : longestGramsOf(query))
+		{
+			Postings rooms = this.grams.get(gram);
+			if (rooms == null) return new NCRoomIndex.Page<NCRoomDescription>(items, "");
+			postings.add(rooms);
+		}
+		postings.sort(Comparator.comparingInt(p -> p.count.get()));
+		ConcurrentNavigableMap<String,NCRoomManager> first = postings.get(0).rooms;
+		if (!cursor.isEmpty()) first = first.tailMap(cursor, false);
+		/* Recorremos el más pequeño por nombre desde el cursor hasta tener size + 1 salas: la última solo indica que hay otra página. */
+		String last = "";
+		boolean more = false;
+		candidates:
+		for (Map.Entry<String,NCRoomManager> entry : first.entrySet())
+		{
+			String name = entry.getKey();
+			for (int i = 1; i < postings.size(); i++)
+			{
+				if (!postings.get(i).rooms.containsKey(name)) continue candidates;
+			}
+			/* Tener todos los trozos no basta para contener el texto, y durante un renombrado la sala puede seguir con su nombre viejo en algunos conjuntos. */
+			NCRoomManager room = entry.getValue();
+			if (!name.equals(this.names.get(room)) || !normalize(name).contains(query)) continue;
+			if (items.size() == size)
+			{
+				more = true;
+				break;
+			}
+			items.add(room.getDescription());
+			last = name;
+		}
+		return new NCRoomIndex.Page<NCRoomDescription>(items, more ? last : "");
+	}
+
+	/* Los nombres se indexan y se buscan en minúsculas. */
+	private static String normalize(String name)
+	{
+		return name == null ? "" : name.toLowerCase(Locale.ROOT);
+	}
+
+	/* Todos los trozos distintos del nombre de hasta GRAM_SIZE caracteres. */
+	private static Set<String> gramsOf(String name)
+	{
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i < name.length(); i++)
+		{
+			for (int j = i + 1; j <= Math.min(i + GRAM_SIZE, name.length()); j++) result.add(name.substring(i, j));
+		}
+		return result;
+	}
+
+	/* Trozos de exactamente GRAM_SIZE caracteres del texto buscado, que son los más selectivos. */
+	private static Set<String> longestGramsOf(String query)
+	{
+		Set<String> result = new HashSet<String>();
+		for (int i = 0; i + GRAM_SIZE <= query.length(); i++) result.add(query.substring(i, i + GRAM_SIZE));
+		return result;
+	}
+}
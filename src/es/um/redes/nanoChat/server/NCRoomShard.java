@@ -0,0 +1,100 @@
+package es.um.redes.nanoChat.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import es.um.redes.nanoChat.logging.NCLog;
+
+/**
+ * Hilo trabajador que ejecuta en orden los comandos de las salas que tiene asignadas (entrar, salir, enviar, renombrar y describir). Todos los cambios de estado de una sala se hacen en el hilo de su shard, así que las salas no necesitan cerrojos.
+ */
+public class NCRoomShard extends Thread
+{
+	/* Buzón de comandos pendientes de ejecutar, en orden de llegada. */
+	private final BlockingQueue<Runnable> mailbox;
+	/* Número de salas asignadas a este shard. */
+	private final AtomicInteger rooms;
+	/* Mayor número de comandos pendientes observado en el buzón. */
+	private final AtomicInteger maxQueueDepth;
+	/* Comandos ejecutados. Solo lo escribe el hilo del shard. */
+	private volatile long processed;
+
+	NCRoomShard(String name)
+	{
+		super(name);
+		this.mailbox = new LinkedBlockingQueue<Runnable>();
+		this.rooms = new AtomicInteger(0);
+		this.maxQueueDepth = new AtomicInteger(0);
+		this.processed = 0;
+	}
+
+	/* Deja un comando en el buzón. Se puede llamar desde cualquier hilo y no espera a que se ejecute. */
+	void post(Runnable command)
+	{
+		this.mailbox.add(command);
+		int depth = this.mailbox.size();
+		/* Solo tocamos el máximo cuando se supera, que es lo poco habitual. */
+		if (depth > this.maxQueueDepth.get()) this.maxQueueDepth.accumulateAndGet(depth, Math::max);
+	}
+
+	/* Anota una nueva sala asignada a este shard. */
+	void addRoom()
+	{
+		this.rooms.incrementAndGet();
+	}
+
+	/* Anota que una sala ha dejado de estar asignada a este shard. */
+	void removeRoom()
+	{
+		this.rooms.decrementAndGet();
+	}
+
+	@Override
+	public void run()
+	{
+		while (true)
+		{
+			Runnable command;
+			try
+			{
+				command = this.mailbox.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			/* Un comando que falla no debe parar el resto de salas del shard. */
+			try
+			{
+				command.run();
+			}
+			catch (RuntimeException e)
+			{
+				NCLog.error("* Room command failed on {}.", this.getName(), e);
+			}
+			this.processed++;
+		}
+	}
+
+	/* Número de comandos pendientes en el buzón. */
+	public int getQueueDepth()
+	{
+		return this.mailbox.size();
+	}
+
+	public int getMaxQueueDepth()
+	{
+		return this.maxQueueDepth.get();
+	}
+
+	public long getProcessed()
+	{
+		return this.processed;
+	}
+
+	public int getRoomCount()
+	{
+		return this.rooms.get();
+	}
+}
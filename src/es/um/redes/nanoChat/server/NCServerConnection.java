@@ -0,0 +1,20 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+
+import es.um.redes.nanoChat.messageFV.NCFrame;
+
+/**
+ * Transporte por el que una sesión del servidor se comunica con su cliente. Lo implementan tanto el hilo por conexión como las conexiones del bucle de eventos NIO.
+ */
+public interface NCServerConnection
+{
+	/* Encola un aviso de una trama para enviarlo al cliente. No espera a que se escriba. La trama puede estar compartida con otras conexiones. */
+	public void send(NCFrame frame) throws IOException;
+	/* Encola juntas las tramas de un envío. Las de una respuesta (droppable a false) nunca se descartan aunque la cola esté llena. */
+	public void send(NCFrame[] frames, boolean droppable) throws IOException;
+	/* Devuelve la cola de mensajes pendientes de enviar al cliente. */
+	public NCOutboundQueue getOutboundQueue();
+	/* Devuelve la dirección del cliente en formato imprimible (para los mensajes informativos). */
+	public String getClientAddress();
+}
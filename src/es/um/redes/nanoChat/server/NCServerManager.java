@@ -1,22 +1,34 @@
 package es.um.redes.nanoChat.server;
 
-import java.net.Socket;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-import javax.management.ServiceNotFoundException;
-
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.metrics.NCManagement;
+import es.um.redes.nanoChat.metrics.NCMetricsSource;
+import es.um.redes.nanoChat.metrics.NCPrometheusWriter;
+import es.um.redes.nanoChat.metrics.NCRoomBroadcastEvent;
+import es.um.redes.nanoChat.metrics.NCRoomJoinEvent;
+import es.um.redes.nanoChat.metrics.NCRoomLeaveEvent;
 import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomMXBean;
 import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
 
 /**
  * Esta clase contiene el estado general del servidor (sin la lógica relacionada con cada sala particular)
  */
-class NCServerManager 
+class NCServerManager implements NCServerManagerMXBean, NCMetricsSource
 {
 	/* Primera habitación del servidor. */
 	final static byte INITIAL_ROOM = 'A';
@@ -25,14 +37,58 @@ class NCServerManager
 	byte nextRoom;
 	/* Usuarios registrados en el servidor. */
 	private Set<String> users;
-	/* Habitaciones actuales asociadas a sus correspondientes RoomManagers. */
-	private Map<String,NCRoomManager> rooms;
+	/* Habitaciones actuales asociadas a sus correspondientes RoomManagers. Es un mapa concurrente ordenado por nombre, así que las consultas nunca esperan a una entrada o a un renombrado. */
+	private ConcurrentNavigableMap<String,NCRoomManager> rooms;
+	/* Hilos trabajadores que ejecutan los comandos de las salas y shard al que está fijada cada sala. */
+	private NCRoomShard[] shards;
+	private ConcurrentMap<NCRoomManager,NCRoomShard> roomShards;
+	/* Siguiente shard al que se asignará una sala nueva. */
+	private AtomicInteger nextShard;
+	/* Métricas del servidor, compartidas por todas las sesiones y transportes. */
+	private final NCServerMetrics metrics;
+	/* Indica si el servidor y sus salas están publicados por JMX, y siguiente id para el MBean de una sala. */
+	private volatile boolean managed;
+	private final Set<NCRoomManager> managedRooms;
+	private final AtomicInteger nextRoomId;
+	/* Versión de la lista de salas. Sube al crear una sala y con cada cambio de cualquiera de ellas. */
+	private final AtomicLong roomListVersion;
+	/* Última respuesta a OP_ROOM_LIST construida y cerrojo para que solo se construya una por versión. */
+	private volatile NCCachedResponse roomListResponse;
+	private final Object roomListLock;
+	/* Última respuesta a OP_ROOM_INFO construida para cada sala. Solo la construye y la reemplaza el shard de la sala. */
+	private final ConcurrentMap<NCRoomManager,NCCachedResponse> roomInfoResponses;
+	/* Suscripciones a los cambios de la lista de salas. */
+	private final NCRoomListFeed roomListFeed;
+	/* Índices de las salas para las páginas de la lista. */
+	private final NCRoomIndex roomIndex;
+	/* Índice de los nombres de las salas para las búsquedas. */
+	private final NCRoomNameIndex roomNameIndex;
 
-	NCServerManager() 
+	NCServerManager(int shardCount) 
 	{
 		this.nextRoom = INITIAL_ROOM;
-		this.users = new HashSet<String>();
-		this.rooms = new HashMap<String,NCRoomManager>();
+		this.users = ConcurrentHashMap.newKeySet();
+		this.rooms = new ConcurrentSkipListMap<String,NCRoomManager>();
+		this.roomShards = new ConcurrentHashMap<NCRoomManager,NCRoomShard>();
+		this.nextShard = new AtomicInteger(0);
+		this.metrics = new NCServerMetrics();
+		this.managed = false;
+		this.managedRooms = ConcurrentHashMap.newKeySet();
+		this.nextRoomId = new AtomicInteger(0);
+		this.roomListVersion = new AtomicLong(0);
+		this.roomListResponse = null;
+		this.roomListLock = new Object();
+		this.roomInfoResponses = new ConcurrentHashMap<NCRoomManager,NCCachedResponse>();
+		this.roomListFeed = new NCRoomListFeed("NCRoomListFeed");
+		this.roomListFeed.start();
+		this.roomIndex = new NCRoomIndex(this.rooms);
+		this.roomNameIndex = new NCRoomNameIndex();
+		this.shards = new NCRoomShard[shardCount];
+		for (int i = 0; i < shardCount; i++)
+		{
+			this.shards[i] = new NCRoomShard("NCRoomShard-" + i);
+			this.shards[i].start();
+		}
 	}
 
 	/* Método para registrar un RoomManager. No realiza comprobación de nombres, pensado solo para uso interno e inicialización del servidor. */
@@ -40,92 +96,473 @@ class NCServerManager
 	{
 		/* Registramos el roomManager. */
 		String roomName = ROOM_PREFIX + (char) this.nextRoom;
-		this.rooms.put(roomName, rm);
 		rm.setRoomName(roomName);
+		this.assignShard(rm);
+		this.rooms.put(roomName, rm);
+		this.roomPublished(rm);
 	}
 	/* Método que permite registrar la sala con el nombre que quieras comprobando que el nombre no esté en uso, devuelve false si estaba en uso y true en caso contrario. */
-	public synchronized boolean registerCheckedRoomManager(NCRoomManager rm, String roomName)
+	public boolean registerCheckedRoomManager(NCRoomManager rm, String roomName)
 	{
-		/* Comprobamos si el nombre está en uso. */
-		if (this.rooms.containsKey(roomName)) return false;
-		/* Si no está en uso registramos la sala con el nombre dado. */
-		this.rooms.put(roomName, rm);
+		/* La sala es nueva y nadie más la ve, así que le ponemos el nombre antes de publicarla. */
 		rm.setRoomName(roomName);
-		/* Devolvemos true por defecto. */
-		return true;
+		this.assignShard(rm);
+		/* La comprobación y el registro se hacen en una única operación atómica del mapa. */
+		if (this.rooms.putIfAbsent(roomName, rm) == null)
+		{
+			this.roomPublished(rm);
+			return true;
+		}
+		/* El nombre estaba en uso, la sala nunca llegó a publicarse. */
+		this.roomShards.remove(rm).removeRoom();
+		return false;
+	}
+
+	/* Una sala nueva ya está en la lista: cambia la lista y, desde ahora, también con cada cambio de la sala. */
+	private void roomPublished(NCRoomManager rm)
+	{
+		this.roomNameIndex.update(rm);
+		rm.setChangeListener(() -> this.roomChanged(rm));
+		this.roomChanged(rm);
+		if (this.managed) this.registerRoomMBean(rm);
+	}
+
+	/* Invalida la lista de salas guardada, reindexa la sala y anota el cambio para los suscriptores. */
+	private void roomChanged(NCRoomManager rm)
+	{
+		this.roomListVersion.incrementAndGet();
+		this.roomIndex.update(rm);
+		this.roomListFeed.roomChanged(rm);
+	}
+
+	/* Fija la sala a un shard, repartiendo las salas por turnos. */
+	private void assignShard(NCRoomManager rm)
+	{
+		NCRoomShard shard = this.shards[Math.floorMod(this.nextShard.getAndIncrement(), this.shards.length)];
+		this.roomShards.put(rm, shard);
+		shard.addRoom();
+	}
+
+	/* Deja un comando en el buzón del shard que gestiona la sala. */
+	private void post(NCRoomManager room, Runnable command)
+	{
+		this.roomShards.get(room).post(command);
+	}
+
+	/* Shards del servidor, para consultar la carga de cada uno. */
+	public NCRoomShard[] getShards()
+	{
+		return this.shards.clone();
+	}
+
+	public NCServerMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+
+	/* Publica por JMX el servidor y sus salas. Las salas que se creen después se publican al registrarlas. */
+	void registerMBeans()
+	{
+		NCManagement.register(this, NCManagement.name("Server", null, null));
+		this.managed = true;
+		for (NCRoomManager room : this.rooms.values()) this.registerRoomMBean(room);
+		NCLog.info("* Server MBeans registered under {}.", NCManagement.DOMAIN);
+	}
+
+	/* Las salas se publican con un id propio para que el nombre del MBean no cambie al renombrarlas. Durante un renombrado la sala puede aparecer con los dos nombres, así que solo se publica una vez. */
+	private void registerRoomMBean(NCRoomManager room)
+	{
+		if (room instanceof NCRoomMXBean && this.managedRooms.add(room))
+		{
+			NCManagement.register(room, NCManagement.name("Room", "id", String.valueOf(this.nextRoomId.getAndIncrement())));
+		}
+	}
+
+	/* Foto de las métricas del servidor para contestar a OP_STATS. */
+	public List<String> getStatsSnapshot()
+	{
+		return this.metrics.snapshot(this);
+	}
+
+	/* Métricas para el puerto de administración. */
+	@Override
+	public void writeMetrics(NCPrometheusWriter writer)
+	{
+		this.metrics.writeMetrics(writer, this);
+	}
+
+	@Override
+	public int getActiveConnections()
+	{
+		return this.metrics.getActiveConnections();
+	}
+
+	@Override
+	public long getTotalConnections()
+	{
+		return this.metrics.getTotalConnections();
+	}
+
+	@Override
+	public int getRoomCount()
+	{
+		int count = 0;
+		for (NCRoomShard shard : this.shards) count += shard.getRoomCount();
+		return count;
+	}
+
+	@Override
+	public long getBytesIn()
+	{
+		return this.metrics.getBytesIn();
+	}
+
+	@Override
+	public long getBytesOut()
+	{
+		return this.metrics.getBytesOut();
+	}
+
+	@Override
+	public long getRequestCount()
+	{
+		return this.metrics.getRequestRate().getCount();
+	}
+
+	@Override
+	public double getRequestsPerSecond()
+	{
+		return this.metrics.getRequestRate().getOneMinuteRate();
+	}
+
+	@Override
+	public long getMessageCount()
+	{
+		return this.metrics.getMessageRate().getCount();
+	}
+
+	@Override
+	public double getMessagesPerSecond()
+	{
+		return this.metrics.getMessageRate().getOneMinuteRate();
+	}
+
+	@Override
+	public double getRequestLatencyMean()
+	{
+		return this.metrics.getRequestLatency().getMean();
+	}
+
+	@Override
+	public long getRequestLatencyP99()
+	{
+		return this.metrics.getRequestLatency().getValueAtPercentile(99);
 	}
 
-	/* Devuelve la descripción de las salas existentes. Si no hay ninguna sala se devuelve una lista vacía.*/
-	public synchronized List<NCRoomDescription> getRoomList() 
+	@Override
+	public long getBroadcastCount()
 	{
-		List<NCRoomDescription> desc = new LinkedList<NCRoomDescription>();
+		return this.metrics.getBroadcasts();
+	}
+
+	@Override
+	public double getBroadcastTimeMean()
+	{
+		return this.metrics.getBroadcastTime().getMean();
+	}
+
+	@Override
+	public long getBroadcastTimeP99()
+	{
+		return this.metrics.getBroadcastTime().getValueAtPercentile(99);
+	}
+
+	@Override
+	public int[] getShardQueueDepths()
+	{
+		int[] depths = new int[this.shards.length];
+		for (int i = 0; i < this.shards.length; i++) depths[i] = this.shards[i].getQueueDepth();
+		return depths;
+	}
+
+	@Override
+	public long getOutboundQueued()
+	{
+		return NCOutboundQueue.getTotalQueued();
+	}
+
+	@Override
+	public int getOutboundQueueDepthMax()
+	{
+		return NCOutboundQueue.getMaxDepth();
+	}
+
+	@Override
+	public long getOutboundDropped()
+	{
+		return NCOutboundQueue.getTotalDropped();
+	}
+
+	@Override
+	public long getOutboundDisconnected()
+	{
+		return NCOutboundQueue.getTotalDisconnected();
+	}
+
+	@Override
+	public long getLogEventsDropped()
+	{
+		return NCLog.getDropped();
+	}
+
+	@Override
+	public String[] roomListSnapshot()
+	{
+		List<NCRoomDescription> rooms = this.getRoomList();
+		String[] lines = new String[rooms.size()];
+		int i = 0;
+		for (NCRoomDescription room : rooms) lines[i++] = room.roomName + " " + room.members;
+		return lines;
+	}
+
+	@Override
+	public void resetCounters()
+	{
+		this.metrics.reset();
+		for (NCRoomManager room : this.managedRooms) ((NCRoomMXBean) room).resetCounters();
+		NCLog.info("* Server counters reset through JMX.");
+	}
+
+	/* Devuelve la descripción de las salas existentes. Si no hay ninguna sala se devuelve una lista vacía. Las salas publican fotos inmutables de sus miembros, así que se leen directamente sin pasar por su shard. */
+	public List<NCRoomDescription> getRoomList() 
+	{
+		List<NCRoomDescription> desc = new ArrayList<NCRoomDescription>(this.rooms.size());
+		/* Durante un renombrado la sala puede aparecer un instante con los dos nombres, así que solo la describimos una vez. */
+		Set<NCRoomManager> seen = Collections.newSetFromMap(new IdentityHashMap<NCRoomManager, Boolean>());
 		/* Para cada sala registrada añadimos su descripción a la lista y la devolvemos. */
-		this.rooms.forEach((String s, NCRoomManager r)-> desc.add(r.getDescription()));
+		for (NCRoomManager r : this.rooms.values())
+		{
+			if (seen.add(r)) desc.add(r.getDescription());
+		}
 		return desc;
 	}
 
+	/* Respuesta a OP_ROOM_LIST para el estado actual. Solo se construye de nuevo si alguna sala ha cambiado desde la última, y una sola vez aunque la pidan varias sesiones a la vez. */
+	NCCachedResponse getRoomListResponse()
+	{
+		NCCachedResponse cached = this.roomListResponse;
+		if (cached != null && cached.version == this.roomListVersion.get()) return cached;
+		synchronized (this.roomListLock)
+		{
+			/* La versión se lee antes de recorrer las salas, así la lista nunca es más antigua que la versión con la que se guarda. */
+			long version = this.roomListVersion.get();
+			cached = this.roomListResponse;
+			if (cached == null || cached.version != version)
+			{
+				cached = new NCCachedResponse(version, makeRoomListMessage(NCMessage.OP_ROOM_LIST_OK, this.getRoomList()));
+				this.roomListResponse = cached;
+			}
+			return cached;
+		}
+	}
+
+	/* Suscribe la sesión a los cambios de la lista de salas. La lista completa la manda sendSnapshot, antes que ningún cambio. */
+	void subscribeRoomList(NCServerSession session, Runnable sendSnapshot)
+	{
+		this.roomListFeed.subscribe(session, sendSnapshot);
+	}
+
+	/* Cancela la suscripción de la sesión a la lista de salas, si la tenía. */
+	void unsubscribeRoomList(NCServerSession session)
+	{
+		this.roomListFeed.unsubscribe(session);
+	}
+
+	/* Página de la lista de salas para contestar a OP_ROOM_LIST_PAGE. Se lee de los índices sin pasar por los shards. */
+	NCRoomIndex.Page<NCRoomDescription> getRoomPage(String prefix, String sort, String cursor, int limit)
+	{
+		return this.roomIndex.pageRooms(prefix, sort, cursor, limit);
+	}
+
+	/* Las k primeras salas en el orden dado para contestar a OP_ROOM_LIST_TOP, en tiempo proporcional a k. */
+	List<NCRoomDescription> getTopRooms(String sort, int k)
+	{
+		return this.roomIndex.topRooms(sort, k);
+	}
+
+	/* Página de las salas cuyo nombre contiene el texto dado para contestar a OP_ROOM_SEARCH, en tiempo proporcional a las salas que comparten sus trozos. */
+	NCRoomIndex.Page<NCRoomDescription> searchRooms(String text, String cursor, int limit)
+	{
+		return this.roomNameIndex.search(text, cursor, limit);
+	}
+
+	/* Construye el mensaje con la descripción de las salas dadas. */
+	static NCMessage makeRoomListMessage(byte opcode, List<NCRoomDescription> rooms)
+	{
+		return makeRoomListMessage(opcode, rooms, "");
+	}
+
+	/* Lo mismo para una página de la lista, con el cursor de la siguiente. */
+	static NCMessage makeRoomListMessage(byte opcode, List<NCRoomDescription> rooms, String cursor)
+	{
+		String[] names = new String[rooms.size()];
+		long[] times = new long[rooms.size()];
+		List<List<String>> members = new ArrayList<List<String>>(rooms.size());
+		int i = 0;
+		for (NCRoomDescription room : rooms)
+		{
+			names[i] = room.roomName;
+			times[i++] = room.timeLastMessage;
+			members.add(room.members);
+		}
+		return NCMessage.makeMultiInfoMessage(opcode, names, times, members, cursor);
+	}
+
 	/* Intenta registrar al usuario en el servidor. */
-	public synchronized boolean addUser(String user) 
+	public boolean addUser(String user) 
 	{
 		return this.users.add(user);
 	}
 
 	/* Elimina al usuario del servidor. */
-	public synchronized void removeUser(String user) 
+	public void removeUser(String user) 
 	{
 		this.users.remove(user);
 	}
+
+	/* Número de usuarios registrados. */
+	@Override
+	public int getUserCount()
+	{
+		return this.users.size();
+	}
 	
-	/* Método que obtiene la infomación de una sala en concreto. Devuelve null si la sala no existe.*/
-	public synchronized NCRoomDescription getRoomInfo(String roomName)
+	/* Devuelve la sala con el nombre dado o null si no existe. */
+	public NCRoomManager getRoom(String roomName)
 	{
-		/* Obtenemos la sala deseada. */
-		NCRoomManager room = this.rooms.getOrDefault(roomName, null);
-		/* Si es nula es porque no existe la sala, devolvemos null. */
-		if (room == null) return null;
-		/* Si existe devolvemos su descripción. */
-		return room.getDescription();
+		return this.rooms.get(roomName);
 	}
 
-	/* Un usuario solicita acceso para entrar a una sala y registrar su conexión en ella. Si la sala pedida no existe se devuelve un roomManager se lanza una excepción. Si no está permitido que el usuario entre a la sala se devuelve null.*/
-	public synchronized NCRoomManager enterRoom(String u, String room, Socket s, NCServerThread t) throws ServiceNotFoundException
+	/* Pide en el shard de la sala la respuesta a OP_ROOM_INFO. El resultado se entrega en el hilo del shard, en orden con el resto de eventos de la sala. */
+	void describeRoom(NCRoomManager room, Consumer<NCCachedResponse> result)
 	{
-		NCRoomManager roomRequested = this.rooms.getOrDefault(room, null);
-		/* Si la sala no existe valía null y lanzamos una excepción que indica que no existe. */
-		if (roomRequested == null) throw new ServiceNotFoundException();
-		
-		boolean joined = roomRequested.registerUser(u, s, t);
+		this.post(room, () -> result.accept(this.getRoomInfoResponse(room)));
+	}
 
-		/* Si la sala existe y si es aceptado en la sala entonces devolvemos el RoomManager de la sala. */
-		if (joined) return roomRequested; 
-		/* Si no es aceptado devlvemos null. */
-		return null;
+	/* Pide en el shard de la sala una página de sus miembros para contestar a OP_ROOM_INFO_PAGE. La respuesta se construye y se entrega en el hilo del shard. */
+	void describeRoomPage(NCRoomManager room, String prefix, String cursor, int limit, Consumer<NCMessage> result)
+	{
+		this.post(room, () ->
+		{
+			NCRoomIndex.Page<String> page = this.roomIndex.pageMembers(room, prefix, cursor, limit);
+			NCRoomDescription desc = room.getDescription();
+			result.accept(NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_PAGE_OK, desc.roomName, desc.timeLastMessage, page.items, page.cursor));
+		});
+	}
+
+	/* Respuesta a OP_ROOM_INFO de la sala, que se reutiliza mientras no cambie su versión. Se llama en el shard de la sala, así que no se construye más de una por versión. */
+	private NCCachedResponse getRoomInfoResponse(NCRoomManager room)
+	{
+		long version = room.getVersion();
+		NCCachedResponse cached = this.roomInfoResponses.get(room);
+		if (cached != null && cached.version == version) return cached;
+		NCRoomDescription desc = room.getDescription();
+		cached = new NCCachedResponse(version, NCMessage.makeInfoMessage(NCMessage.OP_ROOM_INFO_OK, desc.roomName, desc.timeLastMessage, desc.members));
+		this.roomInfoResponses.put(room, cached);
+		return cached;
+	}
+
+	/* Un usuario solicita acceso para entrar a una sala y registrar su sesión en ella. El resultado (si no está permitido que el usuario entre a la sala es false) se entrega en el hilo del shard, antes de cualquier otro mensaje de la sala para ese usuario. */
+	public void enterRoom(String u, NCRoomManager room, NCServerSession s, Consumer<Boolean> result)
+	{
+		long posted = System.nanoTime();
+		this.post(room, () ->
+		{
+			/* El evento de JFR mide la entrada en el shard y anota aparte lo que esperó el comando en el buzón. */
+			NCRoomJoinEvent event = new NCRoomJoinEvent();
+			event.begin();
+			long start = System.nanoTime();
+			boolean accepted = room.registerUser(u, s);
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.room = room.getRoomName();
+				event.user = u;
+				event.accepted = accepted;
+				event.shardWait = start - posted;
+				event.commit();
+			}
+			result.accept(accepted);
+		});
 	}
 
 	/* Un usuario deja la sala en la que estaba. */
-	public synchronized void leaveRoom(String u, String room) 
+	public void leaveRoom(String u, NCRoomManager room) 
+	{
+		/* Si no estaba en ninguna sala volvemos. */
+		if (room == null) return;
+		long posted = System.nanoTime();
+		/* Sacamos al usuario de la sala. Si la sala quedase vacía no hacemos nada, no vamos a eliminar salas. */
+		this.post(room, () ->
+		{
+			NCRoomLeaveEvent event = new NCRoomLeaveEvent();
+			event.begin();
+			long start = System.nanoTime();
+			room.removeUser(u);
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.room = room.getRoomName();
+				event.user = u;
+				event.shardWait = start - posted;
+				event.commit();
+			}
+		});
+	}
+
+	/* Retransmite en el shard de la sala un mensaje de un usuario. El reparto se mide para las métricas y para el evento de JFR. */
+	public void broadcastMessage(String u, NCRoomManager room, String message)
 	{
-		NCRoomManager roomRequested = this.rooms.getOrDefault(room, null);
-		/* Si la sala no existe volvemos. */
-		if (roomRequested == null) return;
-		/* Sacamos al usuario de la sala. */
-		roomRequested.removeUser(u);
-		/* Si la sala quedase vacía no hacemos nada, no vamos a eliminar salas. */
+		long posted = System.nanoTime();
+		this.post(room, () ->
+		{
+			NCRoomBroadcastEvent event = new NCRoomBroadcastEvent();
+			event.begin();
+			long start = System.nanoTime();
+			long bytes = room.broadcastMessage(u, message);
+			long end = System.nanoTime();
+			int recipients = Math.max(0, room.usersInRoom() - 1);
+			this.metrics.recordBroadcast(recipients, end - start);
+			event.end();
+			if (event.shouldCommit())
+			{
+				event.room = room.getRoomName();
+				event.recipients = recipients;
+				event.bytes = bytes;
+				event.shardWait = start - posted;
+				event.commit();
+			}
+		});
 	}
 	
-	/* Método que intentar renombrar una determinada sala del servidor. Devuelve true si se puede renombrar la sala y false en caso contrario o si la sala que se desea renombrar no existe. */
-	public synchronized boolean renameRoom(String roomWanted, String newName)
-	{
-		/* Si ya hay una sala con este nombre no podemos renombrar. */
-		if (this.rooms.containsKey(newName)) return false;
-		/* Si el nombre está disponible reemplazamos la entrada en el mapa y renombramos la sala. */
-		NCRoomManager renamedRoom = this.rooms.getOrDefault(roomWanted, null);
-		if (renamedRoom == null) return false;
-		this.rooms.remove(roomWanted);
-		this.rooms.put(newName, renamedRoom);
-		/* Actualizamos el nombre de la propia sala y notificamos a sus usuarios (hilos del servidor y clientes) el cambio de nombre. */
-		renamedRoom.setRoomName(newName);
-		renamedRoom.notifyRoomNameUpdate();
+	/* Método que intentar renombrar una determinada sala del servidor. El resultado (true si se pudo renombrar la sala y false en caso contrario) se entrega en el hilo del shard de la sala. */
+	public void renameRoom(NCRoomManager room, String newName, Consumer<Boolean> result)
+	{
+		this.post(room, () -> result.accept(this.doRenameRoom(room, newName)));
+	}
+
+	/* Renombrado en el hilo del shard. Los renombrados de una misma sala van todos por su shard, así que el nombre actual no cambia mientras se ejecuta. */
+	private boolean doRenameRoom(NCRoomManager room, String newName)
+	{
+		String oldName = room.getRoomName();
+		/* Reservamos el nuevo nombre de forma atómica. Si ya hay una sala con este nombre no podemos renombrar. */
+		if (this.rooms.putIfAbsent(newName, room) != null) return false;
+		/* Liberamos el nombre antiguo. */
+		this.rooms.remove(oldName, room);
+		/* Actualizamos el nombre de la propia sala y notificamos a sus usuarios (sesiones del servidor y clientes) el cambio de nombre. */
+		room.setRoomName(newName);
+		this.roomNameIndex.update(room);
+		room.notifyRoomNameUpdate();
 		return true;
 	}
 }
@@ -0,0 +1,43 @@
+package es.um.redes.nanoChat.server;
+
+/**
+ * Atributos y operaciones del servidor de chat que se publican por JMX (es.um.redes.nanoChat:type=Server). Las latencias van en microsegundos.
+ */
+public interface NCServerManagerMXBean
+{
+	/* Conexiones abiertas ahora y desde el arranque. */
+	public int getActiveConnections();
+	public long getTotalConnections();
+	/* Usuarios registrados y salas existentes. */
+	public int getUserCount();
+	public int getRoomCount();
+	/* Bytes leídos de los clientes y escritos hacia ellos. */
+	public long getBytesIn();
+	public long getBytesOut();
+	/* Peticiones de todos los tipos: total y media por segundo del último minuto. */
+	public long getRequestCount();
+	public double getRequestsPerSecond();
+	/* Mensajes de texto enviados por los clientes: total y media por segundo del último minuto. */
+	public long getMessageCount();
+	public double getMessagesPerSecond();
+	/* Tiempo de proceso de las peticiones en el hilo que las recibe. */
+	public double getRequestLatencyMean();
+	public long getRequestLatencyP99();
+	/* Retransmisiones en las salas y tiempo del reparto en su shard. */
+	public long getBroadcastCount();
+	public double getBroadcastTimeMean();
+	public long getBroadcastTimeP99();
+	/* Comandos pendientes en el buzón de cada shard. */
+	public int[] getShardQueueDepths();
+	/* Tramas pendientes en todas las colas de salida, mayor profundidad vista en una de ellas, tramas descartadas y clientes desconectados por lentos. */
+	public long getOutboundQueued();
+	public int getOutboundQueueDepthMax();
+	public long getOutboundDropped();
+	public long getOutboundDisconnected();
+	/* Eventos de log descartados por tener el buffer lleno. */
+	public long getLogEventsDropped();
+	/* Foto de la lista de salas, una línea por sala con su nombre y sus usuarios. */
+	public String[] roomListSnapshot();
+	/* Pone a cero los contadores y los histogramas. Las conexiones abiertas no cambian. */
+	public void resetCounters();
+}
@@ -0,0 +1,289 @@
+package es.um.redes.nanoChat.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.metrics.NCLatencyHistogram;
+import es.um.redes.nanoChat.metrics.NCPrometheusWriter;
+import es.um.redes.nanoChat.metrics.NCRateMeter;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+
+/**
+ * Métricas del servidor: peticiones y latencia de cada opcode, bytes recibidos y enviados, conexiones y tiempo de las retransmisiones en las salas.
+ * Los contadores son LongAdder y los histogramas no usan cerrojos, así que registrar desde muchos hilos a la vez apenas cuesta. La foto que se manda con OP_STATS_OK y las métricas del puerto de administración se construyen al pedirlas.
+ */
+public class NCServerMetrics
+{
+	/* Mayor latencia que distinguen los histogramas, en microsegundos. */
+	private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.SECONDS.toMicros(60);
+	/* Los opcodes van de 0 a 127. */
+	private static final int OPCODE_COUNT = 128;
+	/* Salas, de más a menos usuarios, cuyo número de usuarios aparece en la foto. El resto solo cuenta en el total para no pasarnos del tamaño máximo de la trama. */
+	private static final int MAX_ROOMS_IN_SNAPSHOT = 100;
+
+	private final long startTime;
+	/* Peticiones procesadas de cada opcode y su latencia. Los histogramas se crean la primera vez que llega el opcode. */
+	private final LongAdder[] requests;
+	private final AtomicReferenceArray<NCLatencyHistogram> requestLatencies;
+	/* Ritmo de peticiones de todos los tipos y de mensajes de texto. */
+	private final NCRateMeter requestRate;
+	private final NCRateMeter messageRate;
+	/* Bytes leídos de los clientes y escritos hacia ellos. */
+	private final LongAdder bytesIn;
+	private final LongAdder bytesOut;
+	/* Conexiones abiertas ahora y desde el arranque. */
+	private final AtomicInteger activeConnections;
+	private final LongAdder totalConnections;
+	/* Retransmisiones de mensajes en las salas: número, destinatarios y tiempo del reparto en el shard. */
+	private final LongAdder broadcasts;
+	private final LongAdder broadcastRecipients;
+	private final NCLatencyHistogram broadcastTime;
+
+	NCServerMetrics()
+	{
+		this.startTime = System.currentTimeMillis();
+		this.requests = new LongAdder[OPCODE_COUNT];
+		for (int i = 0; i < OPCODE_COUNT; i++) this.requests[i] = new LongAdder();
+		this.requestLatencies = new AtomicReferenceArray<NCLatencyHistogram>(OPCODE_COUNT);
+		this.requestRate = new NCRateMeter();
+		this.messageRate = new NCRateMeter();
+		this.bytesIn = new LongAdder();
+		this.bytesOut = new LongAdder();
+		this.activeConnections = new AtomicInteger(0);
+		this.totalConnections = new LongAdder();
+		this.broadcasts = new LongAdder();
+		this.broadcastRecipients = new LongAdder();
+		this.broadcastTime = new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
+	}
+
+	/* Anota una petición del cliente y el tiempo que ha llevado procesarla en el hilo que la recibe. */
+	void recordRequest(byte opcode, long nanos)
+	{
+		this.requests[opcode].increment();
+		this.requestRate.mark();
+		if (opcode == NCMessage.OP_SEND_TEXT) this.messageRate.mark();
+		NCLatencyHistogram histogram = this.requestLatencies.get(opcode);
+		if (histogram == null)
+		{
+			this.requestLatencies.compareAndSet(opcode, null, new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY));
+			histogram = this.requestLatencies.get(opcode);
+		}
+		histogram.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	void addBytesIn(long bytes)
+	{
+		this.bytesIn.add(bytes);
+	}
+
+	void addBytesOut(long bytes)
+	{
+		this.bytesOut.add(bytes);
+	}
+
+	void connectionOpened()
+	{
+		this.activeConnections.incrementAndGet();
+		this.totalConnections.increment();
+	}
+
+	void connectionClosed()
+	{
+		this.activeConnections.decrementAndGet();
+	}
+
+	/* Anota una retransmisión en una sala: a cuántos usuarios se mandó y cuánto tardó el reparto. */
+	void recordBroadcast(int recipients, long nanos)
+	{
+		this.broadcasts.increment();
+		this.broadcastRecipients.add(recipients);
+		this.broadcastTime.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	public long getRequests(byte opcode)
+	{
+		return this.requests[opcode].sum();
+	}
+
+	/* Histograma de latencias del opcode dado o null si todavía no ha llegado ninguna petición suya. */
+	public NCLatencyHistogram getRequestLatency(byte opcode)
+	{
+		return this.requestLatencies.get(opcode);
+	}
+
+	/* Histograma con las latencias de todos los opcodes. Se agrega al pedirlo. */
+	public NCLatencyHistogram getRequestLatency()
+	{
+		NCLatencyHistogram all = new NCLatencyHistogram(HIGHEST_TRACKABLE_LATENCY);
+		for (int op = 0; op < OPCODE_COUNT; op++)
+		{
+			NCLatencyHistogram histogram = this.requestLatencies.get(op);
+			if (histogram != null) all.add(histogram);
+		}
+		return all;
+	}
+
+	public NCRateMeter getRequestRate()
+	{
+		return this.requestRate;
+	}
+
+	public NCRateMeter getMessageRate()
+	{
+		return this.messageRate;
+	}
+
+	public long getBytesIn()
+	{
+		return this.bytesIn.sum();
+	}
+
+	public long getBytesOut()
+	{
+		return this.bytesOut.sum();
+	}
+
+	public int getActiveConnections()
+	{
+		return this.activeConnections.get();
+	}
+
+	public long getTotalConnections()
+	{
+		return this.totalConnections.sum();
+	}
+
+	public long getBroadcasts()
+	{
+		return this.broadcasts.sum();
+	}
+
+	public long getBroadcastRecipients()
+	{
+		return this.broadcastRecipients.sum();
+	}
+
+	public NCLatencyHistogram getBroadcastTime()
+	{
+		return this.broadcastTime;
+	}
+
+	/* Pone a cero los contadores y los histogramas. Las conexiones abiertas no son un contador y no cambian. */
+	void reset()
+	{
+		for (int op = 0; op < OPCODE_COUNT; op++)
+		{
+			this.requests[op].reset();
+			NCLatencyHistogram histogram = this.requestLatencies.get(op);
+			if (histogram != null) histogram.reset();
+		}
+		this.requestRate.reset();
+		this.messageRate.reset();
+		this.bytesIn.reset();
+		this.bytesOut.reset();
+		this.totalConnections.reset();
+		this.broadcasts.reset();
+		this.broadcastRecipients.reset();
+		this.broadcastTime.reset();
+	}
+
+	/* Foto de las métricas como entradas nombre=valor. Las latencias van en microsegundos. Las salas se leen de sus fotos inmutables y los shards de sus contadores, así que no se espera a ningún hilo. */
+	List<String> snapshot(NCServerManager manager)
+	{
+		List<String> entries = new ArrayList<String>();
+		entries.add("uptime.ms=" + (System.currentTimeMillis() - this.startTime));
+		entries.add("connections.active=" + this.getActiveConnections());
+		entries.add("connections.total=" + this.getTotalConnections());
+		entries.add("users=" + manager.getUserCount());
+		entries.add("bytes.in=" + this.getBytesIn());
+		entries.add("bytes.out=" + this.getBytesOut());
+		List<NCRoomDescription> rooms = manager.getRoomList();
+		entries.add("rooms=" + rooms.size());
+		rooms.sort(Comparator.comparingInt((NCRoomDescription room) -> room.members.size()).reversed());
+		for (int i = 0; i < rooms.size() && i < MAX_ROOMS_IN_SNAPSHOT; i++) entries.add("room." + rooms.get(i).roomName + ".users=" + rooms.get(i).members.size());
+		entries.add("broadcast.count=" + this.getBroadcasts());
+		entries.add("broadcast.recipients=" + this.getBroadcastRecipients());
+		addHistogram(entries, "broadcast.time", this.broadcastTime);
+		for (int op = 0; op < OPCODE_COUNT; op++)
+		{
+			long count = this.requests[op].sum();
+			if (count == 0) continue;
+			String name = "op." + NCMessage.opcodeToOperation((byte) op);
+			entries.add(name + ".count=" + count);
+			addHistogram(entries, name + ".latency", this.requestLatencies.get(op));
+		}
+		for (NCRoomShard shard : manager.getShards())
+		{
+			String name = "shard." + shard.getName();
+			entries.add(name + ".rooms=" + shard.getRoomCount());
+			entries.add(name + ".queue=" + shard.getQueueDepth());
+			entries.add(name + ".queue.max=" + shard.getMaxQueueDepth());
+			entries.add(name + ".processed=" + shard.getProcessed());
+		}
+		entries.add("outbound.queued=" + NCOutboundQueue.getTotalQueued());
+		entries.add("outbound.queue.max=" + NCOutboundQueue.getMaxDepth());
+		entries.add("outbound.dropped=" + NCOutboundQueue.getTotalDropped());
+		entries.add("outbound.disconnected=" + NCOutboundQueue.getTotalDisconnected());
+		entries.add("log.dropped=" + NCLog.getDropped());
+		return entries;
+	}
+
+	/* Escribe las métricas en el formato de Prometheus para el puerto de administración. Solo se leen contadores ya agregados: no se recorren las salas ni se espera a los shards. */
+	void writeMetrics(NCPrometheusWriter writer, NCServerManager manager)
+	{
+		writer.gauge("nanochat_connections_active", "Open client connections.", this.getActiveConnections());
+		writer.counter("nanochat_connections_total", "Client connections accepted since start.", this.getTotalConnections());
+		writer.gauge("nanochat_users", "Registered users.", manager.getUserCount());
+		writer.gauge("nanochat_rooms", "Existing rooms.", manager.getRoomCount());
+		writer.counter("nanochat_received_bytes_total", "Bytes read from clients.", this.getBytesIn());
+		writer.counter("nanochat_sent_bytes_total", "Bytes written to clients.", this.getBytesOut());
+		writer.family("nanochat_requests_total", NCPrometheusWriter.TYPE_COUNTER, "Client requests processed by operation.");
+		for (int op = 0; op < OPCODE_COUNT; op++)
+		{
+			long count = this.requests[op].sum();
+			if (count > 0) writer.sample("nanochat_requests_total", "op", NCMessage.opcodeToOperation((byte) op), count);
+		}
+		writer.family("nanochat_request_duration_seconds", NCPrometheusWriter.TYPE_SUMMARY, "Time to process a client request on its connection thread, by operation.");
+		for (int op = 0; op < OPCODE_COUNT; op++)
+		{
+			NCLatencyHistogram histogram = this.requestLatencies.get(op);
+			if (histogram != null) writer.summary("nanochat_request_duration_seconds", "op", NCMessage.opcodeToOperation((byte) op), histogram);
+		}
+		writer.gauge("nanochat_requests_per_second", "One minute moving average of client requests per second.", this.requestRate.getOneMinuteRate());
+		writer.gauge("nanochat_messages_per_second", "One minute moving average of text messages per second.", this.messageRate.getOneMinuteRate());
+		writer.counter("nanochat_broadcasts_total", "Messages fanned out in rooms.", this.getBroadcasts());
+		writer.counter("nanochat_broadcast_recipients_total", "Recipients of the messages fanned out in rooms.", this.getBroadcastRecipients());
+		writer.family("nanochat_broadcast_duration_seconds", NCPrometheusWriter.TYPE_SUMMARY, "Time to fan out a message on the room shard.");
+		writer.summary("nanochat_broadcast_duration_seconds", null, null, this.broadcastTime);
+		NCRoomShard[] shards = manager.getShards();
+		writer.family("nanochat_shard_rooms", NCPrometheusWriter.TYPE_GAUGE, "Rooms assigned to each shard.");
+		for (NCRoomShard shard : shards) writer.sample("nanochat_shard_rooms", "shard", shard.getName(), shard.getRoomCount());
+		writer.family("nanochat_shard_queue_depth", NCPrometheusWriter.TYPE_GAUGE, "Commands waiting in the mailbox of each shard.");
+		for (NCRoomShard shard : shards) writer.sample("nanochat_shard_queue_depth", "shard", shard.getName(), shard.getQueueDepth());
+		writer.family("nanochat_shard_queue_depth_max", NCPrometheusWriter.TYPE_GAUGE, "Largest mailbox depth seen on each shard.");
+		for (NCRoomShard shard : shards) writer.sample("nanochat_shard_queue_depth_max", "shard", shard.getName(), shard.getMaxQueueDepth());
+		writer.family("nanochat_shard_commands_total", NCPrometheusWriter.TYPE_COUNTER, "Commands executed by each shard.");
+		for (NCRoomShard shard : shards) writer.sample("nanochat_shard_commands_total", "shard", shard.getName(), shard.getProcessed());
+		writer.gauge("nanochat_outbound_queued_frames", "Frames waiting to be written, summed over the outbound queues of all open connections.", NCOutboundQueue.getTotalQueued());
+		writer.gauge("nanochat_outbound_queue_depth_max", "Largest depth seen on a single outbound queue.", NCOutboundQueue.getMaxDepth());
+		writer.counter("nanochat_outbound_dropped_frames_total", "Unsolicited frames dropped because an outbound queue was full.", NCOutboundQueue.getTotalDropped());
+		writer.counter("nanochat_outbound_disconnects_total", "Clients disconnected because their outbound queue was full.", NCOutboundQueue.getTotalDisconnected());
+	}
+
+	private static void addHistogram(List<String> entries, String name, NCLatencyHistogram histogram)
+	{
+		if (histogram == null) return;
+		entries.add(name + ".mean=" + Math.round(histogram.getMean()));
+		entries.add(name + ".p50=" + histogram.getValueAtPercentile(50));
+		entries.add(name + ".p99=" + histogram.getValueAtPercentile(99));
+		entries.add(name + ".p999=" + histogram.getValueAtPercentile(99.9));
+		entries.add(name + ".max=" + histogram.getMaxValue());
+	}
+}
@@ -0,0 +1,605 @@
+package es.um.redes.nanoChat.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.messageFV.NCControlMessage;
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCInfoMessage;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.messageFV.NCRoomMessage;
+import es.um.redes.nanoChat.server.roomManager.NCRoom;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+/**
+ * Estado y lógica del protocolo para un cliente conectado. No depende del transporte, recibe los mensajes ya decodificados y contesta a través de su NCServerConnection.
+ */
+public class NCServerSession
+{
+	/* Nombre que lleva la respuesta a OP_STATS. */
+	private static final String STATS_NAME = "server";
+
+	/* Transporte por el que se comunica con el cliente. */
+	private NCServerConnection connection;
+	/* Manager global compartido entre las sesiones. */
+	private NCServerManager serverManager;
+	/* Usuario actual al que atiende esta sesión (null hasta que registre su nick). */
+	String user;
+	/* RoomManager actual (dependerá de la sala a la que entre el usuario). Solo se asigna cuando el shard de la sala acepta la entrada. */
+	volatile NCRoomManager roomManager;
+	/* Sala en la que se ha pedido entrar y cuyo shard todavía no ha contestado. */
+	private volatile NCRoomManager joiningRoom;
+	/* Sala actual. */
+	volatile String currentRoom;
+	/* Códec negociado con el cliente. Todas las conexiones empiezan con el de texto. */
+	private volatile NCCodec codec;
+	/* Indica si la sesión ya se ha cerrado. */
+	private final AtomicBoolean closed;
+	/* Métricas del servidor donde se anotan las peticiones. */
+	private final NCServerMetrics metrics;
+	/* Descripción del cliente para el log. Se construye una vez al conectar y otra al registrar el nick, no en cada mensaje. */
+	private volatile String clientDescription;
+	/* Id de la petición que se está procesando (0 si el cliente no numera sus peticiones). Solo lo usa el hilo que recibe los mensajes; las respuestas que manda un shard se llevan su copia. */
+	private int requestId;
+
+	/* Inicialización de la sesión. */
+	NCServerSession(NCServerManager manager, NCServerConnection connection)
+	{
+		this.serverManager = manager;
+		this.connection = connection;
+		this.user = null;
+		this.roomManager = null;
+		this.joiningRoom = null;
+		this.currentRoom = null;
+		this.codec = NCCodec.TEXT;
+		this.closed = new AtomicBoolean(false);
+		this.clientDescription = "null:" + connection.getClientAddress();
+		/* Una sesión sin manager (solo envía, como en los benchmarks) anota en unas métricas propias. */
+		this.metrics = manager != null ? manager.getMetrics() : new NCServerMetrics();
+		this.metrics.connectionOpened();
+	}
+
+	/* Procesa un mensaje recibido del cliente según el estado actual de la sesión. Un mensaje no reconocible se considera un error de comunicación. El tiempo de proceso se anota en las métricas del opcode. */
+	void processMessage(NCMessage message) throws IOException
+	{
+		if (message == null) throw new IOException("Unrecognized message.");
+		long start = System.nanoTime();
+		this.requestId = message.getRequestId();
+		try
+		{
+			/* En primer lugar hay que recibir y verificar el nick. */
+			if (this.user == null) this.processRegistration(message);
+			/* Fuera de sala. */
+			else if (this.roomManager == null) this.processGeneralMessage(message);
+			/* Dentro de una sala. */
+			else this.processRoomMessage(message);
+		}
+		finally
+		{
+			this.metrics.recordRequest(message.getOpcode(), System.nanoTime() - start);
+		}
+	}
+
+	/* Libera los recursos de la sesión cuando se pierde la conexión. El usuario se elimina de todos los managers. */
+	void close()
+	{
+		if (!this.closed.compareAndSet(false, true)) return;
+		this.metrics.connectionClosed();
+		if (this.user == null) return;
+		this.serverManager.unsubscribeRoomList(this);
+		NCLog.info("* User {} disconnected.", this.clientDescription);
+		this.serverManager.leaveRoom(this.user, this.roomManager);
+		this.serverManager.removeUser(this.user);
+	}
+
+	/* Métricas del servidor, para que los transportes anoten los bytes leídos y escritos. */
+	NCServerMetrics getMetrics()
+	{
+		return this.metrics;
+	}
+
+	/* Envía un mensaje al cliente de esta sesión en su códec y devuelve el tamaño de la trama. El mensaje guarda la trama codificada, así que en las retransmisiones se codifica una sola vez por códec y todas las sesiones comparten los mismos bytes. */
+	public int send(NCMessage message) throws IOException
+	{
+		NCFrame frame = message.toFrame(this.codec);
+		this.connection.send(frame);
+		return frame.size();
+	}
+
+	/* Códec con el que se comunica el cliente de esta sesión. */
+	public NCCodec getCodec()
+	{
+		return this.codec;
+	}
+
+	/* Método que actualiza el nombre de la sala actual. */
+	public void setCurrentRoom(String room)
+	{
+		this.currentRoom = room;
+	}
+
+	public String getCurrentRoom()
+	{
+		return this.currentRoom;
+	}
+
+	public String getUser()
+	{
+		return this.user;
+	}
+
+	/* Descripción del cliente para los mensajes informativos. */
+	public String describeClient()
+	{
+		return this.clientDescription;
+	}
+
+	/* Obtenemos el nick y solicitamos al ServerManager que verifique si está duplicado. */
+	private void processRegistration(NCMessage registration) throws IOException
+	{
+		/* Antes de registrar el nick el cliente puede negociar el códec. */
+		if (registration.getOpcode() == NCMessage.OP_SET_CODEC)
+		{
+			this.processSetCodec(((NCRoomMessage) registration).getName());
+			return;
+		}
+		/* Analizamos el opCode. Si no es valido ignoramos. */
+		if (registration.getOpcode() != NCMessage.OP_REGISTER_NICK)
+		{
+			NCLog.warn("* Client {} sended bad registration request.", this.connection.getClientAddress());
+			return;
+		}
+		/* Recuperamos el nombre deseado. */
+		NCRoomMessage reg = (NCRoomMessage) registration;
+		String desiredNick = reg.getName();
+		/* Validamos el nick. */
+		boolean registered = this.serverManager.addUser(desiredNick);
+		/* Comunicamos el resultado. Un opcode no válido dará una respuesta de Nick duplicado por defecto.*/
+		byte opCode;
+		if (registered)
+		{
+			opCode = NCMessage.OP_VALID_NICK;
+			this.user = desiredNick;
+			this.clientDescription = desiredNick + ":" + this.connection.getClientAddress();
+			NCLog.info("* Client {} sucessfully registered itself with nick: {}.", this.connection.getClientAddress(), desiredNick);
+		}
+		else
+		{
+			opCode = NCMessage.OP_DUPLICATED_NICK;
+			NCLog.info("* Client {} tried to register with duplicated nickname: {}.", this.connection.getClientAddress(), desiredNick);
+		}
+		/* Construimos, codificamos y enviamos el mensaje. */
+		NCControlMessage validNickMsg = (NCControlMessage) NCRoomMessage.makeControlMessage(opCode);
+		this.reply(validNickMsg, this.requestId);
+	}
+
+	/* Contesta a la petición de códec con el que se usará a partir de ahora. Si no conocemos el pedido seguimos con el actual. */
+	private void processSetCodec(String codecName) throws IOException
+	{
+		NCCodec requested = NCCodec.forName(codecName);
+		NCCodec chosen = requested != null ? requested : this.codec;
+		NCLog.debug("* Client {} requested codec {}, using {}.", this.connection.getClientAddress(), codecName, chosen.getName());
+		/* La respuesta todavía va en el códec anterior, el cambio se aplica a los mensajes siguientes. */
+		this.reply(NCMessage.makeRoomMessage(NCMessage.OP_CODEC_OK, chosen.getName()), this.requestId);
+		this.codec = chosen;
+	}
+
+	/* Procesa los mensajes de un usuario registrado que no está en ninguna sala. */
+	private void processGeneralMessage(NCMessage message)
+	{
+		switch (message.getOpcode())
+		{
+			/* Se nos pide la lista de salas. */
+			case NCMessage.OP_ROOM_LIST:
+				this.sendRoomList();
+				break;
+			/* Se nos pide la lista de salas y sus cambios a partir de ahora. */
+			case NCMessage.OP_ROOM_LIST_SUBSCRIBE:
+				this.subscribeRoomList();
+				break;
+			case NCMessage.OP_ROOM_LIST_UNSUBSCRIBE:
+				this.unsubscribeRoomList();
+				break;
+			/* Se nos pide una página de la lista de salas o de los miembros de una sala. */
+			case NCMessage.OP_ROOM_LIST_PAGE:
+				this.sendRoomListPage((NCPageMessage) message);
+				break;
+			case NCMessage.OP_ROOM_INFO_PAGE:
+				this.processRoomInfoPage((NCPageMessage) message);
+				break;
+			/* Se nos piden las salas más activas o con más miembros. */
+			case NCMessage.OP_ROOM_LIST_TOP:
+				this.sendTopRooms((NCPageMessage) message);
+				break;
+			/* Se nos pide buscar salas por su nombre. */
+			case NCMessage.OP_ROOM_SEARCH:
+				this.sendRoomSearch((NCPageMessage) message);
+				break;
+			/* Se nos pide entrar a una sala. */
+			case NCMessage.OP_ROOM_ENTER:
+				/* Sacamos el nombre de la sala a la que se intenta entrar y procesamos la entrada. */
+				NCRoomMessage msg = (NCRoomMessage) message;
+				this.processRoomEnter(msg.getName());
+				break;
+			/* Se nos pide información de una sala. */
+			case NCMessage.OP_ROOM_INFO:
+				/* Sacamos el nombre de la sala pedida y procesamos la solicitud de información. */
+				NCRoomMessage infoRequest = (NCRoomMessage) message;
+				this.processRoomInfo(infoRequest.getName());
+				break;
+			/* Se nos pide crear una nueva sala. */
+			case NCMessage.OP_CREATE_ROOM:
+				/* Sacamos el nombre deseado para la nueva sala y procesamos la creación. */
+				NCRoomMessage createRequest = (NCRoomMessage) message;
+				this.processRoomCreation(createRequest.getName());
+				break;
+			/* Se nos piden las métricas del servidor. */
+			case NCMessage.OP_STATS:
+				this.sendStats();
+				break;
+			default:
+				NCLog.warn("* Client {} issued a invalid request outside room.", this.clientDescription);
+				break;
+		}
+	}
+
+	/* Procesa los mensajes de un usuario que se encuentra dentro de una sala. */
+	private void processRoomMessage(NCMessage message)
+	{
+		switch (message.getOpcode())
+		{
+			case NCMessage.OP_EXIT_ROOM:
+				NCLog.debug("* Client {} leaved room {}.", this.clientDescription, this.currentRoom);
+				/* Como no hay que contestar a este mensaje simplemente procedemos saliendo de la sala actual. */
+				this.serverManager.leaveRoom(this.user, this.roomManager);
+				this.currentRoom = null;
+				this.roomManager = null;
+				break;
+			case NCMessage.OP_ROOM_INFO:
+				/* Obtenemos la sala de la que se desea obtener información y procesamos la solicitud. */
+				NCRoomMessage mssg = (NCRoomMessage) message;
+				this.processRoomInfo(mssg.getName());
+				break;
+			case NCMessage.OP_ROOM_LIST:
+				/* Mandamos la lista de salas. */
+				this.sendRoomList();
+				break;
+			case NCMessage.OP_ROOM_LIST_SUBSCRIBE:
+				this.subscribeRoomList();
+				break;
+			case NCMessage.OP_ROOM_LIST_UNSUBSCRIBE:
+				this.unsubscribeRoomList();
+				break;
+			case NCMessage.OP_ROOM_LIST_PAGE:
+				this.sendRoomListPage((NCPageMessage) message);
+				break;
+			case NCMessage.OP_ROOM_INFO_PAGE:
+				this.processRoomInfoPage((NCPageMessage) message);
+				break;
+			case NCMessage.OP_ROOM_LIST_TOP:
+				this.sendTopRooms((NCPageMessage) message);
+				break;
+			case NCMessage.OP_ROOM_SEARCH:
+				this.sendRoomSearch((NCPageMessage) message);
+				break;
+			case NCMessage.OP_SEND_TEXT:
+				/* Obtenemos el mensaje. */
+				NCRoomMessage textMsg = (NCRoomMessage) message;
+				String msg = textMsg.getName();
+				NCLog.debug("* Client {} sended message: {} on room {}.", this.clientDescription, msg, this.currentRoom);
+				/* Retrasmitimos el mensaje. */
+				this.serverManager.broadcastMessage(this.user, this.roomManager, msg);
+				break;
+			/* Caso de que se quiera renombrar la sala actual. */
+			case NCMessage.OP_RENAME_ROOM:
+				/* Obtenemos el nuevo nombre deseado para la sala y procesamos el renombrado. */
+				NCRoomMessage renamingMsg = (NCRoomMessage) message;
+				this.proccessRenameRoom(renamingMsg.getName());
+				break;
+			case NCMessage.OP_STATS:
+				this.sendStats();
+				break;
+			default:
+				NCLog.warn("* Client {} issued bad request on room {}.", this.clientDescription, this.currentRoom);
+				break;
+		}
+	}
+
+	/* Método para procesar la creación de una sala dado el nombre que se le quiere poner. */
+	private void processRoomCreation(String name)
+	{
+		/* Creamos e intentamos registrar la sala. */
+		NCLog.debug("* Client {} requested room registration with name: {}.", this.clientDescription, name);
+		NCRoomManager nuevaSala = new NCRoom();
+		boolean registered = this.serverManager.registerCheckedRoomManager(nuevaSala, name);
+		/* Segun el resultado del registro actuamos en consecuencia. */
+		NCControlMessage response;
+		if (registered)
+		{
+			NCLog.debug("* Sending room registration confirmation to client {}.", this.clientDescription);
+			response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_CREATE_ROOM_OK);
+		}
+		else
+		{
+			NCLog.debug("* Sending room name already in use message to client {}.", this.clientDescription);
+			response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+		}
+		/* Codificamos y mandamos la respuesta construida. */
+		this.sendResponse(response, this.requestId, "* Unable to send creation response to client {}.", this.clientDescription, null);
+	}
+
+	/* Método para procesar el envio de la información de una sala pedida. */
+	private void processRoomInfo(String roomName)
+	{
+		NCLog.debug("* Client {} requested info of room {}.", this.clientDescription, roomName);
+		/* Obtenemos la sala pedida. */
+		NCRoomManager room = this.serverManager.getRoom(roomName);
+
+		/* Si es nula entonces la sala no existe. */
+		if (room == null)
+		{
+			/* Creamos y codificamos el mensaje. */
+			NCControlMessage res = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+			NCLog.debug("* Sending invalid room message to client {}.", this.clientDescription);
+			this.sendResponse(res, this.requestId, "* Unable to send room {} information to client {}.", roomName, this.clientDescription);
+			return;
+		}
+		/* La descripción la obtiene el shard de la sala, que es quien nos contesta. */
+		int requestId = this.requestId;
+		this.serverManager.describeRoom(room, response ->
+		{
+			/* La respuesta ya viene construida y se reutiliza mientras la sala no cambie. */
+			NCLog.debug("* Sending room {} information to client {}.", roomName, this.clientDescription);
+			this.sendResponse(response, requestId, "* Unable to send room {} information to client {}.", roomName, this.clientDescription);
+		});
+	}
+
+	/* Método para procesar la petición de una página de los miembros de una sala. */
+	private void processRoomInfoPage(NCPageMessage request)
+	{
+		String roomName = request.getName();
+		NCLog.debug("* Client {} requested a member page of room {}.", this.clientDescription, roomName);
+		NCRoomManager room = this.serverManager.getRoom(roomName);
+		if (room == null)
+		{
+			NCControlMessage res = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+			NCLog.debug("* Sending invalid room message to client {}.", this.clientDescription);
+			this.sendResponse(res, this.requestId, "* Unable to send room {} members to client {}.", roomName, this.clientDescription);
+			return;
+		}
+		/* La página la construye el shard de la sala, que es quien nos contesta. */
+		int requestId = this.requestId;
+		this.serverManager.describeRoomPage(room, request.getPrefix(), request.getCursor(), request.getLimit(), response ->
+		{
+			NCLog.debug("* Sending room {} member page to client {}.", roomName, this.clientDescription);
+			this.sendResponse(response, requestId, "* Unable to send room {} members to client {}.", roomName, this.clientDescription);
+		});
+	}
+
+	/* Método para procesar la entrada a una sala. */
+	private void processRoomEnter(String room)
+	{
+		NCLog.debug("* Client {} requested to join the room {}.", this.clientDescription, room);
+		NCRoomManager salaPedida = this.serverManager.getRoom(room);
+		/* Llegar aqui implica que la sala pedida no existe. */
+		if (salaPedida == null)
+		{
+			NCLog.debug("* The room that client {} requested don't exist. Sending invalid room response.", this.clientDescription);
+			/* Creamos, codificamos y mandamos el mensaje. */
+			NCControlMessage response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+			this.sendResponse(response, this.requestId, "* Error sending client {} invalid room message.", this.clientDescription, null);
+			return;
+		}
+		/* Solo una entrada a la vez: hasta que conteste el shard el cliente sigue fuera de sala. */
+		if (this.joiningRoom != null)
+		{
+			NCLog.warn("* Client {} requested to join room {} while still joining another.", this.clientDescription, room);
+			NCControlMessage response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+			this.sendResponse(response, this.requestId, "* Error sending client {} invalid room message.", this.clientDescription, null);
+			return;
+		}
+		this.joiningRoom = salaPedida;
+		/* Intentamos meter al cliente en la sala de chat pedida. La respuesta la manda el shard de la sala. */
+		int requestId = this.requestId;
+		this.serverManager.enterRoom(this.user, salaPedida, this, joined ->
+		{
+			/* Si no se nos acepta no tenemos permitido entrar. Sirve para implementar baneos en salas.*/
+			if (!joined)
+			{
+				NCLog.info("* Client {} is prohibited to enter room {}.", this.clientDescription, room);
+				this.joiningRoom = null;
+				return;
+			}
+			/* Aceptada la entrada, los siguientes mensajes del cliente ya van a la sala. */
+			this.currentRoom = salaPedida.getRoomName();
+			this.roomManager = salaPedida;
+			this.joiningRoom = null;
+			/* Si la conexión se cerró mientras tanto el cierre no sabía de esta sala: sacamos nosotros al usuario. */
+			if (this.closed.get())
+			{
+				salaPedida.removeUser(this.user);
+				this.resetRoom(salaPedida);
+				return;
+			}
+			/* Creamos, codificamos y mandamos el mensaje de entrada a sala. */
+			NCControlMessage response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_ROOM_ENTER_OK);
+			try
+			{
+				this.reply(response, requestId);
+				NCLog.debug("* Client {} joined the requested room {}.", this.clientDescription, room);
+			}
+			catch (IOException e)
+			{
+				NCLog.warn("* Failed to send join confirmation to room {} to client {}.", room, this.clientDescription);
+				/* Reestablecemos los parámetros como si no hubiese entrado. Ya estamos en el hilo del shard, así que sacamos al usuario directamente. */
+				salaPedida.removeUser(this.user);
+				this.resetRoom(salaPedida);
+			}
+		});
+	}
+
+	/* Deja la sesión fuera de sala si sigue en la sala dada. */
+	private void resetRoom(NCRoomManager room)
+	{
+		if (this.roomManager != room) return;
+		this.currentRoom = null;
+		this.roomManager = null;
+	}
+
+	/* Manda al cliente la respuesta a la petición con el id dado. Si no cabe en una trama se manda en trozos seguidos, que se encolan juntos y nunca se descartan. */
+	private void reply(NCMessage response, int requestId) throws IOException
+	{
+		List<NCMessage> chunks = response.toChunks(this.codec);
+		NCFrame[] frames = new NCFrame[chunks.size()];
+		for (int i = 0; i < frames.length; i++)
+		{
+			NCMessage chunk = chunks.get(i);
+			if (requestId != 0) chunk.setRequestId(requestId);
+			frames[i] = chunk.toFrame(this.codec);
+		}
+		this.connection.send(frames, false);
+	}
+
+	/* Manda al cliente una respuesta guardada. Sus tramas ya están codificadas sin id, solo se les añade el de la petición. */
+	void reply(NCCachedResponse response, int requestId) throws IOException
+	{
+		this.connection.send(this.withTrailers(response, requestId), false);
+	}
+
+	/* Manda al cliente los avisos guardados de un mismo cambio (la lista de salas), todos juntos. A diferencia de los textos de la sala no se pueden descartar: la copia del cliente solo se mantiene con cambios y uno perdido la dejaría mal para siempre. Como con las respuestas, si el cliente no lee se le desconecta. */
+	void sendUpdate(NCCachedResponse... updates) throws IOException
+	{
+		List<NCFrame> frames = new ArrayList<NCFrame>();
+		for (NCCachedResponse update : updates) frames.addAll(Arrays.asList(this.withTrailers(update, 0)));
+		this.connection.send(frames.toArray(new NCFrame[0]), false);
+	}
+
+	/* Tramas de una respuesta guardada en el códec de la sesión con el id dado y la marca de los trozos. */
+	private NCFrame[] withTrailers(NCCachedResponse response, int requestId) throws IOException
+	{
+		NCFrame[] frames = response.getFrames(this.codec);
+		NCFrame[] marked = new NCFrame[frames.length];
+		for (int i = 0; i < frames.length; i++) marked[i] = this.codec.withTrailer(frames[i], requestId, i < frames.length - 1);
+		return marked;
+	}
+
+	/* Manda una respuesta al cliente registrando el aviso dado (formato y argumentos de NCLog) si no se puede enviar. */
+	private void sendResponse(NCMessage response, int requestId, String failureFormat, Object a, Object b)
+	{
+		try
+		{
+			this.reply(response, requestId);
+		}
+		catch (IOException e)
+		{
+			NCLog.warn(failureFormat, a, b);
+		}
+	}
+
+	private void sendResponse(NCCachedResponse response, int requestId, String failureFormat, Object a, Object b)
+	{
+		try
+		{
+			this.reply(response, requestId);
+		}
+		catch (IOException e)
+		{
+			NCLog.warn(failureFormat, a, b);
+		}
+	}
+
+	/* Mandamos al cliente la lista de salas existentes. */
+	private void sendRoomList()
+	{
+		NCLog.debug("* Client {} requested room list.", this.clientDescription);
+
+		/* La lista ya codificada se reutiliza mientras no cambie ninguna sala. */
+		NCCachedResponse response = this.serverManager.getRoomListResponse();
+		NCLog.debug("* Sending room list to client {}.", this.clientDescription);
+		this.sendResponse(response, this.requestId, "* Unable to send room list to client {}.", this.clientDescription, null);
+	}
+
+	/* Mandamos al cliente una página de la lista de salas, leída de los índices del servidor. */
+	private void sendRoomListPage(NCPageMessage request)
+	{
+		NCLog.debug("* Client {} requested a room list page sorted by {}.", this.clientDescription, request.getSort());
+		NCRoomIndex.Page<NCRoomDescription> page = this.serverManager.getRoomPage(request.getPrefix(), request.getSort(), request.getCursor(), request.getLimit());
+		NCMessage response = NCServerManager.makeRoomListMessage(NCMessage.OP_ROOM_LIST_PAGE_OK, page.items, page.cursor);
+		this.sendResponse(response, this.requestId, "* Unable to send room list page to client {}.", this.clientDescription, null);
+	}
+
+	/* Mandamos al cliente las primeras salas en el orden pedido, sacadas de la cabeza del índice. */
+	private void sendTopRooms(NCPageMessage request)
+	{
+		NCLog.debug("* Client {} requested the top {} rooms by {}.", this.clientDescription, request.getLimit(), request.getSort());
+		NCMessage response = NCServerManager.makeRoomListMessage(NCMessage.OP_ROOM_LIST_TOP_OK, this.serverManager.getTopRooms(request.getSort(), request.getLimit()));
+		this.sendResponse(response, this.requestId, "* Unable to send top rooms to client {}.", this.clientDescription, null);
+	}
+
+	/* Mandamos al cliente una página de las salas cuyo nombre contiene el texto buscado, sacadas del índice de nombres. */
+	private void sendRoomSearch(NCPageMessage request)
+	{
+		NCLog.debug("* Client {} searched rooms containing {}.", this.clientDescription, request.getName());
+		NCRoomIndex.Page<NCRoomDescription> page = this.serverManager.searchRooms(request.getName(), request.getCursor(), request.getLimit());
+		NCMessage response = NCServerManager.makeRoomListMessage(NCMessage.OP_ROOM_SEARCH_OK, page.items, page.cursor);
+		this.sendResponse(response, this.requestId, "* Unable to send room search results to client {}.", this.clientDescription, null);
+	}
+
+	/* Suscribimos al cliente a la lista de salas. La respuesta es la lista completa y los cambios le llegan después como avisos. */
+	private void subscribeRoomList()
+	{
+		NCLog.debug("* Client {} subscribed to the room list.", this.clientDescription);
+		int requestId = this.requestId;
+		this.serverManager.subscribeRoomList(this, () -> this.sendResponse(this.serverManager.getRoomListResponse(), requestId, "* Unable to send room list to client {}.", this.clientDescription, null));
+	}
+
+	/* Cancelamos la suscripción del cliente a la lista de salas. Después de la confirmación ya no recibe más cambios. */
+	private void unsubscribeRoomList()
+	{
+		NCLog.debug("* Client {} unsubscribed from the room list.", this.clientDescription);
+		this.serverManager.unsubscribeRoomList(this);
+		NCMessage response = NCMessage.makeControlMessage(NCMessage.OP_ROOM_LIST_UNSUBSCRIBE_OK);
+		this.sendResponse(response, this.requestId, "* Unable to confirm room list unsubscription to client {}.", this.clientDescription, null);
+	}
+
+	/* Mandamos al cliente la foto de las métricas del servidor. */
+	private void sendStats()
+	{
+		NCLog.debug("* Client {} requested server stats.", this.clientDescription);
+		NCInfoMessage msg = (NCInfoMessage) NCMessage.makeInfoMessage(NCMessage.OP_STATS_OK, STATS_NAME, System.currentTimeMillis(), this.serverManager.getStatsSnapshot());
+		this.sendResponse(msg, this.requestId, "* Unable to send server stats to client {}.", this.clientDescription, null);
+	}
+
+	/* Método para procesar el renombrado de la sala actual. */
+	private void proccessRenameRoom(String name)
+	{
+		NCLog.debug("* Client {} requested to change room {} name to {}.", this.clientDescription, this.currentRoom, name);
+		/* Intentamos renombrar la sala desde el gestor. El resultado llega desde el shard de la sala. */
+		int requestId = this.requestId;
+		this.serverManager.renameRoom(this.roomManager, name, renameAllowed ->
+		{
+			/* Si no fue posible renombrar mandamos el mensaje de error al usuario. Si fue posible se encargará la propia sala de notificar a clientes y actualizar las sesiones con la nueva información.*/
+			if (!renameAllowed)
+			{
+				/* Consturimos y codificamos y enviamos la respuesta. */
+				NCLog.debug("* Client {} tried to rename a room with a name aready in use.", this.clientDescription);
+				NCControlMessage response = (NCControlMessage) NCMessage.makeControlMessage(NCMessage.OP_INVALID_ROOM);
+				this.sendResponse(response, requestId, "* Unable to send invalid name response to client {}.", this.clientDescription, null);
+			}
+			else
+			{
+				NCLog.debug("* Client {} renamed his room to {}. All users in room notified.", this.clientDescription, name);
+				/* El aviso de la sala no lleva id. Si el cliente numera sus peticiones le confirmamos aparte el renombrado. */
+				if (requestId != 0) this.sendResponse(NCMessage.makeRoomMessage(NCMessage.OP_RENAME_ROOM_OK, name), requestId, "* Unable to send rename confirmation to client {}.", this.clientDescription, null);
+			}
+		});
+	}
+}
@@ -4,8 +4,15 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import es.um.redes.nanoChat.directory.connector.DirectoryConnector;
+import es.um.redes.nanoChat.logging.NCLog;
+import es.um.redes.nanoChat.metrics.NCAdminServer;
+import es.um.redes.nanoChat.metrics.NCFlightRecorder;
 import es.um.redes.nanoChat.server.roomManager.NCRoom;
 import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
 
@@ -13,16 +20,33 @@ public class NanoChatServer implements Runnable
 {
 	public static final int PORT = 6969;
 	private static final int MYPROTOCOL = 97597757;
+	/* Modos de transporte del servidor: un hilo de plataforma por conexión, un hilo virtual por conexión o bucles de eventos NIO. */
+	public static final String MODE_THREAD = "thread";
+	public static final String MODE_VIRTUAL = "virtual";
+	public static final String MODE_NIO = "nio";
 	
     private InetSocketAddress socketAddress;
     private ServerSocket serverSocket = null;
     private NCServerManager manager;
+    /* Ejecutor que lanza un hilo por cada conexión en los modos thread y virtual. */
+    private ExecutorService handlers = null;
+    /* Canal de escucha y bucles de eventos del modo NIO. */
+    private ServerSocketChannel serverChannel = null;
+    private NCEventLoop[] eventLoops;
     
 	/* Clase para comunicarse con el directorio Directory. */
 	DirectoryConnector directory;
 	
 	/* Dirección del directorio. */
 	private static String directoryHostname;
+	/* Modo de transporte elegido y número de bucles de eventos para el modo NIO. */
+	private static String serverMode = MODE_THREAD;
+	private static int eventLoopCount = Runtime.getRuntime().availableProcessors();
+	/* Capacidad de la cola de salida de cada conexión y política cuando se llena. */
+	private static int queueCapacity = NCOutboundQueue.DEFAULT_CAPACITY;
+	private static String overflowPolicy = NCOutboundQueue.DEFAULT_POLICY;
+	/* Número de shards (hilos trabajadores) entre los que se reparten las salas. */
+	private static int shardCount = Runtime.getRuntime().availableProcessors();
 
     public static NanoChatServer create(int port) throws IOException
     {
@@ -35,7 +59,7 @@ public class NanoChatServer implements Runnable
     	/* Socket de comunicación del servidor de chat. */
     	this.socketAddress = a;
     	/* Manager del servidor (compartido entre los Thread) */
-    	this.manager = new NCServerManager();
+    	this.manager = new NCServerManager(shardCount);
     	
     	/* Registramos una primera sala inicial. */
     	NCRoomManager fisrtRoom = new NCRoom();
@@ -45,6 +69,13 @@ public class NanoChatServer implements Runnable
 
     /* Código principal del servidor. */
 	public void run()
+	{
+		if (serverMode.equals(MODE_NIO)) this.acceptChannels();
+		else this.acceptSockets();
+	}
+
+	/* Modo hilo por conexión. */
+	private void acceptSockets()
 	{
    		try 
    		{
@@ -53,17 +84,37 @@ public class NanoChatServer implements Runnable
    			{
    				/* Espera nuevas conexiones. Las accepta y obtiene el socket específico de cada conexión. */
    				Socket s = this.serverSocket.accept();
-   				System.out.println("New client connected from " + s.getInetAddress().toString() + ":" + s.getPort());
+   				NCLog.info("New client connected from {}:{}", s.getInetAddress(), s.getPort());
 
    				/* Se inicia un thread por cada conexión que recibe el Manager compartido y el socket por el que debe comunicarse. */
-   				new NCServerThread(this.manager,s).start();
+   				this.handlers.execute(new NCServerThread(this.manager, s, new NCOutboundQueue(queueCapacity, overflowPolicy), this.handlers));
    			}
    		} 
    		catch (IOException e) 
    		{
-   			e.printStackTrace();
+   			NCLog.error("* Server socket failed, no more connections will be accepted.", e);
    		}
 	}
+
+	/* Modo NIO. Las conexiones aceptadas se reparten por turnos entre los bucles de eventos. */
+	private void acceptChannels()
+	{
+		int next = 0;
+		try 
+		{
+			while (true)
+			{
+				SocketChannel channel = this.serverChannel.accept();
+				NCLog.info("New client connected from {}:{}", channel.socket().getInetAddress(), channel.socket().getPort());
+				this.eventLoops[next].addConnection(channel);
+				next = (next + 1) % this.eventLoops.length;
+			}
+		} 
+		catch (IOException e) 
+		{
+			NCLog.error("* Server channel failed, no more connections will be accepted.", e);
+		}
+	}
     
     /**
      * Inicialización del servidor
@@ -72,10 +123,28 @@ public class NanoChatServer implements Runnable
     {
         try 
         {
-        	/* Se crea el socket de servidor y se asocia al puerto en el que debe escuchar. */
-            this.serverSocket = new ServerSocket();
-            this.serverSocket.bind(this.socketAddress);
-            this.serverSocket.setReuseAddress(true);
+        	if (serverMode.equals(MODE_NIO))
+        	{
+        		/* Se crea el canal de escucha (bloqueante, solo para aceptar) y se arrancan los bucles de eventos. */
+        		this.serverChannel = ServerSocketChannel.open();
+        		this.serverChannel.socket().setReuseAddress(true);
+        		this.serverChannel.bind(this.socketAddress);
+        		this.eventLoops = new NCEventLoop[eventLoopCount];
+        		for (int i = 0; i < eventLoopCount; i++)
+        		{
+        			this.eventLoops[i] = new NCEventLoop("NCEventLoop-" + i, this.manager, queueCapacity, overflowPolicy);
+        			this.eventLoops[i].start();
+        		}
+        	}
+        	else
+        	{
+        		/* Se crea el ejecutor de los manejadores de cada conexión. */
+        		this.handlers = createHandlerExecutor();
+        		/* Se crea el socket de servidor y se asocia al puerto en el que debe escuchar. */
+        		this.serverSocket = new ServerSocket();
+        		this.serverSocket.bind(this.socketAddress);
+        		this.serverSocket.setReuseAddress(true);
+        	}
         } 
         catch (IOException e) 
         {
@@ -101,22 +170,93 @@ public class NanoChatServer implements Runnable
             System.exit(-1);
 		}
         
+        /* Grabación continua de JFR si se ha pedido con -jfr o con -Dnanochat.jfr.file. */
+        NCFlightRecorder.startFromProperties();
+        /* Publicamos el servidor y sus salas por JMX para poder consultarlos en vivo. */
+        this.manager.registerMBeans();
+        /* Puerto de administración con las métricas en formato Prometheus si se ha pedido con -admin o con -Dnanochat.admin.port. */
+        NCAdminServer.startFromProperties(this.manager);
+
         /* Si todo ha ido bien entonces iniciamos el servidor en segundo plano. */
     	new Thread(this).start();
-    	System.out.println("Server running on port " + this.socketAddress.getPort() + ".\n");
+    	NCLog.info("Server running on port {} in {} mode.", this.socketAddress.getPort(), serverMode);
     }
 
     public static void main(String[] args) throws IOException
     {
     	/* Verificamos que se nos proporcionan los parámetros necesarios, en este caso la dirección del directorio. */
-       	if (args.length != 1) 
+       	if (args.length < 1) 
        	{
-    		System.out.println("* Correct use: java NanoChatServer <DirectoryServer>");
+    		printUsage();
     		return;
     	}
     	else directoryHostname = args[0];
+       	/* Analizamos las opciones, todas son opcionales. */
+       	for (int i = 1; i < args.length; i++)
+       	{
+       		String arg = args[i];
+       		if (i + 1 >= args.length)
+       		{
+       			System.err.println("option " + arg + " requires a value");
+       			printUsage();
+       			return;
+       		}
+       		String value = args[++i];
+       		if (arg.equals("-mode") && (value.equals(MODE_THREAD) || value.equals(MODE_VIRTUAL) || value.equals(MODE_NIO))) serverMode = value;
+       		else if (arg.equals("-overflow") && NCOutboundQueue.isValidPolicy(value)) overflowPolicy = value;
+       		else if (arg.equals("-log") && NCLog.levelForName(value) >= 0) NCLog.setLevel(NCLog.levelForName(value));
+       		else if (arg.equals("-jfr")) System.setProperty(NCFlightRecorder.FILE_PROPERTY, value);
+       		else if (arg.equals("-admin")) System.setProperty(NCAdminServer.PORT_PROPERTY, value);
+       		else if (arg.equals("-loops") || arg.equals("-queue") || arg.equals("-shards"))
+       		{
+       			try 
+       			{
+       				int n = Integer.parseInt(value);
+       				if (n < 1) throw new NumberFormatException();
+       				if (arg.equals("-loops")) eventLoopCount = n;
+       				else if (arg.equals("-shards")) shardCount = n;
+       				else queueCapacity = n;
+       			} 
+       			catch (NumberFormatException e) 
+       			{
+       				System.err.println("Wrong value passed to option " + arg);
+       				return;
+       			}
+       		}
+       		else
+       		{
+       			System.err.println("Illegal option " + arg + " " + value);
+       			printUsage();
+       			return;
+       		}
+       	}
        	/* Creamos e inicializamos el servidor. */
        	NanoChatServer server = NanoChatServer.create(PORT);
      	server.init();
     }
+
+    /* Crea el ejecutor que lanza un hilo nuevo por cada conexión: de plataforma en el modo thread o virtual en el modo virtual. */
+    private static ExecutorService createHandlerExecutor()
+    {
+    	if (serverMode.equals(MODE_VIRTUAL))
+    	{
+    		/* Los hilos virtuales solo existen a partir de Java 21, así que buscamos el método por reflexión para poder seguir compilando con versiones anteriores. */
+    		try 
+    		{
+    			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    		} 
+    		catch (ReflectiveOperationException e) 
+    		{
+    			System.err.println("Virtual threads are not available in this Java runtime (Java 21 or newer is required).");
+    			System.exit(-1);
+    		}
+    	}
+    	return Executors.newCachedThreadPool(r -> new Thread(r, "NCServerThread"));
+    }
+
+    /* Muestra la forma de uso del servidor. */
+    private static void printUsage()
+    {
+    	System.out.println("* Correct use: java NanoChatServer <DirectoryServer> [-mode " + MODE_THREAD + "|" + MODE_VIRTUAL + "|" + MODE_NIO + "] [-loops <n>] [-shards <n>] [-queue <n>] [-overflow " + NCOutboundQueue.POLICY_DROP_OLDEST + "|" + NCOutboundQueue.POLICY_DROP_NEW + "|" + NCOutboundQueue.POLICY_DISCONNECT + "] [-log error|warn|info|debug] [-jfr <file>] [-admin <port>]");
+    }
 }
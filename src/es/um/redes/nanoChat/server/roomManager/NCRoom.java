@@ -1,101 +1,137 @@
 package es.um.redes.nanoChat.server.roomManager;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.Socket;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
+import es.um.redes.nanoChat.logging.NCLog;
 import es.um.redes.nanoChat.messageFV.NCMessage;
 import es.um.redes.nanoChat.messageFV.NCRoomMessage;
 import es.um.redes.nanoChat.messageFV.NCUserMessage;
-import es.um.redes.nanoChat.server.NCServerThread;
+import es.um.redes.nanoChat.metrics.NCRateMeter;
+import es.um.redes.nanoChat.server.NCServerSession;
 
-public class NCRoom extends NCRoomManager
+public class NCRoom extends NCRoomManager implements NCRoomMXBean
 {
-	/* Conjunto de los usuarios en sala y mapeado de los usuarios a su socket. */
-	private Map<String, Socket> usersSockets;
-	/* Mapeado de cada usuario al hilo del servidor que lo gestiona. */
-	private Map<String, NCServerThread> usersThreads;
+	/* Foto inmutable de los miembros de la sala. Cada cambio de miembros publica una nueva, así que las retransmisiones y las consultas recorren una foto estable sin bloquear ni reservar memoria. */
+	private static final class Members
+	{
+		static final Members EMPTY = new Members(new String[0], new NCServerSession[0]);
+		
+		/* Nicks de los usuarios y sus sesiones, en las mismas posiciones. */
+		final String[] users;
+		final NCServerSession[] sessions;
+		/* Vista de solo lectura de los nicks para las descripciones de la sala. */
+		final List<String> userList;
+		
+		Members(String[] users, NCServerSession[] sessions)
+		{
+			this.users = users;
+			this.sessions = sessions;
+			this.userList = List.of(users);
+		}
+		
+		/* Posición del usuario en la foto o -1 si no está. */
+		int indexOf(String u)
+		{
+			for (int i = 0; i < this.users.length; i++)
+			{
+				if (this.users[i].equals(u)) return i;
+			}
+			return -1;
+		}
+	}
+	
+	/* Foto actual de los usuarios en sala y de la sesión del servidor que gestiona a cada uno. Solo la reemplaza el hilo del shard al que está fijada la sala, el resto de hilos únicamente la leen. */
+	private volatile Members members;
 	/* Tiempo en el que se envió el último mensaje. */
-	private long timeLastMesage;
+	private volatile long timeLastMesage;
+	/* Mensajes retransmitidos en la sala. */
+	private final NCRateMeter messages;
 	
 	/* Constructor de salas. */
 	public NCRoom() 
 	{
-		this.usersSockets = new HashMap<String, Socket>();
-		this.usersThreads = new HashMap<String, NCServerThread>();
+		this.members = Members.EMPTY;
 		this.timeLastMesage = 0;
+		this.messages = new NCRateMeter();
 		/* De primeras la sala no tiene nombre, se le pondrá nombre en su registro en la lista de salas del servidor. */
 		this.roomName = null;
 	}
 	
 	@Override
-	public void broadcastMessage(String u, String message) 
+	public long broadcastMessage(String u, String message) 
 	{
 		/* Construimos y codificamos el mensaje que vamos a mandar. */
 		NCUserMessage msg = (NCUserMessage) NCMessage.makeUserMessage(NCMessage.OP_RECEIVE_TEXT, u, message);
-		String encodedMsg = msg.toEncodedString();
+		long bytes = 0;
 		
-		/* Iteramos sobre los sockets de todos los usuarios. */
-		for (Map.Entry<String, Socket> e : this.usersSockets.entrySet())
+		/* Iteramos sobre las sesiones de todos los usuarios de la foto actual. */
+		Members current = this.members;
+		for (int i = 0; i < current.users.length; i++)
 		{
 			/* Mandamos el mensaje para todos los usuarios distintos al que lo manda. */
-			if (e.getKey() != u)
+			if (!current.users[i].equals(u))
 			{
 				/* Mandamos el mensaje. */
 				try 
 				{
-					/* Obtenemos el stream de salida. */
-					DataOutputStream dos = new DataOutputStream(e.getValue().getOutputStream());
-					/* Mandamos el mensaje. */
-					dos.writeUTF(encodedMsg);
+					/* Mandamos el mensaje a través de su sesión. */
+					bytes += current.sessions[i].send(msg);
 				} 
 				catch (IOException e1) 
 				{
-					System.out.println("* Can't broadcast message \"" + message + "\" to client " + e.getKey() + ":" + e.getValue().getInetAddress() + "/" + e.getValue().getPort() + ".");
+					NCLog.warn("* Can't broadcast message \"{}\" to client {}.", message, current.sessions[i].describeClient());
 				}
 			}
 		}
-		/* Establecemos el tiempo de envío del último mensaje. */
-		this.timeLastMesage = System.currentTimeMillis();
+		/* Establecemos el tiempo de envío del último mensaje. La descripción solo cambia si cambia el milisegundo. */
+		long now = System.currentTimeMillis();
+		if (now != this.timeLastMesage)
+		{
+			this.timeLastMesage = now;
+			this.changed();
+		}
+		this.messages.mark();
+		return bytes;
 	}
 	
 	@Override
 	public NCRoomDescription getDescription() 
 	{
-		/* Obtenemos la lista de usuarios en sala y devolvemos una nueva descripción. */
-		List<String> users = List.copyOf(usersSockets.keySet());
-		return new NCRoomDescription(this.roomName, users, this.timeLastMesage);
+		/* Devolvemos una nueva descripción con la lista de usuarios de la foto actual, que ya es inmutable. */
+		return new NCRoomDescription(this.roomName, this.members.userList, this.timeLastMesage);
 	}
 	
 	@Override
-	public boolean registerUser(String u, Socket s, NCServerThread t) 
+	public boolean registerUser(String u, NCServerSession s) 
 	{
+		Members current = this.members;
 		/* Si el usuario ya está registrado en la sala no puede registrase. Como los nicks son únicos este caso no se debería dar. */
-		if (this.usersSockets.containsKey(u)) return false;
+		if (current.indexOf(u) >= 0) return false;
 		/* Retrasmitimos la entrada del usuario al resto de usuarios de la sala. */
 		NCRoomMessage msg = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_USER_IN, u);
-		String encodedMsg = msg.toEncodedString();
-		for (Map.Entry<String, Socket> e : this.usersSockets.entrySet())
+		for (int i = 0; i < current.users.length; i++)
 		{
 			/* Mandamos el mensaje. */
 			try 
 			{
-				/* Obtenemos el stream de salida. */
-				DataOutputStream dos = new DataOutputStream(e.getValue().getOutputStream());
-				/* Mandamos el mensaje. */
-				dos.writeUTF(encodedMsg);
+				/* Mandamos el mensaje a través de su sesión. */
+				current.sessions[i].send(msg);
 			} 
 			catch (IOException e1) 
 			{
-				System.out.println("* Can't broadcast that user " + u + " joined the room to client " + e.getKey() + ":" + e.getValue().getInetAddress() + "/" + e.getValue().getPort() + ".");
+				NCLog.warn("* Can't broadcast that user {} joined the room to client {}.", u, current.sessions[i].describeClient());
 			}
 		}
-		/* Ponemos las asociaciones en los mapas. */
-		this.usersSockets.put(u, s);
-		this.usersThreads.put(u, t);
+		/* Publicamos una nueva foto con el usuario añadido al final. */
+		int n = current.users.length;
+		String[] users = Arrays.copyOf(current.users, n + 1);
+		NCServerSession[] sessions = Arrays.copyOf(current.sessions, n + 1);
+		users[n] = u;
+		sessions[n] = s;
+		this.members = new Members(users, sessions);
+		this.changed();
 		
 		return true;
 	}
@@ -103,25 +139,33 @@ public class NCRoom extends NCRoomManager
 	@Override
 	public void removeUser(String u) 
 	{
-		/* Eliminamos la entrada del usuario en las tablas de asociaciones. */
-		this.usersSockets.remove(u);
-		this.usersThreads.remove(u);
+		/* Publicamos una nueva foto sin la entrada del usuario. */
+		Members current = this.members;
+		int index = current.indexOf(u);
+		if (index < 0) return;
+		int n = current.users.length;
+		String[] users = new String[n - 1];
+		NCServerSession[] sessions = new NCServerSession[n - 1];
+		System.arraycopy(current.users, 0, users, 0, index);
+		System.arraycopy(current.users, index + 1, users, index, n - index - 1);
+		System.arraycopy(current.sessions, 0, sessions, 0, index);
+		System.arraycopy(current.sessions, index + 1, sessions, index, n - index - 1);
+		Members updated = n == 1 ? Members.EMPTY : new Members(users, sessions);
+		this.members = updated;
+		this.changed();
 		/* Retrasmitimos la salida del usuario al resto de usuarios de la sala. */
 		NCRoomMessage msg = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_USER_OUT, u);
-		String encodedMsg = msg.toEncodedString();
-		for (Map.Entry<String, Socket> e : this.usersSockets.entrySet())
+		for (int i = 0; i < updated.users.length; i++)
 		{
 			/* Mandamos el mensaje. */
 			try 
 			{
-				/* Obtenemos el stream de salida. */
-				DataOutputStream dos = new DataOutputStream(e.getValue().getOutputStream());
-				/* Mandamos el mensaje. */
-				dos.writeUTF(encodedMsg);
+				/* Mandamos el mensaje a través de su sesión. */
+				updated.sessions[i].send(msg);
 			} 
 			catch (IOException e1) 
 			{
-				System.out.println("* Can't broadcast that user " + u + " left the room to client " + e.getKey() + ":" + e.getValue().getInetAddress() + "/" + e.getValue().getPort() + ".");
+				NCLog.warn("* Can't broadcast that user {} left the room to client {}.", u, updated.sessions[i].describeClient());
 			}
 		}
 	}
@@ -130,54 +174,90 @@ public class NCRoom extends NCRoomManager
 	public void setRoomName(String roomName) 
 	{
 		this.roomName = roomName;
+		this.changed();
 	}
 	
 	@Override
 	public int usersInRoom() 
 	{
-		return this.usersSockets.size();
+		return this.members.users.length;
+	}
+
+	@Override
+	public int getMemberCount()
+	{
+		return this.members.users.length;
+	}
+
+	@Override
+	public String[] getMembers()
+	{
+		return this.members.users.clone();
+	}
+
+	@Override
+	public long getTimeLastMessage()
+	{
+		return this.timeLastMesage;
+	}
+
+	@Override
+	public long getMessageCount()
+	{
+		return this.messages.getCount();
+	}
+
+	@Override
+	public double getMessagesPerSecond()
+	{
+		return this.messages.getOneMinuteRate();
+	}
+
+	@Override
+	public void resetCounters()
+	{
+		this.messages.reset();
 	}
 	
 	@Override
 	public void notifyRoomNameUpdate() 
 	{
-		/* Actualizamos todos los hilos de los usuarios. */
-		this.threadRoomNameUpdate();
+		/* Usamos la misma foto para actualizar las sesiones y avisar a los clientes. */
+		Members current = this.members;
+		/* Actualizamos todas las sesiones de los usuarios. */
+		this.sessionRoomNameUpdate(current);
 		/* Mandamos la actualización a los clientes de los usuarios. */
-		this.clientRoomNameUpdate();
+		this.clientRoomNameUpdate(current);
 	}
 	
 	/* Método que se encarga de retransmitir a todos los clientes de los usuarios el nombre actual de la sala. */
-	private void clientRoomNameUpdate()
+	private void clientRoomNameUpdate(Members current)
 	{
 		/* Contruiomos y codificamos el mensaje que vamos a mandar. */
 		NCRoomMessage update = (NCRoomMessage) NCMessage.makeRoomMessage(NCMessage.OP_RENAME_ROOM_OK, this.roomName);
-		String encodedUpdate = update.toEncodedString();
 		
-		/* Iteramos sobre los sockets de todos los usuarios. */
-		for (Map.Entry<String, Socket> e : this.usersSockets.entrySet())
+		/* Iteramos sobre las sesiones de todos los usuarios. */
+		for (int i = 0; i < current.sessions.length; i++)
 		{	
 			try 
 			{
-				/* Obtenemos el stream de salida. */
-				DataOutputStream dos = new DataOutputStream(e.getValue().getOutputStream());
-				/* Mandamos el mensaje. */
-				dos.writeUTF(encodedUpdate);
+				/* Mandamos el mensaje a través de su sesión. */
+				current.sessions[i].send(update);
 			} 
 			catch (IOException e1) 
 			{
-				System.out.println("* Can't send room name update to client" +  e.getKey() + ":" + e.getValue().getInetAddress() + "/" + e.getValue().getPort() + ".");
+				NCLog.warn("* Can't send room name update to client {}.", current.sessions[i].describeClient());
 			}
 		}
 	}
 	
-	/* Método que se encarga de retrasmitir el nombre de sala a cada uno de los hilos de los usuarios. */
-	private void threadRoomNameUpdate()
+	/* Método que se encarga de retrasmitir el nombre de sala a cada una de las sesiones de los usuarios. */
+	private void sessionRoomNameUpdate(Members current)
 	{
-		/* Recorremos el mapeado actualizando los valores. */
-		for (Map.Entry<String, NCServerThread> e : this.usersThreads.entrySet())
+		/* Recorremos la foto actualizando los valores. */
+		for (int i = 0; i < current.sessions.length; i++)
 		{
-			e.getValue().setCurrentRoom(this.roomName);
+			current.sessions[i].setCurrentRoom(this.roomName);
 		}
 	}
 }
@@ -0,0 +1,19 @@
+package es.um.redes.nanoChat.server.roomManager;
+
+/**
+ * Atributos de una sala que se publican por JMX (es.um.redes.nanoChat:type=Room,id=n). El id no cambia al renombrar la sala.
+ */
+public interface NCRoomMXBean
+{
+	public String getRoomName();
+	/* Usuarios que están ahora en la sala. */
+	public int getMemberCount();
+	public String[] getMembers();
+	/* Tiempo en el que se envió el último mensaje. */
+	public long getTimeLastMessage();
+	/* Mensajes retransmitidos en la sala: total y media por segundo del último minuto. */
+	public long getMessageCount();
+	public double getMessagesPerSecond();
+	/* Pone a cero el contador de mensajes. */
+	public void resetCounters();
+}
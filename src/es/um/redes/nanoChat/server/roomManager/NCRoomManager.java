@@ -1,17 +1,22 @@
 package es.um.redes.nanoChat.server.roomManager;
 
-import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
 
-import es.um.redes.nanoChat.server.NCServerThread;
+import es.um.redes.nanoChat.server.NCServerSession;
 
 public abstract class NCRoomManager 
 {	
-	protected String roomName;
+	/* Se lee desde cualquier hilo sin bloquear, por ejemplo al listar las salas. */
+	protected volatile String roomName;
+	/* Versión de lo que se describe de la sala (nombre, miembros y hora del último mensaje). Sube con cada cambio, así las respuestas ya codificadas se reutilizan mientras no cambie. */
+	private final AtomicLong version = new AtomicLong();
+	/* Aviso al servidor de que la sala ha cambiado, para invalidar la lista de salas. */
+	private volatile Runnable changeListener;
 
-	/* Método para registrar a un usuario u en una sala (se anota también su socket de comunicación). */
-	public abstract boolean registerUser(String u, Socket s, NCServerThread t);
-	/* Método para hacer llegar un mensaje enviado por un usuario u. */
-	public abstract void broadcastMessage(String u, String message);
+	/* Método para registrar a un usuario u en una sala (se anota también la sesión por la que se comunica). */
+	public abstract boolean registerUser(String u, NCServerSession s);
+	/* Método para hacer llegar un mensaje enviado por un usuario u. Devuelve los bytes encolados para el resto de usuarios. */
+	public abstract long broadcastMessage(String u, String message);
 	/* Método para eliminar un usuario de una sala. */
 	public abstract void removeUser(String u);
 	/* Método para nombrar una sala. */
@@ -20,7 +25,7 @@ public abstract class NCRoomManager
 	public abstract NCRoomDescription getDescription();
 	/* Método para devolver el número de usuarios conectados a una sala. */
 	public abstract int usersInRoom();
-	/* Método para notificar a usuarios un cambio de nombre de la sala y actualizar el nombre de la sala en todos los hilos del servidor de los usuarios en la sala. */
+	/* Método para notificar a usuarios un cambio de nombre de la sala y actualizar el nombre de la sala en todas las sesiones del servidor de los usuarios en la sala. */
 	public abstract void notifyRoomNameUpdate();
 	
 	/* Método para obtener el nombre de la sala. */
@@ -28,4 +33,24 @@ public abstract class NCRoomManager
 	{
 		return this.roomName;
 	}
+
+	/* Versión actual de la descripción de la sala. */
+	public long getVersion()
+	{
+		return this.version.get();
+	}
+
+	/* Fija a quién se avisa cuando cambia la descripción de la sala. */
+	public void setChangeListener(Runnable listener)
+	{
+		this.changeListener = listener;
+	}
+
+	/* Las subclases lo llaman después de publicar cada cambio de su descripción. */
+	protected void changed()
+	{
+		this.version.incrementAndGet();
+		Runnable listener = this.changeListener;
+		if (listener != null) listener.run();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package es.um.redes.nanoChat.server.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.messageFV.NCCodec;
+import es.um.redes.nanoChat.messageFV.NCFrame;
+import es.um.redes.nanoChat.messageFV.NCMessage;
+import es.um.redes.nanoChat.server.NCOutboundQueue;
+
+class NCOutboundQueueTests {
+
+	@Test
+	void testDropOldest() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(3, NCOutboundQueue.POLICY_DROP_OLDEST);
+		NCFrame[] pushes = frames("a", "b", "c", "d");
+		long dropped = NCOutboundQueue.getTotalDropped();
+		// Solo la primera pone en marcha al escritor
+		assertTrue(queue.offer(pushes[0]));
+		for (int i = 1; i < pushes.length; i++) assertFalse(queue.offer(pushes[i]));
+		assertEquals(1, NCOutboundQueue.getTotalDropped() - dropped);
+		assertPolls(queue, pushes[1], pushes[2], pushes[3]);
+	}
+
+	@Test
+	void testDropNew() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(2, NCOutboundQueue.POLICY_DROP_NEW);
+		NCFrame[] pushes = frames("a", "b", "c");
+		long dropped = NCOutboundQueue.getTotalDropped();
+		for (NCFrame push : pushes) queue.offer(push);
+		assertEquals(1, NCOutboundQueue.getTotalDropped() - dropped);
+		assertPolls(queue, pushes[0], pushes[1]);
+		// Vacía la cola, el escritor se para y el siguiente aviso lo vuelve a poner en marcha
+		assertTrue(queue.offer(pushes[2]));
+	}
+
+	@Test
+	void testDisconnect() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(2, NCOutboundQueue.POLICY_DISCONNECT);
+		NCFrame[] pushes = frames("a", "b", "c");
+		long disconnected = NCOutboundQueue.getTotalDisconnected();
+		queue.offer(pushes[0]);
+		queue.offer(pushes[1]);
+		assertThrows(IOException.class, () -> queue.offer(pushes[2]));
+		assertEquals(1, NCOutboundQueue.getTotalDisconnected() - disconnected);
+		queue.clear();
+	}
+
+	@Test
+	void testResponsesAreNeverDropped() throws IOException
+	{
+		for (String policy : new String[] { NCOutboundQueue.POLICY_DROP_OLDEST, NCOutboundQueue.POLICY_DROP_NEW, NCOutboundQueue.POLICY_DISCONNECT })
+		{
+			// Con sitio libre la respuesta entra entera aunque pase de la capacidad
+			NCOutboundQueue queue = new NCOutboundQueue(2, policy);
+			NCFrame push = frames("a")[0];
+			NCFrame[] response = frames("r1", "r2", "r3");
+			queue.offer(push);
+			queue.offer(response, false);
+			if (policy.equals(NCOutboundQueue.POLICY_DROP_OLDEST)) assertPolls(queue, response);
+			else assertPolls(queue, push, response[0], response[1], response[2]);
+			// Con la cola ya llena de respuestas no queda otra que desconectar
+			queue.offer(frames("s1", "s2"), false);
+			assertThrows(IOException.class, () -> queue.offer(frames("t1"), false), policy);
+			queue.clear();
+		}
+	}
+
+	@Test
+	void testGroupsAreDroppedWhole() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(4, NCOutboundQueue.POLICY_DROP_OLDEST);
+		NCFrame[] group = frames("g1", "g2", "g3");
+		NCFrame[] pushes = frames("a", "b");
+		long dropped = NCOutboundQueue.getTotalDropped();
+		queue.offer(group, true);
+		queue.offer(pushes[0]);
+		queue.offer(pushes[1]);
+		assertEquals(3, NCOutboundQueue.getTotalDropped() - dropped);
+		assertPolls(queue, pushes);
+		// Con drop-new se descarta entero el grupo que no cabe
+		NCOutboundQueue full = new NCOutboundQueue(4, NCOutboundQueue.POLICY_DROP_NEW);
+		full.offer(pushes[0]);
+		full.offer(pushes[1]);
+		full.offer(group, true);
+		assertPolls(full, pushes);
+	}
+
+	@Test
+	void testStartedGroupIsNotDropped() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(3, NCOutboundQueue.POLICY_DROP_OLDEST);
+		NCFrame[] group = frames("g1", "g2");
+		NCFrame[] pushes = frames("a", "b", "c");
+		queue.offer(group, true);
+		queue.offer(pushes[0]);
+		assertSame(group[0], queue.poll());
+		// El resto del grupo ya empezado se salta y el descartado es el aviso siguiente
+		queue.offer(pushes[1]);
+		queue.offer(pushes[2]);
+		assertPolls(queue, group[1], pushes[1], pushes[2]);
+	}
+
+	@Test
+	void testStartedLongGroupIsKeptWhole() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(4, NCOutboundQueue.POLICY_DROP_OLDEST);
+		NCFrame[] group = frames("g1", "g2", "g3", "g4");
+		NCFrame[] pushes = frames("a", "b");
+		queue.offer(group, true);
+		assertSame(group[0], queue.poll());
+		// Ninguna trama restante del grupo se puede quitar: para hacer sitio se descarta el aviso a
+		long dropped = NCOutboundQueue.getTotalDropped();
+		queue.offer(pushes[0]);
+		queue.offer(pushes[1]);
+		assertEquals(1, NCOutboundQueue.getTotalDropped() - dropped);
+		assertPolls(queue, group[1], group[2], group[3], pushes[1]);
+	}
+
+	@Test
+	void testTotals() throws IOException
+	{
+		NCOutboundQueue queue = new NCOutboundQueue(100, NCOutboundQueue.POLICY_DROP_OLDEST);
+		long queued = NCOutboundQueue.getTotalQueued();
+		queue.offer(frames("a", "b", "c", "d", "e"), false);
+		queue.offer(frames("f")[0]);
+		assertEquals(6, NCOutboundQueue.getTotalQueued() - queued);
+		assertTrue(NCOutboundQueue.getMaxDepth() >= 6);
+		queue.poll();
+		assertEquals(5, NCOutboundQueue.getTotalQueued() - queued);
+		// Al cerrar la conexión lo pendiente deja de contar
+		queue.clear();
+		assertEquals(0, NCOutboundQueue.getTotalQueued() - queued);
+		assertNull(queue.poll());
+	}
+
+	// Comprueba que la cola entrega exactamente esas tramas, en orden, y queda vacía
+	private static void assertPolls(NCOutboundQueue queue, NCFrame... expected)
+	{
+		for (NCFrame frame : expected) assertSame(frame, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	// Una trama de aviso por cada nombre
+	private static NCFrame[] frames(String... names) throws IOException
+	{
+		NCFrame[] frames = new NCFrame[names.length];
+		for (int i = 0; i < names.length; i++) frames[i] = NCCodec.TEXT.encode(NCMessage.makeRoomMessage(NCMessage.OP_USER_IN, names[i]));
+		return frames;
+	}
+}
@@ -0,0 +1,295 @@
+package es.um.redes.nanoChat.server.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.messageFV.NCPageMessage;
+import es.um.redes.nanoChat.server.NCRoomIndex;
+import es.um.redes.nanoChat.server.NCServerSession;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+class NCRoomIndexTests {
+
+	private static final int ROOMS = 50;
+
+	private ConcurrentNavigableMap<String,NCRoomManager> rooms;
+	private NCRoomIndex index;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.rooms = new ConcurrentSkipListMap<String,NCRoomManager>();
+		this.index = new NCRoomIndex(this.rooms);
+		// room00..room49 con i % 7 miembros y el último mensaje en el instante 10 * i
+		for (int i = 0; i < ROOMS; i++) this.add(String.format("room%02d", i), i % 7, 10L * i);
+	}
+
+	@Test
+	void testPagesByName()
+	{
+		List<String> expected = new ArrayList<String>(this.rooms.keySet());
+		assertEquals(expected, this.readAll("", NCPageMessage.SORT_NAME, 7));
+		assertEquals(expected.subList(10, 20), this.readAll("room1", NCPageMessage.SORT_NAME, 3));
+		// Un orden desconocido es por nombre y el tamaño 0 es el de por defecto
+		NCRoomIndex.Page<NCRoomDescription> page = this.index.pageRooms("", "unknown", "", 0);
+		assertEquals(ROOMS, page.items.size());
+		assertEquals("", page.cursor);
+	}
+
+	@Test
+	void testPagesByMembersAndActivity()
+	{
+		List<String> byMembers = new ArrayList<String>(this.rooms.keySet());
+		byMembers.sort((a, b) -> members(a) != members(b) ? members(b) - members(a) : a.compareTo(b));
+		assertEquals(byMembers, this.readAll("", NCPageMessage.SORT_MEMBERS, 4));
+		List<String> byActivity = new ArrayList<String>(this.rooms.keySet());
+		Collections.reverse(byActivity);
+		assertEquals(byActivity, this.readAll("", NCPageMessage.SORT_ACTIVITY, 6));
+		// Con prefijo solo salen las salas del prefijo, en el mismo orden
+		List<String> prefixed = new ArrayList<String>(byMembers);
+		prefixed.removeIf(name -> !name.startsWith("room2"));
+		assertEquals(prefixed, this.readAll("room2", NCPageMessage.SORT_MEMBERS, 3));
+	}
+
+	@Test
+	void testBadCursorEndsThePages()
+	{
+		NCRoomIndex.Page<NCRoomDescription> page = this.index.pageRooms("", NCPageMessage.SORT_MEMBERS, "garbage", 5);
+		assertTrue(page.items.isEmpty());
+		assertEquals("", page.cursor);
+	}
+
+	@Test
+	void testCursorIsStableAcrossRename()
+	{
+		NCRoomIndex.Page<NCRoomDescription> first = this.index.pageRooms("", NCPageMessage.SORT_NAME, "", 10);
+		// Una sala ya vista pasa al final y una todavía sin ver pasa por delante del cursor
+		this.rename("room05", "zroom");
+		this.rename("room30", "aroom");
+		List<String> seen = names(first.items);
+		seen.addAll(this.readFrom("", NCPageMessage.SORT_NAME, first.cursor, 10));
+		// Las salas que no cambian salen una sola vez y en orden
+		List<String> untouched = new ArrayList<String>(seen);
+		untouched.removeIf(name -> name.equals("room05") || name.equals("zroom") || name.equals("room30") || name.equals("aroom"));
+		List<String> expected = new ArrayList<String>(this.rooms.keySet());
+		expected.removeIf(name -> name.equals("zroom") || name.equals("aroom"));
+		assertEquals(expected, untouched);
+		assertTrue(seen.contains("zroom"));
+	}
+
+	@Test
+	void testCursorIsStableAcrossJoin()
+	{
+		NCRoomIndex.Page<NCRoomDescription> first = this.index.pageRooms("", NCPageMessage.SORT_MEMBERS, "", 10);
+		List<String> seen = names(first.items);
+		// Una sala sin ver gana miembros y adelanta al cursor; otra ya vista los pierde y queda detrás
+		TestRoom climber = (TestRoom) this.rooms.get("room07");
+		for (int i = 0; i < 10; i++) climber.registerUser("extra" + i, null);
+		this.index.update(climber);
+		TestRoom faller = (TestRoom) this.rooms.get(seen.get(0));
+		for (String user : new ArrayList<String>(faller.members)) faller.removeUser(user);
+		this.index.update(faller);
+		seen.addAll(this.readFrom("", NCPageMessage.SORT_MEMBERS, first.cursor, 10));
+		Set<String> unique = new HashSet<String>(seen);
+		for (String name : this.rooms.keySet())
+		{
+			if (name.equals("room07") || name.equals(faller.getRoomName())) continue;
+			assertEquals(1, Collections.frequency(seen, name), name);
+		}
+		assertTrue(unique.size() >= ROOMS - 1);
+	}
+
+	@Test
+	void testPrefixScanIsBounded()
+	{
+		// Muchas salas con miembros por delante de las dos del prefijo en el orden por miembros
+		for (int i = 0; i < NCRoomIndex.MAX_SCAN + 500; i++) this.add("busy" + i, 10, 0);
+		NCRoomIndex.Page<NCRoomDescription> page = this.index.pageRooms("room0", NCPageMessage.SORT_MEMBERS, "", 5);
+		assertTrue(page.items.isEmpty());
+		assertFalse(page.cursor.isEmpty());
+		// Siguiendo los cursores salen todas
+		List<String> expected = new ArrayList<String>(this.readAll("room0", NCPageMessage.SORT_NAME, 100));
+		expected.sort((a, b) -> members(a) != members(b) ? members(b) - members(a) : a.compareTo(b));
+		assertEquals(expected, this.readAll("room0", NCPageMessage.SORT_MEMBERS, 5));
+	}
+
+	@Test
+	void testPagesOfMembers()
+	{
+		TestRoom room = (TestRoom) this.rooms.get("room00");
+		for (int i = 24; i >= 0; i--) room.registerUser(String.format("user%02d", i), null);
+		NCRoomIndex.Page<String> first = this.index.pageMembers(room, "", "", 10);
+		assertEquals(10, first.items.size());
+		assertEquals("user00", first.items.get(0));
+		assertEquals("user09", first.cursor);
+		// Un miembro nuevo por delante del cursor no sale, uno por detrás sí
+		room.registerUser("aaa", null);
+		room.registerUser("user50", null);
+		List<String> rest = new ArrayList<String>();
+		String cursor = first.cursor;
+		while (!cursor.isEmpty())
+		{
+			NCRoomIndex.Page<String> page = this.index.pageMembers(room, "", cursor, 10);
+			rest.addAll(page.items);
+			cursor = page.cursor;
+		}
+		assertEquals("user10", rest.get(0));
+		assertEquals("user50", rest.get(rest.size() - 1));
+		assertFalse(rest.contains("aaa"));
+		assertEquals(List.of("user20", "user21", "user22", "user23", "user24"), this.index.pageMembers(room, "user2", "", 10).items);
+	}
+
+	@Test
+	void testTopRoomsByMembers()
+	{
+		// Seis salas tienen 6 miembros; empatadas van por nombre
+		assertEquals(List.of("room06", "room13", "room20", "room27", "room34"), names(this.index.topRooms(NCPageMessage.SORT_MEMBERS, 5)));
+		TestRoom room = (TestRoom) this.rooms.get("room49");
+		for (int i = 0; i < 7; i++) room.registerUser("extra" + i, null);
+		this.index.update(room);
+		assertEquals(List.of("room49", "room06"), names(this.index.topRooms(NCPageMessage.SORT_MEMBERS, 2)));
+	}
+
+	@Test
+	void testTopRoomsByActivity()
+	{
+		assertEquals(List.of("room49", "room48", "room47"), names(this.index.topRooms(NCPageMessage.SORT_ACTIVITY, 3)));
+		// Un mensaje en la sala más antigua la pone la primera
+		TestRoom room = (TestRoom) this.rooms.get("room00");
+		room.time = 10L * ROOMS;
+		room.broadcastMessage("ana", "hola");
+		this.index.update(room);
+		assertEquals(List.of("room00", "room49"), names(this.index.topRooms(NCPageMessage.SORT_ACTIVITY, 2)));
+	}
+
+	@Test
+	void testTopRoomsLimits()
+	{
+		// k mayor que el número de salas las da todas y k = 0 es el tamaño por defecto
+		assertEquals(ROOMS, this.index.topRooms(NCPageMessage.SORT_MEMBERS, 500).size());
+		for (int i = 0; i < NCRoomIndex.DEFAULT_PAGE_SIZE; i++) this.add("more" + i, 0, 0);
+		assertEquals(NCRoomIndex.DEFAULT_PAGE_SIZE, this.index.topRooms(NCPageMessage.SORT_ACTIVITY, 0).size());
+		for (int i = 0; i < NCRoomIndex.MAX_PAGE_SIZE; i++) this.add("many" + i, 0, 0);
+		assertEquals(NCRoomIndex.MAX_PAGE_SIZE, this.index.topRooms(NCPageMessage.SORT_ACTIVITY, Integer.MAX_VALUE).size());
+	}
+
+	// Lee todas las páginas y devuelve los nombres de las salas en orden
+	private List<String> readAll(String prefix, String sort, int limit)
+	{
+		return this.readFrom(prefix, sort, "", limit);
+	}
+
+	private List<String> readFrom(String prefix, String sort, String cursor, int limit)
+	{
+		List<String> names = new ArrayList<String>();
+		do
+		{
+			NCRoomIndex.Page<NCRoomDescription> page = this.index.pageRooms(prefix, sort, cursor, limit);
+			assertTrue(page.items.size() <= limit);
+			names.addAll(names(page.items));
+			cursor = page.cursor;
+		}
+		while (!cursor.isEmpty());
+		return names;
+	}
+
+	private void add(String name, int members, long time)
+	{
+		TestRoom room = new TestRoom(name, time);
+		for (int i = 0; i < members; i++) room.registerUser(name + "-user" + i, null);
+		this.rooms.put(name, room);
+		this.index.update(room);
+	}
+
+	// Renombra como el manager: primero el nombre nuevo, luego se quita el viejo y se reindexa
+	private void rename(String from, String to)
+	{
+		NCRoomManager room = this.rooms.get(from);
+		this.rooms.put(to, room);
+		room.setRoomName(to);
+		this.rooms.remove(from);
+		this.index.update(room);
+	}
+
+	private static int members(String name)
+	{
+		return Integer.parseInt(name.substring(4)) % 7;
+	}
+
+	private static List<String> names(List<NCRoomDescription> rooms)
+	{
+		List<String> names = new ArrayList<String>();
+		for (NCRoomDescription room : rooms) names.add(room.roomName);
+		return names;
+	}
+
+	// Sala sin sesiones: solo guarda su nombre, sus miembros y la hora de su último mensaje
+	static class TestRoom extends NCRoomManager
+	{
+		final List<String> members = new ArrayList<String>();
+		long time;
+
+		TestRoom(String name, long time)
+		{
+			this.roomName = name;
+			this.time = time;
+		}
+
+		@Override
+		public boolean registerUser(String u, NCServerSession s)
+		{
+			this.members.add(u);
+			this.changed();
+			return true;
+		}
+
+		@Override
+		public long broadcastMessage(String u, String message)
+		{
+			this.time++;
+			this.changed();
+			return 0;
+		}
+
+		@Override
+		public void removeUser(String u)
+		{
+			this.members.remove(u);
+			this.changed();
+		}
+
+		@Override
+		public void setRoomName(String roomName)
+		{
+			this.roomName = roomName;
+			this.changed();
+		}
+
+		@Override
+		public NCRoomDescription getDescription()
+		{
+			return new NCRoomDescription(this.roomName, List.copyOf(this.members), this.time);
+		}
+
+		@Override
+		public int usersInRoom()
+		{
+			return this.members.size();
+		}
+
+		@Override
+		public void notifyRoomNameUpdate()
+		{
+		}
+	}
+}
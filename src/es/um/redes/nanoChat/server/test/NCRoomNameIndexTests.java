@@ -0,0 +1,128 @@
+package es.um.redes.nanoChat.server.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import es.um.redes.nanoChat.server.NCRoomIndex;
+import es.um.redes.nanoChat.server.NCRoomNameIndex;
+import es.um.redes.nanoChat.server.roomManager.NCRoomDescription;
+import es.um.redes.nanoChat.server.roomManager.NCRoomManager;
+
+class NCRoomNameIndexTests {
+
+	private static final String[] WORDS = { "Music", "Gaming", "Movies", "Java", "Networks", "Chess", "Cooking" };
+
+	private TreeMap<String,NCRoomManager> rooms;
+	private NCRoomNameIndex index;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		this.rooms = new TreeMap<String,NCRoomManager>();
+		this.index = new NCRoomNameIndex();
+		for (int i = 0; i < 700; i++) this.add(WORDS[i % WORDS.length] + "-" + i);
+	}
+
+	@Test
+	void testSearchMatchesASubstringScan()
+	{
+		// Sin distinguir mayúsculas, textos cortos (un solo trozo) y largos (varios trozos cruzados)
+		for (String query : new String[] { "m", "MU", "mus", "music", "music-1", "ess-5", "-29", "ooking-1", "a", "s-6", "zzz" })
+		{
+			assertEquals(this.scan(query), this.searchAll(query, 50), query);
+		}
+	}
+
+	@Test
+	void testSearchVerifiesTheWholeText()
+	{
+		// La sala tiene los tres trozos de "abcab" pero no seguidos
+		this.add("xabcxbcaxcab");
+		this.add("zabcabz");
+		assertEquals(List.of("zabcabz"), this.searchAll("abcab", 10));
+	}
+
+	@Test
+	void testSearchAfterRename()
+	{
+		this.rename("Music-0", "Jazz Lounge");
+		this.rename("Chess-5", "music-chess");
+		assertEquals(List.of("Jazz Lounge"), this.searchAll("jazz", 10));
+		assertEquals(List.of("Jazz Lounge"), this.searchAll("LOUNGE", 10));
+		assertFalse(this.searchAll("music-0", 10).contains("Music-0"));
+		assertTrue(this.searchAll("music-", 500).contains("music-chess"));
+		assertFalse(this.searchAll("chess-5", 10).contains("Chess-5"));
+		assertEquals(this.scan("music"), this.searchAll("music", 25));
+		assertEquals(this.scan("ess"), this.searchAll("ess", 25));
+	}
+
+	@Test
+	void testSearchPages()
+	{
+		NCRoomIndex.Page<NCRoomDescription> first = this.index.search("music", "", 30);
+		assertEquals(30, first.items.size());
+		assertEquals(first.items.get(29).roomName, first.cursor);
+		// El tamaño 0 es el de por defecto y las páginas se acaban con el cursor vacío
+		assertEquals(NCRoomIndex.DEFAULT_PAGE_SIZE, this.index.search("music", "", 0).items.size());
+		NCRoomIndex.Page<NCRoomDescription> last = this.index.search("music", "", 1000);
+		assertEquals(100, last.items.size());
+		assertEquals("", last.cursor);
+	}
+
+	@Test
+	void testEmptyOrUnknownTextFindsNothing()
+	{
+		assertTrue(this.index.search("", "", 10).items.isEmpty());
+		assertTrue(this.index.search("qqq", "", 10).items.isEmpty());
+		assertEquals("", this.index.search("", "", 10).cursor);
+	}
+
+	// Lee todas las páginas de la búsqueda
+	private List<String> searchAll(String query, int limit)
+	{
+		List<String> names = new ArrayList<String>();
+		String cursor = "";
+		do
+		{
+			NCRoomIndex.Page<NCRoomDescription> page = this.index.search(query, cursor, limit);
+			assertTrue(page.items.size() <= limit);
+			for (NCRoomDescription room : page.items) names.add(room.roomName);
+			cursor = page.cursor;
+		}
+		while (!cursor.isEmpty());
+		return names;
+	}
+
+	// Lo que debe encontrar la búsqueda: todas las salas cuyo nombre contiene el texto, en orden de nombre
+	private List<String> scan(String query)
+	{
+		List<String> names = new ArrayList<String>();
+		String lower = query.toLowerCase(Locale.ROOT);
+		for (String name : this.rooms.keySet())
+		{
+			if (name.toLowerCase(Locale.ROOT).contains(lower)) names.add(name);
+		}
+		return names;
+	}
+
+	private void add(String name)
+	{
+		NCRoomManager room = new NCRoomIndexTests.TestRoom(name, 0);
+		this.rooms.put(name, room);
+		this.index.update(room);
+	}
+
+	private void rename(String from, String to)
+	{
+		NCRoomManager room = this.rooms.remove(from);
+		room.setRoomName(to);
+		this.rooms.put(to, room);
+		this.index.update(room);
+	}
+}